@@ -1,5 +1,8 @@
 package com.concur.babel;
 
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 
@@ -11,15 +14,38 @@ import java.lang.reflect.Type;
  */
 public abstract class ResponseServiceMethod<T> implements ServiceMethod {	
 	
+	private static final ClassValue<Type> RETURN_TYPES = new ClassValue<Type>() {
+		protected Type computeValue(Class<?> type) {
+			ParameterizedType paramType = (ParameterizedType)type.getGenericSuperclass();
+			return paramType.getActualTypeArguments()[0];
+		}
+	};
+	
 	/**
 	 * Method getReturnType is used to return the generic return type "at runtime" of this service
-	 * method.
+	 * method.  The type is resolved once per service method class.
 	 * 
 	 * @return Type - the return type of this service method.
 	 */
 	public Type getReturnType() {
-		ParameterizedType paramType = (ParameterizedType)getClass().getGenericSuperclass();
-		return paramType.getActualTypeArguments()[0];
+		return RETURN_TYPES.get(this.getClass());
 	}	
 	
+	/**
+	 * Method getReturnType is used to return the generic return type of a service method class,
+	 * without an instance of it.
+	 * 
+	 * @param serviceMethodClass - a generated service method class, it must extend ResponseServiceMethod.
+	 * @return Type - the return type of the service method.
+	 */
+	public static Type getReturnType(Class<?> serviceMethodClass) {
+
+		notNull("serviceMethodClass", serviceMethodClass);
+		preCondition(
+			ResponseServiceMethod.class.isAssignableFrom(serviceMethodClass),
+			"serviceMethodClass must extend ResponseServiceMethod");
+		return RETURN_TYPES.get(serviceMethodClass);
+
+	}
+	
 }
\ No newline at end of file
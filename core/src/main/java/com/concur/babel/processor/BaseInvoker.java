@@ -5,6 +5,7 @@ import java.lang.reflect.Method;
 import java.util.Map;
 
 import com.concur.babel.ServiceMethod;
+import com.concur.babel.protocol.CodecRegistry;
 import com.concur.babel.transport.server.BabelServerTransport;
 import com.concur.babel.transport.server.ServerTransport;
 
@@ -32,7 +33,11 @@ public abstract class BaseInvoker<I> implements ServiceInvoker<I> {
 	public BaseInvoker(I serviceImpl) {		
 		notNull("serviceImpl", serviceImpl);
 		this.serviceImpl = serviceImpl;
-		this.serviceMethodMap = this.initServiceMethods();	
+		this.serviceMethodMap = this.initServiceMethods();
+		// compile the codecs of the service methods now rather than on their first request
+		for (Class<? extends ServiceMethod> serviceMethodClass : this.serviceMethodMap.values()) {
+			CodecRegistry.register(serviceMethodClass);
+		}
 	}
 	
 	public I getService() { return this.serviceImpl; }
@@ -1,17 +1,29 @@
 package com.concur.babel.processor;
 
 import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.concur.babel.exception.BabelApplicationException;
 import com.concur.babel.exception.BabelException;
 import com.concur.babel.exception.builder.ExceptionBuilder;
 import com.concur.babel.exception.builder.GenericExceptionBuilder;
+import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.batch.BatchCall;
+import com.concur.babel.transport.batch.BatchCallResult;
+import com.concur.babel.transport.batch.BatchServiceMethod;
 import com.concur.babel.transport.server.BabelServerTransport;
+import com.concur.babel.transport.server.BatchItemServerTransport;
+import com.concur.babel.transport.server.ServerDrainingException;
 import com.concur.babel.transport.server.ServerTransport;
 import com.concur.babel.transport.server.handler.CallHandler;
 
@@ -22,9 +34,19 @@ import com.concur.babel.transport.server.handler.CallHandler;
  * registration of ExceptionBuilders that can be used to build the structure of information send
  * back to the caller of a service in the event of an exception being thrown from a service or any
  * where else if the context of a request/response of a service.
+ * 
+ * Requests to the reserved "_babel/batch" endpoint carry a batch of service method calls, each call
+ * is dispatched on its own, with its own CallHandler notifications, and the outcomes are answered
+ * together.
+ * 
+ * Before a host shuts down it drains the dispatcher: requests dispatched from then on are answered
+ * at once with a ServerDrainingException error, without calling the service, and the host waits for
+ * the requests in flight to complete.
  */
 public class ServiceRequestDispatcher {
 
+	public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
 	private Map<String, ServiceInvoker<?>> serviceMap = new HashMap<String, ServiceInvoker<?>>();
 	private Map<String, ServiceInvoker<?>> serviceClassMap = 
 		new HashMap<String, ServiceInvoker<?>>();
@@ -33,6 +55,11 @@ public class ServiceRequestDispatcher {
 		new HashMap<Class<? extends Throwable>, ExceptionBuilder>();
 	private List<CallHandler> callHandlers = new ArrayList<CallHandler>();
 	private ExceptionBuilder defaultExceptionBuilder;	
+	private Executor batchExecutor;
+	private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Object drainLock = new Object();
+	private volatile boolean draining = false;
 
 	public ServiceRequestDispatcher() {
 	
@@ -55,6 +82,28 @@ public class ServiceRequestDispatcher {
 		this.filterStackTraces = filter;
 	}
 	
+	/**
+	 * Method setBatchExecutor sets the executor the calls of a batch are dispatched on, so they run
+	 * in parallel.  By default the calls of a batch are dispatched one after the other on the thread
+	 * that received the batch.  Calls the executor rejects are dispatched on the receiving thread.
+	 * 
+	 * @param executor - the executor, null to dispatch calls on the receiving thread.
+	 */
+	public void setBatchExecutor(Executor executor) {
+		this.batchExecutor = executor;
+	}
+	
+	/**
+	 * Method setMaxBatchSize sets the largest number of calls a batch may contain, larger batches are
+	 * refused.  The default is 100.
+	 * 
+	 * @param maxBatchSize - the largest number of calls in a batch.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		preCondition(maxBatchSize >= 1, "maxBatchSize must be greater than or equal to ONE");
+		this.maxBatchSize = maxBatchSize;
+	}
+	
 	/**
 	 * Method register is used to register a service and make it available for processing requests.
 	 * 
@@ -114,7 +163,73 @@ public class ServiceRequestDispatcher {
 	public boolean dispatch(ServerTransport transport, Map<String, String> requestContext) {
 			
 		notNull("transport", transport);
-				
+		
+		// counted before the check, so a drain that starts meanwhile waits for this request
+		this.inFlight.incrementAndGet();
+		try {
+			if (this.draining) {
+				transport.write(
+					BabelServerTransport.Code.UNEXPECTED_ERROR,
+					ServerDrainingException.createServiceError("Server is shutting down, the request was not processed"));
+				return false;
+			}
+			return this.dispatchCall(transport, requestContext);
+		} finally {
+			if (this.inFlight.decrementAndGet() == 0 && this.draining) {
+				synchronized (this.drainLock) {
+					this.drainLock.notifyAll();
+				}
+			}
+		}
+		
+	}
+	
+	/**
+	 * Method drain stops the dispatcher from calling services, requests dispatched from now on are
+	 * answered with a ServerDrainingException error.  The requests in flight still complete, see
+	 * awaitDrained.
+	 */
+	public void drain() {
+		this.draining = true;
+	}
+	
+	/**
+	 * Method awaitDrained waits for the requests in flight to complete once the dispatcher drains.
+	 * 
+	 * @param timeout - how long to wait at most.
+	 * @param unit - the unit of the timeout.
+	 * 
+	 * @return true if no request is in flight anymore, false if the timeout elapsed first.
+	 * @throws InterruptedException
+	 */
+	public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+		
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (this.drainLock) {
+			while (this.inFlight.get() > 0) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					return false;
+				}
+				this.drainLock.wait(remaining);
+			}
+		}
+		return true;
+		
+	}
+	
+	/**
+	 * @return true once the dispatcher drains.
+	 */
+	public boolean isDraining() { return this.draining; }
+	
+	/**
+	 * @return the number of requests being dispatched.
+	 */
+	public int getInFlightCount() { return this.inFlight.get(); }
+	
+	private boolean dispatchCall(ServerTransport transport, Map<String, String> requestContext) {
+		
 		boolean success = true;
 		
 		long start = System.currentTimeMillis();
@@ -122,6 +237,9 @@ public class ServiceRequestDispatcher {
 		
 		try {			
 			String serviceName = transport.getServiceName().toLowerCase();	
+			if (BatchServiceMethod.SERVICE_NAME.equals(serviceName)) {
+				return this.dispatchBatch(transport, requestContext);
+			}
 			ServiceInvoker<?> invoker = this.serviceMap.get(serviceName);					
 			
 			if (invoker == null) {
@@ -223,6 +341,54 @@ public class ServiceRequestDispatcher {
 		
 	}
 	
+	/**
+	 * Method dispatchBatch dispatches the calls of a batch and answers with their outcomes in the
+	 * order of the calls.
+	 * 
+	 * @param transport - the transport the batch was received on.
+	 * @param requestContext - request context information, each call gets a copy of it.
+	 * 
+	 * @return true if every call of the batch was successful.
+	 */
+	protected boolean dispatchBatch(ServerTransport transport, Map<String, String> requestContext) {
+		
+		BatchItemServerTransport[] items;
+		try {
+			if (!BatchServiceMethod.isBatch(transport.getServiceName(), transport.getMethodName())) {
+				throw new RuntimeException("Unable to find batch method with name: " + transport.getMethodName());
+			}
+			if (!(transport instanceof BabelServerTransport)) {
+				throw new RuntimeException("Batch calls are not supported by " + transport.getClass().getName());
+			}
+			Protocol protocol = ((BabelServerTransport)transport).getProtocol();
+			List<BatchCall> calls = ((BatchServiceMethod)transport.read(BatchServiceMethod.class)).getCalls();
+			if (calls == null || calls.size() > this.maxBatchSize) {
+				throw new RuntimeException("A batch must contain at most " + this.maxBatchSize + " calls");
+			}
+			
+			items = new BatchItemServerTransport[calls.size()];
+			for (int i = 0; i < items.length; i++) {
+				items[i] = new BatchItemServerTransport(transport, calls.get(i), protocol);
+			}
+		} catch (Exception e) {
+			this.sendErrorResponse(e, transport, requestContext, 0);
+			return false;
+		}
+		
+		this.dispatchBatchItems(items, requestContext);
+		
+		boolean success = true;
+		List<BatchCallResult> results = new ArrayList<BatchCallResult>(items.length);
+		for (BatchItemServerTransport item : items) {
+			results.add(item.getResult());
+			success &= item.getResponseCode() == BabelServerTransport.Code.SUCCESS;
+		}
+		transport.write(BabelServerTransport.Code.SUCCESS, results);
+		
+		return success;
+		
+	}
+	
 	protected ExceptionBuilder findExceptionBuilder(Class<? extends Throwable> exceptionClass) {
 		
 		if (this.exceptionBuilderMap.containsKey(exceptionClass)) {
@@ -246,6 +412,69 @@ public class ServiceRequestDispatcher {
 		
 	}
 
+	private void dispatchBatchItems(
+		final BatchItemServerTransport[] items, 
+		final Map<String, String> requestContext) 
+	{
+		
+		if (this.batchExecutor == null || items.length < 2) {
+			for (BatchItemServerTransport item : items) {
+				this.dispatchBatchItem(item, requestContext);
+			}
+			return;
+		}
+		
+		final CountDownLatch done = new CountDownLatch(items.length);
+		for (final BatchItemServerTransport item : items) {
+			Runnable task = new Runnable() {
+				public void run() {
+					try {
+						dispatchBatchItem(item, requestContext);
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			try {
+				this.batchExecutor.execute(task);
+			} catch (RejectedExecutionException e) {
+				task.run();
+			}
+		}
+		
+		// the items must not be read before every call has answered, so an interrupt is deferred
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		
+	}
+	
+	private void dispatchBatchItem(BatchItemServerTransport item, Map<String, String> requestContext) {
+		
+		Map<String, String> itemContext = requestContext == null ? 
+			new HashMap<String, String>() : 
+			new HashMap<String, String>(requestContext);
+		try {
+			if (BatchServiceMethod.isBatch(item.getServiceName(), item.getMethodName())) {
+				throw new RuntimeException("Batches can not be nested");
+			}
+			// the calls of a batch that was taken are made even if the dispatcher drains meanwhile
+			this.dispatchCall(item, itemContext);
+		} catch (RuntimeException e) {
+			this.sendErrorResponse(e, item, itemContext, 0);
+		}
+		
+	}
+
     private void sendErrorResponse(
         Exception exception,
         ServerTransport serverTransport,
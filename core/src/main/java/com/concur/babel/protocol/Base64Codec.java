@@ -0,0 +1,93 @@
+package com.concur.babel.protocol;
+
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Base64Codec encodes bytes to and decodes them from the text of a JSON string in base64, as
+ * Base64.encodeBase64String and Base64.decodeBase64 of commons codec do, straight between the bytes
+ * and the chars of the string.  Decoding is lenient in commons codec, text that is not plain padded
+ * base64, with whitespace or without its padding for example, is left to it.
+ */
+final class Base64Codec {
+
+	private static final char[] ALPHABET =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	private static final byte[] DECODE = new byte[128];
+
+	static {
+		Arrays.fill(DECODE, (byte)-1);
+		for (int i = 0; i < ALPHABET.length; i++) {
+			DECODE[ALPHABET[i]] = (byte)i;
+		}
+		// commons codec decodes the URL safe alphabet as well
+		DECODE['-'] = 62;
+		DECODE['_'] = 63;
+	}
+
+	private Base64Codec() {}
+
+	static String encode(byte[] bytes) {
+
+		char[] chars = new char[(bytes.length + 2) / 3 * 4];
+		int position = 0;
+		int i = 0;
+		for (int end = bytes.length - bytes.length % 3; i < end; i += 3) {
+			int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+			chars[position++] = ALPHABET[bits >>> 18];
+			chars[position++] = ALPHABET[(bits >>> 12) & 0x3f];
+			chars[position++] = ALPHABET[(bits >>> 6) & 0x3f];
+			chars[position++] = ALPHABET[bits & 0x3f];
+		}
+
+		int remaining = bytes.length - i;
+		if (remaining > 0) {
+			int bits = (bytes[i] & 0xff) << 16 | (remaining == 2 ? (bytes[i + 1] & 0xff) << 8 : 0);
+			chars[position++] = ALPHABET[bits >>> 18];
+			chars[position++] = ALPHABET[(bits >>> 12) & 0x3f];
+			chars[position++] = remaining == 2 ? ALPHABET[(bits >>> 6) & 0x3f] : '=';
+			chars[position++] = '=';
+		}
+		return new String(chars);
+
+	}
+
+	static byte[] decode(String text) {
+
+		int length = text.length();
+		if (length % 4 != 0) {
+			return Base64.decodeBase64(text);
+		}
+
+		int padding = length > 0 && text.charAt(length - 1) == '=' ? (text.charAt(length - 2) == '=' ? 2 : 1) : 0;
+		byte[] bytes = new byte[length / 4 * 3 - padding];
+		int position = 0;
+		for (int i = 0; i < length; i += 4) {
+			int a = value(text.charAt(i));
+			int b = value(text.charAt(i + 1));
+			boolean last = i + 4 == length;
+			int c = last && padding == 2 ? 0 : value(text.charAt(i + 2));
+			int d = last && padding > 0 ? 0 : value(text.charAt(i + 3));
+			if ((a | b | c | d) < 0) {
+				return Base64.decodeBase64(text);
+			}
+
+			int bits = a << 18 | b << 12 | c << 6 | d;
+			bytes[position++] = (byte)(bits >> 16);
+			if (position < bytes.length) {
+				bytes[position++] = (byte)(bits >> 8);
+			}
+			if (position < bytes.length) {
+				bytes[position++] = (byte)bits;
+			}
+		}
+		return bytes;
+
+	}
+
+	private static int value(char c) {
+		return c < 128 ? DECODE[c] : -1;
+	}
+
+}
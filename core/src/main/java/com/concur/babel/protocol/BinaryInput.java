@@ -0,0 +1,183 @@
+package com.concur.babel.protocol;
+
+import java.nio.charset.Charset;
+
+/**
+ * BinaryInput reads a BinaryProtocol message from a byte array.  The payload of a length delimited
+ * value is read with its length as the limit, so a reader never runs past the value it reads and
+ * what it does not read is skipped.  Malformed input fails with a RuntimeException, as malformed
+ * JSON does.
+ */
+final class BinaryInput {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final byte[] buffer;
+	private int position;
+	private int limit;
+
+	BinaryInput(byte[] buffer, int offset, int length) {
+
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = offset + length;
+
+	}
+
+	boolean hasRemaining() { return this.position < this.limit; }
+
+	int remaining() { return this.limit - this.position; }
+
+	int readByte() {
+
+		if (this.position >= this.limit) {
+			throw malformed("the message ends early");
+		}
+		return this.buffer[this.position++] & 0xFF;
+
+	}
+
+	long readVarint() {
+
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = this.readByte();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw malformed("a varint is longer than ten bytes");
+
+	}
+
+	long readSignedVarint() {
+
+		long value = this.readVarint();
+		return (value >>> 1) ^ -(value & 1);
+
+	}
+
+	int readFixed32() {
+
+		this.require(4);
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			value |= (this.buffer[this.position++] & 0xFF) << (8 * i);
+		}
+		return value;
+
+	}
+
+	long readFixed64() {
+
+		this.require(8);
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value |= (long)(this.buffer[this.position++] & 0xFF) << (8 * i);
+		}
+		return value;
+
+	}
+
+	/**
+	 * @return the length of a length delimited value, checked against what is left.
+	 */
+	int readLength() {
+
+		long length = this.readVarint();
+		if (length < 0 || length > this.limit - this.position) {
+			throw malformed("a length of " + length + " runs past the end of the message");
+		}
+		return (int)length;
+
+	}
+
+	String readString() {
+
+		int length = this.readLength();
+		String value = new String(this.buffer, this.position, length, UTF8);
+		this.position += length;
+		return value;
+
+	}
+
+	byte[] readBytes() {
+		return this.readRaw(this.readLength());
+	}
+
+	/**
+	 * Method readRaw reads bytes that are not length delimited, up to the limit.
+	 */
+	byte[] readRaw(int length) {
+
+		this.require(length);
+		byte[] value = new byte[length];
+		System.arraycopy(this.buffer, this.position, value, 0, length);
+		this.position += length;
+		return value;
+
+	}
+
+	/**
+	 * Method pushLimit limits reading to the payload of a length delimited value.
+	 *
+	 * @return the limit to pass to popLimit once the payload was read.
+	 */
+	int pushLimit(int length) {
+
+		int limit = this.limit;
+		this.limit = this.position + length;
+		return limit;
+
+	}
+
+	/**
+	 * Method popLimit skips what is left of the payload and restores the limit before it.
+	 */
+	void popLimit(int limit) {
+
+		this.position = this.limit;
+		this.limit = limit;
+
+	}
+
+	/**
+	 * Method skip skips a value of a field the reader does not know, or no longer expects.
+	 */
+	void skip(int wireType) {
+
+		switch (wireType) {
+			case WireType.VARINT:
+				this.readVarint();
+				break;
+			case WireType.FIXED64:
+				this.require(8);
+				this.position += 8;
+				break;
+			case WireType.FIXED32:
+				this.require(4);
+				this.position += 4;
+				break;
+			case WireType.NULL:
+				break;
+			default:
+				int length = this.readLength();
+				this.position += length;
+		}
+
+	}
+
+	private void require(int bytes) {
+
+		if (this.limit - this.position < bytes) {
+			throw malformed("the message ends early");
+		}
+
+	}
+
+	private static RuntimeException malformed(String reason) {
+		return new RuntimeException("Unable to parse babel binary message, " + reason);
+	}
+
+}
@@ -0,0 +1,192 @@
+package com.concur.babel.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * BinaryOutput is the growable buffer a BinaryProtocol message is encoded into.  The length of a
+ * length delimited value is only known once its payload was written, so one byte is reserved for it
+ * and the payload is moved up in the rare case the length needs more.
+ */
+final class BinaryOutput {
+
+	private byte[] buffer;
+	private int position = 0;
+
+	BinaryOutput(int initialCapacity) {
+		this.buffer = new byte[Math.max(16, initialCapacity)];
+	}
+
+	void writeByte(int b) {
+
+		this.ensure(1);
+		this.buffer[this.position++] = (byte)b;
+
+	}
+
+	/**
+	 * Method writeVarint writes an unsigned value in groups of seven bits, the low ones first.
+	 */
+	void writeVarint(long value) {
+
+		this.ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			this.buffer[this.position++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.buffer[this.position++] = (byte)value;
+
+	}
+
+	/**
+	 * Method writeSignedVarint zigzag encodes a signed value, so small negative numbers stay short.
+	 */
+	void writeSignedVarint(long value) {
+		this.writeVarint((value << 1) ^ (value >> 63));
+	}
+
+	void writeFixed32(int value) {
+
+		this.ensure(4);
+		for (int i = 0; i < 4; i++) {
+			this.buffer[this.position++] = (byte)(value >>> (8 * i));
+		}
+
+	}
+
+	void writeFixed64(long value) {
+
+		this.ensure(8);
+		for (int i = 0; i < 8; i++) {
+			this.buffer[this.position++] = (byte)(value >>> (8 * i));
+		}
+
+	}
+
+	/**
+	 * Method writeBytes writes a length delimited byte array.
+	 */
+	void writeBytes(byte[] bytes) {
+
+		this.writeVarint(bytes.length);
+		this.writeRaw(bytes);
+
+	}
+
+	/**
+	 * Method writeRaw writes bytes without their length, the payload of a length delimited value.
+	 */
+	void writeRaw(byte[] bytes) {
+
+		this.ensure(bytes.length);
+		System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+		this.position += bytes.length;
+
+	}
+
+	/**
+	 * Method writeString writes a length delimited string in UTF-8, encoded straight into the buffer.
+	 */
+	void writeString(String value) {
+
+		int length = value.length();
+		int mark = this.beginLength(length);
+		this.ensure(length * 3);
+		byte[] buffer = this.buffer;
+		int position = this.position;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer[position++] = (byte)c;
+			} else if (c < 0x800) {
+				buffer[position++] = (byte)(0xC0 | (c >> 6));
+				buffer[position++] = (byte)(0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer[position++] = (byte)(0xF0 | (codePoint >> 18));
+				buffer[position++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[position++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[position++] = (byte)(0x80 | (codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				// a lone surrogate is not valid UTF-8, it is replaced as String.getBytes does
+				buffer[position++] = '?';
+			} else {
+				buffer[position++] = (byte)(0xE0 | (c >> 12));
+				buffer[position++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+				buffer[position++] = (byte)(0x80 | (c & 0x3F));
+			}
+		}
+		this.position = position;
+		this.endLength(mark);
+
+	}
+
+	/**
+	 * Method beginLength reserves room for the length of a length delimited value.
+	 *
+	 * @param expected - a guess of the length, the room reserved fits it.
+	 * @return the mark to pass to endLength once the payload was written.
+	 */
+	int beginLength(int expected) {
+
+		int size = varintSize(expected);
+		this.ensure(size);
+		int mark = this.position;
+		this.position += size;
+		return (mark << 3) | size;
+
+	}
+
+	/**
+	 * Method endLength writes the length of the payload written since beginLength in front of it.
+	 */
+	void endLength(int mark) {
+
+		int start = mark >>> 3;
+		int reserved = mark & 7;
+		int length = this.position - start - reserved;
+		int size = varintSize(length);
+		if (size != reserved) {
+			this.ensure(size - reserved);
+			System.arraycopy(this.buffer, start + reserved, this.buffer, start + size, length);
+			this.position += size - reserved;
+		}
+		int position = start;
+		long value = length;
+		while ((value & ~0x7FL) != 0) {
+			this.buffer[position++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.buffer[position] = (byte)value;
+
+	}
+
+	int size() { return this.position; }
+
+	byte[] toByteArray() { return Arrays.copyOf(this.buffer, this.position); }
+
+	void writeTo(OutputStream out) throws IOException {
+		out.write(this.buffer, 0, this.position);
+	}
+
+	private void ensure(int bytes) {
+
+		if (this.position + bytes > this.buffer.length) {
+			this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.position + bytes));
+		}
+
+	}
+
+	private static int varintSize(long value) {
+
+		int size = 1;
+		while ((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+
+	}
+
+}
@@ -0,0 +1,623 @@
+package com.concur.babel.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.concur.babel.model.BabelEnum;
+import com.concur.babel.protocol.ClassLayout.FieldLayout;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * BinaryProtocol is a compact binary implementation of the babel protocol interface, for services
+ * and clients that do not need to read their messages.  Numbers are varints, a long no longer goes
+ * on the wire as a quoted string, byte arrays are written raw instead of in Base64, dates are their
+ * epoch milliseconds and BabelEnums their getValue.  An object is a list of fields, each tagged with
+ * a hash of its @SerializedName, so a reader skips the fields it does not know and leaves out the
+ * ones it was not sent, as with JSON, and the order of fields does not matter.
+ *
+ * The messages are bytes.  The String, Reader and Writer methods of the protocol carry
+ * one byte per char, ISO-8859-1, so the protocol needs a transport that does not split messages on
+ * line breaks: HTTP or binary socket frames.  The byte array and stream methods avoid the chars, the
+ * transports that read and write bodies as bytes use them through ProtocolStreams.
+ */
+public class BinaryProtocol implements StreamProtocol {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	/** what readValue returns for a value it skipped, which is not null to the reader */
+	private static final Object SKIPPED = new Object();
+
+	private static final Map<Class<?>, Map<Object, Object>> ENUM_CONSTANTS =
+		new ConcurrentHashMap<Class<?>, Map<Object, Object>>();
+	private static final Map<Enum<?>, String> ENUM_NAMES = new ConcurrentHashMap<Enum<?>, String>();
+
+	public <T> T read(String message, Class<T> classOfT) {
+		return this.read(message, (Type)classOfT);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T read(String message, Type typeOfT) {
+		return message == null ? null : (T)this.read(message.getBytes(ISO_8859_1), typeOfT);
+	}
+
+	public <T> T read(Reader reader, Class<T> classOfT) {
+		return this.read(reader, (Type)classOfT);
+	}
+
+	public <T> T read(Reader reader, Type typeOfT) {
+
+		StringBuilder message = new StringBuilder();
+		char[] chars = new char[4096];
+		try {
+			for (int read = reader.read(chars); read != -1; read = reader.read(chars)) {
+				message.append(chars, 0, read);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read babel binary message", e);
+		}
+		return this.read(message.toString(), typeOfT);
+
+	}
+
+	public <T> T read(byte[] message, Class<T> classOfT) {
+		return this.read(message, (Type)classOfT);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T read(byte[] message, Type typeOfT) {
+
+		if (message == null || message.length == 0) {
+			return null;
+		}
+		BinaryInput in = new BinaryInput(message, 0, message.length);
+		Object value = this.readValue(in, in.readByte(), typeOfT);
+		return value == SKIPPED ? null : (T)value;
+
+	}
+
+	public <T> T read(InputStream in, Class<T> classOfT) {
+		return this.read(in, (Type)classOfT);
+	}
+
+	public <T> T read(InputStream in, Type typeOfT) {
+
+		ByteArrayOutputStream message = new ByteArrayOutputStream();
+		byte[] bytes = new byte[4096];
+		try {
+			for (int read = in.read(bytes); read != -1; read = in.read(bytes)) {
+				message.write(bytes, 0, read);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read babel binary message", e);
+		}
+		return this.read(message.toByteArray(), typeOfT);
+
+	}
+
+	public String write(Object src) {
+		return new String(this.writeBytes(src), ISO_8859_1);
+	}
+
+	public void write(Object src, Writer writer) {
+
+		try {
+			writer.write(this.write(src));
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write babel binary message", e);
+		}
+
+	}
+
+	public byte[] writeBytes(Object src) {
+		return this.encode(src).toByteArray();
+	}
+
+	public void write(Object src, OutputStream out) {
+
+		try {
+			this.encode(src).writeTo(out);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write babel binary message", e);
+		}
+
+	}
+
+	public Charset getCharset() { return ISO_8859_1; }
+
+	private BinaryOutput encode(Object src) {
+
+		BinaryOutput out = new BinaryOutput(256);
+		int wireType = wireType(src);
+		out.writeByte(wireType);
+		this.writeValue(out, src, wireType);
+		return out;
+
+	}
+
+	private static int wireType(Object value) {
+
+		if (value == null) {
+			return WireType.NULL;
+		}
+		if (value instanceof Integer || value instanceof Long || value instanceof Boolean || value instanceof Short ||
+			value instanceof Byte || value instanceof Character || value instanceof Date || value instanceof BabelEnum)
+		{
+			return WireType.VARINT;
+		}
+		if (value instanceof String || value instanceof byte[] || value instanceof BigDecimal ||
+			value instanceof BigInteger || value instanceof Enum)
+		{
+			return WireType.BYTES;
+		}
+		if (value instanceof Double) {
+			return WireType.FIXED64;
+		}
+		if (value instanceof Float) {
+			return WireType.FIXED32;
+		}
+		if (value instanceof Collection || value.getClass().isArray()) {
+			return WireType.LIST;
+		}
+		if (value instanceof Map) {
+			return WireType.MAP;
+		}
+		return WireType.MESSAGE;
+
+	}
+
+	private void writeValue(BinaryOutput out, Object value, int wireType) {
+
+		switch (wireType) {
+			case WireType.NULL:
+				break;
+			case WireType.VARINT:
+				out.writeSignedVarint(toLong(value));
+				break;
+			case WireType.FIXED64:
+				out.writeFixed64(Double.doubleToLongBits((Double)value));
+				break;
+			case WireType.FIXED32:
+				out.writeFixed32(Float.floatToIntBits((Float)value));
+				break;
+			case WireType.BYTES:
+				this.writeBytes(out, value);
+				break;
+			case WireType.LIST:
+				this.writeList(out, value);
+				break;
+			case WireType.MAP:
+				this.writeMap(out, (Map<?, ?>)value);
+				break;
+			default:
+				this.writeMessage(out, value);
+		}
+
+	}
+
+	private static long toLong(Object value) {
+
+		if (value instanceof Number) {
+			return ((Number)value).longValue();
+		}
+		if (value instanceof Boolean) {
+			return ((Boolean)value).booleanValue() ? 1 : 0;
+		}
+		if (value instanceof Character) {
+			return ((Character)value).charValue();
+		}
+		if (value instanceof Date) {
+			return ((Date)value).getTime();
+		}
+		return ((BabelEnum)value).getValue();
+
+	}
+
+	private void writeBytes(BinaryOutput out, Object value) {
+
+		if (value instanceof String) {
+			out.writeString((String)value);
+		} else if (value instanceof byte[]) {
+			out.writeBytes((byte[])value);
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal = (BigDecimal)value;
+			int mark = out.beginLength(16);
+			out.writeSignedVarint(decimal.scale());
+			out.writeRaw(decimal.unscaledValue().toByteArray());
+			out.endLength(mark);
+		} else if (value instanceof BigInteger) {
+			out.writeBytes(((BigInteger)value).toByteArray());
+		} else {
+			out.writeString(enumName((Enum<?>)value));
+		}
+
+	}
+
+	private void writeList(BinaryOutput out, Object list) {
+
+		int mark = out.beginLength(16);
+		if (list instanceof Collection) {
+			Collection<?> collection = (Collection<?>)list;
+			out.writeVarint(collection.size());
+			for (Object element : collection) {
+				this.writeElement(out, element);
+			}
+		} else {
+			int length = Array.getLength(list);
+			out.writeVarint(length);
+			for (int i = 0; i < length; i++) {
+				this.writeElement(out, Array.get(list, i));
+			}
+		}
+		out.endLength(mark);
+
+	}
+
+	private void writeMap(BinaryOutput out, Map<?, ?> map) {
+
+		int mark = out.beginLength(16);
+		out.writeVarint(map.size());
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			this.writeElement(out, entry.getKey());
+			this.writeElement(out, entry.getValue());
+		}
+		out.endLength(mark);
+
+	}
+
+	private void writeElement(BinaryOutput out, Object element) {
+
+		int wireType = wireType(element);
+		out.writeByte(wireType);
+		this.writeValue(out, element, wireType);
+
+	}
+
+	private void writeMessage(BinaryOutput out, Object message) {
+
+		int mark = out.beginLength(64);
+		for (FieldLayout field : ClassLayout.of(message.getClass()).getFields()) {
+			Object value;
+			try {
+				value = field.field.get(message);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+			if (value == null) {
+				// a field left out is null to the reader, as with JSON
+				continue;
+			}
+			int wireType = wireType(value);
+			out.writeVarint(((long)field.tag << 3) | wireType);
+			this.writeValue(out, value, wireType);
+		}
+		out.endLength(mark);
+
+	}
+
+	/**
+	 * Method readValue reads a value of a declared type, a value of a wire type the type can not be
+	 * read from, such as a field whose type changed, is skipped and SKIPPED returned.
+	 */
+	private Object readValue(BinaryInput in, int wireType, Type type) {
+
+		if (wireType == WireType.NULL) {
+			return null;
+		}
+		Class<?> raw = GenericTypes.rawType(type);
+		if (raw.isPrimitive()) {
+			raw = wrapper(raw);
+		}
+
+		if (wireType == WireType.VARINT) {
+			if (raw == Integer.class) {
+				return (int)in.readSignedVarint();
+			}
+			if (raw == Long.class) {
+				return in.readSignedVarint();
+			}
+			if (raw == Boolean.class) {
+				return in.readSignedVarint() != 0;
+			}
+			if (raw == Date.class) {
+				return new Date(in.readSignedVarint());
+			}
+			if (BabelEnum.class.isAssignableFrom(raw) && raw.isEnum()) {
+				return enumConstant(raw, (int)in.readSignedVarint());
+			}
+			if (raw == Short.class) {
+				return (short)in.readSignedVarint();
+			}
+			if (raw == Byte.class) {
+				return (byte)in.readSignedVarint();
+			}
+			if (raw == Character.class) {
+				return (char)in.readSignedVarint();
+			}
+			if (raw == Object.class || raw == Number.class) {
+				return in.readSignedVarint();
+			}
+		} else if (wireType == WireType.BYTES) {
+			if (raw == String.class || raw == Object.class) {
+				return in.readString();
+			}
+			if (raw == byte[].class) {
+				return in.readBytes();
+			}
+			if (raw == BigDecimal.class) {
+				int limit = in.pushLimit(in.readLength());
+				int scale = (int)in.readSignedVarint();
+				BigInteger unscaled = new BigInteger(in.readRaw(in.remaining()));
+				in.popLimit(limit);
+				return new BigDecimal(unscaled, scale);
+			}
+			if (raw == BigInteger.class) {
+				return new BigInteger(in.readBytes());
+			}
+			if (raw.isEnum() && !BabelEnum.class.isAssignableFrom(raw)) {
+				return enumConstant(raw, in.readString());
+			}
+		} else if (wireType == WireType.FIXED64 || wireType == WireType.FIXED32) {
+			double value = wireType == WireType.FIXED64 ?
+				Double.longBitsToDouble(in.readFixed64()) :
+				Float.intBitsToFloat(in.readFixed32());
+			if (raw == Double.class || raw == Object.class || raw == Number.class) {
+				return value;
+			}
+			if (raw == Float.class) {
+				return (float)value;
+			}
+			return SKIPPED;
+		} else if (wireType == WireType.LIST) {
+			if (raw.isArray() && raw != byte[].class) {
+				return this.readArray(in, type);
+			}
+			if (Collection.class.isAssignableFrom(raw) || raw == Object.class) {
+				return this.readCollection(in, raw, type);
+			}
+		} else if (wireType == WireType.MAP) {
+			if (Map.class.isAssignableFrom(raw) || raw == Object.class) {
+				return this.readMap(in, raw, type);
+			}
+		} else if (wireType == WireType.MESSAGE) {
+			if (raw != Object.class && !raw.isInterface() && !isValueType(raw)) {
+				return this.readMessage(in, type);
+			}
+		}
+
+		in.skip(wireType);
+		return SKIPPED;
+
+	}
+
+	private Object readMessage(BinaryInput in, Type type) {
+
+		int limit = in.pushLimit(in.readLength());
+		ClassLayout layout = ClassLayout.of(type);
+		Object message = layout.newInstance();
+		int expected = 0;
+		while (in.hasRemaining()) {
+			long header = in.readVarint();
+			int wireType = (int)(header & 7);
+			FieldLayout field = layout.field((int)(header >>> 3), expected);
+			if (field == null) {
+				in.skip(wireType);
+				continue;
+			}
+			expected = field.index + 1;
+			Object value = this.readValue(in, wireType, field.type);
+			if (value == SKIPPED || (value == null && field.field.getType().isPrimitive())) {
+				continue;
+			}
+			try {
+				field.field.set(message, value);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		in.popLimit(limit);
+		return message;
+
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object readCollection(BinaryInput in, Class<?> raw, Type type) {
+
+		int limit = in.pushLimit(in.readLength());
+		int size = this.readCount(in);
+		Collection<Object> collection = (Collection<Object>)newCollection(raw, size);
+		Type elementType = GenericTypes.elementType(type);
+		for (int i = 0; i < size; i++) {
+			Object element = this.readValue(in, in.readByte(), elementType);
+			collection.add(element == SKIPPED ? null : element);
+		}
+		in.popLimit(limit);
+		return collection;
+
+	}
+
+	private Object readArray(BinaryInput in, Type type) {
+
+		int limit = in.pushLimit(in.readLength());
+		int size = this.readCount(in);
+		Type elementType = GenericTypes.elementType(type);
+		Class<?> rawElementType = GenericTypes.rawType(elementType);
+		Object array = Array.newInstance(rawElementType, size);
+		for (int i = 0; i < size; i++) {
+			Object element = this.readValue(in, in.readByte(), elementType);
+			if (element != SKIPPED && (element != null || !rawElementType.isPrimitive())) {
+				Array.set(array, i, element);
+			}
+		}
+		in.popLimit(limit);
+		return array;
+
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object readMap(BinaryInput in, Class<?> raw, Type type) {
+
+		int limit = in.pushLimit(in.readLength());
+		int size = this.readCount(in);
+		Map<Object, Object> map = (Map<Object, Object>)newMap(raw);
+		Type keyType = GenericTypes.typeArgument(type, Map.class, 0);
+		Type valueType = GenericTypes.typeArgument(type, Map.class, 1);
+		for (int i = 0; i < size; i++) {
+			Object key = this.readValue(in, in.readByte(), keyType);
+			Object value = this.readValue(in, in.readByte(), valueType);
+			map.put(key == SKIPPED ? null : key, value == SKIPPED ? null : value);
+		}
+		in.popLimit(limit);
+		return map;
+
+	}
+
+	private int readCount(BinaryInput in) {
+
+		long count = in.readVarint();
+		// every element takes at least its wire type byte, a larger count is not allocated for
+		if (count < 0 || count > in.remaining()) {
+			throw new RuntimeException("Unable to parse babel binary message, invalid element count " + count);
+		}
+		return (int)count;
+
+	}
+
+	private static Collection<?> newCollection(Class<?> raw, int size) {
+
+		if (raw.isInterface() || raw == Object.class) {
+			if (SortedSet.class.isAssignableFrom(raw)) {
+				return new TreeSet<Object>();
+			}
+			if (Set.class.isAssignableFrom(raw)) {
+				return new LinkedHashSet<Object>();
+			}
+			if (Queue.class.isAssignableFrom(raw)) {
+				return new ArrayDeque<Object>();
+			}
+			return new ArrayList<Object>(size);
+		}
+		return (Collection<?>)newInstance(raw);
+
+	}
+
+	private static Map<?, ?> newMap(Class<?> raw) {
+
+		if (raw.isInterface() || raw == Object.class) {
+			return SortedMap.class.isAssignableFrom(raw) ? new TreeMap<Object, Object>() : new LinkedHashMap<Object, Object>();
+		}
+		return (Map<?, ?>)newInstance(raw);
+
+	}
+
+	private static Object newInstance(Class<?> raw) {
+
+		try {
+			return raw.newInstance();
+		} catch (Exception e) {
+			throw new RuntimeException("Unable to create an instance of " + raw.getName(), e);
+		}
+
+	}
+
+	private static boolean isValueType(Class<?> raw) {
+		return raw == String.class || Number.class.isAssignableFrom(raw) || raw == Boolean.class ||
+			raw == Character.class || Date.class.isAssignableFrom(raw) || raw.isEnum() || raw.isArray() ||
+			Collection.class.isAssignableFrom(raw) || Map.class.isAssignableFrom(raw);
+	}
+
+	private static Class<?> wrapper(Class<?> primitive) {
+
+		if (primitive == int.class) {
+			return Integer.class;
+		}
+		if (primitive == long.class) {
+			return Long.class;
+		}
+		if (primitive == boolean.class) {
+			return Boolean.class;
+		}
+		if (primitive == double.class) {
+			return Double.class;
+		}
+		if (primitive == float.class) {
+			return Float.class;
+		}
+		if (primitive == short.class) {
+			return Short.class;
+		}
+		if (primitive == byte.class) {
+			return Byte.class;
+		}
+		return Character.class;
+
+	}
+
+	/**
+	 * @return the name an enum constant is written with, its @SerializedName as Gson does.
+	 */
+	private static String enumName(Enum<?> constant) {
+
+		String name = ENUM_NAMES.get(constant);
+		if (name == null) {
+			name = constant.name();
+			try {
+				SerializedName serializedName =
+					constant.getDeclaringClass().getField(constant.name()).getAnnotation(SerializedName.class);
+				if (serializedName != null) {
+					name = serializedName.value();
+				}
+			} catch (NoSuchFieldException e) {
+				// an enum constant is always a public field of its enum
+			}
+			ENUM_NAMES.put(constant, name);
+		}
+		return name;
+
+	}
+
+	/**
+	 * @return the constant of an enum with a value or name, null for one this version does not have.
+	 */
+	private static Object enumConstant(Class<?> enumClass, Object key) {
+
+		Map<Object, Object> constants = ENUM_CONSTANTS.get(enumClass);
+		if (constants == null) {
+			constants = new HashMap<Object, Object>();
+			for (Object constant : enumClass.getEnumConstants()) {
+				if (constant instanceof BabelEnum) {
+					constants.put(((BabelEnum)constant).getValue(), constant);
+				} else {
+					constants.put(enumName((Enum<?>)constant), constant);
+				}
+			}
+			ENUM_CONSTANTS.put(enumClass, constants);
+		}
+		return constants.get(key);
+
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.concur.babel.protocol;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * ClassCodec is what CodecCompiler compiles for a class: the fields Gson binds, in the order Gson
+ * binds them, each with method handles that get and set it, and a handle to the no-arg constructor.
+ * The handles are looked up once, so reading and writing an instance does no reflection.  A class
+ * with a field the handles can not set, such as a final one, or with two fields of the same name is
+ * not compiled and left to Gson.
+ */
+final class ClassCodec {
+
+	private static final MethodType GET = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SET = MethodType.methodType(void.class, Object.class, Object.class);
+	private static final MethodType CONSTRUCT = MethodType.methodType(Object.class);
+
+	final Class<?> type;
+	final FieldCodec[] fields;
+	final MethodHandle constructor;
+	final boolean compiled;
+
+	private ClassCodec(Class<?> type, FieldCodec[] fields, MethodHandle constructor, boolean compiled) {
+
+		this.type = type;
+		this.fields = fields;
+		this.constructor = constructor;
+		this.compiled = compiled;
+
+	}
+
+	/**
+	 * @return true if Gson binds the fields of the class reflectively, rather than with one of its own
+	 * adapters, so a compiled codec can take over.
+	 */
+	static boolean isCompilable(Class<?> type) {
+
+		if (type.isPrimitive() || type.isArray() || type.isInterface() || type.isAnonymousClass() ||
+			type.isLocalClass() || Modifier.isAbstract(type.getModifiers()) || Enum.class.isAssignableFrom(type) ||
+			Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type))
+		{
+			return false;
+		}
+		String name = type.getName();
+		return !name.startsWith("java.") && !name.startsWith("javax.") && !name.startsWith("com.google.gson.");
+
+	}
+
+	/**
+	 * @return true if Gson leaves the field out, as its default Excluder does: a static, transient or
+	 * synthetic field, or one whose type is an anonymous or local class.
+	 */
+	static boolean isExcluded(Field field) {
+
+		int modifiers = field.getModifiers();
+		Class<?> type = field.getType();
+		return Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic() ||
+			(!Enum.class.isAssignableFrom(type) && (type.isAnonymousClass() || type.isLocalClass()));
+
+	}
+
+	static ClassCodec compile(Class<?> type) {
+
+		if (!isCompilable(type)) {
+			return new ClassCodec(type, new FieldCodec[0], null, false);
+		}
+
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			List<FieldCodec> fields = new ArrayList<FieldCodec>();
+			Set<String> names = new HashSet<String>();
+			for (Class<?> raw = type; raw != Object.class; raw = raw.getSuperclass()) {
+				for (Field field : raw.getDeclaredFields()) {
+					if (isExcluded(field)) {
+						continue;
+					}
+					if (Modifier.isFinal(field.getModifiers())) {
+						return new ClassCodec(type, new FieldCodec[0], null, false);
+					}
+					SerializedName serializedName = field.getAnnotation(SerializedName.class);
+					String name = serializedName == null ? field.getName() : serializedName.value();
+					if (!names.add(name)) {
+						// Gson fails on the class, it is left to fail the same way
+						return new ClassCodec(type, new FieldCodec[0], null, false);
+					}
+
+					field.setAccessible(true);
+					MethodHandle getter = lookup.unreflectGetter(field);
+					MethodHandle setter = lookup.unreflectSetter(field);
+					Class<?> fieldType = field.getType();
+					fields.add(new FieldCodec(
+						field,
+						name,
+						fields.size(),
+						getter.asType(GET),
+						setter.asType(SET),
+						getter.asType(MethodType.methodType(fieldType.isPrimitive() ? fieldType : Object.class, Object.class)),
+						setter.asType(MethodType.methodType(void.class, Object.class, fieldType.isPrimitive() ? fieldType : Object.class))));
+				}
+			}
+
+			MethodHandle constructor = null;
+			try {
+				Constructor<?> noArgs = type.getDeclaredConstructor();
+				noArgs.setAccessible(true);
+				constructor = lookup.unreflectConstructor(noArgs).asType(CONSTRUCT);
+			} catch (NoSuchMethodException e) {
+				// Gson allocates the instance without a constructor
+			}
+
+			return new ClassCodec(type, fields.toArray(new FieldCodec[fields.size()]), constructor, true);
+		} catch (IllegalAccessException e) {
+			return new ClassCodec(type, new FieldCodec[0], null, false);
+		} catch (SecurityException e) {
+			return new ClassCodec(type, new FieldCodec[0], null, false);
+		}
+
+	}
+
+	/**
+	 * FieldCodec is a field of a compiled class.  get and set take and return the value boxed, the
+	 * exact handles take and return a primitive field as the primitive.
+	 */
+	static final class FieldCodec {
+
+		final Field field;
+		final String name;
+		final int index;
+		final MethodHandle get;
+		final MethodHandle set;
+		final MethodHandle getExact;
+		final MethodHandle setExact;
+
+		FieldCodec(
+			Field field,
+			String name,
+			int index,
+			MethodHandle get,
+			MethodHandle set,
+			MethodHandle getExact,
+			MethodHandle setExact)
+		{
+
+			this.field = field;
+			this.name = name;
+			this.index = index;
+			this.get = get;
+			this.set = set;
+			this.getExact = getExact;
+			this.setExact = setExact;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.concur.babel.protocol;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * ClassLayout describes how the BinaryProtocol reads and writes the fields of a class, the same
+ * fields Gson does: every field of the class and its super classes that is not static or
+ * transient.  The tag of a field is a hash of its name, the @SerializedName the generator puts on
+ * it or else the name of the Java field, so a field keeps its tag when fields are added, removed or
+ * reordered around it.  Two fields of a class whose tags collide are refused, one of them must be
+ * renamed.  Layouts are looked up once per type and kept.
+ */
+final class ClassLayout {
+
+	/** the tag is shifted left by the three bits of the wire type, 21 bits keep a header in four bytes */
+	static final int TAG_BITS = 21;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Map<Type, ClassLayout> LAYOUTS = new ConcurrentHashMap<Type, ClassLayout>();
+
+	private final Class<?> rawType;
+	private final FieldLayout[] fields;
+	private final Map<Integer, FieldLayout> fieldsByTag = new HashMap<Integer, FieldLayout>();
+	private final Constructor<?> constructor;
+
+	private ClassLayout(Type type) {
+
+		this.rawType = GenericTypes.rawType(type);
+		List<FieldLayout> fields = new ArrayList<FieldLayout>();
+		Map<TypeVariable<?>, Type> variables = GenericTypes.variables(type);
+		for (Class<?> c = this.rawType; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+					continue;
+				}
+				field.setAccessible(true);
+				FieldLayout layout = new FieldLayout(
+					field,
+					GenericTypes.resolve(field.getGenericType(), variables),
+					fields.size());
+				FieldLayout collision = this.fieldsByTag.put(layout.tag, layout);
+				if (collision != null) {
+					throw new IllegalArgumentException(this.rawType.getName() + " fields " + collision.name + " and " +
+						layout.name + " have the same babel binary tag, rename one of them with @SerializedName");
+				}
+				fields.add(layout);
+			}
+			variables = GenericTypes.variables(GenericTypes.resolve(c.getGenericSuperclass(), variables));
+		}
+		this.fields = fields.toArray(new FieldLayout[fields.size()]);
+
+		Constructor<?> constructor = null;
+		try {
+			constructor = this.rawType.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			// generated service methods have no default constructor, they are allocated as Gson does
+		}
+		this.constructor = constructor;
+
+	}
+
+	static ClassLayout of(Type type) {
+
+		ClassLayout layout = LAYOUTS.get(type);
+		if (layout == null) {
+			layout = new ClassLayout(type);
+			LAYOUTS.put(type, layout);
+		}
+		return layout;
+
+	}
+
+	/**
+	 * Method tag hashes the name of a field, FNV-1a over its UTF-8 bytes folded into TAG_BITS.
+	 */
+	static int tag(String name) {
+
+		int hash = 0x811C9DC5;
+		for (byte b : name.getBytes(UTF8)) {
+			hash ^= b & 0xFF;
+			hash *= 0x01000193;
+		}
+		int tag = (hash ^ (hash >>> TAG_BITS)) & ((1 << TAG_BITS) - 1);
+		return tag == 0 ? 1 : tag;
+
+	}
+
+	FieldLayout[] getFields() { return this.fields; }
+
+	/**
+	 * @param tag - the tag read.
+	 * @param expected - the index of the field expected next, fields are read in the order they are
+	 * written unless the writer has a different version of the class.
+	 * @return the field, null for a field this version of the class does not have.
+	 */
+	FieldLayout field(int tag, int expected) {
+
+		if (expected < this.fields.length && this.fields[expected].tag == tag) {
+			return this.fields[expected];
+		}
+		return this.fieldsByTag.get(tag);
+
+	}
+
+	Object newInstance() {
+
+		if (this.constructor == null) {
+			return GsonInternals.allocate(this.rawType);
+		}
+		try {
+			return this.constructor.newInstance();
+		} catch (Exception e) {
+			throw new RuntimeException("Unable to create an instance of " + this.rawType.getName(), e);
+		}
+
+	}
+
+	static final class FieldLayout {
+
+		final Field field;
+		final String name;
+		final int tag;
+		final Type type;
+		final int index;
+
+		private FieldLayout(Field field, Type type, int index) {
+
+			SerializedName serializedName = field.getAnnotation(SerializedName.class);
+			this.field = field;
+			this.name = serializedName != null ? serializedName.value() : field.getName();
+			this.tag = tag(this.name);
+			this.type = type;
+			this.index = index;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,102 @@
+package com.concur.babel.protocol;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.concur.babel.ResponseServiceMethod;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * CodecCompiler compiles the classes Gson would bind reflectively, such as the generated service
+ * methods and the models they carry, into codecs that get and set fields with method handles, and
+ * is the factory a Gson creates adapters for them from.  A class is compiled once per class loader
+ * and the codec shared by every protocol; a class that can not be compiled is left to Gson.
+ *
+ * Classes are compiled the first time Gson asks for an adapter of them, or ahead of that with
+ * compile, which the CodecRegistry calls for the service methods an invoker registers.
+ */
+public final class CodecCompiler implements TypeAdapterFactory {
+
+	private static final ClassValue<ClassCodec> CODECS = new ClassValue<ClassCodec>() {
+		protected ClassCodec computeValue(Class<?> type) {
+			return ClassCodec.compile(type);
+		}
+	};
+
+	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+
+		Class<? super T> raw = type.getRawType();
+		if (!ClassCodec.isCompilable(raw)) {
+			return null;
+		}
+
+		ClassCodec codec = CODECS.get(raw);
+		return codec.compiled ? new CompiledAdapter<T>(gson, type, codec) : null;
+
+	}
+
+	/**
+	 * Method compile compiles a type and the types it refers to: the types of its fields, its type
+	 * arguments and, for a ResponseServiceMethod, its return type.
+	 *
+	 * @param type - the type to compile.
+	 */
+	public static void compile(Type type) {
+		compile(type, new HashSet<Type>());
+	}
+
+	/**
+	 * @return true if the class is read and written with a compiled codec rather than reflectively
+	 * by Gson.
+	 */
+	public static boolean isCompiled(Class<?> type) {
+		return ClassCodec.isCompilable(type) && CODECS.get(type).compiled;
+	}
+
+	private static void compile(Type type, Set<Type> visited) {
+
+		if (!visited.add(type)) {
+			return;
+		}
+
+		if (type instanceof ParameterizedType) {
+			for (Type argument : ((ParameterizedType)type).getActualTypeArguments()) {
+				compile(argument, visited);
+			}
+		} else if (type instanceof GenericArrayType) {
+			compile(((GenericArrayType)type).getGenericComponentType(), visited);
+		} else if (type instanceof WildcardType) {
+			for (Type bound : ((WildcardType)type).getUpperBounds()) {
+				compile(bound, visited);
+			}
+		} else if (type instanceof Class && ((Class<?>)type).isArray()) {
+			compile(((Class<?>)type).getComponentType(), visited);
+		}
+
+		Class<?> raw = GenericTypes.rawType(type);
+		if (ResponseServiceMethod.class.isAssignableFrom(raw)) {
+			compile(GenericTypes.resolve(
+				ResponseServiceMethod.class.getTypeParameters()[0],
+				GenericTypes.variables(type, ResponseServiceMethod.class)), visited);
+		}
+		if (!ClassCodec.isCompilable(raw)) {
+			return;
+		}
+
+		ClassCodec codec = CODECS.get(raw);
+		for (ClassCodec.FieldCodec field : codec.fields) {
+			compile(GenericTypes.resolve(
+				field.field.getGenericType(),
+				GenericTypes.variables(type, field.field.getDeclaringClass())), visited);
+		}
+
+	}
+
+}
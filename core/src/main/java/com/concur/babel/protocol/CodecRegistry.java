@@ -0,0 +1,93 @@
+package com.concur.babel.protocol;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.concur.babel.ResponseServiceMethod;
+import com.concur.babel.ServiceMethod;
+
+/**
+ * CodecRegistry keeps what the protocols of a process share: a JSONProtocol, which is thread safe
+ * and used by every client and servlet created with the default protocol, so the adapters Gson
+ * creates for a type are created once, and the service methods registered with an invoker, whose
+ * codecs are compiled and return types resolved when they are registered.
+ *
+ * A server can warm up a protocol with warmUp once its services are registered, so the adapters of
+ * the service methods and their return types are created before the first request rather than on it.
+ */
+public final class CodecRegistry {
+
+	private static final JSONProtocol JSON_PROTOCOL = new JSONProtocol();
+	private static final Set<Class<? extends ServiceMethod>> SERVICE_METHODS =
+		Collections.newSetFromMap(new ConcurrentHashMap<Class<? extends ServiceMethod>, Boolean>());
+
+	private CodecRegistry() {}
+
+	/**
+	 * @return the JSONProtocol shared by the clients and servlets created with the default protocol.
+	 */
+	public static JSONProtocol getJSONProtocol() { return JSON_PROTOCOL; }
+
+	/**
+	 * Method register compiles the codecs of a service method class, and of the types it refers to,
+	 * and resolves its return type.  A class is only compiled the first time it is registered.
+	 *
+	 * @param serviceMethodClass - a generated service method class.
+	 */
+	public static void register(Class<? extends ServiceMethod> serviceMethodClass) {
+
+		notNull("serviceMethodClass", serviceMethodClass);
+
+		if (!SERVICE_METHODS.add(serviceMethodClass)) {
+			return;
+		}
+		CodecCompiler.compile(serviceMethodClass);
+		if (ResponseServiceMethod.class.isAssignableFrom(serviceMethodClass)) {
+			ResponseServiceMethod.getReturnType(serviceMethodClass);
+		}
+
+	}
+
+	/**
+	 * @return the service method classes registered so far.
+	 */
+	public static Set<Class<? extends ServiceMethod>> getServiceMethods() {
+		return Collections.unmodifiableSet(SERVICE_METHODS);
+	}
+
+	/**
+	 * Method warmUp creates the adapters of the shared JSONProtocol for the registered service
+	 * methods and their return types.
+	 */
+	public static void warmUp() {
+		warmUp(JSON_PROTOCOL);
+	}
+
+	/**
+	 * Method warmUp creates the adapters a protocol reads and writes the registered service methods
+	 * and their return types with.  Only a JSONProtocol keeps adapters, other protocols are left as
+	 * they are.
+	 *
+	 * @param protocol - the protocol to warm up.
+	 */
+	public static void warmUp(Protocol protocol) {
+
+		notNull("protocol", protocol);
+
+		if (!(protocol instanceof JSONProtocol)) {
+			return;
+		}
+		JSONProtocol json = (JSONProtocol)protocol;
+		for (Class<? extends ServiceMethod> serviceMethodClass : SERVICE_METHODS) {
+			json.warmUp(serviceMethodClass);
+			if (ResponseServiceMethod.class.isAssignableFrom(serviceMethodClass)) {
+				json.warmUp(ResponseServiceMethod.getReturnType(serviceMethodClass));
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,416 @@
+package com.concur.babel.protocol;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.concur.babel.protocol.ClassCodec.FieldCodec;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * CompiledAdapter reads and writes a class with a ClassCodec, bound to the adapters of a Gson for
+ * the types of its fields.  It reads and writes what the reflective adapter of Gson does, byte for
+ * byte: the fields in the same order, nulls left to the JsonWriter, and a value of a field written
+ * with the adapter of its runtime type when Gson would.  int, boolean and String fields Gson reads
+ * and writes with its own adapters are read and written without boxing, and the fields of a message
+ * are expected in the order they are written, so a name is only looked up when they are not.
+ */
+final class CompiledAdapter<T> extends TypeAdapter<T> {
+
+	/** the adapters Gson has of its own for the types read and written without boxing */
+	private static final Gson DEFAULTS = new Gson();
+	private static final TypeAdapter<Integer> INTEGER = DEFAULTS.getAdapter(Integer.class);
+	private static final TypeAdapter<Boolean> BOOLEAN = DEFAULTS.getAdapter(Boolean.class);
+	private static final TypeAdapter<String> STRING = DEFAULTS.getAdapter(String.class);
+
+	private final ClassCodec codec;
+	private final BoundField[] fields;
+	private final Map<String, BoundField> fieldsByName;
+
+	CompiledAdapter(Gson gson, TypeToken<T> type, ClassCodec codec) {
+
+		this.codec = codec;
+
+		this.fields = new BoundField[codec.fields.length];
+		this.fieldsByName = new HashMap<String, BoundField>();
+		int i = 0;
+		Map<TypeVariable<?>, Type> variables = GenericTypes.variables(type.getType());
+		for (Class<?> raw = type.getRawType(); raw != Object.class; raw = raw.getSuperclass()) {
+			for (; i < codec.fields.length && codec.fields[i].field.getDeclaringClass() == raw; i++) {
+				Type fieldType = GenericTypes.resolve(codec.fields[i].field.getGenericType(), variables);
+				this.fields[i] = bind(gson, codec.fields[i], fieldType);
+				this.fieldsByName.put(this.fields[i].name, this.fields[i]);
+			}
+			variables = GenericTypes.variables(GenericTypes.resolve(raw.getGenericSuperclass(), variables));
+		}
+
+	}
+
+	@Override
+	public void write(JsonWriter out, T value) throws IOException {
+
+		if (value == null) {
+			out.nullValue();
+			return;
+		}
+
+		out.beginObject();
+		for (BoundField field : this.fields) {
+			field.write(out, value);
+		}
+		out.endObject();
+
+	}
+
+	@Override
+	public T read(JsonReader in) throws IOException {
+
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+
+		T instance = this.construct();
+		try {
+			in.beginObject();
+			int next = 0;
+			while (in.hasNext()) {
+				String name = in.nextName();
+				BoundField field = next < this.fields.length && this.fields[next].name.equals(name) ?
+					this.fields[next] :
+					this.fieldsByName.get(name);
+				if (field == null) {
+					in.skipValue();
+				} else {
+					field.read(in, instance);
+					next = field.index + 1;
+				}
+			}
+		} catch (IllegalStateException e) {
+			throw new JsonSyntaxException(e);
+		}
+		in.endObject();
+		return instance;
+
+	}
+
+	@SuppressWarnings("unchecked")
+	private T construct() {
+
+		if (this.codec.constructor == null) {
+			return (T)GsonInternals.allocate(this.codec.type);
+		}
+		try {
+			return (T)this.codec.constructor.invokeExact();
+		} catch (Throwable t) {
+			throw new RuntimeException("Failed to invoke the constructor of " + this.codec.type + " with no args", t);
+		}
+
+	}
+
+	private static BoundField bind(Gson gson, FieldCodec field, Type fieldType) {
+
+		TypeAdapter<?> adapter = gson.getAdapter(TypeToken.get(fieldType));
+		Class<?> type = field.field.getType();
+		// a primitive is written with the adapter of its boxed type, which a protocol may replace
+		if (type == int.class && adapter == INTEGER && gson.getAdapter(Integer.class) == INTEGER) {
+			return new IntField(field);
+		}
+		if (type == boolean.class && adapter == BOOLEAN && gson.getAdapter(Boolean.class) == BOOLEAN) {
+			return new BooleanField(field);
+		}
+		if (fieldType == String.class && adapter == STRING) {
+			return new StringField(field);
+		}
+		return new ObjectField(gson, field, fieldType, adapter);
+
+	}
+
+	/**
+	 * @return true if the adapter binds fields, as the reflective adapter of Gson or a compiled one.
+	 */
+	private static boolean isReflective(TypeAdapter<?> adapter) {
+		return GsonInternals.isReflective(adapter) || adapter instanceof CompiledAdapter;
+	}
+
+	private static RuntimeException rethrow(Throwable t) {
+
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException)t;
+		}
+		if (t instanceof Error) {
+			throw (Error)t;
+		}
+		throw new RuntimeException(t);
+
+	}
+
+	private abstract static class BoundField {
+
+		final String name;
+		final int index;
+
+		BoundField(FieldCodec field) {
+
+			this.name = field.name;
+			this.index = field.index;
+
+		}
+
+		abstract void write(JsonWriter out, Object instance) throws IOException;
+
+		abstract void read(JsonReader in, Object instance) throws IOException;
+
+	}
+
+	private static final class IntField extends BoundField {
+
+		private final MethodHandle get;
+		private final MethodHandle set;
+
+		IntField(FieldCodec field) {
+
+			super(field);
+			this.get = field.getExact;
+			this.set = field.setExact;
+
+		}
+
+		void write(JsonWriter out, Object instance) throws IOException {
+
+			int value;
+			try {
+				value = (int)this.get.invokeExact(instance);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+			out.name(this.name);
+			out.value(value);
+
+		}
+
+		void read(JsonReader in, Object instance) throws IOException {
+
+			if (in.peek() == JsonToken.NULL) {
+				// null is not set on a primitive
+				in.nextNull();
+				return;
+			}
+			int value;
+			try {
+				value = in.nextInt();
+			} catch (NumberFormatException e) {
+				throw new JsonSyntaxException(e);
+			}
+			try {
+				this.set.invokeExact(instance, value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+
+		}
+
+	}
+
+	private static final class BooleanField extends BoundField {
+
+		private final MethodHandle get;
+		private final MethodHandle set;
+
+		BooleanField(FieldCodec field) {
+
+			super(field);
+			this.get = field.getExact;
+			this.set = field.setExact;
+
+		}
+
+		void write(JsonWriter out, Object instance) throws IOException {
+
+			boolean value;
+			try {
+				value = (boolean)this.get.invokeExact(instance);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+			out.name(this.name);
+			out.value(value);
+
+		}
+
+		void read(JsonReader in, Object instance) throws IOException {
+
+			JsonToken token = in.peek();
+			if (token == JsonToken.NULL) {
+				in.nextNull();
+				return;
+			}
+			boolean value = token == JsonToken.STRING ? Boolean.parseBoolean(in.nextString()) : in.nextBoolean();
+			try {
+				this.set.invokeExact(instance, value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+
+		}
+
+	}
+
+	private static final class StringField extends BoundField {
+
+		private final MethodHandle get;
+		private final MethodHandle set;
+
+		StringField(FieldCodec field) {
+
+			super(field);
+			this.get = field.getExact;
+			this.set = field.setExact;
+
+		}
+
+		void write(JsonWriter out, Object instance) throws IOException {
+
+			Object value;
+			try {
+				value = (Object)this.get.invokeExact(instance);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+			out.name(this.name);
+			if (value == null) {
+				// the writer drops the name as well, unless it serializes nulls
+				out.nullValue();
+			} else {
+				out.value((String)value);
+			}
+
+		}
+
+		void read(JsonReader in, Object instance) throws IOException {
+
+			JsonToken token = in.peek();
+			String value;
+			if (token == JsonToken.NULL) {
+				in.nextNull();
+				value = null;
+			} else if (token == JsonToken.BOOLEAN) {
+				value = Boolean.toString(in.nextBoolean());
+			} else {
+				value = in.nextString();
+			}
+			try {
+				this.set.invokeExact(instance, (Object)value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+
+		}
+
+	}
+
+	/**
+	 * ObjectField reads and writes a field with the adapter Gson has for its type, or, as Gson does,
+	 * with the adapter of the runtime type of its value when that type is more specific.  The adapter
+	 * of the last runtime type is kept, so a field holding the same subclass looks it up once.
+	 */
+	private static final class ObjectField extends BoundField {
+
+		private final Gson gson;
+		private final Type type;
+		private final TypeAdapter<Object> adapter;
+		private final boolean primitive;
+		private final boolean runtimeTyped;
+		private final MethodHandle get;
+		private final MethodHandle set;
+		private volatile RuntimeAdapter runtimeAdapter;
+
+		@SuppressWarnings("unchecked")
+		ObjectField(Gson gson, FieldCodec field, Type type, TypeAdapter<?> adapter) {
+
+			super(field);
+			this.gson = gson;
+			this.type = type;
+			this.adapter = (TypeAdapter<Object>)adapter;
+			this.primitive = field.field.getType().isPrimitive();
+			this.runtimeTyped = type == Object.class || type instanceof TypeVariable || type instanceof Class;
+			this.get = field.get;
+			this.set = field.set;
+
+		}
+
+		void write(JsonWriter out, Object instance) throws IOException {
+
+			Object value;
+			try {
+				value = (Object)this.get.invokeExact(instance);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+			out.name(this.name);
+			TypeAdapter<Object> adapter = this.adapter;
+			if (value != null && this.runtimeTyped && value.getClass() != this.type) {
+				adapter = this.getRuntimeAdapter(value.getClass());
+			}
+			adapter.write(out, value);
+
+		}
+
+		void read(JsonReader in, Object instance) throws IOException {
+
+			Object value = this.adapter.read(in);
+			if (value == null && this.primitive) {
+				return;
+			}
+			try {
+				this.set.invokeExact(instance, value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+
+		}
+
+		@SuppressWarnings("unchecked")
+		private TypeAdapter<Object> getRuntimeAdapter(Class<?> runtimeType) {
+
+			RuntimeAdapter cached = this.runtimeAdapter;
+			if (cached != null && cached.type == runtimeType) {
+				return cached.adapter;
+			}
+
+			TypeAdapter<Object> adapter = (TypeAdapter<Object>)this.gson.getAdapter(runtimeType);
+			if (isReflective(adapter) && !isReflective(this.adapter)) {
+				// a declared adapter that is not reflective wins over a reflective runtime one
+				adapter = this.adapter;
+			}
+			this.runtimeAdapter = new RuntimeAdapter(runtimeType, adapter);
+			return adapter;
+
+		}
+
+	}
+
+	private static final class RuntimeAdapter {
+
+		final Class<?> type;
+		final TypeAdapter<Object> adapter;
+
+		RuntimeAdapter(Class<?> type, TypeAdapter<Object> adapter) {
+
+			this.type = type;
+			this.adapter = adapter;
+
+		}
+
+	}
+
+}
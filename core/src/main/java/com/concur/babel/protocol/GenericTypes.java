@@ -0,0 +1,198 @@
+package com.concur.babel.protocol;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * GenericTypes resolves the declared types of fields and elements against the type arguments they
+ * were declared with, so a field of type T in a Page&lt;Tweet&gt; reads a Tweet.  A type variable no
+ * argument is known for is read as the erasure of its bound.
+ */
+final class GenericTypes {
+
+	private GenericTypes() {
+	}
+
+	static Class<?> rawType(Type type) {
+
+		if (type instanceof Class) {
+			return (Class<?>)type;
+		}
+		if (type instanceof ParameterizedType) {
+			return (Class<?>)((ParameterizedType)type).getRawType();
+		}
+		if (type instanceof GenericArrayType) {
+			return Array.newInstance(rawType(((GenericArrayType)type).getGenericComponentType()), 0).getClass();
+		}
+		if (type instanceof WildcardType) {
+			return rawType(((WildcardType)type).getUpperBounds()[0]);
+		}
+		if (type instanceof TypeVariable) {
+			return rawType(((TypeVariable<?>)type).getBounds()[0]);
+		}
+		return Object.class;
+
+	}
+
+	/**
+	 * @return the type arguments of a parameterized type by the variables they stand for.
+	 */
+	static Map<TypeVariable<?>, Type> variables(Type type) {
+
+		if (!(type instanceof ParameterizedType)) {
+			return Collections.emptyMap();
+		}
+		TypeVariable<?>[] parameters = rawType(type).getTypeParameters();
+		Type[] arguments = ((ParameterizedType)type).getActualTypeArguments();
+		Map<TypeVariable<?>, Type> variables = new HashMap<TypeVariable<?>, Type>();
+		for (int i = 0; i < parameters.length && i < arguments.length; i++) {
+			variables.put(parameters[i], arguments[i]);
+		}
+		return variables;
+
+	}
+
+	/**
+	 * @return the type arguments of a super class of a type, as the type and the classes between
+	 * them bind them, so a member declared in the super class can be resolved.
+	 */
+	static Map<TypeVariable<?>, Type> variables(Type type, Class<?> superClass) {
+
+		Map<TypeVariable<?>, Type> variables = variables(type);
+		for (Class<?> c = rawType(type); c != null && c != superClass; c = c.getSuperclass()) {
+			variables = variables(resolve(c.getGenericSuperclass(), variables));
+		}
+		return variables;
+
+	}
+
+	static Type resolve(Type type, Map<TypeVariable<?>, Type> variables) {
+
+		if (type instanceof TypeVariable) {
+			Type argument = variables.get(type);
+			// an unknown variable is erased to its bound, which may refer to the variable itself
+			return argument != null ? argument : rawType(type);
+		}
+		if (type instanceof WildcardType) {
+			return resolve(((WildcardType)type).getUpperBounds()[0], variables);
+		}
+		if (type instanceof GenericArrayType) {
+			Type component = resolve(((GenericArrayType)type).getGenericComponentType(), variables);
+			return component instanceof Class ? Array.newInstance((Class<?>)component, 0).getClass() : new ArrayType(component);
+		}
+		if (type instanceof ParameterizedType) {
+			ParameterizedType parameterized = (ParameterizedType)type;
+			Type[] arguments = parameterized.getActualTypeArguments().clone();
+			for (int i = 0; i < arguments.length; i++) {
+				arguments[i] = resolve(arguments[i], variables);
+			}
+			return new Parameterized(rawType(parameterized), parameterized.getOwnerType(), arguments);
+		}
+		return type;
+
+	}
+
+	/**
+	 * @return the type of the elements of a collection or array type.
+	 */
+	static Type elementType(Type type) {
+
+		if (type instanceof GenericArrayType) {
+			return ((GenericArrayType)type).getGenericComponentType();
+		}
+		Class<?> raw = rawType(type);
+		if (raw.isArray()) {
+			return raw.getComponentType();
+		}
+		return typeArgument(type, Collection.class, 0);
+
+	}
+
+	/**
+	 * @return the type argument at an index of a parameterized type, Object for a raw one.
+	 */
+	static Type typeArgument(Type type, Class<?> expected, int index) {
+
+		if (type instanceof ParameterizedType) {
+			Type[] arguments = ((ParameterizedType)type).getActualTypeArguments();
+			if (index < arguments.length && expected.isAssignableFrom(rawType(type))) {
+				return arguments[index];
+			}
+		}
+		return Object.class;
+
+	}
+
+	private static final class Parameterized implements ParameterizedType {
+
+		private final Class<?> rawType;
+		private final Type ownerType;
+		private final Type[] arguments;
+
+		Parameterized(Class<?> rawType, Type ownerType, Type[] arguments) {
+
+			this.rawType = rawType;
+			this.ownerType = ownerType;
+			this.arguments = arguments;
+
+		}
+
+		public Type[] getActualTypeArguments() { return this.arguments.clone(); }
+
+		public Type getRawType() { return this.rawType; }
+
+		public Type getOwnerType() { return this.ownerType; }
+
+		@Override
+		public boolean equals(Object other) {
+
+			if (!(other instanceof ParameterizedType)) {
+				return false;
+			}
+			ParameterizedType that = (ParameterizedType)other;
+			return this.rawType.equals(that.getRawType()) &&
+				(this.ownerType == null ? that.getOwnerType() == null : this.ownerType.equals(that.getOwnerType())) &&
+				Arrays.equals(this.arguments, that.getActualTypeArguments());
+
+		}
+
+		@Override
+		public int hashCode() {
+			// the same hash as the JDK implementation, so either may be the key of a cache
+			return Arrays.hashCode(this.arguments) ^ (this.ownerType == null ? 0 : this.ownerType.hashCode()) ^
+				this.rawType.hashCode();
+		}
+
+	}
+
+	private static final class ArrayType implements GenericArrayType {
+
+		private final Type componentType;
+
+		ArrayType(Type componentType) {
+			this.componentType = componentType;
+		}
+
+		public Type getGenericComponentType() { return this.componentType; }
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof GenericArrayType &&
+				this.componentType.equals(((GenericArrayType)other).getGenericComponentType());
+		}
+
+		@Override
+		public int hashCode() { return this.componentType.hashCode(); }
+
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.concur.babel.protocol;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.internal.UnsafeAllocator;
+import com.google.gson.internal.bind.ReflectiveTypeAdapterFactory;
+
+/**
+ * GsonInternals is the one place the protocols use classes of Gson that are not part of its public
+ * API, for what that API has no way to do: creating an instance of a class that has no no-arg
+ * constructor, such as a generated service method, and telling the reflective adapter of Gson apart
+ * from the others.  It is written against Gson 2.2.4, GsonInternalsTest fails if a newer Gson moves
+ * or changes what it uses.
+ */
+final class GsonInternals {
+
+	private static final UnsafeAllocator ALLOCATOR = UnsafeAllocator.create();
+
+	private GsonInternals() {
+	}
+
+	/**
+	 * Method allocate creates an instance of a class without calling any constructor, as Gson does
+	 * for a class that has no no-arg constructor.  The fields are left to their default values.
+	 *
+	 * @param type - the class to create an instance of.
+	 * @return the instance.
+	 */
+	static <T> T allocate(Class<T> type) {
+
+		try {
+			return ALLOCATOR.newInstance(type);
+		} catch (Exception e) {
+			throw new RuntimeException("Unable to create an instance of " + type.getName(), e);
+		}
+
+	}
+
+	/**
+	 * @return true if the adapter is the one Gson binds the fields of a class with reflectively.
+	 */
+	static boolean isReflective(TypeAdapter<?> adapter) {
+		return adapter instanceof ReflectiveTypeAdapterFactory.Adapter;
+	}
+
+}
@@ -0,0 +1,205 @@
+package com.concur.babel.protocol;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * IsoDateFormat prints and parses dates in the babel date format, 2013-09-01T00:00:00.000-05:00 or
+ * 2013-09-01T00:00:00.000Z, as ISODateTimeFormat.dateTime() of Joda does in the default time zone,
+ * without the objects Joda creates for every date.  The fields are computed from the instant with
+ * the proleptic Gregorian calendar of Joda, and the offset is the offset of the Joda default time
+ * zone, so a date is printed exactly as Joda prints it.  A date outside of the years 0 to 9999, or
+ * text in any other shape Joda accepts, is left to Joda.
+ */
+final class IsoDateFormat {
+
+	private static final long MILLIS_PER_DAY = 86400000L;
+	private static final DateTimeFormatter JODA = ISODateTimeFormat.dateTime();
+
+	/** the first and last instants of the years 0 to 9999 in UTC, a day of offset on either side */
+	private static final long MIN_MILLIS = daysFromCivil(0, 1, 2) * MILLIS_PER_DAY;
+	private static final long MAX_MILLIS = daysFromCivil(9999, 12, 30) * MILLIS_PER_DAY;
+
+	private IsoDateFormat() {}
+
+	static String print(long millis) {
+
+		if (millis < MIN_MILLIS || millis > MAX_MILLIS) {
+			return JODA.print(millis);
+		}
+
+		int offset = DateTimeZone.getDefault().getOffset(millis);
+		long local = millis + offset;
+		long days = floorDiv(local, MILLIS_PER_DAY);
+		int millisOfDay = (int)(local - days * MILLIS_PER_DAY);
+
+		char[] chars = new char[36];
+		int position = printDate(chars, days);
+		chars[position++] = 'T';
+		position = put2(chars, position, millisOfDay / 3600000);
+		chars[position++] = ':';
+		position = put2(chars, position, millisOfDay / 60000 % 60);
+		chars[position++] = ':';
+		position = put2(chars, position, millisOfDay / 1000 % 60);
+		chars[position++] = '.';
+		position = put3(chars, position, millisOfDay % 1000);
+		position = printOffset(chars, position, offset);
+		return new String(chars, 0, position);
+
+	}
+
+	/**
+	 * Method parse parses a date printed by print, or any other text Joda parses.
+	 *
+	 * @throws IllegalArgumentException if the text is not a date.
+	 */
+	static long parse(String text) {
+
+		int length = text.length();
+		if ((length == 24 && text.charAt(23) == 'Z') || (length == 29 && isOffsetSign(text.charAt(23)))) {
+			int year = digits(text, 0, 4);
+			int month = digits(text, 5, 2);
+			int day = digits(text, 8, 2);
+			int hour = digits(text, 11, 2);
+			int minute = digits(text, 14, 2);
+			int second = digits(text, 17, 2);
+			int millis = digits(text, 20, 3);
+			int offsetHours = length == 24 ? 0 : digits(text, 24, 2);
+			int offsetMinutes = length == 24 ? 0 : digits(text, 27, 2);
+			if (text.charAt(4) == '-' && text.charAt(7) == '-' && text.charAt(10) == 'T' && text.charAt(13) == ':' &&
+				text.charAt(16) == ':' && text.charAt(19) == '.' && (length == 24 || text.charAt(26) == ':') &&
+				year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month) &&
+				hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0 && second <= 59 &&
+				millis >= 0 && offsetHours >= 0 && offsetHours <= 23 && offsetMinutes >= 0 && offsetMinutes <= 59)
+			{
+				int offset = (offsetHours * 60 + offsetMinutes) * 60000;
+				if (length == 29 && text.charAt(23) == '-') {
+					offset = -offset;
+				}
+				return daysFromCivil(year, month, day) * MILLIS_PER_DAY +
+					((hour * 60 + minute) * 60 + second) * 1000L + millis - offset;
+			}
+		}
+		return JODA.parseMillis(text);
+
+	}
+
+	private static int printDate(char[] chars, long days) {
+
+		// civil from days, Howard Hinnant's algorithm for the proleptic Gregorian calendar
+		long z = days + 719468;
+		long era = floorDiv(z, 146097);
+		int dayOfEra = (int)(z - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+		int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+		int year = (int)(yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+		int position = put2(chars, 0, year / 100);
+		position = put2(chars, position, year % 100);
+		chars[position++] = '-';
+		position = put2(chars, position, month);
+		chars[position++] = '-';
+		return put2(chars, position, day);
+
+	}
+
+	/**
+	 * Method printOffset prints an offset as the "Z" or "+HH:mm" of Joda, with seconds and millis
+	 * when an offset of a historic time zone has them.
+	 */
+	private static int printOffset(char[] chars, int position, int offset) {
+
+		if (offset == 0) {
+			chars[position++] = 'Z';
+			return position;
+		}
+
+		chars[position++] = offset < 0 ? '-' : '+';
+		int remaining = Math.abs(offset);
+		position = put2(chars, position, remaining / 3600000);
+		remaining %= 3600000;
+		chars[position++] = ':';
+		position = put2(chars, position, remaining / 60000);
+		remaining %= 60000;
+		if (remaining == 0) {
+			return position;
+		}
+		chars[position++] = ':';
+		position = put2(chars, position, remaining / 1000);
+		remaining %= 1000;
+		if (remaining == 0) {
+			return position;
+		}
+		chars[position++] = '.';
+		return put3(chars, position, remaining);
+
+	}
+
+	private static long daysFromCivil(int year, int month, int day) {
+
+		int y = month <= 2 ? year - 1 : year;
+		long era = floorDiv(y, 400);
+		int yearOfEra = (int)(y - era * 400);
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+
+	}
+
+	private static int daysInMonth(int year, int month) {
+
+		if (month == 2) {
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		}
+		return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+
+	}
+
+	/**
+	 * @return the number in count digits of the text from start, or -1 if one of them is not a digit.
+	 */
+	private static int digits(String text, int start, int count) {
+
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+
+	}
+
+	private static boolean isOffsetSign(char c) {
+		return c == '+' || c == '-';
+	}
+
+	private static int put2(char[] chars, int position, int value) {
+
+		chars[position] = (char)('0' + value / 10);
+		chars[position + 1] = (char)('0' + value % 10);
+		return position + 2;
+
+	}
+
+	private static int put3(char[] chars, int position, int value) {
+
+		chars[position] = (char)('0' + value / 100);
+		return put2(chars, position + 1, value % 100);
+
+	}
+
+	private static long floorDiv(long x, long y) {
+
+		long quotient = x / y;
+		return (x % y != 0 && ((x ^ y) < 0)) ? quotient - 1 : quotient;
+
+	}
+
+}
@@ -1,35 +1,67 @@
 package com.concur.babel.protocol;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
+import java.nio.charset.Charset;
 import java.util.Date;
 
-import org.apache.commons.codec.binary.Base64;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
-
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonPrimitive;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.JsonIOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 /**
- * JSONProtocol is a JSON implementation of the babel protocol interface.
+ * JSONProtocol is a JSON implementation of the babel protocol interface.  Messages are read from and
+ * written to streams as UTF-8.  Generated service methods and models are read and written with codecs
+ * compiled by CodecCompiler rather than with the reflection of Gson.
  */
-public class JSONProtocol implements Protocol {
+public class JSONProtocol implements StreamProtocol {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** the adapters Gson has of its own, the adapters below read what they do */
+	private static final Gson DEFAULTS = new Gson();
+	private static final TypeAdapter<JsonElement> JSON_ELEMENT = DEFAULTS.getAdapter(JsonElement.class);
+	private static final TypeAdapter<BigDecimal> BIG_DECIMAL = DEFAULTS.getAdapter(BigDecimal.class);
+	private static final TypeAdapter<Long> LONG = DEFAULTS.getAdapter(Long.class);
 	
-	private Gson gson = new GsonBuilder()
-		.registerTypeAdapter(Date.class,  new DateAdapter())
-		.registerTypeAdapter(byte[].class, new ByteArrayAdapter())
-		.registerTypeAdapter(BigDecimal.class, new BigDecimalAdapter())
-		.registerTypeAdapter(Long.class, new LongAdapter())
-		.create();
+	private final Gson gson;
+
+	public JSONProtocol() {
+		this(true);
+	}
+
+	/**
+	 * JSONProtocol creates a protocol that reads and writes the classes Gson binds reflectively with
+	 * codecs compiled by CodecCompiler, or, when compiled is false, reflectively as Gson does.  Both
+	 * write the same JSON.
+	 */
+	JSONProtocol(boolean compiled) {
+
+		GsonBuilder builder = new GsonBuilder();
+		if (compiled) {
+			// registered first, so the adapters below win over it
+			builder.registerTypeAdapterFactory(new CodecCompiler());
+		}
+		this.gson = builder
+			.registerTypeAdapter(Date.class,  new DateAdapter())
+			.registerTypeAdapter(byte[].class, new ByteArrayAdapter())
+			.registerTypeAdapter(BigDecimal.class, new BigDecimalAdapter())
+			.registerTypeAdapter(Long.class, new LongAdapter())
+			.create();
+
+	}
 	
 	public <T> T read(String json, Class<T> classOfT) {
 		return this.gson.fromJson(json, classOfT);
@@ -51,16 +83,66 @@ public class JSONProtocol implements Protocol {
 		return this.gson.toJson(src);
 	}
 	
-	private class DateAdapter implements JsonSerializer<Date>, JsonDeserializer<Date> {
-		
-		private final DateTimeFormatter df = ISODateTimeFormat.dateTime();
-		
-		public Date deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) 
-		throws JsonParseException 
-		{
+	public void write(Object src, Writer writer) {
+		this.gson.toJson(src, writer);
+	}
+
+	public <T> T read(InputStream in, Class<T> classOfT) {
+		return this.gson.fromJson(new InputStreamReader(in, UTF8), classOfT);
+	}
+
+	public <T> T read(InputStream in, Type typeOfT) {
+		return this.gson.fromJson(new InputStreamReader(in, UTF8), typeOfT);
+	}
+
+	public void write(Object src, OutputStream out) {
+
+		Utf8StreamWriter writer = new Utf8StreamWriter(out, 4096);
+		this.gson.toJson(src, writer);
+		try {
+			writer.finish();
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+
+	}
+
+	public Charset getCharset() { return UTF8; }
+
+	/**
+	 * Method warmUp creates the adapter of a type, and of the types it refers to, ahead of the first
+	 * message that needs it.
+	 */
+	void warmUp(Type type) {
+		this.gson.getAdapter(TypeToken.get(type));
+	}
+	
+	/**
+	 * Method nextString reads the text of a value as the tree adapters of Gson did, through a
+	 * JsonElement, for anything but a string.
+	 */
+	private static String nextString(JsonReader in) throws IOException {
+
+		if (in.peek() == JsonToken.STRING) {
+			return in.nextString();
+		}
+		JsonElement element = JSON_ELEMENT.read(in);
+		return element.isJsonNull() ? null : element.getAsString();
+
+	}
+
+	private static class DateAdapter extends TypeAdapter<Date> {
+
+		public Date read(JsonReader in) throws IOException {
+
+			String text = nextString(in);
+			if (text == null) {
+				return null;
+			}
+
 			try {
 				
-				return df.parseDateTime(json.getAsString()).toDate();
+				return new Date(IsoDateFormat.parse(text));
 				
 			} catch (IllegalArgumentException e) {				
 				throw new RuntimeException(
@@ -71,46 +153,77 @@ public class JSONProtocol implements Protocol {
 			
 		}
 
-		public JsonElement serialize(Date src, Type typeOfSrc, JsonSerializationContext context) {			
-			return new JsonPrimitive(df.print(src.getTime()));			
+		public void write(JsonWriter out, Date value) throws IOException {
+
+			if (value == null) {
+				out.nullValue();
+			} else {
+				out.value(IsoDateFormat.print(value.getTime()));
+			}
+
 		}
 		
 	}
 	
-	private class BigDecimalAdapter implements JsonSerializer<BigDecimal> {
-
-		public JsonElement serialize(
-			BigDecimal src, 
-			Type typeOfSrc, 
-			JsonSerializationContext context) 
-		{
-			return new JsonPrimitive(src.toString());
+	/**
+	 * BigDecimalAdapter writes a BigDecimal as a string, it reads one from a string or a number.
+	 */
+	private static class BigDecimalAdapter extends TypeAdapter<BigDecimal> {
+
+		public BigDecimal read(JsonReader in) throws IOException {
+			return BIG_DECIMAL.read(in);
+		}
+
+		public void write(JsonWriter out, BigDecimal value) throws IOException {
+
+			if (value == null) {
+				out.nullValue();
+			} else {
+				out.value(value.toString());
+			}
+
 		}
 		
 	}
 	
-	private class LongAdapter implements JsonSerializer<Long> {
-		
-		public JsonElement serialize(
-			Long src, 
-			Type typeOfSrc, 
-			JsonSerializationContext context) 
-		{
-			return new JsonPrimitive(src.toString());
-		}		
+	/**
+	 * LongAdapter writes a Long as a string, it reads one from a string or a number.
+	 */
+	private static class LongAdapter extends TypeAdapter<Long> {
+
+		public Long read(JsonReader in) throws IOException {
+			return LONG.read(in);
+		}
+
+		public void write(JsonWriter out, Long value) throws IOException {
+
+			if (value == null) {
+				out.nullValue();
+			} else {
+				out.value(Long.toString(value));
+			}
+
+		}
 		
 	}
 	
-	private class ByteArrayAdapter implements JsonSerializer<byte[]>, JsonDeserializer<byte[]> {
+	private static class ByteArrayAdapter extends TypeAdapter<byte[]> {
+
+		public byte[] read(JsonReader in) throws IOException {
+
+			String text = nextString(in);
+			return text == null ? null : Base64Codec.decode(text);
 
-		public byte[] deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) 
-		throws JsonParseException 
-		{
-			return Base64.decodeBase64(json.getAsString());
 		}
 
-		public JsonElement serialize(byte[] src, Type typeOfSrc, JsonSerializationContext context) {
-			return new JsonPrimitive(Base64.encodeBase64String(src));
+		public void write(JsonWriter out, byte[] value) throws IOException {
+
+			if (value == null) {
+				out.nullValue();
+			} else {
+				out.value(Base64Codec.encode(value));
+			}
+
 		}
 		
 	}	
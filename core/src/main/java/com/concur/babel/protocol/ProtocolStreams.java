@@ -0,0 +1,98 @@
+package com.concur.babel.protocol;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+/**
+ * ProtocolStreams reads and writes the messages of any protocol as bytes.  A StreamProtocol does it
+ * itself, the messages of any other protocol are its String messages in UTF-8, read and written
+ * through its Reader and Writer methods.
+ */
+public final class ProtocolStreams {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private ProtocolStreams() {}
+
+	/**
+	 * Method read reads a message from a stream, up to its end.  The stream is not closed.
+	 */
+	public static <T> T read(Protocol protocol, InputStream in, Type typeOfT) {
+
+		notNull("protocol", protocol);
+		notNull("in", in);
+
+		if (protocol instanceof StreamProtocol) {
+			return ((StreamProtocol)protocol).read(in, typeOfT);
+		}
+		return protocol.read(new InputStreamReader(in, UTF8), typeOfT);
+
+	}
+
+	/**
+	 * Method write writes a message to a stream.  The stream is not closed, callers flush it.
+	 */
+	public static void write(Protocol protocol, Object src, OutputStream out) {
+
+		notNull("protocol", protocol);
+		notNull("out", out);
+
+		if (protocol instanceof StreamProtocol) {
+			((StreamProtocol)protocol).write(src, out);
+			return;
+		}
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF8), 8192);
+		write(protocol, src, writer);
+		try {
+			// the writer holds what was written until it is flushed, out is flushed with it
+			writer.flush();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write babel message", e);
+		}
+
+	}
+
+	/**
+	 * Method write writes a message to a Writer.  A StreamProtocol writes it straight to the Writer,
+	 * any other protocol writes its String message.  The Writer is not closed, callers flush it.
+	 */
+	public static void write(Protocol protocol, Object src, Writer writer) {
+
+		notNull("protocol", protocol);
+		notNull("writer", writer);
+
+		if (protocol instanceof StreamProtocol) {
+			((StreamProtocol)protocol).write(src, writer);
+			return;
+		}
+
+		try {
+			writer.write(protocol.write(src));
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write babel message", e);
+		}
+
+	}
+
+	/**
+	 * Method getCharset gets the charset that maps the bytes of a message of the protocol to the chars
+	 * of its String messages.
+	 */
+	public static Charset getCharset(Protocol protocol) {
+
+		notNull("protocol", protocol);
+		return protocol instanceof StreamProtocol ? ((StreamProtocol)protocol).getCharset() : UTF8;
+
+	}
+
+}
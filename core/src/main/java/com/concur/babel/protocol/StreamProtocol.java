@@ -0,0 +1,43 @@
+package com.concur.babel.protocol;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+/**
+ * StreamProtocol is a protocol that reads and writes its messages as bytes, so a transport can
+ * decode a message straight from the body it received and encode one straight into the body it
+ * sends, without the message ever being a String.  Transports use ProtocolStreams, which bridges
+ * the protocols that only implement the Protocol interface.
+ */
+public interface StreamProtocol extends Protocol {
+
+	/**
+	 * Method read reads a message from a stream, up to its end.  The stream is not closed.
+	 *
+	 * @return the message, null if the stream is empty or holds a null message.
+	 */
+	<T> T read(InputStream in, Class<T> classOfT);
+
+	<T> T read(InputStream in, Type typeOfT);
+
+	/**
+	 * Method write writes a message to a stream.  The stream is not closed, callers flush it.
+	 */
+	void write(Object src, OutputStream out);
+
+	/**
+	 * Method write writes a message to a Writer, as the chars of the String message.  The Writer is
+	 * not closed, callers flush it.
+	 */
+	void write(Object src, Writer writer);
+
+	/**
+	 * Method getCharset gets the charset that maps the bytes of a message to the chars of the String,
+	 * Reader and Writer methods of the protocol.
+	 */
+	Charset getCharset();
+
+}
@@ -0,0 +1,137 @@
+package com.concur.babel.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Utf8StreamWriter encodes what is written to it in UTF-8 into a byte array and writes the array
+ * to a stream whenever it is full, without the char buffer of a BufferedWriter or the encoder of an
+ * OutputStreamWriter in between.  Text is encoded as String.getBytes does, an unpaired surrogate
+ * becomes '?'.
+ */
+final class Utf8StreamWriter extends Writer {
+
+	private final OutputStream out;
+	private final byte[] buffer;
+	private int position = 0;
+	private char highSurrogate = 0;
+
+	Utf8StreamWriter(OutputStream out, int bufferSize) {
+
+		this.out = out;
+		// room for the longest sequence a char completes, so put never checks
+		this.buffer = new byte[Math.max(16, bufferSize)];
+
+	}
+
+	public void write(int c) throws IOException {
+
+		this.ensureRemaining(4);
+		this.put((char)c);
+
+	}
+
+	public void write(char[] chars, int offset, int length) throws IOException {
+
+		for (int i = offset; i < offset + length; i++) {
+			this.ensureRemaining(4);
+			char c = chars[i];
+			if (c < 0x80 && this.highSurrogate == 0) {
+				this.buffer[this.position++] = (byte)c;
+			} else {
+				this.put(c);
+			}
+		}
+
+	}
+
+	public void write(String text, int offset, int length) throws IOException {
+
+		for (int i = offset; i < offset + length; i++) {
+			this.ensureRemaining(4);
+			char c = text.charAt(i);
+			if (c < 0x80 && this.highSurrogate == 0) {
+				this.buffer[this.position++] = (byte)c;
+			} else {
+				this.put(c);
+			}
+		}
+
+	}
+
+	/**
+	 * Method flush writes what is buffered to the stream, without flushing the stream.  A high
+	 * surrogate is kept until the char after it is written.
+	 */
+	public void flush() throws IOException {
+
+		if (this.position > 0) {
+			this.out.write(this.buffer, 0, this.position);
+			this.position = 0;
+		}
+
+	}
+
+	/**
+	 * Method finish writes what is buffered to the stream, an unpaired high surrogate at the end
+	 * included.  The stream is not closed.
+	 */
+	void finish() throws IOException {
+
+		if (this.highSurrogate != 0) {
+			this.highSurrogate = 0;
+			this.ensureRemaining(1);
+			this.buffer[this.position++] = '?';
+		}
+		this.flush();
+
+	}
+
+	public void close() throws IOException {
+		this.finish();
+	}
+
+	private void put(char c) {
+
+		if (this.highSurrogate != 0) {
+			char high = this.highSurrogate;
+			this.highSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				int codePoint = Character.toCodePoint(high, c);
+				this.buffer[this.position++] = (byte)(0xf0 | (codePoint >> 18));
+				this.buffer[this.position++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+				this.buffer[this.position++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+				this.buffer[this.position++] = (byte)(0x80 | (codePoint & 0x3f));
+				return;
+			}
+			// an unpaired surrogate is encoded as String.getBytes does, the char after it still fits
+			this.buffer[this.position++] = '?';
+		}
+
+		if (c < 0x80) {
+			this.buffer[this.position++] = (byte)c;
+		} else if (c < 0x800) {
+			this.buffer[this.position++] = (byte)(0xc0 | (c >> 6));
+			this.buffer[this.position++] = (byte)(0x80 | (c & 0x3f));
+		} else if (Character.isHighSurrogate(c)) {
+			this.highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			this.buffer[this.position++] = '?';
+		} else {
+			this.buffer[this.position++] = (byte)(0xe0 | (c >> 12));
+			this.buffer[this.position++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+			this.buffer[this.position++] = (byte)(0x80 | (c & 0x3f));
+		}
+
+	}
+
+	private void ensureRemaining(int bytes) throws IOException {
+
+		if (this.buffer.length - this.position < bytes) {
+			this.flush();
+		}
+
+	}
+
+}
@@ -0,0 +1,37 @@
+package com.concur.babel.protocol;
+
+/**
+ * WireType holds the wire types of the BinaryProtocol, the low three bits of a field header.  A
+ * reader can skip a value of any wire type without knowing its schema, the length delimited ones
+ * are preceded by the length of their payload.
+ */
+final class WireType {
+
+	/** booleans, integral numbers, chars, dates and BabelEnums, zigzag encoded */
+	static final int VARINT = 0;
+
+	/** doubles */
+	static final int FIXED64 = 1;
+
+	/** strings, byte arrays, big numbers and other enums, length delimited */
+	static final int BYTES = 2;
+
+	/** objects, the fields of the object, length delimited */
+	static final int MESSAGE = 3;
+
+	/** collections and arrays, a count then each element, length delimited */
+	static final int LIST = 4;
+
+	/** maps, a count then each key and value, length delimited */
+	static final int MAP = 5;
+
+	/** floats */
+	static final int FIXED32 = 6;
+
+	/** an element or message that is null, it has no payload, null fields are left out instead */
+	static final int NULL = 7;
+
+	private WireType() {
+	}
+
+}
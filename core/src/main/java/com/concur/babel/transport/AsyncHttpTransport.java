@@ -0,0 +1,502 @@
+package com.concur.babel.transport;
+
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.concur.babel.ServiceMethod;
+import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.async.AsyncExecutors;
+import com.concur.babel.transport.compression.BodyOpener;
+import com.concur.babel.transport.compression.ContentCoding;
+import com.concur.babel.transport.http.Http1Codec;
+import com.concur.babel.transport.http.HttpResponseHead;
+import com.concur.babel.transport.http.ResponseBodyDecoder;
+
+/**
+ * AsyncHttpTransport is a non-blocking Http transport implementation for babel built on NIO.2
+ * asynchronous socket channels.  Calls made through invokeAsync do not hold a thread while waiting
+ * for the server, the request is written and the response read through completion handlers running
+ * on the channel group's threads.  Blocking invoke calls are supported as well, they simply wait for
+ * the asynchronous call to complete.
+ *
+ * Connections are kept alive and reused between calls, up to maxIdleConnections idle connections are
+ * kept per transport.  Only plain http urls are supported.
+ */
+public class AsyncHttpTransport extends BaseHttpTransport {
+
+	public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
+	public static final long DEFAULT_IDLE_TIMEOUT = 15000;
+
+	private static final int READ_BUFFER_SIZE = 8192;
+	private static final byte[] HEAD_END = new byte[] { '\r', '\n', '\r', '\n' };
+
+	private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+	private final AsynchronousChannelGroup group;
+	private final ConcurrentLinkedDeque<IdleChannel> idleChannels = new ConcurrentLinkedDeque<IdleChannel>();
+
+	/**
+	 * Creates a new AsyncHttpTransport using the default asynchronous channel group.
+	 *
+	 * @param url A String representation of the url
+	 * @param protocol The protocol to use
+	 */
+	public AsyncHttpTransport(String url, Protocol protocol) {
+		this(url, protocol, null);
+	}
+
+	/**
+	 * Creates a new AsyncHttpTransport
+	 *
+	 * @param url A String representation of the url
+	 * @param protocol The protocol to use
+	 * @param group The channel group whose threads run I/O completions, or null for the default group
+	 */
+	public AsyncHttpTransport(String url, Protocol protocol, AsynchronousChannelGroup group) {
+
+		super(url, protocol);
+
+		this.group = group;
+		if (!"http".equalsIgnoreCase(this.baseUrl.getProtocol())) {
+			throw new IllegalArgumentException("Only http urls are supported: " + url);
+		}
+
+	}
+
+	/**
+	 * Method setMaxIdleConnections sets how many idle connections this transport keeps open for reuse.
+	 * @param maxIdleConnections The number of connections, 0 disables reuse.
+	 */
+	public void setMaxIdleConnections(int maxIdleConnections) {
+		preCondition(maxIdleConnections >= 0, "maxIdleConnections must be greater than or equal to ZERO");
+		this.maxIdleConnections = maxIdleConnections;
+	}
+
+	/**
+	 * Method setIdleTimeout sets how long an idle connection is kept before it is closed instead of
+	 * reused.
+	 * @param idleTimeout The timeout in milliseconds.
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		preCondition(idleTimeout >= 0, "idleTimeout must be greater than or equal to ZERO");
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Method close closes the idle connections held by this transport.
+	 */
+	public void close() {
+		IdleChannel idle;
+		while ((idle = this.idleChannels.poll()) != null) {
+			closeQuietly(idle.channel);
+		}
+	}
+
+	/**
+	 * Method callEndPoint makes a blocking call by waiting for the asynchronous call to complete.
+	 */
+	protected void callEndPoint(ServiceCallManager serviceCallManager) throws IOException {
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		this.callEndPointAsync(serviceCallManager, new CompletionHandler<Void, ServiceCallManager>() {
+			public void completed(Void result, ServiceCallManager attachment) {
+				latch.countDown();
+			}
+			public void failed(Throwable t, ServiceCallManager attachment) {
+				error.set(t);
+				latch.countDown();
+			}
+		});
+
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a babel service response");
+		}
+
+		Throwable t = error.get();
+		if (t instanceof IOException) {
+			throw (IOException)t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException)t;
+		} else if (t instanceof Error) {
+			throw (Error)t;
+		} else if (t != null) {
+			throw new IOException(t);
+		}
+
+	}
+
+	/**
+	 * Method callEndPointAsync is AsyncHttpTransport's non-blocking implementation of calling a babel
+	 * service endpoint.
+	 */
+	@Override
+	protected void callEndPointAsync(
+		ServiceCallManager serviceCallManager,
+		CompletionHandler<Void, ServiceCallManager> handler)
+	{
+
+		final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+		final ByteArrayOutputStream head = new ByteArrayOutputStream(256);
+		final ServiceMethod serviceMethod = serviceCallManager.getServiceMethod();
+		final Map<String, String> headers = serviceCallManager.getHeaders();
+		try {
+			serviceCallManager.writeRequest(new BodyOpener() {
+				public OutputStream open(ContentCoding coding, int contentLength) throws IOException {
+					Http1Codec.writeRequestHead(
+						head,
+						httpMethod,
+						getPath(serviceMethod),
+						hostHeader,
+						getFixedHeaders(coding, contentLength),
+						headers);
+					return body;
+				}
+			}, false);
+		} catch (IOException e) {
+			handler.failed(e, serviceCallManager);
+			return;
+		}
+
+		new Exchange(serviceCallManager, handler, head.toByteArray(), body.toByteArray()).start();
+
+	}
+
+	private AsynchronousSocketChannel pollIdleChannel() {
+
+		long now = System.currentTimeMillis();
+		IdleChannel idle;
+		while ((idle = this.idleChannels.pollFirst()) != null) {
+			if (idle.channel.isOpen() && now - idle.since <= this.idleTimeout) {
+				return idle.channel;
+			}
+			closeQuietly(idle.channel);
+		}
+		return null;
+
+	}
+
+	private void releaseChannel(AsynchronousSocketChannel channel, boolean reusable) {
+
+		if (reusable && channel.isOpen() && this.idleChannels.size() < this.maxIdleConnections) {
+			this.idleChannels.addFirst(new IdleChannel(channel, System.currentTimeMillis()));
+		} else {
+			closeQuietly(channel);
+		}
+
+	}
+
+	private static void closeQuietly(AsynchronousSocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// The channel is being discarded.
+		}
+	}
+
+	/**
+	 * Exchange drives a single request/response over a channel through a chain of completion handlers.
+	 */
+	private class Exchange {
+
+		private final ServiceCallManager serviceCallManager;
+		private final CompletionHandler<Void, ServiceCallManager> handler;
+		private final byte[] head;
+		private final byte[] body;
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+		private AsynchronousSocketChannel channel;
+		private boolean reused;
+		private ByteBuffer[] out;
+		private ByteArrayOutputStream headBytes;
+		private int headMatch;
+		private boolean received;
+		private HttpResponseHead responseHead;
+		private ResponseBodyDecoder bodyDecoder;
+
+		Exchange(
+			ServiceCallManager serviceCallManager,
+			CompletionHandler<Void, ServiceCallManager> handler,
+			byte[] head,
+			byte[] body)
+		{
+			this.serviceCallManager = serviceCallManager;
+			this.handler = handler;
+			this.head = head;
+			this.body = body;
+		}
+
+		void start() {
+
+			this.reset();
+			this.channel = pollIdleChannel();
+			if (this.channel != null) {
+				this.reused = true;
+				this.watchCancel();
+				this.write();
+			} else {
+				this.reused = false;
+				this.connect();
+			}
+
+		}
+
+		private void reset() {
+
+			this.out = new ByteBuffer[] { ByteBuffer.wrap(this.head), ByteBuffer.wrap(this.body) };
+			this.headBytes = new ByteArrayOutputStream(512);
+			this.headMatch = 0;
+			this.received = false;
+			this.responseHead = null;
+			this.bodyDecoder = null;
+			this.readBuffer.clear();
+
+		}
+
+		private void watchCancel() {
+
+			final AsynchronousSocketChannel current = this.channel;
+			this.serviceCallManager.setCancelAction(new Runnable() {
+				public void run() {
+					closeQuietly(current);
+				}
+			});
+
+		}
+
+		private void connect() {
+
+			final AtomicBoolean timedOut = new AtomicBoolean(false);
+			final ScheduledFuture<?> timeout;
+			try {
+				this.channel = AsynchronousSocketChannel.open(group);
+				this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				this.channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+			} catch (IOException e) {
+				this.fail(e);
+				return;
+			}
+			this.watchCancel();
+
+			final AsynchronousSocketChannel connecting = this.channel;
+			timeout = connectionTimeout <= 0 ? null : AsyncExecutors.getScheduler().schedule(new Runnable() {
+				public void run() {
+					timedOut.set(true);
+					closeQuietly(connecting);
+				}
+			}, connectionTimeout, TimeUnit.MILLISECONDS);
+
+			InetSocketAddress address = new InetSocketAddress(
+				baseUrl.getHost(),
+				baseUrl.getPort() == -1 ? baseUrl.getDefaultPort() : baseUrl.getPort());
+			this.channel.connect(address, null, new CompletionHandler<Void, Void>() {
+				public void completed(Void result, Void attachment) {
+					if (timeout != null) {
+						timeout.cancel(false);
+					}
+					write();
+				}
+				public void failed(Throwable t, Void attachment) {
+					if (timeout != null) {
+						timeout.cancel(false);
+					}
+					fail(timedOut.get() ? new SocketTimeoutException("connect timed out") : t);
+				}
+			});
+
+		}
+
+		private void write() {
+
+			this.channel.write(this.out, 0, this.out.length, readTimeout, TimeUnit.MILLISECONDS, null,
+				new CompletionHandler<Long, Void>() {
+					public void completed(Long count, Void attachment) {
+						if (out[out.length - 1].hasRemaining()) {
+							write();
+						} else {
+							read();
+						}
+					}
+					public void failed(Throwable t, Void attachment) {
+						failOrRetryStale(t);
+					}
+				});
+
+		}
+
+		private void read() {
+
+			this.channel.read(this.readBuffer, readTimeout, TimeUnit.MILLISECONDS, null,
+				new CompletionHandler<Integer, Void>() {
+					public void completed(Integer count, Void attachment) {
+						if (count == -1) {
+							endOfStream();
+							return;
+						}
+						received = true;
+						readBuffer.flip();
+						try {
+							if (consume()) {
+								finish();
+								return;
+							}
+						} catch (Exception e) {
+							fail(e);
+							return;
+						}
+						readBuffer.compact();
+						read();
+					}
+					public void failed(Throwable t, Void attachment) {
+						failOrRetryStale(t);
+					}
+				});
+
+		}
+
+		/**
+		 * Consumes the bytes in the read buffer, returning true once the whole response is read.
+		 */
+		private boolean consume() throws IOException {
+
+			while (this.responseHead == null && this.readBuffer.hasRemaining()) {
+				byte b = this.readBuffer.get();
+				this.headBytes.write(b);
+				this.headMatch = b == HEAD_END[this.headMatch] ? this.headMatch + 1 : (b == '\r' ? 1 : 0);
+				if (this.headMatch == HEAD_END.length) {
+					HttpResponseHead parsed = Http1Codec.readResponseHead(
+						new ByteArrayInputStream(this.headBytes.toByteArray()));
+					this.headBytes.reset();
+					this.headMatch = 0;
+					if (parsed.getStatusCode() >= 100 && parsed.getStatusCode() < 200) {
+						continue;
+					}
+					this.responseHead = parsed;
+					this.bodyDecoder = ResponseBodyDecoder.create(parsed, !"HEAD".equalsIgnoreCase(httpMethod));
+				}
+			}
+
+			if (this.bodyDecoder != null) {
+				this.bodyDecoder.feed(this.readBuffer);
+				return this.bodyDecoder.isComplete();
+			}
+			return false;
+
+		}
+
+		private void endOfStream() {
+
+			if (this.bodyDecoder != null && this.bodyDecoder.endOfStream()) {
+				this.finish();
+			} else if (!this.received && this.reused) {
+				this.retryOnNewConnection();
+			} else {
+				this.fail(new EOFException("Connection closed before the full response was received"));
+			}
+
+		}
+
+		private void finish() {
+
+			HttpResponseHead head = this.responseHead;
+			releaseChannel(this.channel, head.isKeepAlive() && this.bodyDecoder.isReusable());
+			this.serviceCallManager.setCancelAction(null);
+
+			this.serviceCallManager.setRetryAfter(head.getHeader(HttpTransport.RETRY_AFTER));
+			try {
+				this.serviceCallManager.readResponse(
+					head.getStatusCode(),
+					head.getStatusCode() != STATUS_CODE_OK ? head.getReasonPhrase() : null,
+					head.getHeader(HttpTransport.CONTENT_ENCODING),
+					new ByteArrayInputStream(this.bodyDecoder.toByteArray()));
+			} catch (Exception e) {
+				if (this.done.compareAndSet(false, true)) {
+					this.handler.failed(e, this.serviceCallManager);
+				}
+				return;
+			}
+
+			if (this.done.compareAndSet(false, true)) {
+				this.handler.completed(null, this.serviceCallManager);
+			}
+
+		}
+
+		/**
+		 * A reused connection that fails before any part of the response arrived was most likely
+		 * closed by the server while idle, so the exchange is repeated once on a new connection.
+		 */
+		private void failOrRetryStale(Throwable t) {
+
+			if (t instanceof InterruptedByTimeoutException) {
+				this.fail(new SocketTimeoutException("Read timed out"));
+			} else if (t instanceof IOException && !this.received && this.reused && this.channel.isOpen()) {
+				this.retryOnNewConnection();
+			} else {
+				this.fail(t);
+			}
+
+		}
+
+		private void retryOnNewConnection() {
+
+			closeQuietly(this.channel);
+			this.reset();
+			this.reused = false;
+			this.connect();
+
+		}
+
+		private void fail(Throwable t) {
+
+			if (this.channel != null) {
+				closeQuietly(this.channel);
+			}
+			if (this.done.compareAndSet(false, true)) {
+				this.handler.failed(t, this.serviceCallManager);
+			}
+
+		}
+
+	}
+
+	private static class IdleChannel {
+
+		private final AsynchronousSocketChannel channel;
+		private final long since;
+
+		IdleChannel(AsynchronousSocketChannel channel, long since) {
+			this.channel = channel;
+			this.since = since;
+		}
+
+	}
+
+}
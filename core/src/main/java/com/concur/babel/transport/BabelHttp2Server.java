@@ -0,0 +1,260 @@
+package com.concur.babel.transport;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.concur.babel.processor.ServiceInvoker;
+import com.concur.babel.processor.ServiceRequestDispatcher;
+import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.async.AsyncExecutors;
+import com.concur.babel.transport.compression.CompressionPolicy;
+import com.concur.babel.transport.http2.Http2Frame;
+import com.concur.babel.transport.http2.Http2RequestHandler;
+import com.concur.babel.transport.http2.Http2ServerConnection;
+import com.concur.babel.transport.http2.Http2Stream;
+import com.concur.babel.transport.server.Http2ServerTransport;
+import com.concur.babel.transport.server.RequestBodyException;
+
+/**
+ * BabelHttp2Server hosts babel services over cleartext HTTP/2 ("h2c" with prior knowledge), the
+ * server side of Http2Transport.  Each connection has a reader thread, requests are dispatched on a
+ * shared pool of worker threads so the streams of a connection are served concurrently.
+ */
+public class BabelHttp2Server {
+
+	private static final Logger LOGGER = Logger.getLogger(BabelHttp2Server.class.getName());
+
+	public static final int DEFAULT_WORKER_THREADS = 64;
+
+	private volatile boolean stopped = false;
+	private final int port;
+	private ServerSocket listener;
+	private final Protocol protocol;
+	private final ExecutorService workers;
+	private final Set<Http2ServerConnection> connections =
+		Collections.newSetFromMap(new ConcurrentHashMap<Http2ServerConnection, Boolean>());
+	private int maxConcurrentStreams = Http2ServerConnection.DEFAULT_MAX_CONCURRENT_STREAMS;
+	private CompressionPolicy compression = new CompressionPolicy();
+
+	protected ServiceRequestDispatcher manager = new ServiceRequestDispatcher();
+
+	public BabelHttp2Server(int port, Protocol protocol) {
+		this(port, protocol, DEFAULT_WORKER_THREADS);
+	}
+
+	/**
+	 * Creates a new BabelHttp2Server
+	 *
+	 * @param port - the port to listen on, 0 picks a free port.
+	 * @param protocol - the protocol being used on the wire.
+	 * @param workerThreads - the number of threads calling services.
+	 */
+	public BabelHttp2Server(int port, Protocol protocol, int workerThreads) {
+
+		notNull("protocol", protocol);
+		this.port = port;
+		this.protocol = protocol;
+		this.workers = Executors.newFixedThreadPool(workerThreads, new AsyncExecutors.DaemonThreadFactory("babel-http2-worker"));
+
+	}
+
+	/**
+	 * Method setMaxConcurrentStreams sets the number of streams a client may have open on one
+	 * connection, streams over the limit are refused.  The default is 256.
+	 */
+	public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+		this.maxConcurrentStreams = maxConcurrentStreams;
+	}
+
+	/**
+	 * Method setCompression sets which responses are compressed, by default responses of at least
+	 * 1024 bytes are compressed for clients that accept it.
+	 */
+	public void setCompression(CompressionPolicy compression) {
+		notNull("compression", compression);
+		this.compression = compression;
+	}
+
+	public CompressionPolicy getCompression() { return this.compression; }
+
+	/**
+	 * Method start binds the port and accepts connections until stop is called, it blocks the
+	 * calling thread.
+	 */
+	public void start() {
+
+		this.bind();
+		this.stopped = false;
+		while (!this.stopped) {
+
+			Socket socket;
+			try {
+				socket = this.listener.accept();
+			} catch (IOException e) {
+				if (this.stopped) {
+					return;
+				}
+				throw new RuntimeException(e);
+			}
+			this.serve(socket);
+
+		}
+
+	}
+
+	/**
+	 * Method bind opens the listening socket, it is called by start and may be called before it to
+	 * learn the port.
+	 */
+	public synchronized void bind() {
+
+		if (this.listener != null) {
+			return;
+		}
+		try {
+			this.listener = new ServerSocket(this.port);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	/**
+	 * Method stop closes the listening socket, tells connected clients to go away and closes the
+	 * connections once their open streams complete or timeoutMillis elapsed.
+	 */
+	public void stop(long timeoutMillis) {
+
+		this.stopped = true;
+		synchronized (this) {
+			if (this.listener != null) {
+				try {
+					this.listener.close();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		for (Http2ServerConnection connection : this.connections) {
+			connection.shutdown(timeoutMillis);
+		}
+		this.workers.shutdown();
+
+	}
+
+	public void stop() {
+		this.stop(0);
+	}
+
+	public void register(ServiceInvoker<?> processor) {
+
+		notNull("processor", processor);
+		this.manager.register(processor);
+
+	}
+
+	public ServiceRequestDispatcher getManager() { return this.manager; }
+
+	/**
+	 * @return the port the server is listening on.
+	 */
+	public synchronized int getPort() {
+		return this.listener != null ? this.listener.getLocalPort() : this.port;
+	}
+
+	/**
+	 * Method callService is the method used to invoke a hosted babel service for a request.  You can
+	 * extend this class and override this method to provide before/after processing if need be.
+	 *
+	 * @param serverTransport - the server transport of the request.
+	 * @param requestContext - any request context information that can be used by exception builders.
+	 */
+	protected void callService(Http2ServerTransport serverTransport, Map<String, String> requestContext) {
+		this.manager.dispatch(serverTransport, requestContext);
+	}
+
+	private void serve(Socket socket) {
+
+		final Http2ServerConnection connection;
+		try {
+			connection = new Http2ServerConnection(socket, new Http2RequestHandler() {
+				public void onRequest(Http2ServerConnection connection, Http2Stream stream) {
+					dispatch(connection, stream);
+				}
+			}, this.maxConcurrentStreams);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to open HTTP/2 connection", e);
+			try {
+				socket.close();
+			} catch (IOException ignored) {
+				// nothing else to do
+			}
+			return;
+		}
+
+		this.connections.add(connection);
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					connection.serve();
+				} finally {
+					connections.remove(connection);
+				}
+			}
+		}, "babel-http2-connection-" + socket.getRemoteSocketAddress());
+		reader.setDaemon(true);
+		reader.start();
+
+	}
+
+	private void dispatch(final Http2ServerConnection connection, final Http2Stream stream) {
+
+		try {
+			this.workers.execute(new Runnable() {
+				public void run() {
+					handle(connection, stream);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			connection.resetStream(stream, Http2Frame.REFUSED_STREAM);
+		}
+
+	}
+
+	private void handle(Http2ServerConnection connection, Http2Stream stream) {
+
+		try {
+			this.callService(
+				new Http2ServerTransport(connection, stream, this.protocol, this.compression),
+				new HashMap<String, String>());
+		} catch (RequestBodyException e) {
+			// the body the client sent can not be read, the service is not called
+			try {
+				connection.sendResponse(stream, e.getStatusCode(), null, null);
+			} catch (IOException sendFailure) {
+				LOGGER.log(Level.FINE, "Unable to refuse HTTP/2 request on stream " + stream.getId(), sendFailure);
+			}
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Unable to process HTTP/2 request on stream " + stream.getId(), e);
+		} finally {
+			if (!stream.isEndSent()) {
+				connection.resetStream(stream, Http2Frame.INTERNAL_ERROR);
+			}
+		}
+
+	}
+
+}
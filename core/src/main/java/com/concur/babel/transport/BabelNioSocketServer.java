@@ -0,0 +1,474 @@
+package com.concur.babel.transport;
+
+import static com.concur.babel.ArgValidator.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.concur.babel.processor.ServiceInvoker;
+import com.concur.babel.processor.ServiceRequestDispatcher;
+import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.server.SocketServerTransport;
+import com.concur.babel.transport.socket.BufferArena;
+import com.concur.babel.transport.socket.NioEventLoop;
+import com.concur.babel.transport.socket.NioServerConnection;
+import com.concur.babel.transport.socket.RejectionPolicy;
+import com.concur.babel.transport.socket.ServerConnection;
+import com.concur.babel.transport.socket.SocketFrame;
+import com.concur.babel.transport.socket.SocketFrameDecoder;
+import com.concur.babel.transport.socket.SocketRequestHandler;
+import com.concur.babel.transport.socket.UnixDomainSockets;
+import com.concur.babel.transport.socket.WorkerPool;
+
+/**
+ * BabelNioSocketServer hosts babel services over sockets with non-blocking channels, it serves the
+ * same legacy and multiplexed connections as BabelSimpleSocketServer without a thread per connection.
+ * Accepted connections are spread over a few selector event loops that read and decode requests,
+ * the services are called on a WorkerPool whose threads write the responses back.  Idle
+ * connections only cost their channel, so a single server can hold many thousands of them, and
+ * requests the pool has no room for are answered with a ServerBusyException error.  It listens on a
+ * TCP port or, for clients on the same host such as sidecars, on a Unix domain socket.  On shutdown
+ * the server stops accepting connections, answers new requests with a ServerDrainingException error
+ * and waits for the requests in flight before it closes the connections.
+ */
+public class BabelNioSocketServer {
+
+	private static final Logger LOGGER = Logger.getLogger(BabelNioSocketServer.class.getName());
+
+	public static final int DEFAULT_WORKER_THREADS = 64;
+	public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+	public static final int DEFAULT_BACKLOG = 1024;
+
+	private volatile boolean stopped = false;
+	private final int port;
+	private final Path socketPath;
+	private final Protocol protocol;
+	private final WorkerPool workers;
+	private final NioEventLoop[] eventLoops;
+	private final BufferArena buffers = new BufferArena();
+	private ServerSocketChannel listener;
+	private int idleTimeout = BabelSocketThread.DEFAULT_IDLE_TIMEOUT;
+	private int maxLineLength = SocketFrameDecoder.DEFAULT_MAX_LINE_LENGTH;
+	private int backlog = DEFAULT_BACKLOG;
+	private RejectionPolicy rejectionPolicy = RejectionPolicy.RESPOND_BUSY;
+	private int maxInFlight = BabelSocketThread.DEFAULT_MAX_IN_FLIGHT;
+	private int maxRequests = 0;
+	private Set<PosixFilePermission> socketFilePermissions;
+
+	protected ServiceRequestDispatcher manager = new ServiceRequestDispatcher();
+
+	public BabelNioSocketServer(int port, Protocol protocol) {
+		this(port, protocol, DEFAULT_WORKER_THREADS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new BabelNioSocketServer
+	 *
+	 * @param port - the port to listen on, 0 picks a free port.
+	 * @param protocol - the protocol being used on the wire.
+	 * @param workerThreads - the number of threads calling services.
+	 * @param eventLoops - the number of selector threads reading and writing connections.
+	 */
+	public BabelNioSocketServer(int port, Protocol protocol, int workerThreads, int eventLoops) {
+		this(port, protocol, new WorkerPool(workerThreads, WorkerPool.DEFAULT_QUEUE_SIZE, "babel-nio-worker"), eventLoops);
+	}
+
+	/**
+	 * Creates a new BabelNioSocketServer
+	 *
+	 * @param port - the port to listen on, 0 picks a free port.
+	 * @param protocol - the protocol being used on the wire.
+	 * @param workers - the pool calling services.
+	 * @param eventLoops - the number of selector threads reading and writing connections.
+	 */
+	public BabelNioSocketServer(int port, Protocol protocol, WorkerPool workers, int eventLoops) {
+		this(port, null, protocol, workers, eventLoops);
+	}
+
+	public BabelNioSocketServer(Path socketPath, Protocol protocol) {
+		this(
+			socketPath,
+			protocol,
+			new WorkerPool(DEFAULT_WORKER_THREADS, WorkerPool.DEFAULT_QUEUE_SIZE, "babel-nio-worker"),
+			1);
+	}
+
+	/**
+	 * Creates a new BabelNioSocketServer listening on a Unix domain socket, for clients on the same
+	 * host, which needs JDK 16 or later.  A stale socket file left by a server that did not stop is
+	 * replaced when the server is bound, the file is deleted when the server stops.
+	 *
+	 * @param socketPath - the path of the socket file.
+	 * @param protocol - the protocol being used on the wire.
+	 * @param workers - the pool calling services.
+	 * @param eventLoops - the number of selector threads reading and writing connections.
+	 */
+	public BabelNioSocketServer(Path socketPath, Protocol protocol, WorkerPool workers, int eventLoops) {
+		this(0, socketPath, protocol, workers, eventLoops);
+		notNull("socketPath", socketPath);
+	}
+
+	private BabelNioSocketServer(int port, Path socketPath, Protocol protocol, WorkerPool workers, int eventLoops) {
+
+		notNull("protocol", protocol);
+		notNull("workers", workers);
+		preCondition(eventLoops >= 1, "eventLoops must be greater than or equal to ONE");
+		this.port = port;
+		this.socketPath = socketPath;
+		this.protocol = protocol;
+		this.workers = workers;
+		this.eventLoops = new NioEventLoop[eventLoops];
+
+	}
+
+	/**
+	 * Method setIdleTimeout sets how long, in milliseconds, a connection may be idle before it is
+	 * closed, 0 keeps it open until the client closes it.  The default is 60000.
+	 */
+	public void setIdleTimeout(int idleTimeout) {
+		preCondition(idleTimeout >= 0, "idleTimeout must be greater than or equal to ZERO");
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Method setMaxLineLength sets the maximum length, in bytes, of a line of a request, a
+	 * connection sending a longer one is closed.  The default is 16MB.
+	 */
+	public void setMaxLineLength(int maxLineLength) {
+		preCondition(maxLineLength > 0, "maxLineLength must be greater than ZERO");
+		this.maxLineLength = maxLineLength;
+	}
+
+	/**
+	 * Method setBacklog sets the length of the queue of connections waiting to be accepted, it must
+	 * be set before the server is bound.  The default is 1024.
+	 */
+	public void setBacklog(int backlog) {
+		preCondition(backlog >= 1, "backlog must be greater than or equal to ONE");
+		this.backlog = backlog;
+	}
+
+	/**
+	 * Method setRejectionPolicy sets what is done with a request the worker pool has no room for,
+	 * CALLER_RUNS holds up every connection of the event loop while the request runs.  The default
+	 * is RESPOND_BUSY.
+	 */
+	public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+		notNull("rejectionPolicy", rejectionPolicy);
+		this.rejectionPolicy = rejectionPolicy;
+	}
+
+	/**
+	 * Method setMaxInFlight sets the number of pipelined requests of a connection that may be in
+	 * flight at once, the connection is not read while they are.  The default is 128.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		preCondition(maxInFlight >= 1, "maxInFlight must be greater than or equal to ONE");
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Method setMaxRequests sets the number of requests served on a multiplexed connection, after
+	 * which it is sent a GOAWAY and closed so the client reconnects, which spreads long lived clients
+	 * over new servers.  The default, 0, serves requests until the connection is idle or the client
+	 * closes it.
+	 */
+	public void setMaxRequests(int maxRequests) {
+		preCondition(maxRequests >= 0, "maxRequests must be greater than or equal to ZERO");
+		this.maxRequests = maxRequests;
+	}
+
+	/**
+	 * Method setSocketFilePermissions sets the permissions of the socket file of a server listening
+	 * on a Unix domain socket, in the form of ls, for example "rw-rw----" lets only the owner and the
+	 * group of the server connect.  By default the file gets the permissions of the umask.
+	 */
+	public void setSocketFilePermissions(String permissions) {
+
+		notNull("permissions", permissions);
+		preCondition(this.socketPath != null, "the server does not listen on a Unix domain socket");
+		this.socketFilePermissions = PosixFilePermissions.fromString(permissions);
+
+	}
+
+	/**
+	 * Method start starts the event loops and accepts connections until the server is stopped.
+	 */
+	public void start() {
+
+		this.bind();
+		this.stopped = false;
+		this.startEventLoops();
+
+		int next = 0;
+		while (!this.stopped) {
+
+			SocketChannel channel;
+			try {
+				channel = this.listener.accept();
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				if (this.stopped) {
+					return;
+				}
+				// running out of file descriptors must not end the server, accepting resumes once
+				// connections are closed
+				LOGGER.log(Level.WARNING, "Babel socket server failed to accept a connection", e);
+				continue;
+			}
+
+			NioEventLoop eventLoop = this.eventLoops[next++ % this.eventLoops.length];
+			try {
+				channel.configureBlocking(false);
+				if (this.socketPath == null) {
+					channel.socket().setTcpNoDelay(true);
+				}
+			} catch (IOException e) {
+				closeQuietly(channel);
+				continue;
+			}
+			NioServerConnection connection = new NioServerConnection(
+				channel,
+				eventLoop,
+				new SocketRequestHandler() {
+					public void onRequest(ServerConnection connection, SocketFrame request) {
+						dispatch(connection, request);
+					}
+				},
+				this.idleTimeout,
+				this.maxLineLength);
+			connection.setMaxInFlight(this.maxInFlight);
+			connection.setMaxRequests(this.maxRequests);
+			eventLoop.register(connection);
+
+		}
+
+	}
+
+	/**
+	 * Method bind opens the listening channel, it is called by start and may be called before it to
+	 * learn the port.
+	 */
+	public synchronized void bind() {
+
+		if (this.listener != null && this.listener.isOpen()) {
+			return;
+		}
+		try {
+			if (this.socketPath != null) {
+				Files.deleteIfExists(this.socketPath);
+				this.listener = UnixDomainSockets.openServer();
+				this.listener.bind(UnixDomainSockets.address(this.socketPath), this.backlog);
+				if (this.socketFilePermissions != null) {
+					Files.setPosixFilePermissions(this.socketPath, this.socketFilePermissions);
+				}
+			} else {
+				this.listener = ServerSocketChannel.open();
+				this.listener.socket().setReuseAddress(true);
+				this.listener.socket().bind(new InetSocketAddress(this.port), this.backlog);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	/**
+	 * Method stop closes the listening channel and all connections, requests in flight are not
+	 * answered, see shutdown.
+	 */
+	public void stop() {
+
+		this.closeListener();
+		synchronized (this) {
+			for (NioEventLoop eventLoop : this.eventLoops) {
+				if (eventLoop != null) {
+					eventLoop.stop();
+				}
+			}
+		}
+		this.workers.shutdown();
+
+	}
+
+	/**
+	 * Method shutdown stops the server gracefully.  It stops accepting connections, answers new
+	 * requests with a ServerDrainingException error and waits for the requests in flight to
+	 * complete, until the timeout elapses, before it closes the connections.
+	 *
+	 * @param timeout - how long to wait for the requests in flight at most.
+	 * @param unit - the unit of the timeout.
+	 *
+	 * @return true if the requests in flight completed in time.
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) {
+
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		this.closeListener();
+		this.manager.drain();
+		boolean drained;
+		try {
+			drained = this.manager.awaitDrained(timeout, unit);
+			// requests still queued get the draining error, which takes no time
+			this.workers.shutdown();
+			drained &= this.workers.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			drained = false;
+		}
+		this.stop();
+		return drained;
+
+	}
+
+	public void register(ServiceInvoker<?> processor) {
+
+		notNull("processor", processor);
+		this.manager.register(processor);
+
+	}
+
+	public ServiceRequestDispatcher getManager() { return this.manager; }
+
+	/**
+	 * @return the number of requests calling a service.
+	 */
+	public int getInFlightCount() { return this.manager.getInFlightCount(); }
+
+	/**
+	 * @return the pool calling services, for its queue depth and active worker metrics.
+	 */
+	public WorkerPool getWorkerPool() { return this.workers; }
+
+	/**
+	 * @return the arena of the buffers connections are read into and responses are written from, for
+	 * its hit rate and outstanding buffer metrics.
+	 */
+	public BufferArena getBufferArena() { return this.buffers; }
+
+	/**
+	 * @return the port the server is listening on, 0 for a Unix domain socket.
+	 */
+	public synchronized int getPort() {
+		return this.listener != null && this.socketPath == null ? this.listener.socket().getLocalPort() : this.port;
+	}
+
+	/**
+	 * @return the path of the socket file, null if the server listens on a TCP port.
+	 */
+	public Path getSocketPath() { return this.socketPath; }
+
+	/**
+	 * @return the number of open connections.
+	 */
+	public synchronized int getConnectionCount() {
+
+		int count = 0;
+		for (NioEventLoop eventLoop : this.eventLoops) {
+			if (eventLoop != null) {
+				count += eventLoop.getConnectionCount();
+			}
+		}
+		return count;
+
+	}
+
+	/**
+	 * Method callService invokes a hosted babel service, on a worker thread.  You can extend this
+	 * class and override this method to provide before/after processing if need be.
+	 *
+	 * @param serverTransport - the server transport of the request.
+	 * @param requestContext - any request context information you might want to add that can be
+	 * used by exception builders in the event of an exception being thrown from a service or in
+	 * the context of a service request/response.
+	 */
+	protected void callService(SocketServerTransport serverTransport, Map<String, String> requestContext) {
+		this.manager.dispatch(serverTransport, requestContext);
+	}
+
+	private void closeListener() {
+
+		this.stopped = true;
+		synchronized (this) {
+			if (this.listener != null) {
+				try {
+					this.listener.close();
+					if (this.socketPath != null) {
+						Files.deleteIfExists(this.socketPath);
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+	}
+
+	private synchronized void startEventLoops() {
+
+		long idleCheckInterval = this.idleTimeout > 0 ? Math.max(10, Math.min(1000, this.idleTimeout / 4)) : 1000;
+		for (int i = 0; i < this.eventLoops.length; i++) {
+			try {
+				this.eventLoops[i] = new NioEventLoop(this.buffers, DEFAULT_BUFFER_SIZE, idleCheckInterval);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			Thread thread = new Thread(this.eventLoops[i], "babel-nio-loop-" + (i + 1));
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+	}
+
+	private void dispatch(final ServerConnection connection, final SocketFrame request) {
+
+		Runnable call = new Runnable() {
+			public void run() {
+				try {
+					callService(
+						new SocketServerTransport(connection, request, protocol),
+						new HashMap<String, String>());
+				} finally {
+					connection.requestCompleted();
+				}
+			}
+		};
+
+		try {
+			this.workers.execute(call);
+		} catch (RejectedExecutionException e) {
+			if (this.rejectionPolicy == RejectionPolicy.CALLER_RUNS && !this.stopped) {
+				call.run();
+			} else {
+				SocketServerTransport.writeServerBusy(connection, request, this.protocol);
+			}
+		}
+
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing else to do
+		}
+
+	}
+
+}
@@ -1,8 +1,12 @@
 package com.concur.babel.transport;
 
+import static com.concur.babel.ArgValidator.preCondition;
+
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -10,31 +14,101 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.concur.babel.processor.ServiceRequestDispatcher;
-import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.protocol.CodecRegistry;
 import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.compression.CompressionPolicy;
 import com.concur.babel.transport.server.HttpServerTransport;
+import com.concur.babel.transport.server.RequestBodyException;
 import com.concur.babel.transport.server.handler.CallHandler;
 
 /**
  * BabelServlet is the base HTTP transport for the babel framework.  You should extend this class
  * and register babel services with it.  Requests processed by this servlet will be in the form of
  * <<service_name>>/<<method_name>>.
+ * 
+ * When the container destroys the servlet its dispatcher drains, requests from then on are
+ * answered with a ServerDrainingException error on a connection that is closed afterwards, and the
+ * requests in flight are waited for up to the drain timeout.
  */
 @SuppressWarnings("serial")
 public abstract class BabelServlet extends HttpServlet {
 	
+	public static final long DEFAULT_DRAIN_TIMEOUT = 30000;
+	
+	private static final Logger LOGGER = Logger.getLogger("BabelLogger");
+	
 	protected ServiceRequestDispatcher dispatcher = new ServiceRequestDispatcher();
-	protected Protocol protocol = new JSONProtocol();
+	protected Protocol protocol = CodecRegistry.getJSONProtocol();
+	protected CompressionPolicy compression = new CompressionPolicy();
+	protected long drainTimeout = DEFAULT_DRAIN_TIMEOUT;
 	
 	@Override
 	public void init() throws ServletException {
 	
 		super.init();
 		this.registerServices(this.dispatcher);
+		// the adapters of the services are created now rather than on their first request
+		CodecRegistry.warmUp(this.protocol);
+		
+	}
+	
+	/**
+	 * Method destroy drains the dispatcher and waits for the requests in flight, up to the drain
+	 * timeout, before the servlet is taken out of service.
+	 */
+	@Override
+	public void destroy() {
+		
+		this.drain(this.drainTimeout, TimeUnit.MILLISECONDS);
+		super.destroy();
+		
+	}
+	
+	/**
+	 * Method drain stops the servlet from calling services, new requests are answered with a
+	 * ServerDrainingException error, and waits for the requests in flight to complete.
+	 * 
+	 * @param timeout - how long to wait at most.
+	 * @param unit - the unit of the timeout.
+	 * 
+	 * @return true if the requests in flight completed in time.
+	 */
+	public boolean drain(long timeout, TimeUnit unit) {
+		
+		this.dispatcher.drain();
+		try {
+			if (this.dispatcher.awaitDrained(timeout, unit)) {
+				return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		LOGGER.warning(this.dispatcher.getInFlightCount() + " babel requests were still in flight after the drain timeout");
+		return false;
 		
 	}
 	
+	/**
+	 * Method setDrainTimeout sets how long, in milliseconds, destroy waits for the requests in
+	 * flight.  The default is 30000.
+	 */
+	public void setDrainTimeout(long drainTimeout) {
+		preCondition(drainTimeout >= 0, "drainTimeout must be greater than or equal to ZERO");
+		this.drainTimeout = drainTimeout;
+	}
+	
 	public ServiceRequestDispatcher getDispatcher() { return this.dispatcher; }
+	
+	/**
+	 * @return the number of requests calling a service.
+	 */
+	public int getInFlightCount() { return this.dispatcher.getInFlightCount(); }
+	
+	/**
+	 * @return the policy deciding which responses are compressed, its metrics show how well the
+	 * responses of each service compress.
+	 */
+	public CompressionPolicy getCompression() { return this.compression; }
 
 	@Override
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
@@ -42,9 +116,19 @@ public abstract class BabelServlet extends HttpServlet {
 		ServletException, IOException 
 	{		
 		
-		this.callService(
-			new HttpServerTransport(req, resp, this.protocol), 
-			new HashMap<String, String>());
+		if (this.dispatcher.isDraining()) {
+			// the client should open its next connection to a server that is not going away
+			resp.setHeader("Connection", "close");
+		}
+		HttpServerTransport serverTransport;
+		try {
+			serverTransport = new HttpServerTransport(req, resp, this.protocol, this.compression);
+		} catch (RequestBodyException e) {
+			// the body the client sent can not be read, the service is not called
+			resp.sendError(e.getStatusCode(), e.getMessage());
+			return;
+		}
+		this.callService(serverTransport, new HashMap<String, String>());
 			
 	}
 
@@ -6,67 +6,278 @@ import static com.concur.babel.ArgValidator.*;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.concur.babel.processor.ServiceInvoker;
 import com.concur.babel.processor.ServiceRequestDispatcher;
 import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.socket.RejectionPolicy;
+import com.concur.babel.transport.socket.WorkerPool;
 
+/**
+ * BabelSimpleSocketServer hosts babel services over sockets, the server side of SocketTransport.
+ * Each connection is served by a BabelSocketThread, requests of multiplexed connections are called
+ * on a shared WorkerPool.  Connections over the maximum are closed as soon as they are accepted and
+ * requests the pool has no room for are answered with a ServerBusyException error, so a burst of
+ * traffic is turned away instead of exhausting memory.  On shutdown the server stops accepting
+ * connections, answers new requests with a ServerDrainingException error and waits for the requests
+ * in flight before it closes the connections.
+ */
 public class BabelSimpleSocketServer {
 
-	private boolean stopped = false;
+	public static final int DEFAULT_WORKER_THREADS = 64;
+	public static final int DEFAULT_MAX_CONNECTIONS = 10000;
+
+	private volatile boolean stopped = false;
 	private final int port;
 	private ServerSocket listener;
 	private Protocol protocol;
-	
+	private final WorkerPool workers;
+	private final AtomicInteger connections = new AtomicInteger();
+	private final Set<BabelSocketThread> threads =
+		Collections.newSetFromMap(new ConcurrentHashMap<BabelSocketThread, Boolean>());
+	private int idleTimeout = BabelSocketThread.DEFAULT_IDLE_TIMEOUT;
+	private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+	private RejectionPolicy rejectionPolicy = RejectionPolicy.RESPOND_BUSY;
+	private int maxInFlight = BabelSocketThread.DEFAULT_MAX_IN_FLIGHT;
+	private int maxRequests = 0;
+
 	protected ServiceRequestDispatcher manager = new ServiceRequestDispatcher();
-	
+
 	public BabelSimpleSocketServer(int port, Protocol protocol) {
+		this(port, protocol, DEFAULT_WORKER_THREADS);
+	}
+
+	/**
+	 * Creates a new BabelSimpleSocketServer
+	 *
+	 * @param port - the port to listen on, 0 picks a free port.
+	 * @param protocol - the protocol being used on the wire.
+	 * @param workerThreads - the number of threads calling services for multiplexed connections.
+	 */
+	public BabelSimpleSocketServer(int port, Protocol protocol, int workerThreads) {
+		this(port, protocol, new WorkerPool(workerThreads, WorkerPool.DEFAULT_QUEUE_SIZE, "babel-socket-worker"));
+	}
+
+	/**
+	 * Creates a new BabelSimpleSocketServer
+	 *
+	 * @param port - the port to listen on, 0 picks a free port.
+	 * @param protocol - the protocol being used on the wire.
+	 * @param workers - the pool calling services for multiplexed connections.
+	 */
+	public BabelSimpleSocketServer(int port, Protocol protocol, WorkerPool workers) {
+
+		notNull("workers", workers);
 		this.port = port;
 		this.protocol = protocol;
+		this.workers = workers;
+
+	}
+
+	/**
+	 * Method setIdleTimeout sets how long, in milliseconds, a multiplexed connection may be idle
+	 * before it is closed.  The default is 60000.
+	 */
+	public void setIdleTimeout(int idleTimeout) {
+		preCondition(idleTimeout >= 0, "idleTimeout must be greater than or equal to ZERO");
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Method setMaxConnections sets the number of connections served at once, each has a thread of
+	 * its own.  The default is 10000.
+	 */
+	public void setMaxConnections(int maxConnections) {
+		preCondition(maxConnections >= 1, "maxConnections must be greater than or equal to ONE");
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Method setRejectionPolicy sets what is done with a request the worker pool has no room for.
+	 * The default is RESPOND_BUSY.
+	 */
+	public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+		notNull("rejectionPolicy", rejectionPolicy);
+		this.rejectionPolicy = rejectionPolicy;
+	}
+
+	/**
+	 * Method setMaxInFlight sets the number of pipelined requests of a connection that may be in
+	 * flight at once, the connection is not read while they are.  The default is 128.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		preCondition(maxInFlight >= 1, "maxInFlight must be greater than or equal to ONE");
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Method setMaxRequests sets the number of requests served on a multiplexed connection, after
+	 * which it is sent a GOAWAY and closed so the client reconnects, which spreads long lived clients
+	 * over new servers.  The default, 0, serves requests until the connection is idle or the client
+	 * closes it.
+	 */
+	public void setMaxRequests(int maxRequests) {
+		preCondition(maxRequests >= 0, "maxRequests must be greater than or equal to ZERO");
+		this.maxRequests = maxRequests;
 	}
-	
+
 	public void start() {
-		
-		try {
-			this.listener = new ServerSocket(port);
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-		
+
+		this.bind();
+
 		this.stopped = false;
 		while (!stopped) {
-	
+
 			try {
-				
+
 				Socket socket = this.listener.accept();
-				new BabelSocketThread(this.manager, socket, this.protocol).run();			
-				
+				if (this.connections.incrementAndGet() > this.maxConnections) {
+					this.connections.decrementAndGet();
+					socket.close();
+					continue;
+				}
+				BabelSocketThread thread = new BabelSocketThread(this.manager, socket, this.protocol, this.workers) {
+					public void run() {
+						try {
+							super.run();
+						} finally {
+							threads.remove(this);
+							connections.decrementAndGet();
+						}
+					}
+				};
+				thread.setIdleTimeout(this.idleTimeout);
+				thread.setRejectionPolicy(this.rejectionPolicy);
+				thread.setMaxInFlight(this.maxInFlight);
+				thread.setMaxRequests(this.maxRequests);
+				thread.setDaemon(true);
+				this.threads.add(thread);
+				if (this.stopped) {
+					thread.closeConnection();
+				}
+				thread.start();
+
 			} catch (IOException e) {
+				if (this.stopped) {
+					return;
+				}
 				throw new RuntimeException(e);
 			}
-			
+
 		}
-		
+
 	}
-	
+
+	/**
+	 * Method bind opens the listening socket, it is called by start and may be called before it to
+	 * learn the port.
+	 */
+	public synchronized void bind() {
+
+		if (this.listener != null && !this.listener.isClosed()) {
+			return;
+		}
+		try {
+			this.listener = new ServerSocket(this.port);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	/**
+	 * Method stop closes the listening socket and all connections, requests in flight are not
+	 * answered, see shutdown.
+	 */
 	public void stop() {
-		this.stopped = true;
-		if (this.listener != null) {
-			try {
-				this.listener.close();
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
+
+		this.closeListener();
+		this.workers.shutdown();
+		for (BabelSocketThread thread : this.threads) {
+			thread.closeConnection();
 		}
+
+	}
+
+	/**
+	 * Method shutdown stops the server gracefully.  It stops accepting connections, answers new
+	 * requests with a ServerDrainingException error and waits for the requests in flight to
+	 * complete, until the timeout elapses, before it closes the connections.
+	 *
+	 * @param timeout - how long to wait for the requests in flight at most.
+	 * @param unit - the unit of the timeout.
+	 *
+	 * @return true if the requests in flight completed in time.
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) {
+
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		this.closeListener();
+		this.manager.drain();
+		boolean drained;
+		try {
+			drained = this.manager.awaitDrained(timeout, unit);
+			// requests still queued get the draining error, which takes no time
+			this.workers.shutdown();
+			drained &= this.workers.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			drained = false;
+		}
+		this.stop();
+		return drained;
+
 	}
-	
+
 	public void register(ServiceInvoker<?> processor) {
-		
+
 		notNull("processor", processor);
 		this.manager.register(processor);
-		
+
 	}
-	
+
 	public ServiceRequestDispatcher getManager() { return this.manager; }
-		
+
+	/**
+	 * @return the number of requests calling a service.
+	 */
+	public int getInFlightCount() { return this.manager.getInFlightCount(); }
+
+	/**
+	 * @return the pool calling services, for its queue depth and active worker metrics.
+	 */
+	public WorkerPool getWorkerPool() { return this.workers; }
+
+	/**
+	 * @return the number of open connections.
+	 */
+	public int getConnectionCount() { return this.connections.get(); }
+
+	/**
+	 * @return the port the server is listening on.
+	 */
+	public synchronized int getPort() {
+		return this.listener != null ? this.listener.getLocalPort() : this.port;
+	}
+
+	private void closeListener() {
+
+		this.stopped = true;
+		synchronized (this) {
+			if (this.listener != null) {
+				try {
+					this.listener.close();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+	}
+
 }
@@ -1,78 +1,259 @@
 package com.concur.babel.transport;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.Socket;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import static com.concur.babel.ArgValidator.*;
 
 import com.concur.babel.processor.ServiceRequestDispatcher;
 import com.concur.babel.protocol.Protocol;
 import com.concur.babel.transport.server.SocketServerTransport;
+import com.concur.babel.transport.socket.RejectionPolicy;
+import com.concur.babel.transport.socket.BinaryFrames;
+import com.concur.babel.transport.socket.ServerConnection;
+import com.concur.babel.transport.socket.SocketFrame;
+import com.concur.babel.transport.socket.SocketFrames;
+import com.concur.babel.transport.socket.SocketRequestHandler;
+import com.concur.babel.transport.socket.SocketServerConnection;
 
 /**
  * BabelSocketThread is the main thread that is used to read from a socket, call a babel service
  * and write the response.  This can be overridden to allow for hooks into the process like logging,
  * metrics, transactions etc etc.
+ *
+ * A connection that starts with the multiplexed preface, see SocketFrames, or with a binary frame,
+ * see BinaryFrames, is kept open and serves requests until it is idle for the idle timeout, the
+ * requests are called on the executor if one is given so they can complete out of order.  Clients
+ * may pipeline up to the in-flight limit of requests on such a connection, which serves up to the
+ * maximum number of requests if one is set.  Any other connection carries a single request.
  */
 public class BabelSocketThread extends Thread {
 
+	public static final int DEFAULT_IDLE_TIMEOUT = 60000;
+	public static final int DEFAULT_MAX_IN_FLIGHT = 128;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	private ServiceRequestDispatcher dispatcher;
 	private final Socket socket;
 	private final Protocol protocol;
-	
+	private final Executor executor;
+	private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private RejectionPolicy rejectionPolicy = RejectionPolicy.CALLER_RUNS;
+	private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+	private int maxRequests = 0;
+	private InputStream in;
+	private volatile boolean closing = false;
+
 	/**
-	 * BabelSocketThread created a new instance of a worker thread for invoking hosted babel 
+	 * BabelSocketThread created a new instance of a worker thread for invoking hosted babel
 	 * services via sockets.
-	 * 
+	 *
 	 * @param dispatcher - an instance of a ServiceRequestDispatcher.
-	 * @param socket - a socket instance that is receiving a babel service request. 
+	 * @param socket - a socket instance that is receiving a babel service request.
 	 * @param protocol - the protocol being used on the wire for the service request and response.
 	 */
 	public BabelSocketThread(
-		ServiceRequestDispatcher dispatcher, 
-		Socket socket, 
-		Protocol protocol) 
+		ServiceRequestDispatcher dispatcher,
+		Socket socket,
+		Protocol protocol)
 	{
-		
+		this(dispatcher, socket, protocol, null);
+	}
+
+	/**
+	 * BabelSocketThread created a new instance of a worker thread for invoking hosted babel
+	 * services via sockets.
+	 *
+	 * @param dispatcher - an instance of a ServiceRequestDispatcher.
+	 * @param socket - a socket instance that is receiving a babel service request.
+	 * @param protocol - the protocol being used on the wire for the service request and response.
+	 * @param executor - the executor calling the requests of a multiplexed connection, null calls
+	 * them one at a time on this thread.
+	 */
+	public BabelSocketThread(
+		ServiceRequestDispatcher dispatcher,
+		Socket socket,
+		Protocol protocol,
+		Executor executor)
+	{
+
 		notNull("dispatcher", dispatcher);
 		notNull("socket", socket);
 		notNull("protocol", protocol);
 		this.dispatcher = dispatcher;
 		this.socket = socket;
 		this.protocol = protocol;
-		
+		this.executor = executor;
+
 	}
-	
+
+	/**
+	 * Method setIdleTimeout sets how long, in milliseconds, a multiplexed connection may be idle
+	 * before it is closed, 0 keeps it open until the client closes it.  The default is 60000.
+	 */
+	public void setIdleTimeout(int idleTimeout) {
+		preCondition(idleTimeout >= 0, "idleTimeout must be greater than or equal to ZERO");
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Method setRejectionPolicy sets what is done with a request of a multiplexed connection the
+	 * executor rejected.  The default is CALLER_RUNS.
+	 */
+	public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+		notNull("rejectionPolicy", rejectionPolicy);
+		this.rejectionPolicy = rejectionPolicy;
+	}
+
+	/**
+	 * Method setMaxInFlight sets the number of pipelined requests of a multiplexed connection that
+	 * may be in flight at once, the connection is not read while they are.  The default is 128.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		preCondition(maxInFlight >= 1, "maxInFlight must be greater than or equal to ONE");
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Method setMaxRequests sets the number of requests served on a multiplexed connection, after
+	 * which it is sent a GOAWAY and closed so the client reconnects.  The default, 0, serves requests
+	 * until the connection is idle or the client closes it.
+	 */
+	public void setMaxRequests(int maxRequests) {
+		preCondition(maxRequests >= 0, "maxRequests must be greater than or equal to ZERO");
+		this.maxRequests = maxRequests;
+	}
+
 	public void run() {
-		
-		this.callService(new HashMap<String, String>());
-		
+
+		try {
+			this.in = new BufferedInputStream(this.socket.getInputStream(), 8192);
+			if (BinaryFrames.isBinary(this.in)) {
+				this.serveMultiplexed(true);
+			} else if (SocketFrames.isPreface(this.in)) {
+				this.serveMultiplexed(false);
+			} else {
+				this.callService(new HashMap<String, String>());
+			}
+		} catch (IOException e) {
+			if (!this.closing) {
+				throw new RuntimeException(e);
+			}
+		} finally {
+			try {
+				this.socket.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+	}
+
+	/**
+	 * Method closeConnection closes the socket of the thread, a request being read is dropped and
+	 * the thread ends.
+	 */
+	public void closeConnection() {
+
+		this.closing = true;
 		try {
 			this.socket.close();
 		} catch (IOException e) {
-			throw new RuntimeException(e);
+			// nothing else to do
 		}
-		
+
 	}
-	
+
 	/**
 	 * Method callService is the main method being used to invoke a hosted babel service. You can
 	 * extend this class and override this method to provide before/after processing if need be.
-	 * 
-	 * @param requestContext - any request context information you might want to add that can be 
+	 * It is called for the request of a legacy connection.
+	 *
+	 * @param requestContext - any request context information you might want to add that can be
 	 * used by exception builders in the event of an exception being thrown from a service or in
 	 * the context of a service request/response.
-	 * 
+	 *
 	 */
 	protected void callService(Map<String, String> requestContext) {
-		
-		this.dispatcher.dispatch(new SocketServerTransport(
-			this.socket, 
+
+		this.callService(new SocketServerTransport(
+			this.socket,
+			this.in,
 			this.protocol),
-			requestContext);		
-		
-	}	
-	
+			requestContext);
+
+	}
+
+	/**
+	 * Method callService invokes a hosted babel service for a request of either kind of connection.
+	 * You can extend this class and override this method to provide before/after processing if need
+	 * be.
+	 *
+	 * @param serverTransport - the server transport of the request.
+	 * @param requestContext - any request context information you might want to add that can be
+	 * used by exception builders in the event of an exception being thrown from a service or in
+	 * the context of a service request/response.
+	 */
+	protected void callService(SocketServerTransport serverTransport, Map<String, String> requestContext) {
+		this.dispatcher.dispatch(serverTransport, requestContext);
+	}
+
+	private void serveMultiplexed(boolean binary) throws IOException {
+
+		SocketServerConnection connection = new SocketServerConnection(this.socket);
+		connection.setMaxInFlight(this.maxInFlight);
+		connection.setMaxRequests(this.maxRequests);
+		SocketRequestHandler handler = new SocketRequestHandler() {
+			public void onRequest(ServerConnection connection, SocketFrame request) {
+				dispatch(connection, request);
+			}
+		};
+		if (binary) {
+			connection.serveBinary(this.in, this.idleTimeout, handler);
+		} else {
+			connection.serve(new BufferedReader(new InputStreamReader(this.in, UTF8), 8192), this.idleTimeout, handler);
+		}
+
+	}
+
+	private void dispatch(final ServerConnection connection, final SocketFrame request) {
+
+		Runnable call = new Runnable() {
+			public void run() {
+				try {
+					callService(
+						new SocketServerTransport(connection, request, protocol),
+						new HashMap<String, String>());
+				} finally {
+					connection.requestCompleted();
+				}
+			}
+		};
+
+		if (this.executor == null) {
+			call.run();
+			return;
+		}
+		try {
+			this.executor.execute(call);
+		} catch (RejectedExecutionException e) {
+			if (this.rejectionPolicy == RejectionPolicy.CALLER_RUNS) {
+				call.run();
+				return;
+			}
+			SocketServerTransport.writeServerBusy(connection, request, this.protocol);
+		}
+
+	}
+
 }
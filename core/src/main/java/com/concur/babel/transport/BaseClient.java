@@ -3,13 +3,20 @@ package com.concur.babel.transport;
 import java.util.List;
 import java.util.Map;
 
-import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.ResponseServiceMethod;
+import com.concur.babel.ServiceMethod;
+import com.concur.babel.VoidServiceMethod;
+import com.concur.babel.protocol.CodecRegistry;
+import com.concur.babel.transport.async.ServiceFuture;
+import com.concur.babel.transport.batch.BatchResult;
 import com.concur.babel.transport.handler.ResponseHandler;
+import com.concur.babel.transport.retry.RetryPolicy;
 
 /**
  * BaseClient is the base client class for all client code generated by babel.  By default a client
  * will use a HTTP transport and JSON protocol but can be configured to uses any transport and
- * protocol combination.
+ * protocol combination.  Clients created with the default JSON protocol share the protocol of the
+ * CodecRegistry, and with it the adapters it has created.
  */
 public abstract class BaseClient {
 	
@@ -21,7 +28,7 @@ public abstract class BaseClient {
 	 * @param url - The base URL of your babel service layer.
 	 */
     public BaseClient(String url) {
-    	this(new HttpTransport(url, new JSONProtocol()));
+    	this(new HttpTransport(url, CodecRegistry.getJSONProtocol()));
     }	
     
     /**
@@ -31,7 +38,7 @@ public abstract class BaseClient {
 	 * @param handlers - A list of ResponseHandler objects
 	 */
     public BaseClient(String url, List<ResponseHandler> handlers) {
-    	this(new HttpTransport(url, new JSONProtocol()), handlers);
+    	this(new HttpTransport(url, CodecRegistry.getJSONProtocol()), handlers);
     }
     
     /**
@@ -41,7 +48,7 @@ public abstract class BaseClient {
      * @param timeoutInMillis - The connection and read timeout to be used by the http transport.
      */
     public BaseClient(String url, int timeoutInMillis) {
-    	this(new HttpTransport(url, new JSONProtocol(), timeoutInMillis));
+    	this(new HttpTransport(url, CodecRegistry.getJSONProtocol(), timeoutInMillis));
     }
     
     /**
@@ -52,7 +59,7 @@ public abstract class BaseClient {
      * @param handlers - A list of ResponseHandler objects
      */
     public BaseClient(String url, int timeoutInMillis, List<ResponseHandler> handlers) {
-    	this(new HttpTransport(url, new JSONProtocol(), timeoutInMillis), handlers);
+    	this(new HttpTransport(url, CodecRegistry.getJSONProtocol(), timeoutInMillis), handlers);
     }
     
     /**
@@ -77,6 +84,42 @@ public abstract class BaseClient {
     	this.addResponseHandlers(handlers);
     }
     
+    /**
+     * Method invokeAsync calls a service method of this client without blocking, for example;
+     * 
+     * ServiceFuture&lt;List&lt;Tweet&gt;&gt; future = client.invokeAsync(new TweetService.recentTweets(1234));
+     * 
+     * @param serviceMethod - the service method to call.
+     * @return a ServiceFuture that completes with the return value of the service method.
+     */
+    public <T> ServiceFuture<T> invokeAsync(ResponseServiceMethod<T> serviceMethod) {
+    	return this.transport.invokeAsync(serviceMethod);
+    }
+    
+    /**
+     * Method invokeAsync calls a void service method of this client without blocking.
+     * 
+     * @param serviceMethod - the service method to call.
+     * @return a ServiceFuture that completes once the service method has been called.
+     */
+    public ServiceFuture<Void> invokeAsync(VoidServiceMethod serviceMethod) {
+    	return this.transport.invokeAsync(serviceMethod);
+    }
+    
+    /**
+     * Method invokeBatch calls several service methods in one request, for example;
+     * 
+     * List&lt;BatchResult&gt; results = client.invokeBatch(Arrays.asList(
+     *     new TweetService.recentTweets(1234), new TweetService.recentTweets(5678)));
+     * List&lt;Tweet&gt; tweets = results.get(0).get();
+     * 
+     * @param serviceMethods - the service methods to call.
+     * @return the outcome of each service method, in the same order.
+     */
+    public List<BatchResult> invokeBatch(List<? extends ServiceMethod> serviceMethods) {
+    	return this.transport.invokeBatch(serviceMethods);
+    }
+    
     /**
      * Method setHeaders will set header values for the message being sent by this transport.
      * 
@@ -132,4 +175,18 @@ public abstract class BaseClient {
     	this.transport.setRetryDelay(retryDelay);
     }
     
+    /**
+     * Method setRetryPolicy sets the retry policy on the transport used by this client, for example
+     * exponential backoff with jitter;
+     * 
+     * RetryPolicy policy = new RetryPolicy();
+     * policy.setMaxRetries(3);
+     * policy.setBackoff(new ExponentialBackoff(100, 5000));
+     * 
+     * @param retryPolicy The retry policy.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+    	this.transport.setRetryPolicy(retryPolicy);
+    }
+    
 }
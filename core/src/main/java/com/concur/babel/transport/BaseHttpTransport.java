@@ -0,0 +1,126 @@
+package com.concur.babel.transport;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.concur.babel.ServiceMethod;
+import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.compression.ContentCoding;
+import com.concur.babel.transport.handler.ServiceConnection;
+
+/**
+ * BaseHttpTransport is the base of the transports that build their HTTP requests themselves, it
+ * holds the service url, the content type and the http method, and builds the request path and the
+ * request headers every call sends.
+ */
+abstract class BaseHttpTransport extends BaseTransport {
+
+	protected String contentType = "json";
+	protected String httpMethod = HttpTransport.HTTP_METHOD_POST;
+
+	protected final String url;
+	protected final URL baseUrl;
+	protected final String hostHeader;
+
+	/**
+	 * Creates a new BaseHttpTransport, subclasses check the scheme of the url.
+	 *
+	 * @param url A String representation of the url
+	 * @param protocol The protocol to use
+	 */
+	protected BaseHttpTransport(String url, Protocol protocol) {
+
+		super(protocol);
+		notNull("url", url);
+
+		this.url = url;
+		try {
+			this.baseUrl = new URL(url);
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException("Invalid babel service url: " + url, e);
+		}
+		this.hostHeader = this.baseUrl.getPort() == -1 ?
+			this.baseUrl.getHost() :
+			this.baseUrl.getHost() + ":" + this.baseUrl.getPort();
+
+	}
+
+	/**
+	 * Method setContentType sets the content type for this transport.
+	 * The default type is json.
+	 * @param contentType The content type.
+	 */
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	/**
+	 * Method setHttpMethod sets the http method for this transport.
+	 * The default method is POST.
+	 * @param httpMethod The HTTP method.
+	 */
+	public void setHttpMethod(String httpMethod) {
+		this.httpMethod = httpMethod;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected ServiceConnection getServiceConnection(ServiceMethod serviceMethod) {
+
+		return new ServiceConnection(
+			serviceMethod.getServiceName(),
+			serviceMethod.getMethodName(),
+			this.url,
+			this.baseUrl.getPort());
+
+	}
+
+	/**
+	 * Method getPath gets the path and query of the request of a service method, the path of the
+	 * service url followed by the service and method names.
+	 */
+	protected String getPath(ServiceMethod serviceMethod) {
+
+		String path = this.baseUrl.getPath();
+		StringBuilder sb = new StringBuilder(path.length() + 64);
+		sb.append(path.endsWith("/") ? path.substring(0, path.length() - 1) : path);
+		sb.append('/').append(serviceMethod.getServiceName());
+		sb.append('/').append(serviceMethod.getMethodName());
+		if (this.baseUrl.getQuery() != null) {
+			sb.append('?').append(this.baseUrl.getQuery());
+		}
+		return sb.toString();
+
+	}
+
+	/**
+	 * Method getFixedHeaders gets the HTTP/1.1 headers of a request that are not custom headers.
+	 * @param coding The content coding of the body, null if it is not compressed.
+	 * @param contentLength The length of the body, -1 if it is sent chunked.
+	 */
+	protected Map<String, String> getFixedHeaders(ContentCoding coding, int contentLength) {
+
+		Map<String, String> fixed = new LinkedHashMap<String, String>();
+		fixed.put(HttpTransport.CONTENT_TYPE, this.contentType);
+		if (coding != null) {
+			fixed.put(HttpTransport.CONTENT_ENCODING, coding.getName());
+		}
+		if (this.compression.isAcceptCompressed()) {
+			fixed.put(HttpTransport.ACCEPT_ENCODING, ContentCoding.ACCEPT_ENCODING);
+		}
+		if (contentLength < 0) {
+			fixed.put("Transfer-Encoding", "chunked");
+		} else {
+			fixed.put("Content-Length", String.valueOf(contentLength));
+		}
+		fixed.put("Connection", "keep-alive");
+		return fixed;
+
+	}
+
+}
@@ -3,16 +3,22 @@ package com.concur.babel.transport;
 import static com.concur.babel.ArgValidator.notNull;
 import static com.concur.babel.ArgValidator.preCondition;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.ConnectException;
-import java.net.SocketTimeoutException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.channels.CompletionHandler;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import com.concur.babel.ResponseServiceMethod;
 import com.concur.babel.ServiceError;
@@ -21,8 +27,26 @@ import com.concur.babel.VoidServiceMethod;
 import com.concur.babel.exception.BabelApplicationException;
 import com.concur.babel.exception.BabelException;
 import com.concur.babel.protocol.Protocol;
+import com.concur.babel.protocol.ProtocolStreams;
+import com.concur.babel.transport.async.AsyncExecutors;
+import com.concur.babel.transport.async.ServiceFuture;
+import com.concur.babel.transport.batch.BatchCall;
+import com.concur.babel.transport.batch.BatchCallResult;
+import com.concur.babel.transport.batch.BatchResult;
+import com.concur.babel.transport.batch.BatchServiceMethod;
+import com.concur.babel.transport.circuit.CircuitBreaker;
+import com.concur.babel.transport.circuit.CircuitBreakerOpenException;
+import com.concur.babel.transport.circuit.CircuitBreakerRegistry;
+import com.concur.babel.transport.compression.BodyOpener;
+import com.concur.babel.transport.compression.CompressionPolicy;
+import com.concur.babel.transport.compression.DecompressingInputStream;
+import com.concur.babel.transport.compression.ThresholdOutputStream;
 import com.concur.babel.transport.handler.ResponseHandler;
+import com.concur.babel.transport.handler.RetryHandler;
 import com.concur.babel.transport.handler.ServiceConnection;
+import com.concur.babel.transport.retry.FixedBackoff;
+import com.concur.babel.transport.retry.RetryDenial;
+import com.concur.babel.transport.retry.RetryPolicy;
 
 /**
  * BaseTransport is a base transport class for babel.
@@ -37,6 +61,8 @@ public abstract class BaseTransport implements Transport {
     protected static final int STATUS_CODE_OK = 200;
     protected static final int STATUS_CODE_INTERNAL_ERROR = 500;
     protected static final int STATUS_CODE_CONFLICT = 409;
+    
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
 	
 	protected Map<String, String> headers = new HashMap<String, String>();	
 	protected final Protocol protocol;
@@ -44,7 +70,12 @@ public abstract class BaseTransport implements Transport {
 	protected int readTimeout = READ_TIMEOUT;  	
 	
 	protected List<ResponseHandler> responseHandlers = new ArrayList<ResponseHandler>();
-	protected Retry retry = new Retry(0, 0);
+	protected RetryPolicy retryPolicy = new RetryPolicy();
+	protected Executor blockingExecutor;
+	protected boolean captureRequest = false;
+	protected boolean captureResponse = false;
+	protected CompressionPolicy compression = new CompressionPolicy();
+	protected CircuitBreakerRegistry circuitBreakers;
 	
 	/**
 	 * Creates a BaseTransport
@@ -120,10 +151,10 @@ public abstract class BaseTransport implements Transport {
 	/**
 	 * {@inheritDoc}
 	 */
+	@SuppressWarnings("unchecked")
 	public <T> T invoke(ResponseServiceMethod<T> serviceMethod) {
 		notNull("serviceMethod", serviceMethod);
-		String message = this.callService(serviceMethod);
-		return this.protocol.read(message, serviceMethod.getReturnType());
+		return (T)this.callService(serviceMethod);
 	}
 
 	/**
@@ -134,6 +165,63 @@ public abstract class BaseTransport implements Transport {
 		this.callService(serviceMethod);
 	}	
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> ServiceFuture<T> invokeAsync(ResponseServiceMethod<T> serviceMethod) {
+		
+		notNull("serviceMethod", serviceMethod);
+		ServiceFuture<T> future = new ServiceFuture<T>();
+		this.callServiceAsync(serviceMethod, future);
+		return future;
+		
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public ServiceFuture<Void> invokeAsync(VoidServiceMethod serviceMethod) {
+		
+		notNull("serviceMethod", serviceMethod);
+		ServiceFuture<Void> future = new ServiceFuture<Void>();
+		this.callServiceAsync(serviceMethod, future);
+		return future;
+		
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The batch is sent like a single call, so it is retried, compressed and reported to the
+	 * ResponseHandlers as one call.
+	 */
+	public List<BatchResult> invokeBatch(List<? extends ServiceMethod> serviceMethods) {
+		
+		notNull("serviceMethods", serviceMethods);
+		
+		BatchServiceMethod batch = new BatchServiceMethod();
+		for (ServiceMethod serviceMethod : serviceMethods) {
+			notNull("serviceMethod", serviceMethod);
+			batch.add(new BatchCall(
+				serviceMethod.getServiceName(), 
+				serviceMethod.getMethodName(), 
+				this.getRequestMessage(serviceMethod)));
+		}
+		
+		List<BatchCallResult> callResults = this.invoke(batch);
+		if (callResults == null || callResults.size() != serviceMethods.size()) {
+			throw new RuntimeException("Error making batch call, expected " + serviceMethods.size() + 
+				" results but received " + (callResults == null ? 0 : callResults.size()));
+		}
+		
+		List<BatchResult> results = new ArrayList<BatchResult>(callResults.size());
+		for (int i = 0; i < callResults.size(); i++) {
+			results.add(this.getBatchResult(serviceMethods.get(i), callResults.get(i)));
+		}
+		return results;
+		
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -189,9 +277,12 @@ public abstract class BaseTransport implements Transport {
 	 * Default is 0.
 	 */
 	public void setMaxRetries(int maxRetries) {
-		this.setRetry(
-			new Retry(maxRetries, this.retry.getRetryDelay())
-		);		
+		
+		// the policy may be shared with other transports, it is replaced rather than changed
+		RetryPolicy retryPolicy = new RetryPolicy(this.retryPolicy);
+		retryPolicy.setMaxRetries(maxRetries);
+		this.retryPolicy = retryPolicy;
+		
 	}
 	
 	/**
@@ -200,37 +291,168 @@ public abstract class BaseTransport implements Transport {
 	 * Default is 0.
 	 */
 	public void setRetryDelay(long retryDelay) {
-		this.setRetry(
-			new Retry(this.retry.getMaxRetries(), retryDelay)
-		);
+		
+		RetryPolicy retryPolicy = new RetryPolicy(this.retryPolicy);
+		retryPolicy.setBackoff(new FixedBackoff(retryDelay));
+		this.retryPolicy = retryPolicy;
+		
 	}
 	
 	/**
-	 * Method getString gets a String from an InputStream.
-	 * @param in The InputStream
-	 * @return A String representation of the InputStream.
+	 * {@inheritDoc}
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		notNull("retryPolicy", retryPolicy);
+		this.retryPolicy = retryPolicy;
+	}
+	
+	public RetryPolicy getRetryPolicy() { return this.retryPolicy; }
+	
+	public Protocol getProtocol() { return this.protocol; }
+	
+	/**
+	 * Method setCircuitBreakers sets the circuit breakers of the calls made by this transport, a
+	 * call whose breaker is open fails with a CircuitBreakerOpenException without calling the
+	 * service.  A call counts as failed if it ends in an IOException or an unexpected response code,
+	 * application errors count as successes.  Retries happen within a call, so a call is recorded once
+	 * however many attempts it takes.  By default there are no circuit breakers.
+	 * 
+	 * @param circuitBreakers The circuit breakers, may be shared by transports, null to disable.
+	 */
+	public void setCircuitBreakers(CircuitBreakerRegistry circuitBreakers) {
+		this.circuitBreakers = circuitBreakers;
+	}
+	
+	public CircuitBreakerRegistry getCircuitBreakers() { return this.circuitBreakers; }
+	
+	/**
+	 * Method setBlockingExecutor sets the executor used to run calls asynchronously on transports that
+	 * do not have a non-blocking implementation of callEndPointAsync.  By default a shared pool of
+	 * daemon threads is used.
+	 * 
+	 * @param executor The executor.
+	 */
+	public void setBlockingExecutor(Executor executor) {
+		notNull("executor", executor);
+		this.blockingExecutor = executor;
+	}
+	
+	/**
+	 * Method setCaptureRequest sets if request messages are built as a String so they can be passed
+	 * to the ResponseHandlers.  By default a request is serialized by the protocol straight to the
+	 * connection and the handlers get a null request.
+	 * 
+	 * @param captureRequest true to build requests as a String.
+	 */
+	public void setCaptureRequest(boolean captureRequest) {
+		this.captureRequest = captureRequest;
+	}
+	
+	/**
+	 * Method setCaptureResponse sets if successful response bodies are buffered as a String so they
+	 * can be passed to the ResponseHandlers.  By default a successful response is decoded straight
+	 * from the connection by the protocol and the handlers get a null response, error responses are
+	 * always buffered.
+	 * 
+	 * @param captureResponse true to buffer successful responses.
+	 */
+	public void setCaptureResponse(boolean captureResponse) {
+		this.captureResponse = captureResponse;
+	}
+	
+	/**
+	 * Method setCompression sets how request and response bodies are compressed by the HTTP 
+	 * transports.  By default compressed responses are accepted and requests are not compressed.
+	 * 
+	 * @param compression The compression policy, see CompressionPolicy.disabled() to turn it off.
+	 */
+	public void setCompression(CompressionPolicy compression) {
+		notNull("compression", compression);
+		this.compression = compression;
+	}
+	
+	public CompressionPolicy getCompression() { return this.compression; }
+	
+	/**
+	 * Method getString gets a String from an InputStream, decoded as UTF-8.
+	 * @param in The InputStream, which is closed once read.
+	 * @return A String representation of the InputStream, or null if there is no stream.
 	 * @throws java.io.IOException
 	 */
 	protected String getString(InputStream in) throws IOException {
 		
-		BufferedReader br = null;
-		StringBuilder sb = new StringBuilder(); 
-		String line;
-		try { 
-			br = new BufferedReader(new InputStreamReader(in));
-			while ((line = br.readLine()) != null) {
-				sb.append(line);
+		if (in == null) {
+			return null;
+		}
+		return this.getString(new InputStreamReader(in, UTF8));
+		
+	}
+	
+	/**
+	 * Method getString gets a String from a Reader.
+	 * @param reader The Reader, which is closed once read.
+	 * @return A String representation of the Reader.
+	 * @throws java.io.IOException
+	 */
+	protected String getString(Reader reader) throws IOException {
+		
+		StringBuilder sb = new StringBuilder(1024);
+		char[] buffer = new char[4096];
+		int count;
+		try {
+			while ((count = reader.read(buffer)) != -1) {
+				sb.append(buffer, 0, count);
 			}
 		} finally {
-			if (br != null) {
-				try {
-					br.close();
-				} catch (IOException e) {
-				}
+			try {
+				reader.close();
+			} catch (IOException e) {
 			}
-		}	 		
-		return sb.toString();						
-	}	
+		}
+		return sb.toString();
+		
+	}
+	
+	/**
+	 * Method readResult decodes a response straight from a Reader.  I/O errors the protocol wraps 
+	 * in a runtime exception are rethrown as the IOException so timeouts are still retried.
+	 * @param reader The Reader positioned at the start of the response message.
+	 * @param type The type of the response.
+	 * @return The decoded response.
+	 * @throws java.io.IOException
+	 */
+	protected Object readResult(Reader reader, Type type) throws IOException {
+		
+		try {
+			return this.protocol.read(reader, type);
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw e;
+		}
+		
+	}
+	
+	/**
+	 * Method readResult decodes a response straight from an InputStream, see readResult(Reader, Type).
+	 * @param in The InputStream positioned at the start of the response message.
+	 * @param type The type of the response.
+	 * @return The decoded response.
+	 * @throws java.io.IOException
+	 */
+	protected Object readResult(InputStream in, Type type) throws IOException {
+		
+		try {
+			return ProtocolStreams.read(this.protocol, in, type);
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw e;
+		}
+		
+	}
 	
 	/**
 	 * Method getRequestMessage gets the request message to send to the service call.
@@ -241,16 +463,59 @@ public abstract class BaseTransport implements Transport {
 		return this.protocol.write(serviceMethod);
 	}
 	
+	/**
+	 * Method writeRequestMessage serializes the request message to send to the service call straight
+	 * to a Writer, it must write the same message as getRequestMessage.  I/O errors the protocol wraps
+	 * in a runtime exception are rethrown as the IOException.
+	 * @param serviceMethod The ServiceMethod that is to be called.
+	 * @param writer The Writer to serialize the request message to.
+	 * @throws java.io.IOException
+	 */
+	protected void writeRequestMessage(ServiceMethod serviceMethod, Writer writer) throws IOException {
+		
+		try {
+			ProtocolStreams.write(this.protocol, serviceMethod, writer);
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw e;
+		}
+		
+	}
+	
+	/**
+	 * Method writeRequestMessage serializes the request message to send to the service call straight
+	 * to an OutputStream, as the bytes of the message of getRequestMessage.  I/O errors the protocol 
+	 * wraps in a runtime exception are rethrown as the IOException.
+	 * @param serviceMethod The ServiceMethod that is to be called.
+	 * @param out The OutputStream to serialize the request message to, it is not flushed.
+	 * @throws java.io.IOException
+	 */
+	protected void writeRequestMessage(ServiceMethod serviceMethod, OutputStream out) throws IOException {
+		
+		try {
+			ProtocolStreams.write(this.protocol, serviceMethod, out);
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw e;
+		}
+		
+	}
+	
 	/**
 	 * Method callService makes the call to the babel service.
 	 * @param serviceMethod The ServiceMethod that represents the babel service to call.
-	 * @return A String that represents the response from the call to the babel service. 
+	 * @return The decoded response from the call to the babel service, null for void methods. 
 	 */
-	protected String callService(ServiceMethod serviceMethod) {
+	protected Object callService(ServiceMethod serviceMethod) {
 		
 		ServiceCallManager serviceCallManager = new ServiceCallManager(serviceMethod, this);
 		try {
 			
+			serviceCallManager.acquireCircuitPermission();
 			while (serviceCallManager.shouldAttempt()) {
 				
 				try {
@@ -261,47 +526,123 @@ public abstract class BaseTransport implements Transport {
 				
 			}
 			
-			String response = serviceCallManager.getResponse();
-			int responseCode = serviceCallManager.getResponseCode();
-			String responseMessage = serviceCallManager.getResponseMessage();
-			
-			if (responseCode != STATUS_CODE_OK) {
-				if (responseCode == STATUS_CODE_INTERNAL_ERROR) {
-					throw new BabelException(this.protocol.read(
-						response, 
-						ServiceError.class));
-				} else if (responseCode == STATUS_CODE_CONFLICT) {
-					throw new BabelApplicationException(this.protocol.read(
-						response, 
-						ServiceError.class));
-				} else {
-					throw new RuntimeException(
-						"Error making service call " + 
-						responseCode + (responseMessage != null ? ":" + responseMessage : ""));            		            		
-				}
-			}
-			
-			serviceCallManager.handleSuccessResponse();
-			return response;
+			return this.processResponse(serviceCallManager);
 			
 		} catch (BabelException e) {
+			serviceCallManager.recordCircuitOutcome(true);
 			serviceCallManager.handleFailureResponse(e);
 			throw e;
 		} catch (Exception e) {
+			serviceCallManager.recordCircuitOutcome(true);
 			serviceCallManager.handleFailureResponse(e);
 			throw new RuntimeException(e);
 		}
 		
 	}
 	
+	/**
+	 * Method callServiceAsync makes a non-blocking call to the babel service, completing the given
+	 * future once a response arrives.  Retries are scheduled rather than slept, and response handling,
+	 * including ResponseHandler callbacks and error mapping, runs on the thread that completes the call.
+	 * @param serviceMethod The ServiceMethod that represents the babel service to call.
+	 * @param future The future to complete.
+	 */
+	protected <T> void callServiceAsync(ServiceMethod serviceMethod, ServiceFuture<T> future) {
+		
+		ServiceCallManager serviceCallManager;
+		try {
+			serviceCallManager = new ServiceCallManager(serviceMethod, this, future);
+		} catch (RuntimeException e) {
+			future.fail(e);
+			return;
+		}
+		try {
+			serviceCallManager.acquireCircuitPermission();
+		} catch (CircuitBreakerOpenException e) {
+			this.failAsync(serviceCallManager, future, e);
+			return;
+		}
+		this.attemptAsync(serviceCallManager, future);
+		
+	}
+	
+	/**
+	 * Method processResponse maps the outcome of a finished call to a result, throwing a
+	 * BabelException or BabelApplicationException for service errors, and notifies the response
+	 * handlers of a successful call.
+	 * @param serviceCallManager The ServiceCallManager of the finished call.
+	 * @return The decoded response from the call to the babel service, null for void methods.
+	 */
+	protected Object processResponse(ServiceCallManager serviceCallManager) {
+		
+		String response = serviceCallManager.getResponse();
+		int responseCode = serviceCallManager.getResponseCode();
+		String responseMessage = serviceCallManager.getResponseMessage();
+		serviceCallManager.recordCircuitOutcome(
+			responseCode != STATUS_CODE_OK && responseCode != STATUS_CODE_CONFLICT);
+		
+		if (responseCode != STATUS_CODE_OK) {
+			if (responseCode == STATUS_CODE_INTERNAL_ERROR) {
+				throw new BabelException(this.protocol.read(
+					response,
+					ServiceError.class));
+			} else if (responseCode == STATUS_CODE_CONFLICT) {
+				throw new BabelApplicationException(this.protocol.read(
+					response,
+					ServiceError.class));
+			} else {
+				throw new RuntimeException(
+					"Error making service call " +
+					responseCode + (responseMessage != null ? ":" + responseMessage : ""));
+			}
+		}
+
+		Object result = serviceCallManager.getResult();
+		serviceCallManager.handleSuccessResponse();
+		return result;
+
+	}
+	
 	/**
 	 * Method callEndPoint allows each transport to implement calling a babel service.
 	 * @param serviceCallManager - The ServiceCallManager object that manages the call to the service end point.
-	 * Implementers can access the request message, and should set the response, responseCode, and responseMessage.
+	 * Implementers can access the request message, and should pass the response to readResponse, or set the
+	 * response, responseCode, and responseMessage.
 	 * @throws java.io.IOException
 	 */
 	protected abstract void callEndPoint(ServiceCallManager serviceCallManager) throws IOException;
 	
+	/**
+	 * Method callEndPointAsync allows a transport to call a babel service without blocking the calling
+	 * thread, the handler must be completed exactly once.  The default implementation runs the 
+	 * blocking callEndPoint on the blocking executor, transports that can do non-blocking I/O should
+	 * override it.
+	 * @param serviceCallManager - The ServiceCallManager object that manages the call to the service end point.
+	 * @param handler - The handler to complete when the response has been set on the serviceCallManager,
+	 * or to fail with the exception that ended the call.
+	 */
+	protected void callEndPointAsync(
+		final ServiceCallManager serviceCallManager, 
+		final CompletionHandler<Void, ServiceCallManager> handler) 
+	{
+		
+		Executor executor = this.blockingExecutor != null ? 
+			this.blockingExecutor : 
+			AsyncExecutors.getBlockingExecutor();
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					callEndPoint(serviceCallManager);
+				} catch (Throwable t) {
+					handler.failed(t, serviceCallManager);
+					return;
+				}
+				handler.completed(null, serviceCallManager);
+			}
+		});
+		
+	}
+	
 	/**
 	 * Method getServiceConnection gets the ServiceConnection object for the call to the service method.
 	 * @param serviceMethod The ServiceMethod that is to be called.
@@ -309,9 +650,123 @@ public abstract class BaseTransport implements Transport {
 	 */
 	protected abstract ServiceConnection getServiceConnection(ServiceMethod serviceMethod);	
 	
-	private void setRetry(Retry retry) {
-		notNull("retry", retry);
-		this.retry = retry;
+	private BatchResult getBatchResult(ServiceMethod serviceMethod, BatchCallResult callResult) {
+		
+		int code = callResult == null ? STATUS_CODE_INTERNAL_ERROR : callResult.getCode();
+		String message = callResult == null ? null : callResult.getMessage();
+		
+		if (code == STATUS_CODE_OK) {
+			Object result = null;
+			if (serviceMethod instanceof ResponseServiceMethod && message != null) {
+				result = this.protocol.read(message, ((ResponseServiceMethod<?>)serviceMethod).getReturnType());
+			}
+			return new BatchResult(serviceMethod, result);
+		}
+		
+		ServiceError serviceError = message == null ? null : this.protocol.read(message, ServiceError.class);
+		if (serviceError == null) {
+			return new BatchResult(serviceMethod, new RuntimeException(
+				"Error making service call " + code + " for " + 
+				serviceMethod.getServiceName() + "-" + serviceMethod.getMethodName()));
+		} else if (code == STATUS_CODE_CONFLICT) {
+			return new BatchResult(serviceMethod, new BabelApplicationException(serviceError));
+		}
+		return new BatchResult(serviceMethod, new BabelException(serviceError));
+		
+	}
+	
+	private <T> void attemptAsync(final ServiceCallManager serviceCallManager, final ServiceFuture<T> future) {
+		
+		if (future.isDone()) {
+			return;
+		}
+		
+		serviceCallManager.start();
+		try {
+			this.callEndPointAsync(serviceCallManager, new CompletionHandler<Void, ServiceCallManager>() {
+				
+				public void completed(Void result, ServiceCallManager attachment) {
+					serviceCallManager.finish();
+					long delay = serviceCallManager.prepareResponseRetry();
+					if (delay >= 0) {
+						scheduleAsync(serviceCallManager, future, delay);
+					} else {
+						completeAsync(serviceCallManager, future);
+					}
+				}
+				
+				public void failed(Throwable t, ServiceCallManager attachment) {
+					retryAsync(serviceCallManager, future, t);
+				}
+				
+			});
+		} catch (RuntimeException e) {
+			this.failAsync(serviceCallManager, future, e);
+		}
+		
+	}
+	
+	private <T> void retryAsync(
+		final ServiceCallManager serviceCallManager, 
+		final ServiceFuture<T> future,
+		Throwable t) 
+	{
+		
+		if (!(t instanceof Exception)) {
+			future.fail(new RuntimeException(t));
+			return;
+		}
+		if (!(t instanceof IOException) || future.isDone()) {
+			this.failAsync(serviceCallManager, future, (Exception)t);
+			return;
+		}
+		
+		long delay;
+		try {
+			delay = serviceCallManager.prepareRetry((IOException)t);
+		} catch (Exception e) {
+			this.failAsync(serviceCallManager, future, e);
+			return;
+		}
+		
+		this.scheduleAsync(serviceCallManager, future, delay);
+		
+	}
+	
+	private <T> void scheduleAsync(
+		final ServiceCallManager serviceCallManager, 
+		final ServiceFuture<T> future,
+		long delay) 
+	{
+		
+		AsyncExecutors.getScheduler().schedule(new Runnable() {
+			public void run() {
+				attemptAsync(serviceCallManager, future);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> void completeAsync(ServiceCallManager serviceCallManager, ServiceFuture<T> future) {
+		
+		T result;
+		try {
+			result = (T)this.processResponse(serviceCallManager);
+		} catch (Exception e) {
+			this.failAsync(serviceCallManager, future, e);
+			return;
+		}
+		future.complete(result);
+		
+	}
+	
+	private void failAsync(ServiceCallManager serviceCallManager, ServiceFuture<?> future, Exception e) {
+		
+		serviceCallManager.recordCircuitOutcome(true);
+		serviceCallManager.handleFailureResponse(e);
+		future.fail(e instanceof BabelException ? e : new RuntimeException(e));
+		
 	}
 	
 	/**
@@ -325,47 +780,138 @@ public abstract class BaseTransport implements Transport {
 		
 		private final BaseTransport transport; 
 		private final ServiceMethod serviceMethod;
-		private final String request;
+		private String request;
 		private final Map<String, String> headers;
 		private final ServiceConnection serviceConnection;
-		private final Retry retry;
+		private final RetryPolicy retryPolicy;
 		private final List<ResponseHandler> responseHandlers;
+		private final ServiceFuture<?> future;
+		private final Type responseType;
+		private final CircuitBreaker circuitBreaker;
 		
 		private String response;
+		private Object result;
 		private Integer responseCode;
 		private String responseMessage;
+		private String retryAfter;
 		
+		private long firstStart = 0;
 		private long start = 0;
 		private long end = 0;
 		private int attempts = 0;
+		private long previousDelay = 0;
 		private boolean hasFinished;
+		private long circuitStart = 0;
+		private boolean circuitPending;
 		
 		protected ServiceCallManager(ServiceMethod serviceMethod, BaseTransport transport) {
+			this(serviceMethod, transport, null);
+		}
+		
+		protected ServiceCallManager(
+			ServiceMethod serviceMethod, 
+			BaseTransport transport, 
+			ServiceFuture<?> future) 
+		{
 			
 			notNull("serviceMethod", serviceMethod);
 			notNull("headers", transport.headers);
 			notNull("serviceMethod", serviceMethod);
-			notNull("retry", transport.retry);
+			notNull("retryPolicy", transport.retryPolicy);
 			notNull("responseHandlers", transport.responseHandlers);
 			
 			this.transport = transport;
 			
 			this.serviceMethod = serviceMethod;
-			this.request = transport.getRequestMessage(serviceMethod);
+			this.request = transport.captureRequest ? transport.getRequestMessage(serviceMethod) : null;
 			this.headers = transport.headers;
 			this.serviceConnection = transport.getServiceConnection(serviceMethod);
-			this.retry = transport.retry;
+			this.retryPolicy = transport.retryPolicy;
 			this.responseHandlers = transport.responseHandlers;
+			this.future = future;
+			this.responseType = serviceMethod instanceof ResponseServiceMethod ?
+				((ResponseServiceMethod<?>)serviceMethod).getReturnType() :
+				null;
+			this.circuitBreaker = transport.circuitBreakers == null ?
+				null :
+				transport.circuitBreakers.getCircuitBreaker(this.serviceConnection);
+			
+		}
+		
+		/**
+		 * Method getRequest gets the request message as a String, building it if the request is not
+		 * captured.  Transports that can should use writeRequest instead.
+		 * @return The request message.
+		 */
+		public String getRequest() {
+			
+			if (this.request == null) {
+				this.request = this.transport.getRequestMessage(this.serviceMethod);
+			}
+			return this.request;
+			
+		}
+		
+		/**
+		 * Method writeRequest serializes the request message to an OutputStream with the stream 
+		 * methods of the protocol, see ProtocolStreams, the stream is flushed but not closed.
+		 * @param out The OutputStream.
+		 * @throws IOException
+		 */
+		public void writeRequest(OutputStream out) throws IOException {
+			
+			if (this.request != null) {
+				out.write(this.request.getBytes(ProtocolStreams.getCharset(this.transport.protocol)));
+			} else {
+				this.transport.writeRequestMessage(this.serviceMethod, out);
+			}
+			out.flush();
+			
+		}
+		
+		/**
+		 * Method writeRequest serializes the request message to a Writer without building it as a 
+		 * String, unless the request is captured.
+		 * @param writer The Writer.
+		 * @throws IOException
+		 */
+		public void writeRequest(Writer writer) throws IOException {
+			
+			if (this.request != null) {
+				writer.write(this.request);
+			} else {
+				this.transport.writeRequestMessage(this.serviceMethod, writer);
+			}
+			
+		}
+		
+		/**
+		 * Method writeRequest serializes the request message to a body opened by the transport,
+		 * compressing it if the compression policy compresses requests and the request reaches the
+		 * threshold.
+		 * @param opener Opens the body once it is known if it is compressed.
+		 * @param streaming true if the body can be sent without knowing its length.
+		 * @throws IOException
+		 */
+		public void writeRequest(BodyOpener opener, boolean streaming) throws IOException {
+			
+			OutputStream out = new ThresholdOutputStream(
+				opener, 
+				this.transport.compression, 
+				this.serviceMethod.getServiceName(), 
+				streaming);
+			this.writeRequest(out);
+			out.close();
 			
 		}
 		
-		public String getRequest() { return request; }
 		public ServiceMethod getServiceMethod() { return this.serviceMethod; }
 		public Map<String, String> getHeaders() { return this.headers; }
 
 		public String getResponse() {return response; }
 		public void setResponse(String response) {
 			this.response = response;
+			this.result = null;
 		}
 		
 		public Integer getResponseCode() { return responseCode; }
@@ -378,19 +924,192 @@ public abstract class BaseTransport implements Transport {
 			this.responseMessage = responseMessage;
 		}
 		
+		/**
+		 * Method setRetryAfter sets the Retry-After header of the response, transports should set it
+		 * for responses that are not successful so the retry policy can honor it.
+		 * @param retryAfter The value of the header, null if there is none.
+		 */
+		public void setRetryAfter(String retryAfter) {
+			this.retryAfter = retryAfter;
+		}
+		
+		/**
+		 * Method getResult gets the decoded response, decoding the response String if the transport
+		 * set one instead of reading the response through readResponse.
+		 * @return The decoded response, null for void methods.
+		 */
+		public Object getResult() {
+			
+			if (this.result == null && this.response != null && this.responseType != null) {
+				this.result = this.transport.protocol.read(this.response, this.responseType);
+			}
+			return this.result;
+			
+		}
+		
+		/**
+		 * Method readResponse sets the outcome of the call from a response InputStream, as 
+		 * readResponse(Integer, String, Reader) does from a Reader.  A successful response is decoded 
+		 * with the stream methods of the protocol, see ProtocolStreams, error responses are buffered 
+		 * as a String in the charset of the protocol.
+		 * @param responseCode The response code.
+		 * @param responseMessage The response message, if any.
+		 * @param in The response body, or null if there is none.
+		 * @throws IOException
+		 */
+		public void readResponse(Integer responseCode, String responseMessage, InputStream in) 
+		throws IOException 
+		{
+			
+			this.responseCode = responseCode;
+			this.responseMessage = responseMessage;
+			this.response = null;
+			this.result = null;
+			
+			if (in == null) {
+				return;
+			}
+			if (responseCode != STATUS_CODE_OK || this.transport.captureResponse) {
+				this.response = this.transport.getString(
+					new InputStreamReader(in, ProtocolStreams.getCharset(this.transport.protocol)));
+			} else if (this.responseType != null) {
+				this.result = this.transport.readResult(in, this.responseType);
+			}
+			
+		}
+		
+		/**
+		 * Method readResponse sets the outcome of the call from a response InputStream that may be
+		 * compressed, see readResponse(Integer, String, Reader).
+		 * @param responseCode The response code.
+		 * @param responseMessage The response message, if any.
+		 * @param contentEncoding The Content-Encoding of the response, if any.
+		 * @param in The response body, or null if there is none.
+		 * @throws IOException
+		 */
+		public void readResponse(
+			Integer responseCode, 
+			String responseMessage, 
+			String contentEncoding, 
+			InputStream in) 
+		throws IOException 
+		{
+			
+			InputStream body;
+			try {
+				body = this.transport.compression.decompress(
+					in, 
+					contentEncoding, 
+					this.serviceMethod.getServiceName());
+			} catch (IllegalArgumentException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+			this.readResponse(responseCode, responseMessage, body);
+			if (body instanceof DecompressingInputStream) {
+				((DecompressingInputStream)body).finish();
+			}
+			
+		}
+		
+		/**
+		 * Method readResponse sets the outcome of the call from a response Reader.  A successful 
+		 * response is decoded by the protocol straight from the reader without buffering it, unless
+		 * the transport captures responses.  Error responses are buffered as a String.  The body of
+		 * a successful response to a void method is not read.
+		 * @param responseCode The response code.
+		 * @param responseMessage The response message, if any.
+		 * @param reader The response body, or null if there is none.
+		 * @throws IOException
+		 */
+		public void readResponse(Integer responseCode, String responseMessage, Reader reader) 
+		throws IOException 
+		{
+			
+			this.responseCode = responseCode;
+			this.responseMessage = responseMessage;
+			this.response = null;
+			this.result = null;
+			
+			if (reader == null) {
+				return;
+			}
+			if (responseCode != STATUS_CODE_OK || this.transport.captureResponse) {
+				this.response = this.transport.getString(reader);
+			} else if (this.responseType != null) {
+				this.result = this.transport.readResult(reader, this.responseType);
+			}
+			
+		}
+		
 		public void makeCall() throws IOException {
 			this.start();
 			this.transport.callEndPoint(this);
 			this.finish();
 			
+			long delay = this.prepareResponseRetry();
+			if (delay > 0) {
+				this.pause(delay);
+			}
+			
+		}
+		
+		/**
+		 * Method setCancelAction lets an asynchronous transport register how to abort the I/O of the
+		 * current attempt if the caller cancels the call.  It has no effect on blocking calls.
+		 * @param cancelAction The action that aborts the attempt.
+		 */
+		public void setCancelAction(Runnable cancelAction) {
+			if (this.future != null) {
+				this.future.setCancelAction(cancelAction);
+			}
+		}
+		
+		/**
+		 * Method acquireCircuitPermission asks the circuit breaker of the call, if any, if the call may
+		 * be made.  It is called once before the first attempt.
+		 * @throws CircuitBreakerOpenException If the breaker is open.
+		 */
+		public void acquireCircuitPermission() {
+			
+			if (this.circuitBreaker == null) {
+				return;
+			}
+			if (!this.circuitBreaker.tryAcquirePermission()) {
+				throw new CircuitBreakerOpenException(this.circuitBreaker);
+			}
+			this.circuitStart = System.nanoTime();
+			this.circuitPending = true;
+			
+		}
+		
+		/**
+		 * Method recordCircuitOutcome reports the outcome of a permitted call to its circuit breaker,
+		 * only the first outcome of a call is recorded.
+		 * @param failed true if the call failed.
+		 */
+		public void recordCircuitOutcome(boolean failed) {
+			
+			if (!this.circuitPending) {
+				return;
+			}
+			this.circuitPending = false;
+			long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.circuitStart);
+			if (failed) {
+				this.circuitBreaker.onFailure(duration);
+			} else {
+				this.circuitBreaker.onSuccess(duration);
+			}
+			
 		}
 		
 		public boolean shouldAttempt() {
-			return !this.hasFinished && (this.attempts < this.retry.getMaxRetries() + 1);	
+			return !this.hasFinished && (this.attempts < this.retryPolicy.getMaxRetries() + 1);	
 		}
 		
 		public void handleSuccessResponse() {
 			
+			this.retryPolicy.onSuccess();
+			
 			for (ResponseHandler handler : this.responseHandlers) {
 				handler.onSuccess(
 	        		this.serviceConnection, 
@@ -419,26 +1138,120 @@ public abstract class BaseTransport implements Transport {
 		
 		public void handleIOException(IOException e) throws Exception {
 			
-			if (e instanceof SocketTimeoutException || //read/connect timeout is exceeded
-            		e instanceof ConnectException) //server is unreachable
-        	{
-                if (this.attempts == this.retry.getMaxRetries() + 1) {
-                    throw e;             
-                }                      
-                this.handleFailureResponse(e);
-            	if (this.retry.getRetryDelay() > 0) {
-            		System.err.println("Sleeping for " + this.retry.getRetryDelay() + "ms");
-            		Thread.sleep(this.retry.getRetryDelay());
-            	}
-        	} else {
-        		throw e;
-        	}
+			long delay = this.prepareRetry(e);
+			if (delay > 0) {
+				this.pause(delay);
+			}
+			
+		}
+		
+		/**
+		 * Method prepareRetry decides if a failed attempt can be retried, see RetryPolicy.
+		 * @param e The exception that ended the attempt.
+		 * @return The delay in ms before the next attempt.
+		 * @throws IOException The given exception if the call should not be retried.
+		 */
+		protected long prepareRetry(IOException e) throws IOException {
+			
+			if (!this.retryPolicy.isRetryable(e)) {
+				throw e;
+			}
+			long delay = this.decideRetry(null, e, -1);
+			if (delay < 0) {
+				throw e;
+			}
+			this.handleFailureResponse(e);
+			return delay;
+			
+		}
+		
+		/**
+		 * Method prepareResponseRetry decides if an answered attempt can be retried, because the
+		 * response status is retryable, see RetryPolicy.
+		 * @return The delay in ms before the next attempt, or -1 if the response is final.
+		 */
+		protected long prepareResponseRetry() {
+			
+			if (this.responseCode == null || !this.retryPolicy.isRetryable(this.responseCode)) {
+				return -1;
+			}
+			long retryAfter = -1;
+			if (this.retryPolicy.isHonorRetryAfter()) {
+				retryAfter = RetryPolicy.parseRetryAfter(this.retryAfter, System.currentTimeMillis());
+			}
+			long delay = this.decideRetry(this.responseCode, null, retryAfter);
+			if (delay < 0) {
+				return -1;
+			}
+			this.handleFailureResponse(new IOException("Error making service call " + this.responseCode +
+				(this.responseMessage != null ? ":" + this.responseMessage : "")));
+			this.hasFinished = false;
+			return delay;
+			
+		}
+		
+		private long decideRetry(Integer errorCode, Exception e, long retryAfter) {
+			
+			int retry = this.attempts;
+			RetryDenial denial = null;
+			long delay = 0;
+			if (this.attempts >= this.retryPolicy.getMaxRetries() + 1) {
+				if (this.retryPolicy.getMaxRetries() == 0) {
+					return -1;
+				}
+				denial = RetryDenial.ATTEMPTS_EXHAUSTED;
+			} else if (retryAfter > this.retryPolicy.getMaxRetryAfter()) {
+				denial = RetryDenial.RETRY_AFTER_TOO_LONG;
+			} else {
+				delay = Math.max(0, this.retryPolicy.getBackoff().getDelay(retry, this.previousDelay));
+				delay = Math.max(delay, retryAfter);
+				long deadline = this.retryPolicy.getDeadline();
+				if (deadline > 0 && System.currentTimeMillis() + delay - this.firstStart >= deadline) {
+					denial = RetryDenial.DEADLINE_EXCEEDED;
+				} else if (!this.retryPolicy.tryAcquireRetry()) {
+					denial = RetryDenial.BUDGET_EXHAUSTED;
+				}
+			}
+			
+			for (ResponseHandler handler : this.responseHandlers) {
+				if (!(handler instanceof RetryHandler)) {
+					continue;
+				}
+				if (denial == null) {
+					((RetryHandler)handler).onRetry(
+						this.serviceConnection, this.headers, retry, delay, errorCode, e);
+				} else {
+					((RetryHandler)handler).onRetryDenied(
+						this.serviceConnection, this.headers, retry, denial, errorCode, e);
+				}
+			}
+			
+			if (denial != null) {
+				return -1;
+			}
+			this.previousDelay = delay;
+			return delay;
+			
+		}
+		
+		private void pause(long delay) throws InterruptedIOException {
+			
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to retry");
+			}
 			
 		}
 		
 		private void start() {
 			this.start = System.currentTimeMillis();
+			if (this.firstStart == 0) {
+				this.firstStart = this.start;
+			}
 			this.end = 0;
+			this.retryAfter = null;
 			this.attempts++;
 		}
 		
@@ -454,28 +1267,4 @@ public abstract class BaseTransport implements Transport {
 		
 	}
 	
-	/**
-	 * Retry encapsulates retry logic for babel clients to use when 
-	 * errors occur connecting to a babel hosted service.
-	 */
-	protected class Retry {
-		
-		private final int maxRetries;
-		private final long retryDelay;
-		
-		public Retry(int maxRetries, long retryDelay) {
-			
-			preCondition(maxRetries >= 0, "maxRetries must be greater than or equal to ZERO");
-			preCondition(retryDelay >= 0, "retryDelay must be greater than or equal to ZERO");
-			
-			this.maxRetries = maxRetries;
-			this.retryDelay = retryDelay;
-			
-		}
-
-		public int getMaxRetries() { return maxRetries; }
-		public long getRetryDelay() { return retryDelay; }
-
-	}
-	
-}
+}
\ No newline at end of file
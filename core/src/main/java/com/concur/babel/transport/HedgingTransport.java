@@ -0,0 +1,469 @@
+package com.concur.babel.transport;
+
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.concur.babel.ResponseServiceMethod;
+import com.concur.babel.ServiceMethod;
+import com.concur.babel.VoidServiceMethod;
+import com.concur.babel.exception.BabelException;
+import com.concur.babel.transport.async.AsyncExecutors;
+import com.concur.babel.transport.async.ServiceCallback;
+import com.concur.babel.transport.async.ServiceFuture;
+import com.concur.babel.transport.batch.BatchResult;
+import com.concur.babel.transport.circuit.CircuitBreakerOpenException;
+import com.concur.babel.transport.handler.HedgeHandler;
+import com.concur.babel.transport.handler.ResponseHandler;
+import com.concur.babel.transport.hedge.HedgePolicy;
+import com.concur.babel.transport.hedge.LatencyTracker;
+import com.concur.babel.transport.retry.RetryPolicy;
+
+/**
+ * HedgingTransport sends calls to one of several endpoints of a service, taking turns, and hedges
+ * calls of idempotent methods: if a call has no response after the hedge delay the same request is
+ * sent to the next endpoint, the first response wins and the other requests are cancelled.  A
+ * request that fails without a response, like a refused connection, does not win while another is
+ * outstanding, and the next hedge is sent right away.  See HedgePolicy.
+ *
+ * Requests are sent with the asynchronous calls of the endpoint transports, cancelling aborts the
+ * I/O on transports that support it, like AsyncHttpTransport, other transports finish the request
+ * in the background and drop the response.  Settings like timeouts, headers, retries and response
+ * handlers are applied to every endpoint.
+ */
+public class HedgingTransport implements Transport {
+
+	private final List<BaseTransport> endpoints;
+	private final HedgePolicy policy;
+	private final List<ResponseHandler> responseHandlers = new ArrayList<ResponseHandler>();
+	private final ConcurrentMap<String, LatencyTracker> latencies = new ConcurrentHashMap<String, LatencyTracker>();
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Creates a new HedgingTransport that sends hedges to the same endpoint, which is useful if the
+	 * endpoint is a load balancer.
+	 *
+	 * @param endpoint The transport of the endpoint
+	 * @param policy The hedge policy
+	 */
+	public HedgingTransport(BaseTransport endpoint, HedgePolicy policy) {
+		this(Collections.singletonList(endpoint), policy);
+	}
+
+	/**
+	 * Creates a new HedgingTransport
+	 *
+	 * @param endpoints The transports of the endpoints, they should use the same protocol
+	 * @param policy The hedge policy
+	 */
+	public HedgingTransport(List<? extends BaseTransport> endpoints, HedgePolicy policy) {
+
+		notNull("endpoints", endpoints);
+		notNull("policy", policy);
+		preCondition(!endpoints.isEmpty(), "endpoints must not be empty");
+		for (BaseTransport endpoint : endpoints) {
+			notNull("endpoint", endpoint);
+		}
+
+		this.endpoints = new ArrayList<BaseTransport>(endpoints);
+		this.policy = policy;
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> T invoke(ResponseServiceMethod<T> serviceMethod) {
+
+		notNull("serviceMethod", serviceMethod);
+		if (!this.policy.isIdempotent(serviceMethod)) {
+			return this.nextEndpoint().invoke(serviceMethod);
+		}
+		return this.<T>hedge(serviceMethod).join();
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void invoke(VoidServiceMethod serviceMethod) {
+
+		notNull("serviceMethod", serviceMethod);
+		if (!this.policy.isIdempotent(serviceMethod)) {
+			this.nextEndpoint().invoke(serviceMethod);
+			return;
+		}
+		this.<Void>hedge(serviceMethod).join();
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> ServiceFuture<T> invokeAsync(ResponseServiceMethod<T> serviceMethod) {
+
+		notNull("serviceMethod", serviceMethod);
+		if (!this.policy.isIdempotent(serviceMethod)) {
+			return this.nextEndpoint().invokeAsync(serviceMethod);
+		}
+		return this.hedge(serviceMethod);
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public ServiceFuture<Void> invokeAsync(VoidServiceMethod serviceMethod) {
+
+		notNull("serviceMethod", serviceMethod);
+		if (!this.policy.isIdempotent(serviceMethod)) {
+			return this.nextEndpoint().invokeAsync(serviceMethod);
+		}
+		return this.hedge(serviceMethod);
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Batches are not hedged.
+	 */
+	public List<BatchResult> invokeBatch(List<? extends ServiceMethod> serviceMethods) {
+		return this.nextEndpoint().invokeBatch(serviceMethods);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void setConnectionTimeout(int timeoutInMillis) {
+		for (BaseTransport endpoint : this.endpoints) {
+			endpoint.setConnectionTimeout(timeoutInMillis);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void setReadTimeout(int timeoutInMillis) {
+		for (BaseTransport endpoint : this.endpoints) {
+			endpoint.setReadTimeout(timeoutInMillis);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void setHeaders(Map<String, String> headers) {
+		for (BaseTransport endpoint : this.endpoints) {
+			endpoint.setHeaders(headers);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void setHeader(String key, String value) {
+		for (BaseTransport endpoint : this.endpoints) {
+			endpoint.setHeader(key, value);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void addResponseHandlers(List<ResponseHandler> handlers) {
+		notNull("handlers", handlers);
+		for (ResponseHandler handler : handlers) {
+			this.addResponseHandler(handler);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void addResponseHandler(ResponseHandler handler) {
+		notNull("handler", handler);
+		this.responseHandlers.add(handler);
+		for (BaseTransport endpoint : this.endpoints) {
+			endpoint.addResponseHandler(handler);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void setMaxRetries(int maxRetries) {
+		for (BaseTransport endpoint : this.endpoints) {
+			endpoint.setMaxRetries(maxRetries);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void setRetryDelay(long retryDelay) {
+		for (BaseTransport endpoint : this.endpoints) {
+			endpoint.setRetryDelay(retryDelay);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		for (BaseTransport endpoint : this.endpoints) {
+			endpoint.setRetryPolicy(retryPolicy);
+		}
+	}
+
+	public List<BaseTransport> getEndpoints() { return Collections.unmodifiableList(this.endpoints); }
+
+	public HedgePolicy getPolicy() { return this.policy; }
+
+	/**
+	 * Method getLatencies gets the recent latencies of a method, creating the tracker if needed.
+	 *
+	 * @param serviceMethod The service method.
+	 * @return the latency tracker the hedge delay is derived from.
+	 */
+	public LatencyTracker getLatencies(ServiceMethod serviceMethod) {
+
+		String key = serviceMethod.getServiceName() + "/" + serviceMethod.getMethodName();
+		LatencyTracker tracker = this.latencies.get(key);
+		if (tracker == null) {
+			LatencyTracker created = new LatencyTracker(this.policy.getSampleSize(),
+				Math.max(1, this.policy.getSampleSize() / 10));
+			tracker = this.latencies.putIfAbsent(key, created);
+			if (tracker == null) {
+				tracker = created;
+			}
+		}
+		return tracker;
+
+	}
+
+	private BaseTransport nextEndpoint() {
+		return this.endpoints.get(this.nextIndex());
+	}
+
+	private int nextIndex() {
+		return (this.next.getAndIncrement() & Integer.MAX_VALUE) % this.endpoints.size();
+	}
+
+	private <T> ServiceFuture<T> hedge(ServiceMethod serviceMethod) {
+
+		HedgedCall<T> call = new HedgedCall<T>(serviceMethod, this.nextIndex());
+		call.start();
+		return call.future;
+
+	}
+
+	/**
+	 * HedgedCall is a call and its hedges, the requests complete on the threads of the endpoint
+	 * transports and the hedge timer runs on the shared scheduler, so its state is guarded by itself.
+	 */
+	private class HedgedCall<T> {
+
+		private final ServiceMethod serviceMethod;
+		private final int first;
+		private final LatencyTracker latencies;
+		private final long delay;
+		private final long start = System.nanoTime();
+		private final ServiceFuture<T> future = new ServiceFuture<T>();
+		private final List<ServiceFuture<T>> requests = new ArrayList<ServiceFuture<T>>(2);
+
+		private int hedges = 0;
+		private int outstanding = 0;
+		private boolean decided = false;
+		private ScheduledFuture<?> timer;
+
+		private HedgedCall(ServiceMethod serviceMethod, int first) {
+
+			this.serviceMethod = serviceMethod;
+			this.first = first;
+			this.latencies = getLatencies(serviceMethod);
+			this.delay = policy.getDelay(this.latencies);
+
+		}
+
+		private void start() {
+
+			policy.getBudget().deposit();
+			this.future.setCancelAction(new Runnable() {
+				public void run() {
+					cancelRequests(-1);
+				}
+			});
+			synchronized (this) {
+				this.send(0);
+				this.schedule();
+			}
+
+		}
+
+		private void schedule() {
+
+			if (this.hedges >= policy.getMaxHedges()) {
+				return;
+			}
+			this.timer = AsyncExecutors.getScheduler().schedule(new Runnable() {
+				public void run() {
+					synchronized (HedgedCall.this) {
+						sendHedge();
+					}
+				}
+			}, this.delay, TimeUnit.MILLISECONDS);
+
+		}
+
+		/** Must be called holding the lock, returns false if no hedge was sent. */
+		private boolean sendHedge() {
+
+			if (this.decided || this.future.isDone() || this.hedges >= policy.getMaxHedges()) {
+				return false;
+			}
+			int hedge = this.hedges + 1;
+			BaseTransport endpoint = this.getEndpoint(hedge);
+			if (!policy.getBudget().tryWithdraw()) {
+				for (ResponseHandler handler : responseHandlers) {
+					if (handler instanceof HedgeHandler) {
+						((HedgeHandler)handler).onHedgeDenied(
+							endpoint.getServiceConnection(this.serviceMethod),
+							endpoint.headers,
+							hedge);
+					}
+				}
+				return false;
+			}
+
+			this.hedges = hedge;
+			for (ResponseHandler handler : responseHandlers) {
+				if (handler instanceof HedgeHandler) {
+					((HedgeHandler)handler).onHedge(
+						endpoint.getServiceConnection(this.serviceMethod),
+						endpoint.headers,
+						hedge,
+						this.getElapsed());
+				}
+			}
+			this.send(hedge);
+			this.schedule();
+			return true;
+
+		}
+
+		private void send(final int request) {
+
+			final BaseTransport endpoint = this.getEndpoint(request);
+			final long requestStart = System.nanoTime();
+			ServiceFuture<T> requestFuture = new ServiceFuture<T>();
+			this.requests.add(requestFuture);
+			this.outstanding++;
+
+			requestFuture.addCallback(new ServiceCallback<T>() {
+				public void onSuccess(T result) {
+					if (decide()) {
+						latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestStart));
+						complete(endpoint, request);
+						future.complete(result);
+					}
+				}
+				public void onFailure(Exception exception) {
+					onRequestFailure(endpoint, request, exception);
+				}
+			});
+			endpoint.callServiceAsync(this.serviceMethod, requestFuture);
+
+		}
+
+		private void onRequestFailure(BaseTransport endpoint, int request, Exception exception) {
+
+			if (exception instanceof CancellationException) {
+				return;
+			}
+			// the service answered with an error, that is the response of the call
+			boolean answered = exception instanceof BabelException &&
+				!(exception instanceof CircuitBreakerOpenException);
+
+			synchronized (this) {
+				this.outstanding--;
+				if (!answered && (this.outstanding > 0 || this.sendHedge())) {
+					return;
+				}
+			}
+			if (this.decide()) {
+				this.complete(answered ? endpoint : this.getEndpoint(0), answered ? request : -1);
+				this.future.fail(exception);
+			}
+
+		}
+
+		/** Returns true for the one request whose outcome becomes the outcome of the call. */
+		private synchronized boolean decide() {
+
+			if (this.decided || this.future.isDone()) {
+				return false;
+			}
+			this.decided = true;
+			return true;
+
+		}
+
+		private void complete(BaseTransport endpoint, int winner) {
+
+			this.cancelRequests(winner);
+			int hedges;
+			synchronized (this) {
+				hedges = this.hedges;
+			}
+			for (ResponseHandler handler : responseHandlers) {
+				if (handler instanceof HedgeHandler) {
+					((HedgeHandler)handler).onHedgeComplete(
+						endpoint.getServiceConnection(this.serviceMethod),
+						endpoint.headers,
+						hedges,
+						winner,
+						this.getElapsed());
+				}
+			}
+
+		}
+
+		private void cancelRequests(int winner) {
+
+			List<ServiceFuture<T>> losers;
+			synchronized (this) {
+				if (this.timer != null) {
+					this.timer.cancel(false);
+				}
+				losers = new ArrayList<ServiceFuture<T>>(this.requests);
+			}
+			for (int i = 0; i < losers.size(); i++) {
+				if (i != winner) {
+					losers.get(i).cancel(true);
+				}
+			}
+
+		}
+
+		private BaseTransport getEndpoint(int request) {
+			return endpoints.get((this.first + request) % endpoints.size());
+		}
+
+		private long getElapsed() {
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.start);
+		}
+
+	}
+
+}
@@ -0,0 +1,192 @@
+package com.concur.babel.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.concur.babel.ServiceMethod;
+import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.compression.BodyOpener;
+import com.concur.babel.transport.compression.ContentCoding;
+import com.concur.babel.transport.http2.HeaderField;
+import com.concur.babel.transport.http2.Http2ClientConnection;
+import com.concur.babel.transport.http2.Http2Exception;
+import com.concur.babel.transport.http2.Http2Frame;
+import com.concur.babel.transport.http2.Http2Stream;
+import com.concur.babel.transport.pool.HttpRoute;
+
+/**
+ * Http2Transport is an HTTP/2 transport implementation for babel.  Every call is a stream on one
+ * connection per host that is shared by all Http2Transports in the process, so concurrent calls are
+ * multiplexed instead of each holding a connection, and repeated headers are compressed with HPACK.
+ *
+ * Only cleartext "h2c" with prior knowledge is supported, the server must accept HTTP/2 without an
+ * upgrade, as BabelHttp2Server does.  Like HttpTransport all calls will be made via POSTs with a
+ * read/connect timeout of 10000 milliseconds by default.
+ */
+public class Http2Transport extends BaseHttpTransport {
+
+	private static final ConcurrentMap<HttpRoute, Http2ClientConnection> CONNECTIONS =
+		new ConcurrentHashMap<HttpRoute, Http2ClientConnection>();
+
+	private final HttpRoute route;
+
+	/**
+	 * Creates a new Http2Transport
+	 *
+	 * @param url A String representation of the url, the scheme must be http
+	 * @param protocol The protocol to use
+	 */
+	public Http2Transport(String url, Protocol protocol) {
+
+		super(url, protocol);
+
+		if (!"http".equalsIgnoreCase(this.baseUrl.getProtocol())) {
+			throw new IllegalArgumentException("Only http urls are supported: " + url);
+		}
+		this.route = HttpRoute.of(this.baseUrl);
+
+	}
+
+	/**
+	 * Creates a new Http2Transport
+	 *
+	 * @param url A String representation of the url, the scheme must be http
+	 * @param protocol The protocol to use
+	 * @param timeout The connection and read timeout values, in milliseconds
+	 */
+	public Http2Transport(String url, Protocol protocol, int timeout) {
+		this(url, protocol);
+		this.setConnectionTimeout(timeout);
+		this.setReadTimeout(timeout);
+	}
+
+	/**
+	 * Method closeConnections closes the shared connections, calls in flight on them fail.
+	 */
+	public static void closeConnections() {
+
+		for (Http2ClientConnection connection : CONNECTIONS.values()) {
+			connection.close();
+		}
+		CONNECTIONS.clear();
+
+	}
+
+	/**
+	 * @return the shared connection this transport uses, opening it if needed.
+	 * @throws IOException if the server can not be reached.
+	 */
+	public Http2ClientConnection getConnection() throws IOException {
+
+		Http2ClientConnection connection = CONNECTIONS.get(this.route);
+		if (connection != null && connection.isUsable()) {
+			return connection;
+		}
+
+		synchronized (CONNECTIONS) {
+			connection = CONNECTIONS.get(this.route);
+			if (connection == null || !connection.isUsable()) {
+				connection = Http2ClientConnection.open(
+					this.route.getHost(),
+					this.route.getPort(),
+					this.connectionTimeout);
+				CONNECTIONS.put(this.route, connection);
+			}
+			return connection;
+		}
+
+	}
+
+	/**
+	 * Method callEndPoint is Http2Transport's implementation of calling a babel service endpoint.
+	 * A call the server refused or never processed, because the connection was going away, is
+	 * repeated once on a new connection.
+	 */
+	protected void callEndPoint(ServiceCallManager serviceCallManager) throws IOException {
+
+		try {
+			this.exchange(serviceCallManager);
+		} catch (Http2Exception e) {
+			if (!e.isRetryable()) {
+				throw e;
+			}
+			this.exchange(serviceCallManager);
+		}
+
+	}
+
+	private void exchange(ServiceCallManager serviceCallManager) throws IOException {
+
+		final Http2ClientConnection connection = this.getConnection();
+		final List<HeaderField> headers = this.getRequestHeaders(serviceCallManager);
+		final Http2Stream[] stream = new Http2Stream[1];
+		boolean completed = false;
+
+		try {
+			serviceCallManager.writeRequest(new BodyOpener() {
+				public OutputStream open(ContentCoding coding, int contentLength) throws IOException {
+					if (coding != null) {
+						headers.add(new HeaderField("content-encoding", coding.getName()));
+					}
+					if (contentLength >= 0) {
+						headers.add(new HeaderField("content-length", String.valueOf(contentLength)));
+					}
+					stream[0] = connection.openStream(headers, false, connectionTimeout);
+					return connection.newRequestBody(stream[0], readTimeout);
+				}
+			}, true);
+			stream[0].awaitEnd(this.readTimeout);
+			completed = true;
+		} finally {
+			// a request that could not be written, timed out or was interrupted is abandoned, tell
+			// the server so it stops working on it, unless the stream already ended or failed
+			if (!completed && stream[0] != null &&
+				!stream[0].isEndReceived() && stream[0].getFailure() == null)
+			{
+				connection.resetStream(stream[0], Http2Frame.CANCEL);
+			}
+		}
+
+		int status = stream[0].getStatus();
+		serviceCallManager.setRetryAfter(stream[0].getHeader("retry-after"));
+		serviceCallManager.readResponse(
+			status,
+			status != STATUS_CODE_OK ? "HTTP/2 " + status : null,
+			stream[0].getHeader("content-encoding"),
+			stream[0].getBodyInputStream());
+
+	}
+
+	private List<HeaderField> getRequestHeaders(ServiceCallManager serviceCallManager) throws IOException {
+
+		ServiceMethod serviceMethod = serviceCallManager.getServiceMethod();
+		List<HeaderField> headers = new ArrayList<HeaderField>(8);
+		headers.add(new HeaderField(":method", this.httpMethod));
+		headers.add(new HeaderField(":scheme", "http"));
+		headers.add(new HeaderField(":authority", this.hostHeader));
+		headers.add(new HeaderField(":path", this.getPath(serviceMethod)));
+		headers.add(new HeaderField("content-type", this.contentType));
+		if (this.compression.isAcceptCompressed()) {
+			headers.add(new HeaderField("accept-encoding", ContentCoding.ACCEPT_ENCODING));
+		}
+
+		Map<String, String> custom = serviceCallManager.getHeaders();
+		if (custom != null) {
+			for (Entry<String, String> e : custom.entrySet()) {
+				headers.add(new HeaderField(
+					e.getKey().toLowerCase(),
+					URLEncoder.encode(e.getValue(), "UTF-8").replace("+", "%20")));
+			}
+		}
+		return headers;
+
+	}
+
+}
@@ -3,7 +3,8 @@ package com.concur.babel.transport;
 import static com.concur.babel.ArgValidator.notNull;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -13,7 +14,10 @@ import java.util.Map.Entry;
 
 import com.concur.babel.ServiceMethod;
 import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.compression.BodyOpener;
+import com.concur.babel.transport.compression.ContentCoding;
 import com.concur.babel.transport.handler.ServiceConnection;
+import com.concur.babel.transport.http.ChunkedOutputStream;
 
 /**
  * HttpTransport is an Http transport implementation for babel.
@@ -23,10 +27,14 @@ import com.concur.babel.transport.handler.ServiceConnection;
 public class HttpTransport extends BaseTransport {
 
     public static final String CONTENT_TYPE = "Content-Type";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String RETRY_AFTER = "Retry-After";
     public static final String HTTP_METHOD_POST = "POST";	
     
     private String contentType = "json";
     private String httpMethod = HTTP_METHOD_POST;  
+    private boolean chunkedStreaming = true;
 	
     private final String url;
 	
@@ -85,6 +93,16 @@ public class HttpTransport extends BaseTransport {
 		this.httpMethod = httpMethod;
 	}
 	
+	/**
+	 * Method setChunkedStreaming sets if requests are streamed with chunked transfer encoding.  When
+	 * disabled each request is serialized to a buffer first so it can be sent with a Content-Length,
+	 * for servers that do not accept chunked request bodies.  The default is true.
+	 * @param chunkedStreaming true to stream requests.
+	 */
+	public void setChunkedStreaming(boolean chunkedStreaming) {
+		this.chunkedStreaming = chunkedStreaming;
+	}
+	
 	/**
 	 * Method callEndPoint is HTTPTransport's implementation of calling a babel service endpoint.
 	 */
@@ -93,27 +111,46 @@ public class HttpTransport extends BaseTransport {
 		HttpURLConnection conn = null;
 		try {
 			
-			String request = serviceCallManager.getRequest();
 			conn = this.getConnection(serviceCallManager);
 			
-			PrintWriter pw = new PrintWriter(conn.getOutputStream());
-        	pw.println(request);
-            pw.close();	                  						
+			final HttpURLConnection connection = conn;
+			serviceCallManager.writeRequest(new BodyOpener() {
+				public OutputStream open(ContentCoding coding, int contentLength) throws IOException {
+					if (coding != null) {
+						connection.setRequestProperty(CONTENT_ENCODING, coding.getName());
+					}
+					if (contentLength >= 0) {
+						connection.setFixedLengthStreamingMode(contentLength);
+					} else {
+						connection.setChunkedStreamingMode(ChunkedOutputStream.DEFAULT_CHUNK_SIZE);
+					}
+					return connection.getOutputStream();
+				}
+			}, this.chunkedStreaming);
 
             Integer responseCode = conn.getResponseCode();
-            String response = null;
+            InputStream in = null;
 			String responseMessage = null;
             
             if (responseCode != HttpURLConnection.HTTP_OK) {
-            	response = this.getString(conn.getErrorStream());
+            	in = conn.getErrorStream();
             	responseMessage = conn.getResponseMessage();
+            	serviceCallManager.setRetryAfter(conn.getHeaderField(RETRY_AFTER));
             } else {
-            	response = this.getString(conn.getInputStream());
+            	in = conn.getInputStream();
             }            
             
-            serviceCallManager.setResponse(response);
-            serviceCallManager.setResponseCode(responseCode);
-            serviceCallManager.setResponseMessage(responseMessage);
+            try {
+            	serviceCallManager.readResponse(
+            		responseCode, 
+            		responseMessage, 
+            		conn.getHeaderField(CONTENT_ENCODING), 
+            		in);
+            } finally {
+            	if (in != null) {
+            		in.close();
+            	}
+            }
 			
 		} finally {
 			if (conn != null) {
@@ -164,6 +201,9 @@ public class HttpTransport extends BaseTransport {
         conn.setDoInput(true);
         conn.setConnectTimeout(this.connectionTimeout);
         conn.setReadTimeout(this.readTimeout);
+        if (this.compression.isAcceptCompressed()) {
+        	conn.setRequestProperty(ACCEPT_ENCODING, ContentCoding.ACCEPT_ENCODING);
+        }
         
         Map<String, String> headers = serviceCallManager.getHeaders();
         if (headers != null) {
@@ -0,0 +1,210 @@
+package com.concur.babel.transport;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.util.Map;
+
+import com.concur.babel.ServiceMethod;
+import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.compression.BodyOpener;
+import com.concur.babel.transport.compression.ContentCoding;
+import com.concur.babel.transport.http.ChunkedOutputStream;
+import com.concur.babel.transport.http.Http1Codec;
+import com.concur.babel.transport.http.HttpResponseHead;
+import com.concur.babel.transport.http.ResponseBodyInputStream;
+import com.concur.babel.transport.pool.HttpConnectionPool;
+import com.concur.babel.transport.pool.HttpRoute;
+import com.concur.babel.transport.pool.PoolStats;
+import com.concur.babel.transport.pool.PooledConnection;
+
+/**
+ * PooledHttpTransport is an Http transport implementation for babel that keeps connections alive
+ * between calls.  Connections are leased from an HttpConnectionPool, which by default is the process
+ * wide pool shared by every PooledHttpTransport, and handed back once the response has been read so
+ * that the next call skips the TCP handshake.
+ *
+ * Like HttpTransport all calls will be made via POSTs with a read/connect timeout of 10000
+ * milliseconds by default, the connection timeout also bounds how long a call waits for a pooled
+ * connection to become available.
+ */
+public class PooledHttpTransport extends BaseHttpTransport {
+
+	private static final long MAX_DRAIN_BYTES = 64 * 1024;
+
+	private boolean chunkedStreaming = true;
+
+	private final HttpRoute route;
+	private final HttpConnectionPool pool;
+
+	/**
+	 * Creates a new PooledHttpTransport using the default connection pool.
+	 *
+	 * @param url A String representation of the url
+	 * @param protocol The protocol to use
+	 */
+	public PooledHttpTransport(String url, Protocol protocol) {
+		this(url, protocol, HttpConnectionPool.getDefault());
+	}
+
+	/**
+	 * Creates a new PooledHttpTransport using the default connection pool.
+	 *
+	 * @param url A String representation of the url
+	 * @param protocol The protocol to use
+	 * @param timeout The connection and read timeout values, in milliseconds
+	 */
+	public PooledHttpTransport(String url, Protocol protocol, int timeout) {
+		this(url, protocol, HttpConnectionPool.getDefault());
+		this.setConnectionTimeout(timeout);
+		this.setReadTimeout(timeout);
+	}
+
+	/**
+	 * Creates a new PooledHttpTransport
+	 *
+	 * @param url A String representation of the url
+	 * @param protocol The protocol to use
+	 * @param pool The connection pool to lease connections from
+	 */
+	public PooledHttpTransport(String url, Protocol protocol, HttpConnectionPool pool) {
+
+		super(url, protocol);
+		notNull("pool", pool);
+
+		this.pool = pool;
+		if (!"http".equalsIgnoreCase(this.baseUrl.getProtocol()) &&
+			!"https".equalsIgnoreCase(this.baseUrl.getProtocol()))
+		{
+			throw new IllegalArgumentException("Only http and https urls are supported: " + url);
+		}
+		this.route = HttpRoute.of(this.baseUrl);
+
+	}
+
+	/**
+	 * Method setChunkedStreaming sets if requests are streamed with chunked transfer encoding.  When
+	 * disabled each request is serialized to a buffer first so it can be sent with a Content-Length,
+	 * for servers that do not accept chunked request bodies.  The default is true.
+	 * @param chunkedStreaming true to stream requests.
+	 */
+	public void setChunkedStreaming(boolean chunkedStreaming) {
+		this.chunkedStreaming = chunkedStreaming;
+	}
+
+	public HttpConnectionPool getPool() { return this.pool; }
+
+	/**
+	 * @return the current state of the pooled connections to the host this transport calls.
+	 */
+	public PoolStats getPoolStats() {
+		return this.pool.getStats(this.route);
+	}
+
+	/**
+	 * Method callEndPoint is PooledHttpTransport's implementation of calling a babel service endpoint.
+	 * A call that fails on a reused connection while its request is being written is repeated once
+	 * on a new connection, since that almost always means the server closed the connection while it
+	 * was idle.  A call that fails after the whole request was sent may have been processed, so it
+	 * is left to the retry policy.
+	 */
+	protected void callEndPoint(ServiceCallManager serviceCallManager) throws IOException {
+
+		try {
+			this.exchange(serviceCallManager, false);
+		} catch (StaleConnectionException e) {
+			this.exchange(serviceCallManager, true);
+		}
+
+	}
+
+	private void exchange(ServiceCallManager serviceCallManager, boolean isRetry) throws IOException {
+
+		ServiceMethod serviceMethod = serviceCallManager.getServiceMethod();
+		PooledConnection connection = this.pool.lease(this.route, this.connectionTimeout, this.connectionTimeout);
+		boolean reusable = false;
+		boolean requestSent = false;
+
+		try {
+
+			connection.setReadTimeout(this.readTimeout);
+
+			final OutputStream out = connection.getOutputStream();
+			final String path = this.getPath(serviceMethod);
+			final Map<String, String> headers = serviceCallManager.getHeaders();
+			serviceCallManager.writeRequest(new BodyOpener() {
+				public OutputStream open(ContentCoding coding, int contentLength) throws IOException {
+					Http1Codec.writeRequestHead(
+						out,
+						httpMethod,
+						path,
+						hostHeader,
+						getFixedHeaders(coding, contentLength),
+						headers);
+					return contentLength < 0 ? new ChunkedOutputStream(out) : new FixedLengthOutputStream(out);
+				}
+			}, this.chunkedStreaming);
+			requestSent = true;
+
+			HttpResponseHead head = Http1Codec.readResponseHead(connection.getInputStream());
+
+			serviceCallManager.setRetryAfter(head.getHeader(HttpTransport.RETRY_AFTER));
+			ResponseBodyInputStream in = Http1Codec.openBody(
+				head,
+				connection.getInputStream(),
+				!"HEAD".equalsIgnoreCase(this.httpMethod));
+			serviceCallManager.readResponse(
+				head.getStatusCode(),
+				head.getStatusCode() != STATUS_CODE_OK ? head.getReasonPhrase() : null,
+				head.getHeader(HttpTransport.CONTENT_ENCODING),
+				in);
+			reusable = head.isKeepAlive() && (in.isComplete() || in.drain(MAX_DRAIN_BYTES));
+
+		} catch (IOException e) {
+			if (!isRetry && !requestSent && connection.isReused() &&
+				(e instanceof EOFException || e instanceof SocketException))
+			{
+				throw new StaleConnectionException(e);
+			}
+			throw e;
+		} finally {
+			this.pool.release(connection, reusable);
+		}
+
+	}
+
+	/**
+	 * Writes a body sent with a Content-Length, closing it flushes the connection but leaves it open.
+	 */
+	private static class FixedLengthOutputStream extends FilterOutputStream {
+
+		FixedLengthOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.out.flush();
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	private static class StaleConnectionException extends IOException {
+
+		StaleConnectionException(IOException cause) {
+			super(cause);
+		}
+
+	}
+
+}
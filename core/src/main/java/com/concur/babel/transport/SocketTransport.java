@@ -1,24 +1,58 @@
 package com.concur.babel.transport;
 
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.file.Path;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.concur.babel.ServiceMethod;
 import com.concur.babel.protocol.Protocol;
 import com.concur.babel.transport.handler.ServiceConnection;
+import com.concur.babel.transport.socket.ConnectionClosedException;
+import com.concur.babel.transport.socket.FrameFormat;
+import com.concur.babel.transport.socket.RequestWriter;
+import com.concur.babel.transport.socket.SocketClientConnection;
+import com.concur.babel.transport.socket.SocketConnectionPool;
+import com.concur.babel.transport.socket.SocketFrame;
+import com.concur.babel.transport.socket.SocketFrames;
 
 /**
  * SocketTransport is a transport for making calls via sockets.  This is just experimental at the
  * moment.
+ *
+ * By default every call opens a connection for its request.  A multiplexed transport instead sends
+ * its calls over a small pool of long-lived connections per server, shared by all multiplexed
+ * SocketTransports in the process, and many calls can be in flight on one connection.  The server
+ * must support multiplexed connections, as BabelSimpleSocketServer does.  The BINARY frame format
+ * sends the multiplexed calls as length-prefixed binary frames rather than lines of text.  Calls to a
+ * server on the same host can skip the TCP stack through a Unix domain socket.
  */
 public class SocketTransport extends BaseTransport implements Transport {
 
+	public static final int DEFAULT_MAX_CONNECTIONS = 2;
+
+	private static final ConcurrentMap<String, SocketConnectionPool> POOLS =
+		new ConcurrentHashMap<String, SocketConnectionPool>();
+
 	private String host;
 	private int port;
+	private boolean multiplexed = false;
+	private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+	private FrameFormat frameFormat = FrameFormat.LINES;
+	private Path socketPath;
 	
 	/**
 	 * Creates a new SocketTransport
@@ -67,33 +101,97 @@ public class SocketTransport extends BaseTransport implements Transport {
 	}
 	
 	/**
-	 * Method callEndPoint is SocketTransport's implementation of calling a babel service endpoint.
+	 * Creates a new SocketTransport that calls a server listening on a Unix domain socket, as a
+	 * BabelNioSocketServer can, which needs JDK 16 or later.  Calls are always multiplexed and sent
+	 * as binary frames.
 	 * 
+	 * @param socketPath The path of the socket file of the babel service
+	 * @param protocol The protocol to use
+	 */
+	public SocketTransport(Path socketPath, Protocol protocol) {
+		this(socketPath.toString(), 0, protocol);
+		this.socketPath = socketPath;
+		this.frameFormat = FrameFormat.BINARY;
+	}
+	
+	/**
+	 * Method setMultiplexed sets if calls are sent over long-lived multiplexed connections.
+	 * The default is false.
+	 * @param multiplexed true to multiplex calls.
+	 */
+	public void setMultiplexed(boolean multiplexed) {
+		this.multiplexed = multiplexed;
+	}
+	
+	/**
+	 * Method setMaxConnections sets the number of multiplexed connections to the server.
+	 * The default is 2.
+	 * @param maxConnections The number of connections.
+	 */
+	public void setMaxConnections(int maxConnections) {
+		preCondition(maxConnections >= 1, "maxConnections must be greater than or equal to ONE");
+		this.maxConnections = maxConnections;
+	}
+	
+	/**
+	 * Method setFrameFormat sets the wire format of the multiplexed connections, BINARY also
+	 * multiplexes calls.  The default is LINES.
+	 * @param frameFormat The frame format.
+	 */
+	public void setFrameFormat(FrameFormat frameFormat) {
+		notNull("frameFormat", frameFormat);
+		this.frameFormat = frameFormat;
+	}
+	
+	/**
+	 * Method closeConnections closes the shared multiplexed connections, calls in flight on them fail.
+	 */
+	public static void closeConnections() {
+		
+		for (SocketConnectionPool pool : POOLS.values()) {
+			pool.close();
+		}
+		POOLS.clear();
+		
+	}
+	
+	/**
+	 * Method callEndPoint is SocketTransport's implementation of calling a babel service endpoint.
+	 * A multiplexed call the server did not process, because its connection was going away, is 
+	 * repeated once on another connection.
 	 */
 	protected void callEndPoint(ServiceCallManager serviceCallManager) throws IOException {
 		
+		if (this.multiplexed || this.frameFormat == FrameFormat.BINARY || this.socketPath != null) {
+			try {
+				this.exchange(serviceCallManager);
+			} catch (ConnectionClosedException e) {
+				if (!e.isRetryable()) {
+					throw e;
+				}
+				this.exchange(serviceCallManager);
+			}
+			return;
+		}
+		
 		Socket socket = null;
 		
 		try {
 			
-			String headerMsg = this.buildHeaders(serviceCallManager.getHeaders());
-			String request = serviceCallManager.getRequest();
+			String headerMsg = SocketFrames.formatHeaders(serviceCallManager.getHeaders()) + "\r\n";
 			ServiceMethod serviceMethod = serviceCallManager.getServiceMethod();
 			
 			socket = this.initSocket();
-			socket.getOutputStream().write(headerMsg.getBytes());
-			socket.getOutputStream().write(new String(serviceMethod.getServiceName() + "||" + 
-				serviceMethod.getMethodName() + "\r\n").getBytes());
-			socket.getOutputStream().write(request.getBytes());
-			socket.getOutputStream().flush();
+			Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), UTF8), 8192);
+			writer.write(headerMsg);
+			writer.write(serviceMethod.getServiceName() + "||" + serviceMethod.getMethodName() + "\r\n");
+			serviceCallManager.writeRequest(writer);
+			writer.flush();
 			
 			BufferedReader reader = new BufferedReader(new InputStreamReader(
-					socket.getInputStream()));
+					socket.getInputStream(), UTF8));
 			Integer responseCode = Integer.parseInt(reader.readLine());
-			String response = reader.readLine();
-			
-			serviceCallManager.setResponse(response);
-			serviceCallManager.setResponseCode(responseCode);
+			serviceCallManager.readResponse(responseCode, null, new LineReader(reader));
 			
 		} finally {
 			if (socket != null) {
@@ -109,14 +207,34 @@ public class SocketTransport extends BaseTransport implements Transport {
 	
 	@Override
 	/**
-	 * {@inheritDoc}
+	 * {@inheritDoc}  A line based request ends with a line break, a binary frame carries its
+	 * length and the message as it is.
 	 */
 	protected String getRequestMessage(ServiceMethod serviceMethod) {
 		
-		return super.getRequestMessage(serviceMethod) + "\r\n";
+		String message = super.getRequestMessage(serviceMethod);
+		return this.isBinaryFramed() ? message : message + "\r\n";
 		
 	}
 	
+	@Override
+	/**
+	 * {@inheritDoc}  A line based request ends with a line break, a binary frame carries its
+	 * length and the message as it is.
+	 */
+	protected void writeRequestMessage(ServiceMethod serviceMethod, Writer writer) throws IOException {
+		
+		super.writeRequestMessage(serviceMethod, writer);
+		if (!this.isBinaryFramed()) {
+			writer.write("\r\n");
+		}
+		
+	}
+	
+	private boolean isBinaryFramed() {
+		return this.frameFormat == FrameFormat.BINARY || this.socketPath != null;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -130,6 +248,46 @@ public class SocketTransport extends BaseTransport implements Transport {
 		
 	}
 	
+	private void exchange(final ServiceCallManager serviceCallManager) throws IOException {
+		
+		ServiceMethod serviceMethod = serviceCallManager.getServiceMethod();
+		SocketClientConnection connection = this.getPool().getConnection(this.connectionTimeout);
+		SocketFrame response = connection.send(
+			serviceCallManager.getHeaders(),
+			serviceMethod.getServiceName(),
+			serviceMethod.getMethodName(),
+			new RequestWriter() {
+				public void write(Writer writer) throws IOException {
+					serviceCallManager.writeRequest(writer);
+				}
+			}).await(this.readTimeout);
+		
+		serviceCallManager.readResponse(
+			response.getStatus(), 
+			null, 
+			new StringReader(response.getBody()));
+		
+	}
+	
+	private SocketConnectionPool getPool() {
+		
+		String key = this.socketPath != null ?
+			"unix:" + this.socketPath + "/" + this.maxConnections :
+			this.host + ":" + this.port + "/" + this.maxConnections + "/" + this.frameFormat;
+		SocketConnectionPool pool = POOLS.get(key);
+		if (pool == null) {
+			SocketConnectionPool created = this.socketPath != null ?
+				new SocketConnectionPool(this.socketPath, this.maxConnections) :
+				new SocketConnectionPool(this.host, this.port, this.maxConnections, this.frameFormat);
+			pool = POOLS.putIfAbsent(key, created);
+			if (pool == null) {
+				pool = created;
+			}
+		}
+		return pool;
+		
+	}
+	
 	private Socket initSocket() throws IOException {
 		
 		Socket socket = new Socket();
@@ -139,22 +297,45 @@ public class SocketTransport extends BaseTransport implements Transport {
 		
 	}
 	
-	private String buildHeaders(Map<String, String> headers) {
+	/**
+	 * LineReader reads a single line from the underlying reader, it ends at the line break so the
+	 * protocol can decode the response message without waiting for the socket to be closed.
+	 */
+	private static class LineReader extends Reader {
 		
-		StringBuilder sb = new StringBuilder();
+		private final Reader reader;
+		private boolean endOfLine = false;
 		
-		int index = 1;
-		for (String key : this.headers.keySet()) {
+		LineReader(Reader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			
+			if (this.endOfLine || len == 0) {
+				return this.endOfLine ? -1 : 0;
+			}
 			
-			sb.append(key).append("=").append(headers.get(key));
-			if (index != this.headers.size()) {
-				sb.append("||");
+			int count = 0;
+			while (count < len) {
+				int c = this.reader.read();
+				if (c == -1 || c == '\n') {
+					this.endOfLine = true;
+					break;
+				}
+				if (c != '\r') {
+					cbuf[off + count++] = (char)c;
+				}
 			}
-			index++;
+			return count == 0 && this.endOfLine ? -1 : count;
+			
+		}
+
+		@Override
+		public void close() {
 			
 		}
-		sb.append("\r\n");
-		return sb.toString();
 		
 	}
 	
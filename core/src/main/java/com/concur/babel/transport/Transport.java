@@ -4,8 +4,12 @@ import java.util.List;
 import java.util.Map;
 
 import com.concur.babel.ResponseServiceMethod;
+import com.concur.babel.ServiceMethod;
 import com.concur.babel.VoidServiceMethod;
+import com.concur.babel.transport.async.ServiceFuture;
+import com.concur.babel.transport.batch.BatchResult;
 import com.concur.babel.transport.handler.ResponseHandler;
+import com.concur.babel.transport.retry.RetryPolicy;
 
 /**
  * Transport defines the interface of a transport in babel.
@@ -28,6 +32,33 @@ public interface Transport {
 	 */
 	void invoke(VoidServiceMethod serviceMethod);
 	
+	/**
+	 * Method invokeAsync will invoke a call to a babel service without blocking the calling thread.
+	 * 
+	 * @param serviceMethod The babel service method to invoke
+	 * @return a ServiceFuture that completes with the return value of the service method, or with the
+	 * exception the blocking invoke would have thrown.
+	 */
+	<T> ServiceFuture<T> invokeAsync(ResponseServiceMethod<T> serviceMethod);
+	
+	/**
+	 * Method invokeAsync will invoke a call to a babel service without blocking the calling thread.
+	 * 
+	 * @param serviceMethod The babel service method to invoke
+	 * @return a ServiceFuture that completes once the service method has been called.
+	 */
+	ServiceFuture<Void> invokeAsync(VoidServiceMethod serviceMethod);
+	
+	/**
+	 * Method invokeBatch will invoke a list of calls to babel services in one request, the server
+	 * must host the batch endpoint, as ServiceRequestDispatcher does.
+	 * 
+	 * @param serviceMethods The babel service methods to invoke
+	 * @return a BatchResult for each service method, in the same order, holding the return value of
+	 * the service method or the exception its call failed with.
+	 */
+	List<BatchResult> invokeBatch(List<? extends ServiceMethod> serviceMethods);
+	
 	/**
 	 * Method setConnectionTimeout is used to set the connection time out value of a transport.
 	 * 
@@ -85,5 +116,13 @@ public interface Transport {
      * @param retryDelay The amount of time in ms to delay between retry attempts.
      */
 	void setRetryDelay(long retryDelay);
+	
+	/**
+	 * Method setRetryPolicy sets the policy that decides if and when failed calls are retried,
+	 * replacing the retry settings of setMaxRetries and setRetryDelay.
+	 * 
+	 * @param retryPolicy The retry policy.
+	 */
+	void setRetryPolicy(RetryPolicy retryPolicy);
 		
 }
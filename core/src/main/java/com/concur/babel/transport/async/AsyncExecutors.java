@@ -0,0 +1,80 @@
+package com.concur.babel.transport.async;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AsyncExecutors holds the process wide daemon threads used by asynchronous babel calls: a scheduler
+ * for timeouts and delayed retries, and an executor that runs blocking transports when they are
+ * invoked asynchronously.
+ */
+public final class AsyncExecutors {
+
+	private static volatile ScheduledExecutorService scheduler;
+	private static volatile ExecutorService blockingExecutor;
+
+	private AsyncExecutors() {
+
+	}
+
+	/**
+	 * @return the shared scheduler, used for retry delays and I/O timeouts.  Tasks run on it must be
+	 * short and must not block.
+	 */
+	public static ScheduledExecutorService getScheduler() {
+
+		if (scheduler == null) {
+			synchronized (AsyncExecutors.class) {
+				if (scheduler == null) {
+					scheduler = Executors.newSingleThreadScheduledExecutor(
+						new DaemonThreadFactory("babel-async-scheduler"));
+				}
+			}
+		}
+		return scheduler;
+
+	}
+
+	/**
+	 * @return the shared executor that runs calls of transports that only have a blocking
+	 * implementation when they are invoked asynchronously.
+	 */
+	public static ExecutorService getBlockingExecutor() {
+
+		if (blockingExecutor == null) {
+			synchronized (AsyncExecutors.class) {
+				if (blockingExecutor == null) {
+					blockingExecutor = Executors.newCachedThreadPool(
+						new DaemonThreadFactory("babel-async-blocking"));
+				}
+			}
+		}
+		return blockingExecutor;
+
+	}
+
+	/**
+	 * DaemonThreadFactory creates named daemon threads so babel's background threads never keep a
+	 * JVM alive.
+	 */
+	public static class DaemonThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		public DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, this.prefix + "-" + this.count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.concur.babel.transport.async;
+
+/**
+ * ServiceCallback receives the outcome of an asynchronous babel service call.  Callbacks run on the
+ * thread that completes the call, for non-blocking transports that is an I/O thread, so they
+ * should hand any long running work off to another thread.
+ *
+ * @param <T> - the return type of the service method.
+ */
+public interface ServiceCallback<T> {
+
+	/**
+	 * Method onSuccess is called when the service call returned successfully.
+	 *
+	 * @param result - the result of the call, null for void service methods.
+	 */
+	void onSuccess(T result);
+
+	/**
+	 * Method onFailure is called when the service call failed.  Service errors are reported the same
+	 * way the blocking invoke methods throw them, as a BabelException or BabelApplicationException.
+	 *
+	 * @param exception - the cause of the failure.
+	 */
+	void onFailure(Exception exception);
+
+}
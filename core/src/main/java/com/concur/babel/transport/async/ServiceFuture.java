@@ -0,0 +1,268 @@
+package com.concur.babel.transport.async;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ServiceFuture is the pending result of an asynchronous babel service call.  Besides the blocking
+ * Future methods it accepts ServiceCallback listeners that are notified once the call completes, and
+ * a cancel action that transports use to abort the underlying I/O when the call is cancelled.
+ *
+ * @param <T> - the return type of the service method.
+ */
+public class ServiceFuture<T> implements Future<T> {
+
+	private static final Logger LOGGER = Logger.getLogger(ServiceFuture.class.getName());
+
+	private enum State { PENDING, SUCCEEDED, FAILED, CANCELLED }
+
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private final List<ServiceCallback<? super T>> callbacks = new ArrayList<ServiceCallback<? super T>>(2);
+
+	private State state = State.PENDING;
+	private T result;
+	private Exception failure;
+	private Runnable cancelAction;
+
+	/**
+	 * Method complete completes this future successfully.
+	 *
+	 * @param result - the result of the call.
+	 * @return false if the future was already completed or cancelled.
+	 */
+	public boolean complete(T result) {
+
+		List<ServiceCallback<? super T>> toNotify;
+		synchronized (this) {
+			if (this.state != State.PENDING) {
+				return false;
+			}
+			this.result = result;
+			this.state = State.SUCCEEDED;
+			this.cancelAction = null;
+			toNotify = new ArrayList<ServiceCallback<? super T>>(this.callbacks);
+			this.callbacks.clear();
+		}
+		this.latch.countDown();
+		for (ServiceCallback<? super T> callback : toNotify) {
+			this.notifySuccess(callback);
+		}
+		return true;
+
+	}
+
+	/**
+	 * Method fail completes this future with an exception.
+	 *
+	 * @param exception - the cause of the failure.
+	 * @return false if the future was already completed or cancelled.
+	 */
+	public boolean fail(Exception exception) {
+
+		notNull("exception", exception);
+
+		List<ServiceCallback<? super T>> toNotify;
+		synchronized (this) {
+			if (this.state != State.PENDING) {
+				return false;
+			}
+			this.failure = exception;
+			this.state = State.FAILED;
+			this.cancelAction = null;
+			toNotify = new ArrayList<ServiceCallback<? super T>>(this.callbacks);
+			this.callbacks.clear();
+		}
+		this.latch.countDown();
+		for (ServiceCallback<? super T> callback : toNotify) {
+			this.notifyFailure(callback, exception);
+		}
+		return true;
+
+	}
+
+	/**
+	 * Method addCallback registers a callback, if the future is already done the callback is called
+	 * right away on the calling thread.
+	 *
+	 * @param callback - the callback.
+	 * @return this future.
+	 */
+	public ServiceFuture<T> addCallback(ServiceCallback<? super T> callback) {
+
+		notNull("callback", callback);
+
+		State current;
+		synchronized (this) {
+			current = this.state;
+			if (current == State.PENDING) {
+				this.callbacks.add(callback);
+				return this;
+			}
+		}
+
+		if (current == State.SUCCEEDED) {
+			this.notifySuccess(callback);
+		} else {
+			this.notifyFailure(callback, current == State.CANCELLED ?
+				new CancellationException("Service call was cancelled") :
+				this.failure);
+		}
+		return this;
+
+	}
+
+	/**
+	 * Method setCancelAction sets the action that aborts the underlying I/O when this future is
+	 * cancelled, it replaces any previous action.  If the future was already cancelled the action
+	 * runs right away.
+	 *
+	 * @param cancelAction - the action, or null to clear it.
+	 */
+	public void setCancelAction(Runnable cancelAction) {
+
+		synchronized (this) {
+			if (this.state == State.PENDING) {
+				this.cancelAction = cancelAction;
+				return;
+			}
+			if (this.state != State.CANCELLED) {
+				return;
+			}
+		}
+		if (cancelAction != null) {
+			cancelAction.run();
+		}
+
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+
+		Runnable action;
+		List<ServiceCallback<? super T>> toNotify;
+		synchronized (this) {
+			if (this.state != State.PENDING) {
+				return false;
+			}
+			this.state = State.CANCELLED;
+			action = this.cancelAction;
+			this.cancelAction = null;
+			toNotify = new ArrayList<ServiceCallback<? super T>>(this.callbacks);
+			this.callbacks.clear();
+		}
+		this.latch.countDown();
+		if (action != null) {
+			try {
+				action.run();
+			} catch (RuntimeException e) {
+				LOGGER.log(Level.FINE, "Cancel action failed", e);
+			}
+		}
+		CancellationException exception = new CancellationException("Service call was cancelled");
+		for (ServiceCallback<? super T> callback : toNotify) {
+			this.notifyFailure(callback, exception);
+		}
+		return true;
+
+	}
+
+	public synchronized boolean isCancelled() {
+		return this.state == State.CANCELLED;
+	}
+
+	public synchronized boolean isDone() {
+		return this.state != State.PENDING;
+	}
+
+	public T get() throws InterruptedException, ExecutionException {
+		this.latch.await();
+		return this.getNow();
+	}
+
+	public T get(long timeout, TimeUnit unit)
+	throws
+		InterruptedException,
+		ExecutionException,
+		TimeoutException
+	{
+		if (!this.latch.await(timeout, unit)) {
+			throw new TimeoutException("Service call did not complete within " + timeout + " " + unit);
+		}
+		return this.getNow();
+	}
+
+	/**
+	 * Method join waits for the call to complete and returns its result, failures are thrown the same
+	 * way the blocking invoke methods throw them instead of being wrapped in an ExecutionException.
+	 *
+	 * @return the result of the call.
+	 */
+	public T join() {
+
+		boolean interrupted = false;
+		while (true) {
+			try {
+				this.latch.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized (this) {
+			switch (this.state) {
+				case SUCCEEDED:
+					return this.result;
+				case CANCELLED:
+					throw new CancellationException("Service call was cancelled");
+				default:
+					throw this.failure instanceof RuntimeException ?
+						(RuntimeException)this.failure :
+						new RuntimeException(this.failure);
+			}
+		}
+
+	}
+
+	private synchronized T getNow() throws ExecutionException {
+
+		switch (this.state) {
+			case SUCCEEDED:
+				return this.result;
+			case CANCELLED:
+				throw new CancellationException("Service call was cancelled");
+			default:
+				throw new ExecutionException(this.failure);
+		}
+
+	}
+
+	private void notifySuccess(ServiceCallback<? super T> callback) {
+		try {
+			callback.onSuccess(this.result);
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "ServiceCallback.onSuccess threw an exception", e);
+		}
+	}
+
+	private void notifyFailure(ServiceCallback<? super T> callback, Exception exception) {
+		try {
+			callback.onFailure(exception);
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "ServiceCallback.onFailure threw an exception", e);
+		}
+	}
+
+}
@@ -0,0 +1,32 @@
+package com.concur.babel.transport.batch;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+/**
+ * BatchCall is one service method call of a batch as it is sent on the wire, the message is the
+ * request message the protocol wrote for the service method.
+ */
+public class BatchCall {
+
+	private String serviceName;
+	private String methodName;
+	private String message;
+
+	public BatchCall(String serviceName, String methodName, String message) {
+
+		notNull("serviceName", serviceName);
+		notNull("methodName", methodName);
+
+		this.serviceName = serviceName;
+		this.methodName = methodName;
+		this.message = message;
+
+	}
+
+	public String getServiceName() { return this.serviceName; }
+
+	public String getMethodName() { return this.methodName; }
+
+	public String getMessage() { return this.message; }
+
+}
@@ -0,0 +1,22 @@
+package com.concur.babel.transport.batch;
+
+/**
+ * BatchCallResult is the outcome of one call of a batch as it is sent on the wire, the code is the
+ * status the call would have been answered with on its own and the message is the response message,
+ * a ServiceError for failed calls.
+ */
+public class BatchCallResult {
+
+	private int code;
+	private String message;
+
+	public BatchCallResult(int code, String message) {
+		this.code = code;
+		this.message = message;
+	}
+
+	public int getCode() { return this.code; }
+
+	public String getMessage() { return this.message; }
+
+}
@@ -0,0 +1,77 @@
+package com.concur.babel.transport.batch;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import com.concur.babel.ServiceError;
+import com.concur.babel.ServiceMethod;
+import com.concur.babel.exception.BabelException;
+
+/**
+ * BatchResult is the outcome of one service method of a batch, either the value the service method
+ * returned or the exception the call would have thrown on its own.
+ */
+public class BatchResult {
+
+	private final ServiceMethod serviceMethod;
+	private final Object result;
+	private final RuntimeException exception;
+
+	public BatchResult(ServiceMethod serviceMethod, Object result) {
+		this(serviceMethod, result, null);
+	}
+
+	public BatchResult(ServiceMethod serviceMethod, RuntimeException exception) {
+		this(serviceMethod, null, exception);
+		notNull("exception", exception);
+	}
+
+	private BatchResult(ServiceMethod serviceMethod, Object result, RuntimeException exception) {
+
+		notNull("serviceMethod", serviceMethod);
+
+		this.serviceMethod = serviceMethod;
+		this.result = result;
+		this.exception = exception;
+
+	}
+
+	public ServiceMethod getServiceMethod() { return this.serviceMethod; }
+
+	/**
+	 * @return true if the service method returned normally.
+	 */
+	public boolean isSuccess() { return this.exception == null; }
+
+	/**
+	 * Method get returns the value of the service method, or throws the exception the call failed
+	 * with, a BabelException or BabelApplicationException for service errors.
+	 *
+	 * @return the return value of the service method, null for void methods.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get() {
+
+		if (this.exception != null) {
+			throw this.exception;
+		}
+		return (T)this.result;
+
+	}
+
+	/**
+	 * @return the exception the call failed with, or null if it succeeded.
+	 */
+	public RuntimeException getException() { return this.exception; }
+
+	/**
+	 * @return the service error returned for the call, or null if it succeeded or failed without one.
+	 */
+	public ServiceError getServiceError() {
+
+		return this.exception instanceof BabelException ?
+			((BabelException)this.exception).getServiceError() :
+			null;
+
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.concur.babel.transport.batch;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.concur.babel.ResponseServiceMethod;
+
+/**
+ * BatchServiceMethod is the envelope of a batch of service method calls.  It is sent like any other
+ * service method, to the reserved service and method names "_babel/batch", and is answered with one
+ * BatchCallResult per call in the order of the calls.
+ */
+public class BatchServiceMethod extends ResponseServiceMethod<List<BatchCallResult>> {
+
+	public static final String SERVICE_NAME = "_babel";
+	public static final String METHOD_NAME = "batch";
+
+	private List<BatchCall> calls = new ArrayList<BatchCall>();
+
+	public BatchServiceMethod() {
+	}
+
+	public BatchServiceMethod(List<BatchCall> calls) {
+		notNull("calls", calls);
+		this.calls = calls;
+	}
+
+	/**
+	 * Method isBatch tells if a request is for the batch endpoint.
+	 *
+	 * @param serviceName - the service name of the request.
+	 * @param methodName - the method name of the request.
+	 * @return true if the request is a batch.
+	 */
+	public static boolean isBatch(String serviceName, String methodName) {
+		return SERVICE_NAME.equalsIgnoreCase(serviceName) && METHOD_NAME.equalsIgnoreCase(methodName);
+	}
+
+	public void add(BatchCall call) {
+		notNull("call", call);
+		this.calls.add(call);
+	}
+
+	public List<BatchCall> getCalls() { return this.calls; }
+
+	public String getServiceName() { return SERVICE_NAME; }
+
+	public String getMethodName() { return METHOD_NAME; }
+
+	public Object[] getMethodParameters() {
+		return new Object[] { this.calls };
+	}
+
+}
@@ -0,0 +1,236 @@
+package com.concur.babel.transport.circuit;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * CircuitBreaker tracks the health of one service method, or of one service method on one host, see
+ * CircuitBreakerPolicy.  It is lock-free, a call asks for permission with tryAcquirePermission and
+ * reports its outcome with onSuccess or onFailure.
+ */
+public class CircuitBreaker {
+
+	private final String name;
+	private final CircuitBreakerPolicy policy;
+	private final List<CircuitBreakerListener> listeners;
+	private final AtomicReference<CircuitState> state = new AtomicReference<CircuitState>(CircuitState.CLOSED);
+	private final AtomicLong stateChangedAt = new AtomicLong(System.currentTimeMillis());
+	private final AtomicInteger halfOpenPermits = new AtomicInteger();
+	private final AtomicInteger halfOpenSuccesses = new AtomicInteger();
+	private volatile Window window;
+
+	/**
+	 * Creates a new CircuitBreaker
+	 *
+	 * @param name - the name of the breaker, usually service/method.
+	 * @param policy - the policy of the breaker.
+	 * @param listeners - the listeners told about state changes, the list is not copied.
+	 */
+	public CircuitBreaker(String name, CircuitBreakerPolicy policy, List<CircuitBreakerListener> listeners) {
+
+		notNull("name", name);
+		notNull("policy", policy);
+		notNull("listeners", listeners);
+
+		this.name = name;
+		this.policy = policy;
+		this.listeners = listeners;
+		this.window = new Window(policy.getWindowSize());
+
+	}
+
+	/**
+	 * Method tryAcquirePermission asks if a call may be made, a call that is permitted must report
+	 * its outcome.
+	 *
+	 * @return true if the call may be made, false if it should fail fast.
+	 */
+	public boolean tryAcquirePermission() {
+
+		CircuitState current = this.state.get();
+		if (current == CircuitState.CLOSED) {
+			return true;
+		}
+
+		long now = System.currentTimeMillis();
+		if (current == CircuitState.OPEN) {
+			if (now - this.stateChangedAt.get() < this.policy.getOpenDuration()) {
+				return false;
+			}
+			this.transition(CircuitState.OPEN, CircuitState.HALF_OPEN);
+			current = this.state.get();
+		}
+
+		if (current == CircuitState.HALF_OPEN) {
+			if (this.halfOpenPermits.getAndDecrement() > 0) {
+				return true;
+			}
+			// trial calls that never reported, like cancelled ones, must not hold the breaker half open
+			long changedAt = this.stateChangedAt.get();
+			if (now - changedAt >= this.policy.getOpenDuration() && this.stateChangedAt.compareAndSet(changedAt, now)) {
+				this.halfOpenSuccesses.set(0);
+				this.halfOpenPermits.set(this.policy.getHalfOpenCalls() - 1);
+				return true;
+			}
+			return false;
+		}
+
+		return current == CircuitState.CLOSED;
+
+	}
+
+	/**
+	 * Method onSuccess records a call that succeeded.
+	 *
+	 * @param durationMillis - how long the call took.
+	 */
+	public void onSuccess(long durationMillis) {
+		this.record(false, durationMillis);
+	}
+
+	/**
+	 * Method onFailure records a call that failed.
+	 *
+	 * @param durationMillis - how long the call took.
+	 */
+	public void onFailure(long durationMillis) {
+		this.record(true, durationMillis);
+	}
+
+	/**
+	 * Method reset closes the breaker and forgets the recorded calls.
+	 */
+	public void reset() {
+
+		CircuitState current = this.state.get();
+		if (current != CircuitState.CLOSED) {
+			this.transition(current, CircuitState.CLOSED);
+		} else {
+			this.window = new Window(this.policy.getWindowSize());
+		}
+
+	}
+
+	public String getName() { return this.name; }
+
+	public CircuitState getState() { return this.state.get(); }
+
+	/**
+	 * @return the percentage of failed calls in the window, -1 if fewer than the minimum number of
+	 * calls were recorded.
+	 */
+	public float getFailureRate() {
+		return this.window.getRate(this.window.failures.get(), this.policy.getMinimumCalls());
+	}
+
+	/**
+	 * @return the percentage of slow calls in the window, -1 if fewer than the minimum number of
+	 * calls were recorded.
+	 */
+	public float getSlowCallRate() {
+		return this.window.getRate(this.window.slowCalls.get(), this.policy.getMinimumCalls());
+	}
+
+	private void record(boolean failure, long durationMillis) {
+
+		boolean slow = durationMillis >= this.policy.getSlowCallDuration();
+		CircuitState current = this.state.get();
+
+		if (current == CircuitState.HALF_OPEN) {
+			if (failure || slow) {
+				this.transition(CircuitState.HALF_OPEN, CircuitState.OPEN);
+			} else if (this.halfOpenSuccesses.incrementAndGet() >= this.policy.getHalfOpenCalls()) {
+				this.transition(CircuitState.HALF_OPEN, CircuitState.CLOSED);
+			}
+			return;
+		}
+		if (current == CircuitState.OPEN) {
+			// a call that started before the breaker opened
+			return;
+		}
+
+		Window window = this.window;
+		window.record(failure, slow);
+		int minimumCalls = this.policy.getMinimumCalls();
+		if (window.getRate(window.failures.get(), minimumCalls) >= this.policy.getFailureRateThreshold() ||
+			window.getRate(window.slowCalls.get(), minimumCalls) >= this.policy.getSlowCallRateThreshold())
+		{
+			this.transition(CircuitState.CLOSED, CircuitState.OPEN);
+		}
+
+	}
+
+	private void transition(CircuitState from, CircuitState to) {
+
+		if (!this.state.compareAndSet(from, to)) {
+			return;
+		}
+		this.stateChangedAt.set(System.currentTimeMillis());
+		if (to == CircuitState.HALF_OPEN) {
+			this.halfOpenSuccesses.set(0);
+			this.halfOpenPermits.set(this.policy.getHalfOpenCalls());
+		} else if (to == CircuitState.CLOSED) {
+			this.window = new Window(this.policy.getWindowSize());
+		}
+
+		for (CircuitBreakerListener listener : this.listeners) {
+			listener.onStateChange(this, from, to);
+		}
+
+	}
+
+	/**
+	 * Window is a ring of the outcomes of the most recent calls with running counts, every slot is
+	 * swapped atomically and the counts adjusted by the difference, so recording never locks.
+	 */
+	private static class Window {
+
+		private static final int RECORDED = 1;
+		private static final int FAILED = 2;
+		private static final int SLOW = 4;
+
+		private final AtomicIntegerArray outcomes;
+		private final AtomicLong cursor = new AtomicLong();
+		private final AtomicInteger calls = new AtomicInteger();
+		private final AtomicInteger failures = new AtomicInteger();
+		private final AtomicInteger slowCalls = new AtomicInteger();
+
+		private Window(int size) {
+			this.outcomes = new AtomicIntegerArray(size);
+		}
+
+		private void record(boolean failure, boolean slow) {
+
+			int outcome = RECORDED | (failure ? FAILED : 0) | (slow ? SLOW : 0);
+			int index = (int)(this.cursor.getAndIncrement() % this.outcomes.length());
+			int previous = this.outcomes.getAndSet(index, outcome);
+
+			if (previous == 0) {
+				this.calls.incrementAndGet();
+			}
+			int failed = (outcome & FAILED) - (previous & FAILED);
+			if (failed != 0) {
+				this.failures.addAndGet(failed / FAILED);
+			}
+			int slowed = (outcome & SLOW) - (previous & SLOW);
+			if (slowed != 0) {
+				this.slowCalls.addAndGet(slowed / SLOW);
+			}
+
+		}
+
+		private float getRate(int count, int minimumCalls) {
+
+			int total = this.calls.get();
+			return total < minimumCalls ? -1 : count * 100f / total;
+
+		}
+
+	}
+
+}
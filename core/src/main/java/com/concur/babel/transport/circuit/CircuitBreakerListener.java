@@ -0,0 +1,18 @@
+package com.concur.babel.transport.circuit;
+
+/**
+ * CircuitBreakerListener is told when a CircuitBreaker changes state, it is called on the thread
+ * whose call caused the change so it should return quickly.
+ */
+public interface CircuitBreakerListener {
+
+	/**
+	 * Method onStateChange will be called after a circuit breaker changed state.
+	 *
+	 * @param circuitBreaker - the circuit breaker.
+	 * @param from - the previous state.
+	 * @param to - the new state.
+	 */
+	void onStateChange(CircuitBreaker circuitBreaker, CircuitState from, CircuitState to);
+
+}
@@ -0,0 +1,48 @@
+package com.concur.babel.transport.circuit;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.concur.babel.Error;
+import com.concur.babel.ServiceError;
+import com.concur.babel.exception.BabelException;
+
+/**
+ * CircuitBreakerOpenException is thrown instead of making a call whose circuit breaker is open, the
+ * service was not called.  Its service error has the code CIRCUIT_OPEN.
+ */
+@SuppressWarnings("serial")
+public class CircuitBreakerOpenException extends BabelException {
+
+	public static final String ERROR_CODE = "CIRCUIT_OPEN";
+
+	private final transient CircuitBreaker circuitBreaker;
+
+	public CircuitBreakerOpenException(CircuitBreaker circuitBreaker) {
+
+		// built directly, failing fast should not cost formatting a stack trace into the error
+		super(createServiceError("Circuit breaker " + circuitBreaker.getName() + " is " +
+			circuitBreaker.getState().name().toLowerCase()));
+		this.circuitBreaker = circuitBreaker;
+
+	}
+
+	public CircuitBreaker getCircuitBreaker() { return this.circuitBreaker; }
+
+	private static ServiceError createServiceError(String message) {
+
+		Error error = new Error();
+		error.setCode(ERROR_CODE);
+		error.setMessage(message);
+		List<Error> errors = new ArrayList<Error>(1);
+		errors.add(error);
+
+		ServiceError serviceError = new ServiceError();
+		serviceError.setTime(new Date());
+		serviceError.setErrors(errors);
+		return serviceError;
+
+	}
+
+}
@@ -0,0 +1,112 @@
+package com.concur.babel.transport.circuit;
+
+import static com.concur.babel.ArgValidator.preCondition;
+
+/**
+ * CircuitBreakerPolicy configures when circuit breakers open and how they recover.  A closed
+ * breaker records the outcome of the last windowSize calls and opens once at least minimumCalls
+ * were recorded and the percentage of failed calls, or of calls slower than slowCallDuration,
+ * reaches its threshold.  An open breaker fails calls fast for openDuration and then lets
+ * halfOpenCalls trial calls through, closing if all of them succeed and opening again otherwise.
+ */
+public class CircuitBreakerPolicy {
+
+	private int windowSize = 100;
+	private int minimumCalls = 20;
+	private float failureRateThreshold = 50;
+	private long slowCallDuration = 5000;
+	private float slowCallRateThreshold = 100;
+	private long openDuration = 30000;
+	private int halfOpenCalls = 5;
+	private boolean perHost = false;
+
+	/**
+	 * Method setWindowSize sets the number of most recent calls the rates are computed over.  The
+	 * default is 100.
+	 */
+	public void setWindowSize(int windowSize) {
+		preCondition(windowSize >= 1, "windowSize must be greater than or equal to ONE");
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Method setMinimumCalls sets the number of calls that must be recorded before a breaker can
+	 * open.  The default is 20.
+	 */
+	public void setMinimumCalls(int minimumCalls) {
+		preCondition(minimumCalls >= 1, "minimumCalls must be greater than or equal to ONE");
+		this.minimumCalls = minimumCalls;
+	}
+
+	/**
+	 * Method setFailureRateThreshold sets the percentage of failed calls that opens a breaker.  The
+	 * default is 50.
+	 */
+	public void setFailureRateThreshold(float failureRateThreshold) {
+		preCondition(failureRateThreshold > 0 && failureRateThreshold <= 100,
+			"failureRateThreshold must be greater than ZERO and at most 100");
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	/**
+	 * Method setSlowCallDuration sets how long, in milliseconds, a call may take before it is
+	 * counted as slow.  The default is 5000.
+	 */
+	public void setSlowCallDuration(long slowCallDuration) {
+		preCondition(slowCallDuration > 0, "slowCallDuration must be greater than ZERO");
+		this.slowCallDuration = slowCallDuration;
+	}
+
+	/**
+	 * Method setSlowCallRateThreshold sets the percentage of slow calls that opens a breaker.  The
+	 * default is 100.
+	 */
+	public void setSlowCallRateThreshold(float slowCallRateThreshold) {
+		preCondition(slowCallRateThreshold > 0 && slowCallRateThreshold <= 100,
+			"slowCallRateThreshold must be greater than ZERO and at most 100");
+		this.slowCallRateThreshold = slowCallRateThreshold;
+	}
+
+	/**
+	 * Method setOpenDuration sets how long, in milliseconds, an open breaker fails calls before it
+	 * lets trial calls through.  The default is 30000.
+	 */
+	public void setOpenDuration(long openDuration) {
+		preCondition(openDuration >= 0, "openDuration must be greater than or equal to ZERO");
+		this.openDuration = openDuration;
+	}
+
+	/**
+	 * Method setHalfOpenCalls sets the number of trial calls that must succeed to close a breaker.
+	 * The default is 5.
+	 */
+	public void setHalfOpenCalls(int halfOpenCalls) {
+		preCondition(halfOpenCalls >= 1, "halfOpenCalls must be greater than or equal to ONE");
+		this.halfOpenCalls = halfOpenCalls;
+	}
+
+	/**
+	 * Method setPerHost sets if each host of a service method gets its own breaker, rather than one
+	 * breaker per service method.  The default is false.
+	 */
+	public void setPerHost(boolean perHost) {
+		this.perHost = perHost;
+	}
+
+	public int getWindowSize() { return this.windowSize; }
+
+	public int getMinimumCalls() { return this.minimumCalls; }
+
+	public float getFailureRateThreshold() { return this.failureRateThreshold; }
+
+	public long getSlowCallDuration() { return this.slowCallDuration; }
+
+	public float getSlowCallRateThreshold() { return this.slowCallRateThreshold; }
+
+	public long getOpenDuration() { return this.openDuration; }
+
+	public int getHalfOpenCalls() { return this.halfOpenCalls; }
+
+	public boolean isPerHost() { return this.perHost; }
+
+}
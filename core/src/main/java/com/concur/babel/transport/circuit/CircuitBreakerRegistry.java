@@ -0,0 +1,93 @@
+package com.concur.babel.transport.circuit;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.concur.babel.transport.handler.ServiceConnection;
+
+/**
+ * CircuitBreakerRegistry holds the circuit breakers of the service methods called through the
+ * transports it is set on, see BaseTransport.setCircuitBreakers.  Breakers are keyed by service and
+ * method, and by host if the policy is per host, and are created on first use.  A registry can be
+ * shared by transports so they share the view of a service's health.
+ */
+public class CircuitBreakerRegistry {
+
+	private final CircuitBreakerPolicy policy;
+	private final List<CircuitBreakerListener> listeners = new CopyOnWriteArrayList<CircuitBreakerListener>();
+	private final ConcurrentMap<String, CircuitBreaker> circuitBreakers =
+		new ConcurrentHashMap<String, CircuitBreaker>();
+
+	public CircuitBreakerRegistry() {
+		this(new CircuitBreakerPolicy());
+	}
+
+	public CircuitBreakerRegistry(CircuitBreakerPolicy policy) {
+		notNull("policy", policy);
+		this.policy = policy;
+	}
+
+	/**
+	 * Method addListener adds a listener that is told about state changes of every breaker.
+	 */
+	public void addListener(CircuitBreakerListener listener) {
+		notNull("listener", listener);
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Method getCircuitBreaker gets the breaker of a call, creating it if needed.
+	 *
+	 * @param serviceConnection - connection information of the call.
+	 * @return the circuit breaker.
+	 */
+	public CircuitBreaker getCircuitBreaker(ServiceConnection serviceConnection) {
+
+		notNull("serviceConnection", serviceConnection);
+
+		String name = serviceConnection.getServiceName() + "/" + serviceConnection.getMethodName();
+		if (this.policy.isPerHost()) {
+			name = name + "@" + serviceConnection.getHost() +
+				(serviceConnection.getPortNumber() == null ? "" : ":" + serviceConnection.getPortNumber());
+		}
+		return this.getCircuitBreaker(name);
+
+	}
+
+	/**
+	 * Method getCircuitBreaker gets a breaker by name, creating it if needed.
+	 *
+	 * @param name - the name, service/method or service/method@host:port.
+	 * @return the circuit breaker.
+	 */
+	public CircuitBreaker getCircuitBreaker(String name) {
+
+		CircuitBreaker circuitBreaker = this.circuitBreakers.get(name);
+		if (circuitBreaker == null) {
+			CircuitBreaker created = new CircuitBreaker(name, this.policy, this.listeners);
+			circuitBreaker = this.circuitBreakers.putIfAbsent(name, created);
+			if (circuitBreaker == null) {
+				circuitBreaker = created;
+			}
+		}
+		return circuitBreaker;
+
+	}
+
+	/**
+	 * @return the breakers created so far by name.
+	 */
+	public Map<String, CircuitBreaker> getCircuitBreakers() {
+		return Collections.unmodifiableMap(new HashMap<String, CircuitBreaker>(this.circuitBreakers));
+	}
+
+	public CircuitBreakerPolicy getPolicy() { return this.policy; }
+
+}
@@ -0,0 +1,17 @@
+package com.concur.babel.transport.circuit;
+
+/**
+ * CircuitState is the state of a CircuitBreaker.
+ */
+public enum CircuitState {
+
+	/** Calls are made and their outcomes recorded. */
+	CLOSED,
+
+	/** Calls fail fast without being made. */
+	OPEN,
+
+	/** A limited number of trial calls are made to learn if the service recovered. */
+	HALF_OPEN
+
+}
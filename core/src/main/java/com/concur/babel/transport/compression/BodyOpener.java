@@ -0,0 +1,23 @@
+package com.concur.babel.transport.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * BodyOpener is implemented by transports to start sending a request body once it is known if the
+ * body is compressed, which has to be decided before the headers go out.
+ */
+public interface BodyOpener {
+
+	/**
+	 * Method open sends the request headers and returns the stream the body is written to, closing
+	 * the stream ends the body.
+	 *
+	 * @param coding - the coding the body is compressed with, null if it is not.
+	 * @param contentLength - the length of the body, or -1 if the body is streamed.
+	 * @return the stream to write the body to.
+	 * @throws IOException
+	 */
+	OutputStream open(ContentCoding coding, int contentLength) throws IOException;
+
+}
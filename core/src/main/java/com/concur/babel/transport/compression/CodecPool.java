@@ -0,0 +1,132 @@
+package com.concur.babel.transport.compression;
+
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CodecPool keeps Deflater and Inflater instances for reuse.  Each one holds a native zlib stream
+ * whose setup cost and memory add up when every call creates its own, so released instances are
+ * reset and handed to the next call instead, up to maxIdle of each kind.
+ */
+public class CodecPool {
+
+	public static final int DEFAULT_MAX_IDLE = 32;
+
+	private static final CodecPool DEFAULT = new CodecPool(DEFAULT_MAX_IDLE, Deflater.DEFAULT_COMPRESSION);
+
+	private final int maxIdle;
+	private final int level;
+	private final Queue<Deflater> gzipDeflaters = new ConcurrentLinkedQueue<Deflater>();
+	private final Queue<Deflater> zlibDeflaters = new ConcurrentLinkedQueue<Deflater>();
+	private final Queue<Inflater> gzipInflaters = new ConcurrentLinkedQueue<Inflater>();
+	private final Queue<Inflater> zlibInflaters = new ConcurrentLinkedQueue<Inflater>();
+	private final AtomicInteger idleDeflaters = new AtomicInteger();
+	private final AtomicInteger idleInflaters = new AtomicInteger();
+
+	/**
+	 * Creates a new CodecPool
+	 *
+	 * @param maxIdle - the number of idle Deflaters, and of idle Inflaters, kept for reuse.
+	 * @param level - the compression level, see Deflater.
+	 */
+	public CodecPool(int maxIdle, int level) {
+
+		preCondition(maxIdle >= 0, "maxIdle must be greater than or equal to ZERO");
+		preCondition(
+			level == Deflater.DEFAULT_COMPRESSION || (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION),
+			"level must be a valid Deflater compression level");
+		this.maxIdle = maxIdle;
+		this.level = level;
+
+	}
+
+	/**
+	 * @return the process wide pool.
+	 */
+	public static CodecPool getDefault() { return DEFAULT; }
+
+	public int getLevel() { return this.level; }
+
+	/**
+	 * Method acquireDeflater gets a Deflater for a coding, gzip uses raw deflate data and deflate the
+	 * zlib format.
+	 */
+	public Deflater acquireDeflater(ContentCoding coding) {
+
+		Deflater deflater = this.deflaters(coding).poll();
+		if (deflater == null) {
+			return new Deflater(this.level, coding == ContentCoding.GZIP);
+		}
+		this.idleDeflaters.decrementAndGet();
+		return deflater;
+
+	}
+
+	/**
+	 * Method releaseDeflater hands a Deflater back, it must not be used afterwards.
+	 */
+	public void releaseDeflater(ContentCoding coding, Deflater deflater) {
+
+		if (this.idleDeflaters.incrementAndGet() > this.maxIdle) {
+			this.idleDeflaters.decrementAndGet();
+			deflater.end();
+			return;
+		}
+		deflater.reset();
+		this.deflaters(coding).offer(deflater);
+
+	}
+
+	/**
+	 * Method acquireInflater gets an Inflater, raw for gzip data and zlib for deflate data.
+	 */
+	public Inflater acquireInflater(boolean nowrap) {
+
+		Inflater inflater = this.inflaters(nowrap).poll();
+		if (inflater == null) {
+			return new Inflater(nowrap);
+		}
+		this.idleInflaters.decrementAndGet();
+		return inflater;
+
+	}
+
+	/**
+	 * Method releaseInflater hands an Inflater back, it must not be used afterwards.
+	 */
+	public void releaseInflater(boolean nowrap, Inflater inflater) {
+
+		if (this.idleInflaters.incrementAndGet() > this.maxIdle) {
+			this.idleInflaters.decrementAndGet();
+			inflater.end();
+			return;
+		}
+		inflater.reset();
+		this.inflaters(nowrap).offer(inflater);
+
+	}
+
+	/**
+	 * @return the number of idle Deflaters.
+	 */
+	public int getIdleDeflaters() { return this.idleDeflaters.get(); }
+
+	/**
+	 * @return the number of idle Inflaters.
+	 */
+	public int getIdleInflaters() { return this.idleInflaters.get(); }
+
+	private Queue<Deflater> deflaters(ContentCoding coding) {
+		return coding == ContentCoding.GZIP ? this.gzipDeflaters : this.zlibDeflaters;
+	}
+
+	private Queue<Inflater> inflaters(boolean nowrap) {
+		return nowrap ? this.gzipInflaters : this.zlibInflaters;
+	}
+
+}
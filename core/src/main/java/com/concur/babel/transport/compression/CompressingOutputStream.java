@@ -0,0 +1,206 @@
+package com.concur.babel.transport.compression;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * CompressingOutputStream compresses what is written to it with gzip or deflate as it goes, using a
+ * Deflater from a CodecPool that is handed back when the stream is finished.  Unlike
+ * GZIPOutputStream nothing but the compressor's own window is buffered.
+ */
+public class CompressingOutputStream extends OutputStream {
+
+	private static final byte[] GZIP_HEADER = {
+		0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff
+	};
+
+	private final OutputStream out;
+	private final ContentCoding coding;
+	private final CodecPool pool;
+	private final CompressionMetrics metrics;
+	private final String serviceName;
+	private final byte[] buffer = new byte[8192];
+	private final CRC32 crc;
+	private Deflater deflater;
+	private long bytesIn = 0;
+	private long bytesOut = 0;
+	private long nanos = 0;
+	private boolean finished = false;
+
+	/**
+	 * Creates a new CompressingOutputStream
+	 *
+	 * @param out - the stream the compressed bytes are written to.
+	 * @param coding - the coding to compress with.
+	 * @param pool - the pool to take the Deflater from.
+	 * @param metrics - the metrics to record the compression in, may be null.
+	 * @param serviceName - the service the metrics are recorded for.
+	 * @throws IOException
+	 */
+	public CompressingOutputStream(
+		OutputStream out,
+		ContentCoding coding,
+		CodecPool pool,
+		CompressionMetrics metrics,
+		String serviceName)
+	throws
+		IOException
+	{
+
+		notNull("out", out);
+		notNull("coding", coding);
+		notNull("pool", pool);
+
+		this.out = out;
+		this.coding = coding;
+		this.pool = pool;
+		this.metrics = metrics;
+		this.serviceName = serviceName;
+		this.deflater = pool.acquireDeflater(coding);
+		if (coding == ContentCoding.GZIP) {
+			this.crc = new CRC32();
+			this.out.write(GZIP_HEADER);
+			this.bytesOut += GZIP_HEADER.length;
+		} else {
+			this.crc = null;
+		}
+
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+
+		if (this.finished) {
+			throw new IOException("Stream finished");
+		}
+		if (len == 0) {
+			return;
+		}
+
+		long start = CompressionMetrics.cpuTime();
+		if (this.crc != null) {
+			this.crc.update(b, off, len);
+		}
+		this.deflater.setInput(b, off, len);
+		while (!this.deflater.needsInput()) {
+			this.deflate();
+		}
+		this.bytesIn += len;
+		this.nanos += CompressionMetrics.cpuTime() - start;
+
+	}
+
+	/**
+	 * Method flush flushes the bytes compressed so far, bytes the compressor still holds are only
+	 * written by finish since forcing them out would cost compression ratio.
+	 */
+	@Override
+	public void flush() throws IOException {
+		this.out.flush();
+	}
+
+	/**
+	 * Method finish compresses the remaining bytes and writes the trailer without closing the
+	 * underlying stream.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+
+		if (this.finished) {
+			return;
+		}
+		this.finished = true;
+
+		boolean reusable = false;
+		try {
+			long start = CompressionMetrics.cpuTime();
+			this.deflater.finish();
+			while (!this.deflater.finished()) {
+				this.deflate();
+			}
+			if (this.crc != null) {
+				byte[] trailer = new byte[8];
+				writeIntLE(trailer, 0, (int)this.crc.getValue());
+				writeIntLE(trailer, 4, (int)this.bytesIn);
+				this.out.write(trailer);
+				this.bytesOut += trailer.length;
+			}
+			this.nanos += CompressionMetrics.cpuTime() - start;
+			reusable = true;
+		} finally {
+			this.release(reusable);
+		}
+
+		if (this.metrics != null) {
+			this.metrics.recordCompression(this.serviceName, this.bytesIn, this.bytesOut, this.nanos);
+		}
+
+	}
+
+	/**
+	 * Method close finishes the stream and closes the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		try {
+			this.finish();
+		} finally {
+			this.release(false);
+			this.out.close();
+		}
+
+	}
+
+	/**
+	 * @return the number of bytes written to this stream.
+	 */
+	public long getBytesIn() { return this.bytesIn; }
+
+	/**
+	 * @return the number of compressed bytes written to the underlying stream.
+	 */
+	public long getBytesOut() { return this.bytesOut; }
+
+	private void deflate() throws IOException {
+
+		int count = this.deflater.deflate(this.buffer, 0, this.buffer.length);
+		if (count > 0) {
+			this.out.write(this.buffer, 0, count);
+			this.bytesOut += count;
+		}
+
+	}
+
+	private void release(boolean reusable) {
+
+		if (this.deflater == null) {
+			return;
+		}
+		if (reusable) {
+			this.pool.releaseDeflater(this.coding, this.deflater);
+		} else {
+			this.deflater.end();
+		}
+		this.deflater = null;
+
+	}
+
+	private static void writeIntLE(byte[] b, int offset, int value) {
+		b[offset] = (byte)value;
+		b[offset + 1] = (byte)(value >>> 8);
+		b[offset + 2] = (byte)(value >>> 16);
+		b[offset + 3] = (byte)(value >>> 24);
+	}
+
+}
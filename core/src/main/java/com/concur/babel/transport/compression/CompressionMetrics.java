@@ -0,0 +1,145 @@
+package com.concur.babel.transport.compression;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CompressionMetrics counts what was compressed and decompressed, the bytes before and after, and
+ * the CPU time it took, in total and per service, so compression thresholds can be tuned from the
+ * ratio a service's payloads actually get.
+ */
+public class CompressionMetrics {
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported() &&
+		THREADS.isThreadCpuTimeEnabled();
+
+	private final Counters total = new Counters();
+	private final ConcurrentMap<String, Counters> services = new ConcurrentHashMap<String, Counters>();
+
+	/**
+	 * Method cpuTime reads the CPU time of the calling thread, or wall clock time where the JVM does
+	 * not measure thread CPU time.
+	 *
+	 * @return a time in nanoseconds, only differences between two readings are meaningful.
+	 */
+	public static long cpuTime() {
+		return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	public void recordCompression(String serviceName, long bytesIn, long bytesOut, long nanos) {
+
+		this.total.recordCompression(bytesIn, bytesOut, nanos);
+		this.counters(serviceName).recordCompression(bytesIn, bytesOut, nanos);
+
+	}
+
+	public void recordDecompression(String serviceName, long bytesIn, long bytesOut, long nanos) {
+
+		this.total.recordDecompression(bytesIn, bytesOut, nanos);
+		this.counters(serviceName).recordDecompression(bytesIn, bytesOut, nanos);
+
+	}
+
+	/**
+	 * Method recordSkipped counts a body that was sent uncompressed because it was below the
+	 * threshold.
+	 */
+	public void recordSkipped(String serviceName) {
+
+		this.total.skipped.incrementAndGet();
+		this.counters(serviceName).skipped.incrementAndGet();
+
+	}
+
+	/**
+	 * @return the totals of all services.
+	 */
+	public CompressionStats getStats() { return this.total.snapshot(); }
+
+	/**
+	 * @return the stats of one service, all zero if nothing was recorded for it.
+	 */
+	public CompressionStats getStats(String serviceName) {
+
+		Counters counters = this.services.get(serviceName == null ? "" : serviceName);
+		return counters == null ? new Counters().snapshot() : counters.snapshot();
+
+	}
+
+	/**
+	 * @return the stats of every service something was recorded for.
+	 */
+	public Map<String, CompressionStats> getServiceStats() {
+
+		Map<String, CompressionStats> stats = new HashMap<String, CompressionStats>();
+		for (Map.Entry<String, Counters> e : this.services.entrySet()) {
+			stats.put(e.getKey(), e.getValue().snapshot());
+		}
+		return Collections.unmodifiableMap(stats);
+
+	}
+
+	private Counters counters(String serviceName) {
+
+		String key = serviceName == null ? "" : serviceName;
+		Counters counters = this.services.get(key);
+		if (counters == null) {
+			Counters created = new Counters();
+			counters = this.services.putIfAbsent(key, created);
+			if (counters == null) {
+				counters = created;
+			}
+		}
+		return counters;
+
+	}
+
+	private static class Counters {
+
+		private final AtomicLong compressed = new AtomicLong();
+		private final AtomicLong skipped = new AtomicLong();
+		private final AtomicLong bytesBeforeCompression = new AtomicLong();
+		private final AtomicLong bytesAfterCompression = new AtomicLong();
+		private final AtomicLong compressionNanos = new AtomicLong();
+		private final AtomicLong decompressed = new AtomicLong();
+		private final AtomicLong bytesBeforeDecompression = new AtomicLong();
+		private final AtomicLong bytesAfterDecompression = new AtomicLong();
+		private final AtomicLong decompressionNanos = new AtomicLong();
+
+		void recordCompression(long bytesIn, long bytesOut, long nanos) {
+			this.compressed.incrementAndGet();
+			this.bytesBeforeCompression.addAndGet(bytesIn);
+			this.bytesAfterCompression.addAndGet(bytesOut);
+			this.compressionNanos.addAndGet(nanos);
+		}
+
+		void recordDecompression(long bytesIn, long bytesOut, long nanos) {
+			this.decompressed.incrementAndGet();
+			this.bytesBeforeDecompression.addAndGet(bytesIn);
+			this.bytesAfterDecompression.addAndGet(bytesOut);
+			this.decompressionNanos.addAndGet(nanos);
+		}
+
+		CompressionStats snapshot() {
+			return new CompressionStats(
+				this.compressed.get(),
+				this.skipped.get(),
+				this.bytesBeforeCompression.get(),
+				this.bytesAfterCompression.get(),
+				this.compressionNanos.get(),
+				this.decompressed.get(),
+				this.bytesBeforeDecompression.get(),
+				this.bytesAfterDecompression.get(),
+				this.decompressionNanos.get());
+		}
+
+	}
+
+}
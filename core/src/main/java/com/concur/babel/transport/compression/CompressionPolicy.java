@@ -0,0 +1,201 @@
+package com.concur.babel.transport.compression;
+
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CompressionPolicy configures the payload compression of the HTTP transports and servers.
+ *
+ * Clients advertise that they accept compressed responses and decompress them, requests are only
+ * compressed when enabled since the server has to support it.  Servers always decompress requests
+ * and compress responses for clients that accept it.  In both directions bodies smaller than the
+ * threshold, 1024 bytes by default, are sent as is since compressing them costs more than it saves;
+ * the threshold can be set per service using the CompressionMetrics of the policy as a guide.
+ *
+ * A compressed body is decompressed up to the maximum decompressed size, 64 MB by default, so a
+ * small body that inflates to gigabytes fails with a DecompressedSizeExceededException rather than
+ * filling the heap.
+ */
+public class CompressionPolicy {
+
+	public static final int DEFAULT_THRESHOLD = 1024;
+	public static final long DEFAULT_MAX_DECOMPRESSED_SIZE = 64L * 1024 * 1024;
+
+	private ContentCoding coding = ContentCoding.GZIP;
+	private int threshold = DEFAULT_THRESHOLD;
+	private final Map<String, Integer> serviceThresholds = new ConcurrentHashMap<String, Integer>();
+	private boolean compressRequests = false;
+	private boolean acceptCompressed = true;
+	private long maxDecompressedSize = DEFAULT_MAX_DECOMPRESSED_SIZE;
+	private CodecPool codecPool = CodecPool.getDefault();
+	private CompressionMetrics metrics = new CompressionMetrics();
+
+	/**
+	 * @return a policy that never compresses and does not ask for compressed responses.
+	 */
+	public static CompressionPolicy disabled() {
+
+		CompressionPolicy policy = new CompressionPolicy();
+		policy.setAcceptCompressed(false);
+		policy.setThreshold(Integer.MAX_VALUE);
+		return policy;
+
+	}
+
+	/**
+	 * Method setCoding sets the coding used to compress requests, responses use the coding the client
+	 * prefers.  The default is gzip.
+	 */
+	public void setCoding(ContentCoding coding) {
+		notNull("coding", coding);
+		this.coding = coding;
+	}
+
+	/**
+	 * Method setThreshold sets the minimum body size in bytes that is compressed.
+	 */
+	public void setThreshold(int threshold) {
+		preCondition(threshold >= 0, "threshold must be greater than or equal to ZERO");
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Method setThreshold sets the minimum body size in bytes that is compressed for one service,
+	 * overriding the default threshold.
+	 */
+	public void setThreshold(String serviceName, int threshold) {
+		notNull("serviceName", serviceName);
+		preCondition(threshold >= 0, "threshold must be greater than or equal to ZERO");
+		this.serviceThresholds.put(serviceName.toLowerCase(), threshold);
+	}
+
+	/**
+	 * Method setCompressRequests sets if clients compress requests, the server must accept compressed
+	 * requests, as babel servers do.  The default is false.
+	 */
+	public void setCompressRequests(boolean compressRequests) {
+		this.compressRequests = compressRequests;
+	}
+
+	/**
+	 * Method setAcceptCompressed sets if clients ask for compressed responses.  The default is true.
+	 */
+	public void setAcceptCompressed(boolean acceptCompressed) {
+		this.acceptCompressed = acceptCompressed;
+	}
+
+	/**
+	 * Method setMaxDecompressedSize sets the largest size in bytes a compressed body is decompressed
+	 * to, requests and responses that inflate past it fail.
+	 */
+	public void setMaxDecompressedSize(long maxDecompressedSize) {
+		preCondition(maxDecompressedSize >= 1, "maxDecompressedSize must be greater than or equal to ONE");
+		this.maxDecompressedSize = maxDecompressedSize;
+	}
+
+	public void setCodecPool(CodecPool codecPool) {
+		notNull("codecPool", codecPool);
+		this.codecPool = codecPool;
+	}
+
+	public void setMetrics(CompressionMetrics metrics) {
+		notNull("metrics", metrics);
+		this.metrics = metrics;
+	}
+
+	public ContentCoding getCoding() { return this.coding; }
+
+	public int getThreshold() { return this.threshold; }
+
+	/**
+	 * @return the threshold for a service, the default threshold if none was set for it.
+	 */
+	public int getThreshold(String serviceName) {
+
+		if (serviceName != null && !this.serviceThresholds.isEmpty()) {
+			Integer threshold = this.serviceThresholds.get(serviceName.toLowerCase());
+			if (threshold != null) {
+				return threshold;
+			}
+		}
+		return this.threshold;
+
+	}
+
+	public boolean isCompressRequests() { return this.compressRequests; }
+
+	public boolean isAcceptCompressed() { return this.acceptCompressed; }
+
+	public long getMaxDecompressedSize() { return this.maxDecompressedSize; }
+
+	public CodecPool getCodecPool() { return this.codecPool; }
+
+	public CompressionMetrics getMetrics() { return this.metrics; }
+
+	/**
+	 * Method compress wraps a stream to compress with the coding of this policy.
+	 */
+	public CompressingOutputStream compress(OutputStream out, String serviceName) throws IOException {
+		return this.compress(out, this.coding, serviceName);
+	}
+
+	/**
+	 * Method compress wraps a stream to compress with a coding.
+	 */
+	public CompressingOutputStream compress(OutputStream out, ContentCoding coding, String serviceName)
+	throws
+		IOException
+	{
+		return new CompressingOutputStream(out, coding, this.codecPool, this.metrics, serviceName);
+	}
+
+	/**
+	 * Method decompress wraps a body to decompress it according to its Content-Encoding header.
+	 *
+	 * @param in - the body, may be null.
+	 * @param contentEncoding - the Content-Encoding header, may be null.
+	 * @param serviceName - the service the metrics are recorded for.
+	 * @return the decompressing stream, or in if the body is not compressed.  Reading it throws a
+	 * DecompressedSizeExceededException past the maximum decompressed size.
+	 * @throws IllegalArgumentException if the coding is not supported.
+	 */
+	public InputStream decompress(InputStream in, String contentEncoding, String serviceName) {
+
+		ContentCoding coding = ContentCoding.forName(contentEncoding);
+		if (in == null || coding == null) {
+			return in;
+		}
+		return new DecompressingInputStream(
+			in, coding, this.codecPool, this.metrics, serviceName, this.maxDecompressedSize);
+
+	}
+
+	/**
+	 * Method getResponseCoding decides if a response of the given size is compressed.
+	 *
+	 * @param acceptEncoding - the Accept-Encoding header of the request, may be null.
+	 * @param serviceName - the service that was called.
+	 * @param length - the size of the response in bytes.
+	 * @return the coding to compress the response with, or null to send it as is.
+	 */
+	public ContentCoding getResponseCoding(String acceptEncoding, String serviceName, int length) {
+
+		ContentCoding coding = ContentCoding.negotiate(acceptEncoding);
+		if (coding == null) {
+			return null;
+		}
+		if (length < this.getThreshold(serviceName)) {
+			this.metrics.recordSkipped(serviceName);
+			return null;
+		}
+		return coding;
+
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.concur.babel.transport.compression;
+
+/**
+ * CompressionStats is a point in time snapshot of CompressionMetrics, either for a single service or
+ * for everything a transport or server compressed.
+ */
+public class CompressionStats {
+
+	private final long compressed;
+	private final long skipped;
+	private final long bytesBeforeCompression;
+	private final long bytesAfterCompression;
+	private final long compressionNanos;
+	private final long decompressed;
+	private final long bytesBeforeDecompression;
+	private final long bytesAfterDecompression;
+	private final long decompressionNanos;
+
+	public CompressionStats(
+		long compressed,
+		long skipped,
+		long bytesBeforeCompression,
+		long bytesAfterCompression,
+		long compressionNanos,
+		long decompressed,
+		long bytesBeforeDecompression,
+		long bytesAfterDecompression,
+		long decompressionNanos)
+	{
+		this.compressed = compressed;
+		this.skipped = skipped;
+		this.bytesBeforeCompression = bytesBeforeCompression;
+		this.bytesAfterCompression = bytesAfterCompression;
+		this.compressionNanos = compressionNanos;
+		this.decompressed = decompressed;
+		this.bytesBeforeDecompression = bytesBeforeDecompression;
+		this.bytesAfterDecompression = bytesAfterDecompression;
+		this.decompressionNanos = decompressionNanos;
+	}
+
+	/**
+	 * @return the number of bodies that were compressed.
+	 */
+	public long getCompressed() { return this.compressed; }
+
+	/**
+	 * @return the number of bodies that were sent uncompressed because they were below the threshold.
+	 */
+	public long getSkipped() { return this.skipped; }
+
+	public long getBytesBeforeCompression() { return this.bytesBeforeCompression; }
+
+	public long getBytesAfterCompression() { return this.bytesAfterCompression; }
+
+	/**
+	 * @return the CPU time spent compressing, in nanoseconds.
+	 */
+	public long getCompressionNanos() { return this.compressionNanos; }
+
+	/**
+	 * @return the number of bodies that were decompressed.
+	 */
+	public long getDecompressed() { return this.decompressed; }
+
+	public long getBytesBeforeDecompression() { return this.bytesBeforeDecompression; }
+
+	public long getBytesAfterDecompression() { return this.bytesAfterDecompression; }
+
+	/**
+	 * @return the CPU time spent decompressing, in nanoseconds.
+	 */
+	public long getDecompressionNanos() { return this.decompressionNanos; }
+
+	/**
+	 * @return the compressed size divided by the original size of everything compressed, 1 if nothing
+	 * was, lower is better.
+	 */
+	public double getCompressionRatio() {
+		return this.bytesBeforeCompression == 0 ?
+			1 :
+			(double)this.bytesAfterCompression / this.bytesBeforeCompression;
+	}
+
+	/**
+	 * @return the CPU time spent per KB compressed, in nanoseconds.
+	 */
+	public double getCompressionNanosPerKB() {
+		return this.bytesBeforeCompression == 0 ?
+			0 :
+			this.compressionNanos * 1024d / this.bytesBeforeCompression;
+	}
+
+	@Override
+	public String toString() {
+		return "[compressed: " + this.compressed + "; skipped: " + this.skipped + "; ratio: " +
+			this.getCompressionRatio() + "; compressionNanos: " + this.compressionNanos +
+			"; decompressed: " + this.decompressed + "; decompressionNanos: " + this.decompressionNanos + "]";
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.concur.babel.transport.compression;
+
+/**
+ * ContentCoding lists the HTTP content codings babel can compress and decompress.
+ */
+public enum ContentCoding {
+
+	GZIP("gzip"),
+	DEFLATE("deflate");
+
+	/**
+	 * The Accept-Encoding header value sent by clients that accept compressed responses.
+	 */
+	public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	private final String name;
+
+	private ContentCoding(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the name of the coding as used in Content-Encoding and Accept-Encoding headers.
+	 */
+	public String getName() { return this.name; }
+
+	/**
+	 * Method forName looks up a coding from a Content-Encoding header value.
+	 *
+	 * @param contentEncoding - the header value, may be null.
+	 * @return the coding, or null for no header or "identity".
+	 * @throws IllegalArgumentException if the coding is not supported.
+	 */
+	public static ContentCoding forName(String contentEncoding) {
+
+		if (contentEncoding == null) {
+			return null;
+		}
+		String name = contentEncoding.trim();
+		if (name.length() == 0 || name.equalsIgnoreCase("identity")) {
+			return null;
+		}
+		for (ContentCoding coding : values()) {
+			if (coding.name.equalsIgnoreCase(name) || ("x-" + coding.name).equalsIgnoreCase(name)) {
+				return coding;
+			}
+		}
+		throw new IllegalArgumentException("Unsupported Content-Encoding: " + contentEncoding);
+
+	}
+
+	/**
+	 * Method negotiate picks the coding to answer a request with from its Accept-Encoding header,
+	 * preferring the highest quality value and gzip over deflate when they are equal.
+	 *
+	 * @param acceptEncoding - the header value, may be null.
+	 * @return the coding, or null if the client accepts none of the supported codings.
+	 */
+	public static ContentCoding negotiate(String acceptEncoding) {
+
+		if (acceptEncoding == null) {
+			return null;
+		}
+
+		ContentCoding best = null;
+		float bestQuality = 0;
+		float wildcard = -1;
+		float[] qualities = new float[values().length];
+		for (int i = 0; i < qualities.length; i++) {
+			qualities[i] = -1;
+		}
+
+		for (String part : acceptEncoding.split(",")) {
+			String[] params = part.split(";");
+			String name = params[0].trim();
+			float quality = 1;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=") || param.startsWith("Q=")) {
+					try {
+						quality = Float.parseFloat(param.substring(2).trim());
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			if (name.equals("*")) {
+				wildcard = quality;
+				continue;
+			}
+			for (ContentCoding coding : values()) {
+				if (coding.name.equalsIgnoreCase(name) || ("x-" + coding.name).equalsIgnoreCase(name)) {
+					qualities[coding.ordinal()] = quality;
+				}
+			}
+		}
+
+		for (ContentCoding coding : values()) {
+			float quality = qualities[coding.ordinal()] >= 0 ? qualities[coding.ordinal()] : wildcard;
+			if (quality > bestQuality) {
+				best = coding;
+				bestQuality = quality;
+			}
+		}
+		return best;
+
+	}
+
+}
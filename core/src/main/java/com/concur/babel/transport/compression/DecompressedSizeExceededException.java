@@ -0,0 +1,21 @@
+package com.concur.babel.transport.compression;
+
+import java.io.IOException;
+
+/**
+ * DecompressedSizeExceededException is thrown reading a compressed body that decompresses to more
+ * than the maximum decompressed size of the CompressionPolicy.
+ */
+@SuppressWarnings("serial")
+public class DecompressedSizeExceededException extends IOException {
+
+	private final long maxSize;
+
+	public DecompressedSizeExceededException(long maxSize) {
+		super("Compressed body decompresses to more than " + maxSize + " bytes");
+		this.maxSize = maxSize;
+	}
+
+	public long getMaxSize() { return this.maxSize; }
+
+}
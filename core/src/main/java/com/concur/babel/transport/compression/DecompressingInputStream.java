@@ -0,0 +1,312 @@
+package com.concur.babel.transport.compression;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * DecompressingInputStream decompresses a gzip or deflate body as it is read, using an Inflater from
+ * a CodecPool that is handed back at the end of the body.  Deflate bodies are accepted both in the
+ * zlib format the specification asks for and as raw deflate data, which some servers send.
+ */
+public class DecompressingInputStream extends InputStream {
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private final InputStream in;
+	private final CodecPool pool;
+	private final CompressionMetrics metrics;
+	private final String serviceName;
+	private final long maxBytesOut;
+	private final byte[] buffer = new byte[8192];
+	private int position = 0;
+	private int limit = 0;
+	private final CRC32 crc;
+	private boolean nowrap;
+	private Inflater inflater;
+	private long bytesIn = 0;
+	private long bytesOut = 0;
+	private long nanos = 0;
+	private boolean started = false;
+	private boolean eof = false;
+
+	/**
+	 * Creates a new DecompressingInputStream
+	 *
+	 * @param in - the compressed body.
+	 * @param coding - the coding the body was compressed with.
+	 * @param pool - the pool to take the Inflater from.
+	 * @param metrics - the metrics to record the decompression in, may be null.
+	 * @param serviceName - the service the metrics are recorded for.
+	 */
+	public DecompressingInputStream(
+		InputStream in,
+		ContentCoding coding,
+		CodecPool pool,
+		CompressionMetrics metrics,
+		String serviceName)
+	{
+		this(in, coding, pool, metrics, serviceName, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a new DecompressingInputStream that decompresses up to a maximum size
+	 *
+	 * @param in - the compressed body.
+	 * @param coding - the coding the body was compressed with.
+	 * @param pool - the pool to take the Inflater from.
+	 * @param metrics - the metrics to record the decompression in, may be null.
+	 * @param serviceName - the service the metrics are recorded for.
+	 * @param maxBytesOut - the largest number of bytes the body may decompress to.
+	 */
+	public DecompressingInputStream(
+		InputStream in,
+		ContentCoding coding,
+		CodecPool pool,
+		CompressionMetrics metrics,
+		String serviceName,
+		long maxBytesOut)
+	{
+
+		notNull("in", in);
+		notNull("coding", coding);
+		notNull("pool", pool);
+
+		this.in = in;
+		this.pool = pool;
+		this.metrics = metrics;
+		this.serviceName = serviceName;
+		this.maxBytesOut = maxBytesOut;
+		this.crc = coding == ContentCoding.GZIP ? new CRC32() : null;
+
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		byte[] b = new byte[1];
+		return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		if (this.eof) {
+			return -1;
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (!this.started) {
+			this.start();
+		}
+
+		long start = CompressionMetrics.cpuTime();
+		try {
+			while (true) {
+				int count;
+				try {
+					count = this.inflater.inflate(b, off, len);
+				} catch (DataFormatException e) {
+					throw new ZipException("Invalid compressed data: " + e.getMessage());
+				}
+				if (count > 0) {
+					if (this.crc != null) {
+						this.crc.update(b, off, count);
+					}
+					this.bytesOut += count;
+					if (this.bytesOut > this.maxBytesOut) {
+						this.release(false);
+						this.eof = true;
+						throw new DecompressedSizeExceededException(this.maxBytesOut);
+					}
+					return count;
+				}
+				if (this.inflater.finished()) {
+					this.position = this.limit - this.inflater.getRemaining();
+					this.end();
+					return -1;
+				}
+				if (this.inflater.needsDictionary()) {
+					throw new ZipException("Compressed data requires a preset dictionary");
+				}
+				if (!this.fill()) {
+					throw new EOFException("Unexpected end of compressed body");
+				}
+				this.inflater.setInput(this.buffer, this.position, this.limit - this.position);
+				this.position = this.limit;
+			}
+		} finally {
+			this.nanos += CompressionMetrics.cpuTime() - start;
+		}
+
+	}
+
+	/**
+	 * Method finish reads the rest of the body so the trailer is verified and the Inflater goes back
+	 * to the pool, without closing the underlying stream.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+
+		byte[] scratch = new byte[1024];
+		try {
+			while (this.read(scratch, 0, scratch.length) != -1) {
+				// discard what the reader did not need
+			}
+		} finally {
+			this.release(false);
+		}
+
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		this.release(false);
+		this.in.close();
+
+	}
+
+	private void start() throws IOException {
+
+		this.started = true;
+		if (this.crc != null) {
+			this.readGzipHeader();
+			this.nowrap = true;
+		} else {
+			// a zlib header is a deflate method byte whose pair with the flags is a multiple of 31
+			int cmf = this.peek(0);
+			int flg = this.peek(1);
+			this.nowrap = (cmf & 0x0f) != 8 || flg == -1 || ((cmf << 8) | flg) % 31 != 0;
+		}
+		this.inflater = this.pool.acquireInflater(this.nowrap);
+		if (this.limit > this.position) {
+			this.inflater.setInput(this.buffer, this.position, this.limit - this.position);
+			this.position = this.limit;
+		}
+
+	}
+
+	private void readGzipHeader() throws IOException {
+
+		if (this.readByte() != 0x1f || this.readByte() != 0x8b) {
+			throw new ZipException("Not in GZIP format");
+		}
+		if (this.readByte() != 8) {
+			throw new ZipException("Unsupported GZIP compression method");
+		}
+		int flags = this.readByte();
+		for (int i = 0; i < 6; i++) {
+			this.readByte();
+		}
+		if ((flags & FEXTRA) != 0) {
+			int length = this.readByte() | (this.readByte() << 8);
+			for (int i = 0; i < length; i++) {
+				this.readByte();
+			}
+		}
+		if ((flags & FNAME) != 0) {
+			while (this.readByte() != 0) {
+				// skip the file name
+			}
+		}
+		if ((flags & FCOMMENT) != 0) {
+			while (this.readByte() != 0) {
+				// skip the comment
+			}
+		}
+		if ((flags & FHCRC) != 0) {
+			this.readByte();
+			this.readByte();
+		}
+
+	}
+
+	private void end() throws IOException {
+
+		this.eof = true;
+		if (this.crc != null) {
+			long crc = this.readIntLE();
+			long size = this.readIntLE();
+			if (crc != this.crc.getValue() || size != (this.bytesOut & 0xffffffffL)) {
+				throw new ZipException("Corrupt GZIP trailer");
+			}
+		}
+		this.release(true);
+		if (this.metrics != null) {
+			this.metrics.recordDecompression(this.serviceName, this.bytesIn, this.bytesOut, this.nanos);
+		}
+
+	}
+
+	private long readIntLE() throws IOException {
+		return (this.readByte() | (this.readByte() << 8) | (this.readByte() << 16) | ((long)this.readByte() << 24));
+	}
+
+	private int readByte() throws IOException {
+
+		if (this.position == this.limit && !this.fill()) {
+			throw new EOFException("Unexpected end of compressed body");
+		}
+		return this.buffer[this.position++] & 0xff;
+
+	}
+
+	private int peek(int offset) throws IOException {
+
+		while (this.limit - this.position <= offset) {
+			if (!this.fill()) {
+				return -1;
+			}
+		}
+		return this.buffer[this.position + offset] & 0xff;
+
+	}
+
+	/**
+	 * Reads more compressed bytes, keeping the unread ones.
+	 */
+	private boolean fill() throws IOException {
+
+		if (this.position > 0) {
+			System.arraycopy(this.buffer, this.position, this.buffer, 0, this.limit - this.position);
+			this.limit -= this.position;
+			this.position = 0;
+		}
+		int count = this.in.read(this.buffer, this.limit, this.buffer.length - this.limit);
+		if (count == -1) {
+			return false;
+		}
+		this.limit += count;
+		this.bytesIn += count;
+		return true;
+
+	}
+
+	private void release(boolean reusable) {
+
+		if (this.inflater == null) {
+			return;
+		}
+		if (reusable) {
+			this.pool.releaseInflater(this.nowrap, this.inflater);
+		} else {
+			this.inflater.end();
+		}
+		this.inflater = null;
+
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.concur.babel.transport.compression;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * ThresholdOutputStream sends a request body compressed only if it reaches a minimum size.  Bytes
+ * are buffered until the threshold is reached, then the body is opened compressed and the rest is
+ * compressed as it is written, so at most threshold bytes are held in memory.  A body that ends
+ * below the threshold is sent as is with its length.
+ *
+ * Without a coding the body is never compressed, it is opened on the first write when streaming
+ * or buffered to learn its length otherwise.  When not streaming a compressed body is buffered
+ * after compression to learn its length.
+ */
+public class ThresholdOutputStream extends OutputStream {
+
+	private final BodyOpener opener;
+	private final ContentCoding coding;
+	private final int threshold;
+	private final boolean streaming;
+	private final CompressionPolicy policy;
+	private final String serviceName;
+
+	private ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+	private ByteArrayOutputStream compressed;
+	private OutputStream target;
+	private boolean closed = false;
+
+	/**
+	 * Creates a new ThresholdOutputStream
+	 *
+	 * @param opener - opens the body once the coding is known.
+	 * @param policy - the compression policy, requests are compressed only if it compresses requests.
+	 * @param serviceName - the service being called.
+	 * @param streaming - true if a body may be sent without knowing its length.
+	 */
+	public ThresholdOutputStream(
+		BodyOpener opener,
+		CompressionPolicy policy,
+		String serviceName,
+		boolean streaming)
+	{
+
+		notNull("opener", opener);
+		notNull("policy", policy);
+
+		this.opener = opener;
+		this.policy = policy;
+		this.serviceName = serviceName;
+		this.streaming = streaming;
+		this.coding = policy.isCompressRequests() ? policy.getCoding() : null;
+		if (this.coding != null) {
+			this.threshold = policy.getThreshold(serviceName);
+		} else {
+			this.threshold = streaming ? 0 : Integer.MAX_VALUE;
+		}
+
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		if (this.target != null) {
+			this.target.write(b, off, len);
+			return;
+		}
+		this.buffer.write(b, off, len);
+		if (this.buffer.size() >= this.threshold && this.buffer.size() > 0) {
+			this.open();
+		}
+
+	}
+
+	@Override
+	public void flush() throws IOException {
+
+		if (this.target != null) {
+			this.target.flush();
+		}
+
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+
+		if (this.target == null) {
+			if (this.coding != null) {
+				this.policy.getMetrics().recordSkipped(this.serviceName);
+			}
+			OutputStream out = this.opener.open(null, this.buffer.size());
+			this.buffer.writeTo(out);
+			out.close();
+			return;
+		}
+
+		this.target.close();
+		if (this.compressed != null) {
+			OutputStream out = this.opener.open(this.coding, this.compressed.size());
+			this.compressed.writeTo(out);
+			out.close();
+		}
+
+	}
+
+	private void open() throws IOException {
+
+		if (this.coding == null) {
+			this.target = this.opener.open(null, -1);
+		} else if (this.streaming) {
+			this.target = this.policy.compress(this.opener.open(this.coding, -1), this.serviceName);
+		} else {
+			this.compressed = new ByteArrayOutputStream(this.buffer.size());
+			this.target = this.policy.compress(this.compressed, this.serviceName);
+		}
+		this.buffer.writeTo(this.target);
+		this.buffer = null;
+
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.concur.babel.transport.handler;
+
+import java.util.Map;
+
+/**
+ * HedgeHandler is a ResponseHandler that is also told about hedged requests, see HedgingTransport.
+ * Every request of a hedged call is reported to onSuccess or onFailure by its endpoint, a
+ * HedgeHandler also learns when hedges are sent or denied and which request of a call won.
+ */
+public interface HedgeHandler extends ResponseHandler {
+
+	/**
+	 * Method onHedge will be called when a hedge of a call is sent.
+	 *
+	 * @param serviceConnection - connection information of the endpoint the hedge is sent to.
+	 * @param headers - the headers on the request.
+	 * @param hedge - the number of the hedge, 1 for the first hedge.
+	 * @param elapsed - the milliseconds since the call started.
+	 */
+	void onHedge(
+		ServiceConnection serviceConnection,
+		Map<String, String> headers,
+		int hedge,
+		long elapsed);
+
+	/**
+	 * Method onHedgeDenied will be called when a hedge is not sent because the budget is used up.
+	 *
+	 * @param serviceConnection - connection information of the endpoint the hedge would go to.
+	 * @param headers - the headers on the request.
+	 * @param hedge - the number of the hedge that was not sent.
+	 */
+	void onHedgeDenied(
+		ServiceConnection serviceConnection,
+		Map<String, String> headers,
+		int hedge);
+
+	/**
+	 * Method onHedgeComplete will be called once a hedged call completed.
+	 *
+	 * @param serviceConnection - connection information of the endpoint that answered, or of the
+	 * first endpoint if none answered.
+	 * @param headers - the headers on the request.
+	 * @param hedges - the number of hedges sent.
+	 * @param winner - the request that answered, 0 for the first request, n for hedge n, -1 if the call
+	 * failed without an answer.
+	 * @param duration - the milliseconds from the start of the call until it completed.
+	 */
+	void onHedgeComplete(
+		ServiceConnection serviceConnection,
+		Map<String, String> headers,
+		int hedges,
+		int winner,
+		long duration);
+
+}
@@ -14,8 +14,10 @@ public interface ResponseHandler {
 	 * 
 	 * @param serviceConnection - connection information for the remote service call.
 	 * @param headers - the headers on the request.
-	 * @param request - the request.
-	 * @param response - the response.
+	 * @param request - the request, null unless the transport captures requests, see 
+	 * BaseTransport.setCaptureRequest.
+	 * @param response - the response, null unless the transport captures responses, see 
+	 * BaseTransport.setCaptureResponse.
 	 * @param duration - the duration that the remote service call took.
 	 */
 	void onSuccess(
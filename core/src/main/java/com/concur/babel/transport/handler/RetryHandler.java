@@ -0,0 +1,50 @@
+package com.concur.babel.transport.handler;
+
+import java.util.Map;
+
+import com.concur.babel.transport.retry.RetryDenial;
+
+/**
+ * RetryHandler is a ResponseHandler that is also told about retries.  Every failed attempt is
+ * reported to onFailure, a RetryHandler then learns if the call is retried and after which delay,
+ * or why a retryable failure was not retried.
+ */
+public interface RetryHandler extends ResponseHandler {
+
+	/**
+	 * Method onRetry will be called before a failed call is retried.
+	 *
+	 * @param serviceConnection - connection information for the remote service call.
+	 * @param headers - the headers on the request.
+	 * @param retry - the number of the retry, 1 for the first retry.
+	 * @param delay - the delay in milliseconds before the retry.
+	 * @param errorCode - the status code of the failed attempt, null if it failed with an exception.
+	 * @param exception - the exception the attempt failed with, null if it was answered.
+	 */
+	void onRetry(
+		ServiceConnection serviceConnection,
+		Map<String, String> headers,
+		int retry,
+		long delay,
+		Integer errorCode,
+		Exception exception);
+
+	/**
+	 * Method onRetryDenied will be called when a retryable failure is not retried.
+	 *
+	 * @param serviceConnection - connection information for the remote service call.
+	 * @param headers - the headers on the request.
+	 * @param retry - the number of the retry that was not made.
+	 * @param denial - the reason it was not made.
+	 * @param errorCode - the status code of the failed attempt, null if it failed with an exception.
+	 * @param exception - the exception the attempt failed with, null if it was answered.
+	 */
+	void onRetryDenied(
+		ServiceConnection serviceConnection,
+		Map<String, String> headers,
+		int retry,
+		RetryDenial denial,
+		Integer errorCode,
+		Exception exception);
+
+}
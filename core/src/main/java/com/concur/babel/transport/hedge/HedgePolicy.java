@@ -0,0 +1,134 @@
+package com.concur.babel.transport.hedge;
+
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.concur.babel.ServiceMethod;
+import com.concur.babel.transport.retry.RetryBudget;
+
+/**
+ * HedgePolicy configures request hedging, see HedgingTransport.  Only methods added with
+ * addIdempotentMethod are hedged, a call that has no response after the hedge delay is sent again
+ * to the next endpoint, up to maxHedges times.  The delay is fixed, or a percentile of the recent
+ * latencies of the method once enough calls were seen.  Hedges are capped by a budget that every
+ * call deposits into and every hedge withdraws from, by default one hedge for every ten calls.
+ */
+public class HedgePolicy {
+
+	private final Set<String> idempotentMethods =
+		Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private long delay = 100;
+	private double delayPercentile = 0;
+	private int minimumSamples = 100;
+	private int sampleSize = 1000;
+	private int maxHedges = 1;
+	private RetryBudget budget = new RetryBudget();
+
+	/**
+	 * Method addIdempotentMethod marks a method as safe to call more than once, only such methods
+	 * are hedged.
+	 *
+	 * @param serviceName - the service name.
+	 * @param methodName - the method name.
+	 */
+	public void addIdempotentMethod(String serviceName, String methodName) {
+
+		notNull("serviceName", serviceName);
+		notNull("methodName", methodName);
+		this.idempotentMethods.add(serviceName + "/" + methodName);
+
+	}
+
+	/**
+	 * @return true if the service method was marked idempotent.
+	 */
+	public boolean isIdempotent(ServiceMethod serviceMethod) {
+		return this.idempotentMethods.contains(serviceMethod.getServiceName() + "/" + serviceMethod.getMethodName());
+	}
+
+	/**
+	 * Method setDelay sets how long, in milliseconds, to wait for a response before hedging.  It is
+	 * used until minimumSamples calls were seen if a delay percentile is set.  The default is 100.
+	 */
+	public void setDelay(long delay) {
+		preCondition(delay >= 0, "delay must be greater than or equal to ZERO");
+		this.delay = delay;
+	}
+
+	/**
+	 * Method setDelayPercentile derives the delay from a percentile of the recent latencies of each
+	 * method, 95 hedges the slowest 5% of calls.  The default is 0, which uses the fixed delay.
+	 */
+	public void setDelayPercentile(double delayPercentile) {
+		preCondition(delayPercentile >= 0 && delayPercentile < 100,
+			"delayPercentile must be greater than or equal to ZERO and less than 100");
+		this.delayPercentile = delayPercentile;
+	}
+
+	/**
+	 * Method setMinimumSamples sets the number of calls of a method that must be seen before the
+	 * delay percentile is used.  The default is 100.
+	 */
+	public void setMinimumSamples(int minimumSamples) {
+		preCondition(minimumSamples >= 1, "minimumSamples must be greater than or equal to ONE");
+		this.minimumSamples = minimumSamples;
+	}
+
+	/**
+	 * Method setSampleSize sets the number of recent latencies the percentile is computed over.  The
+	 * default is 1000.
+	 */
+	public void setSampleSize(int sampleSize) {
+		preCondition(sampleSize >= 1, "sampleSize must be greater than or equal to ONE");
+		this.sampleSize = sampleSize;
+	}
+
+	/**
+	 * Method setMaxHedges sets the number of extra requests a call may send.  The default is 1.
+	 */
+	public void setMaxHedges(int maxHedges) {
+		preCondition(maxHedges >= 1, "maxHedges must be greater than or equal to ONE");
+		this.maxHedges = maxHedges;
+	}
+
+	/**
+	 * Method setBudget sets the budget hedges are taken from, every hedged call deposits into it.
+	 * It may be shared by transports.
+	 */
+	public void setBudget(RetryBudget budget) {
+		notNull("budget", budget);
+		this.budget = budget;
+	}
+
+	/**
+	 * Method getDelay gets the hedge delay of a method.
+	 *
+	 * @param latencies - the recent latencies of the method.
+	 * @return the delay in milliseconds.
+	 */
+	public long getDelay(LatencyTracker latencies) {
+
+		if (this.delayPercentile > 0 && latencies.getCount() >= this.minimumSamples) {
+			return Math.max(1, latencies.getPercentile(this.delayPercentile));
+		}
+		return this.delay;
+
+	}
+
+	public long getDelay() { return this.delay; }
+
+	public double getDelayPercentile() { return this.delayPercentile; }
+
+	public int getMinimumSamples() { return this.minimumSamples; }
+
+	public int getSampleSize() { return this.sampleSize; }
+
+	public int getMaxHedges() { return this.maxHedges; }
+
+	public RetryBudget getBudget() { return this.budget; }
+
+}
@@ -0,0 +1,85 @@
+package com.concur.babel.transport.hedge;
+
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyTracker keeps the latencies of the most recent calls of a service method to derive a hedge
+ * delay from a percentile of them.  Recording is lock-free, percentiles are computed from a sorted
+ * copy of the samples and cached until enough new samples were recorded.
+ */
+public class LatencyTracker {
+
+	private final AtomicLongArray samples;
+	private final AtomicLong count = new AtomicLong();
+	private final int refreshInterval;
+	private volatile long computedAt = -1;
+	private volatile double computedPercentile = -1;
+	private volatile long computedValue = -1;
+
+	/**
+	 * Creates a new LatencyTracker
+	 *
+	 * @param size - the number of most recent samples kept.
+	 * @param refreshInterval - the number of new samples after which a percentile is computed again.
+	 */
+	public LatencyTracker(int size, int refreshInterval) {
+
+		preCondition(size >= 1, "size must be greater than or equal to ONE");
+		preCondition(refreshInterval >= 1, "refreshInterval must be greater than or equal to ONE");
+		this.samples = new AtomicLongArray(size);
+		this.refreshInterval = refreshInterval;
+
+	}
+
+	/**
+	 * Method record adds the latency of a call.
+	 *
+	 * @param latencyMillis - the latency in milliseconds.
+	 */
+	public void record(long latencyMillis) {
+		this.samples.set((int)(this.count.getAndIncrement() % this.samples.length()), latencyMillis);
+	}
+
+	/**
+	 * @return the number of samples recorded so far.
+	 */
+	public long getCount() { return this.count.get(); }
+
+	/**
+	 * Method getPercentile gets a percentile of the recent samples.
+	 *
+	 * @param percentile - the percentile, from 0 to 100.
+	 * @return the latency in milliseconds, -1 if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+
+		long current = this.count.get();
+		if (current == 0) {
+			return -1;
+		}
+		if (this.computedPercentile == percentile && current - this.computedAt < this.refreshInterval) {
+			return this.computedValue;
+		}
+
+		int filled = (int)Math.min(current, this.samples.length());
+		long[] sorted = new long[filled];
+		for (int i = 0; i < filled; i++) {
+			sorted[i] = this.samples.get(i);
+		}
+		Arrays.sort(sorted);
+		int index = (int)Math.ceil(percentile / 100 * filled) - 1;
+		long value = sorted[Math.max(0, Math.min(filled - 1, index))];
+
+		// racing threads compute the same value from about the same samples, the last one is kept
+		this.computedValue = value;
+		this.computedPercentile = percentile;
+		this.computedAt = current;
+		return value;
+
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.concur.babel.transport.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * ChunkedInputStream decodes a response body sent with "Transfer-Encoding: chunked".  Trailers are
+ * read and discarded.
+ */
+public class ChunkedInputStream extends ResponseBodyInputStream {
+
+	private long chunkRemaining = 0;
+	private boolean finished = false;
+
+	public ChunkedInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		if (!this.ensureChunk()) {
+			return -1;
+		}
+		int b = this.in.read();
+		if (b == -1) {
+			throw new EOFException("Connection closed in the middle of a chunk");
+		}
+		this.chunkRemaining--;
+		return b;
+
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		if (!this.ensureChunk()) {
+			return -1;
+		}
+		int count = this.in.read(b, off, (int)Math.min(len, this.chunkRemaining));
+		if (count == -1) {
+			throw new EOFException("Connection closed in the middle of a chunk");
+		}
+		this.chunkRemaining -= count;
+		return count;
+
+	}
+
+	@Override
+	public int available() throws IOException {
+		return this.finished ? 0 : (int)Math.min(this.in.available(), this.chunkRemaining);
+	}
+
+	@Override
+	public boolean isComplete() { return this.finished; }
+
+	private boolean ensureChunk() throws IOException {
+
+		if (this.finished) {
+			return false;
+		}
+		if (this.chunkRemaining > 0) {
+			return true;
+		}
+
+		String line = Http1Codec.readLine(this.in);
+		if (line == null) {
+			throw new EOFException("Connection closed while reading chunk size");
+		}
+		if (line.length() == 0) {
+			// CRLF that terminates the previous chunk's data.
+			line = Http1Codec.readLine(this.in);
+			if (line == null) {
+				throw new EOFException("Connection closed while reading chunk size");
+			}
+		}
+
+		int extension = line.indexOf(';');
+		String size = (extension == -1 ? line : line.substring(0, extension)).trim();
+		try {
+			this.chunkRemaining = Long.parseLong(size, 16);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid chunk size: " + line);
+		}
+
+		if (this.chunkRemaining == 0) {
+			// Skip optional trailers up to the terminating blank line.
+			String trailer;
+			while ((trailer = Http1Codec.readLine(this.in)) != null && trailer.length() > 0) {
+			}
+			this.finished = true;
+			return false;
+		}
+		return true;
+
+	}
+
+}
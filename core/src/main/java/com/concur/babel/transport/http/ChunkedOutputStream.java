@@ -0,0 +1,118 @@
+package com.concur.babel.transport.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * ChunkedOutputStream encodes a request body with "Transfer-Encoding: chunked".  Writes are buffered
+ * into chunks of up to chunkSize bytes, close writes the last chunk but leaves the underlying stream
+ * open so the connection can be reused.
+ */
+public class ChunkedOutputStream extends FilterOutputStream {
+
+	public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+	private final byte[] buffer;
+	private int count = 0;
+	private boolean closed = false;
+
+	public ChunkedOutputStream(OutputStream out) {
+		this(out, DEFAULT_CHUNK_SIZE);
+	}
+
+	public ChunkedOutputStream(OutputStream out, int chunkSize) {
+		super(out);
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be greater than ZERO");
+		}
+		this.buffer = new byte[chunkSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+
+		this.ensureOpen();
+		if (this.count == this.buffer.length) {
+			this.writeChunk(this.buffer, 0, this.count);
+			this.count = 0;
+		}
+		this.buffer[this.count++] = (byte)b;
+
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+
+		this.ensureOpen();
+		if (len >= this.buffer.length) {
+			this.flushBuffer();
+			this.writeChunk(b, off, len);
+			return;
+		}
+		if (len > this.buffer.length - this.count) {
+			this.flushBuffer();
+		}
+		System.arraycopy(b, off, this.buffer, this.count, len);
+		this.count += len;
+
+	}
+
+	@Override
+	public void flush() throws IOException {
+
+		this.ensureOpen();
+		this.flushBuffer();
+		this.out.flush();
+
+	}
+
+	/**
+	 * Method close writes any buffered bytes and the last chunk, the underlying stream is flushed but
+	 * not closed.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (this.closed) {
+			return;
+		}
+		this.flushBuffer();
+		this.out.write('0');
+		Http1Codec.writeCrlf(this.out);
+		Http1Codec.writeCrlf(this.out);
+		this.out.flush();
+		this.closed = true;
+
+	}
+
+	private void flushBuffer() throws IOException {
+
+		if (this.count > 0) {
+			this.writeChunk(this.buffer, 0, this.count);
+			this.count = 0;
+		}
+
+	}
+
+	private void writeChunk(byte[] b, int off, int len) throws IOException {
+
+		if (len == 0) {
+			return;
+		}
+		this.out.write(Integer.toHexString(len).getBytes(Http1Codec.ASCII));
+		Http1Codec.writeCrlf(this.out);
+		this.out.write(b, off, len);
+		Http1Codec.writeCrlf(this.out);
+
+	}
+
+	private void ensureOpen() throws IOException {
+
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.concur.babel.transport.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * FixedLengthInputStream exposes exactly Content-Length bytes of a response body from an underlying
+ * connection stream.  Closing it never closes the underlying stream so the connection can be reused.
+ */
+public class FixedLengthInputStream extends ResponseBodyInputStream {
+
+	private long remaining;
+
+	public FixedLengthInputStream(InputStream in, long length) {
+		super(in);
+		this.remaining = length;
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		if (this.remaining <= 0) {
+			return -1;
+		}
+		int b = this.in.read();
+		if (b == -1) {
+			throw new EOFException("Connection closed before the full response body was read");
+		}
+		this.remaining--;
+		return b;
+
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		if (this.remaining <= 0) {
+			return -1;
+		}
+		int count = this.in.read(b, off, (int)Math.min(len, this.remaining));
+		if (count == -1) {
+			throw new EOFException("Connection closed before the full response body was read");
+		}
+		this.remaining -= count;
+		return count;
+
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int)Math.min(this.in.available(), this.remaining);
+	}
+
+	@Override
+	public boolean isComplete() { return this.remaining <= 0; }
+
+}
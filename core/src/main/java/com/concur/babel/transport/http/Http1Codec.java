@@ -0,0 +1,183 @@
+package com.concur.babel.transport.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Http1Codec contains the minimal HTTP/1.1 message handling babel needs to talk to a babel service
+ * over a raw, reusable socket: writing a request head and reading a response head and body.
+ */
+public final class Http1Codec {
+
+	public static final Charset ASCII = Charset.forName("US-ASCII");
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int MAX_LINE_LENGTH = 8192;
+	private static final byte[] CRLF = new byte[] { '\r', '\n' };
+
+	private Http1Codec() {
+
+	}
+
+	/**
+	 * Method writeRequestHead writes the request line and headers of an HTTP/1.1 request.  Custom
+	 * header values are URL encoded the same way HttpTransport encodes them.
+	 *
+	 * @param out - the connection output stream.
+	 * @param method - the HTTP method.
+	 * @param path - the request path, including any query string.
+	 * @param host - the value of the Host header.
+	 * @param fixedHeaders - protocol level headers that are written as is, for example Content-Type.
+	 * @param customHeaders - user headers that are URL encoded before being written, may be null.
+	 * @throws IOException
+	 */
+	public static void writeRequestHead(
+		OutputStream out,
+		String method,
+		String path,
+		String host,
+		Map<String, String> fixedHeaders,
+		Map<String, String> customHeaders)
+	throws
+		IOException
+	{
+
+		StringBuilder sb = new StringBuilder(256);
+		sb.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+		sb.append("Host: ").append(host).append("\r\n");
+		for (Entry<String, String> e : fixedHeaders.entrySet()) {
+			sb.append(e.getKey()).append(": ").append(e.getValue()).append("\r\n");
+		}
+		if (customHeaders != null) {
+			for (Entry<String, String> e : customHeaders.entrySet()) {
+				sb.append(e.getKey()).append(": ").append(encodeHeaderValue(e.getValue())).append("\r\n");
+			}
+		}
+		sb.append("\r\n");
+		out.write(sb.toString().getBytes(UTF8));
+
+	}
+
+	/**
+	 * Method readResponseHead reads a status line and headers.  Interim 1xx responses are skipped.
+	 *
+	 * @param in - the connection input stream.
+	 * @return the parsed response head.
+	 * @throws IOException if the stream ends before a complete head was read or the head is invalid.
+	 */
+	public static HttpResponseHead readResponseHead(InputStream in) throws IOException {
+
+		while (true) {
+
+			String statusLine = readLine(in);
+			if (statusLine == null) {
+				throw new EOFException("Connection closed before a response was received");
+			}
+
+			String[] parts = statusLine.split(" ", 3);
+			if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+				throw new IOException("Invalid HTTP status line: " + statusLine);
+			}
+
+			int statusCode;
+			try {
+				statusCode = Integer.parseInt(parts[1]);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid HTTP status line: " + statusLine);
+			}
+
+			HttpResponseHead head = new HttpResponseHead(
+				parts[0],
+				statusCode,
+				parts.length > 2 ? parts[2] : null);
+
+			String line;
+			while ((line = readLine(in)) != null && line.length() > 0) {
+				int colon = line.indexOf(':');
+				if (colon > 0) {
+					head.addHeader(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+				}
+			}
+			if (line == null) {
+				throw new EOFException("Connection closed while reading response headers");
+			}
+
+			if (statusCode >= 100 && statusCode < 200) {
+				continue;
+			}
+			return head;
+
+		}
+
+	}
+
+	/**
+	 * Method openBody returns a stream delimiting the body of the given response on the connection.
+	 *
+	 * @param head - the response head.
+	 * @param in - the connection input stream positioned at the start of the body.
+	 * @param hasBody - false for responses that never carry a body, for example responses to HEAD.
+	 * @return a stream that ends where the response body ends.
+	 */
+	public static ResponseBodyInputStream openBody(HttpResponseHead head, InputStream in, boolean hasBody) {
+
+		int status = head.getStatusCode();
+		if (!hasBody || status == 204 || status == 304) {
+			return new FixedLengthInputStream(in, 0);
+		}
+		if (head.isChunked()) {
+			return new ChunkedInputStream(in);
+		}
+		long length = head.getContentLength();
+		if (length >= 0) {
+			return new FixedLengthInputStream(in, length);
+		}
+		return new UntilCloseInputStream(in);
+
+	}
+
+	/**
+	 * Method readLine reads a CRLF (or LF) terminated ISO-8859-1 line without the terminator.
+	 *
+	 * @param in - the stream to read from.
+	 * @return the line or null if the stream ended before any byte was read.
+	 * @throws IOException
+	 */
+	public static String readLine(InputStream in) throws IOException {
+
+		ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+		int b;
+		boolean read = false;
+		while ((b = in.read()) != -1) {
+			read = true;
+			if (b == '\n') {
+				break;
+			}
+			if (b != '\r') {
+				if (line.size() >= MAX_LINE_LENGTH) {
+					throw new IOException("HTTP header line exceeds " + MAX_LINE_LENGTH + " bytes");
+				}
+				line.write(b);
+			}
+		}
+		return read ? line.toString("ISO-8859-1") : null;
+
+	}
+
+	public static void writeCrlf(OutputStream out) throws IOException {
+		out.write(CRLF);
+	}
+
+	public static String encodeHeaderValue(String value) throws UnsupportedEncodingException {
+		return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+	}
+
+}
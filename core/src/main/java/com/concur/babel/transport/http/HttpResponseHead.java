@@ -0,0 +1,81 @@
+package com.concur.babel.transport.http;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * HttpResponseHead holds the status line and headers of an HTTP/1.x response read off a raw
+ * connection.  Header names are case insensitive.
+ */
+public class HttpResponseHead {
+
+	private final String version;
+	private final int statusCode;
+	private final String reasonPhrase;
+	private final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+	public HttpResponseHead(String version, int statusCode, String reasonPhrase) {
+		this.version = version;
+		this.statusCode = statusCode;
+		this.reasonPhrase = reasonPhrase;
+	}
+
+	public String getVersion() { return this.version; }
+	public int getStatusCode() { return this.statusCode; }
+	public String getReasonPhrase() { return this.reasonPhrase; }
+	public Map<String, String> getHeaders() { return Collections.unmodifiableMap(this.headers); }
+
+	public String getHeader(String name) {
+		return this.headers.get(name);
+	}
+
+	/**
+	 * Method isKeepAlive determines if the connection the response was read from may be reused for
+	 * another request once the body has been consumed.
+	 *
+	 * @return true if the server did not ask for the connection to be closed.
+	 */
+	public boolean isKeepAlive() {
+
+		String connection = this.getHeader("Connection");
+		if ("HTTP/1.0".equalsIgnoreCase(this.version)) {
+			return connection != null && "keep-alive".equalsIgnoreCase(connection.trim());
+		}
+		return connection == null || !"close".equalsIgnoreCase(connection.trim());
+
+	}
+
+	/**
+	 * @return true if the response body uses chunked transfer encoding.
+	 */
+	public boolean isChunked() {
+		String encoding = this.getHeader("Transfer-Encoding");
+		return encoding != null && encoding.toLowerCase().contains("chunked");
+	}
+
+	/**
+	 * @return the Content-Length of the response or -1 if none was sent.
+	 */
+	public long getContentLength() {
+
+		String length = this.getHeader("Content-Length");
+		if (length == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(length.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+
+	}
+
+	void addHeader(String name, String value) {
+
+		String existing = this.headers.get(name);
+		this.headers.put(name, existing == null ? value : existing + "," + value);
+
+	}
+
+}
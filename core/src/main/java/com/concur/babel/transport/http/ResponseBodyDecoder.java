@@ -0,0 +1,206 @@
+package com.concur.babel.transport.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * ResponseBodyDecoder incrementally decodes an HTTP/1.1 response body from buffers as they arrive on
+ * a non-blocking channel.  It is the push based counterpart of the ResponseBodyInputStream classes.
+ */
+public abstract class ResponseBodyDecoder {
+
+	protected final ByteArrayOutputStream body;
+
+	protected ResponseBodyDecoder(int sizeHint) {
+		this.body = new ByteArrayOutputStream(sizeHint > 0 ? sizeHint : 1024);
+	}
+
+	/**
+	 * Method create returns the decoder matching how the given response delimits its body.
+	 *
+	 * @param head - the response head.
+	 * @param hasBody - false for responses that never carry a body, for example responses to HEAD.
+	 * @return a decoder.
+	 */
+	public static ResponseBodyDecoder create(HttpResponseHead head, boolean hasBody) {
+
+		int status = head.getStatusCode();
+		if (!hasBody || status == 204 || status == 304) {
+			return new FixedLength(0);
+		}
+		if (head.isChunked()) {
+			return new Chunked();
+		}
+		long length = head.getContentLength();
+		if (length >= 0) {
+			if (length > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Response body too large: " + length);
+			}
+			return new FixedLength((int)length);
+		}
+		return new UntilClose();
+
+	}
+
+	/**
+	 * Method feed consumes as much of the buffer as belongs to the body.
+	 *
+	 * @param buffer - a buffer in read mode.
+	 * @throws IOException if the body is malformed.
+	 */
+	public abstract void feed(ByteBuffer buffer) throws IOException;
+
+	/**
+	 * @return true once the whole body has been received.
+	 */
+	public abstract boolean isComplete();
+
+	/**
+	 * Method endOfStream is called when the peer closed the connection.
+	 *
+	 * @return true if the body is complete, which is only the case for bodies delimited by the close.
+	 */
+	public boolean endOfStream() {
+		return this.isComplete();
+	}
+
+	/**
+	 * @return true if the connection can carry another request after this body.
+	 */
+	public boolean isReusable() {
+		return this.isComplete();
+	}
+
+	public byte[] toByteArray() {
+		return this.body.toByteArray();
+	}
+
+	private static class FixedLength extends ResponseBodyDecoder {
+
+		private int remaining;
+
+		FixedLength(int length) {
+			super(length);
+			this.remaining = length;
+		}
+
+		public void feed(ByteBuffer buffer) {
+			int count = Math.min(this.remaining, buffer.remaining());
+			if (buffer.hasArray()) {
+				this.body.write(buffer.array(), buffer.arrayOffset() + buffer.position(), count);
+				buffer.position(buffer.position() + count);
+			} else {
+				for (int i = 0; i < count; i++) {
+					this.body.write(buffer.get());
+				}
+			}
+			this.remaining -= count;
+		}
+
+		public boolean isComplete() { return this.remaining == 0; }
+
+	}
+
+	private static class UntilClose extends ResponseBodyDecoder {
+
+		private boolean closed = false;
+
+		UntilClose() {
+			super(0);
+		}
+
+		public void feed(ByteBuffer buffer) {
+			while (buffer.hasRemaining()) {
+				this.body.write(buffer.get());
+			}
+		}
+
+		public boolean isComplete() { return this.closed; }
+
+		public boolean endOfStream() {
+			this.closed = true;
+			return true;
+		}
+
+		public boolean isReusable() { return false; }
+
+	}
+
+	private static class Chunked extends ResponseBodyDecoder {
+
+		private enum State { SIZE, DATA, DATA_END, TRAILER, DONE }
+
+		private State state = State.SIZE;
+		private final StringBuilder line = new StringBuilder(16);
+		private long remaining = 0;
+
+		Chunked() {
+			super(0);
+		}
+
+		public void feed(ByteBuffer buffer) throws IOException {
+
+			while (buffer.hasRemaining() && this.state != State.DONE) {
+
+				if (this.state == State.DATA) {
+					int count = (int)Math.min(this.remaining, buffer.remaining());
+					for (int i = 0; i < count; i++) {
+						this.body.write(buffer.get());
+					}
+					this.remaining -= count;
+					if (this.remaining == 0) {
+						this.state = State.DATA_END;
+					}
+					continue;
+				}
+
+				char c = (char)(buffer.get() & 0xff);
+				if (c == '\r') {
+					continue;
+				}
+				if (c != '\n') {
+					this.line.append(c);
+					continue;
+				}
+
+				String text = this.line.toString();
+				this.line.setLength(0);
+				switch (this.state) {
+					case SIZE:
+						this.startChunk(text);
+						break;
+					case DATA_END:
+						this.state = State.SIZE;
+						break;
+					case TRAILER:
+						if (text.length() == 0) {
+							this.state = State.DONE;
+						}
+						break;
+					default:
+						break;
+				}
+
+			}
+
+		}
+
+		public boolean isComplete() { return this.state == State.DONE; }
+
+		private void startChunk(String text) throws IOException {
+
+			int extension = text.indexOf(';');
+			String size = (extension == -1 ? text : text.substring(0, extension)).trim();
+			try {
+				this.remaining = Long.parseLong(size, 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid chunk size: " + text);
+			}
+			this.state = this.remaining == 0 ? State.TRAILER : State.DATA;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.concur.babel.transport.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * ResponseBodyInputStream is the base class for streams that delimit a single response body on a
+ * persistent connection.  Closing the stream leaves the connection open; callers use isComplete to
+ * decide if the connection is in a state where it can be reused.
+ */
+public abstract class ResponseBodyInputStream extends FilterInputStream {
+
+	protected ResponseBodyInputStream(InputStream in) {
+		super(in);
+	}
+
+	/**
+	 * @return true once the whole body has been consumed from the underlying connection.
+	 */
+	public abstract boolean isComplete();
+
+	/**
+	 * Method drain reads and discards what is left of the body, up to the given limit, so the
+	 * connection can be reused.
+	 *
+	 * @param limit - the maximum number of bytes to discard.
+	 * @return true if the body was completely consumed.
+	 */
+	public boolean drain(long limit) {
+
+		byte[] buffer = new byte[512];
+		long total = 0;
+		try {
+			int count;
+			while (total < limit && (count = this.read(buffer, 0, buffer.length)) != -1) {
+				total += count;
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		return this.isComplete();
+
+	}
+
+	@Override
+	public void close() throws IOException {
+		// The underlying connection is managed by the owner of this stream.
+	}
+
+	@Override
+	public boolean markSupported() { return false; }
+
+}
@@ -0,0 +1,43 @@
+package com.concur.babel.transport.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * UntilCloseInputStream exposes a response body that is delimited by the server closing the
+ * connection.  A connection that delivered such a body can never be reused.
+ */
+public class UntilCloseInputStream extends ResponseBodyInputStream {
+
+	private boolean ended = false;
+
+	public UntilCloseInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		int b = this.in.read();
+		if (b == -1) {
+			this.ended = true;
+		}
+		return b;
+
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		int count = this.in.read(b, off, len);
+		if (count == -1) {
+			this.ended = true;
+		}
+		return count;
+
+	}
+
+	@Override
+	public boolean isComplete() { return this.ended; }
+
+}
@@ -0,0 +1,38 @@
+package com.concur.babel.transport.http2;
+
+/**
+ * HeaderField is a single HTTP/2 header, names are always lower case.
+ */
+public class HeaderField {
+
+	/**
+	 * The overhead HPACK adds to the size of every entry in the dynamic table.
+	 */
+	public static final int ENTRY_OVERHEAD = 32;
+
+	private final String name;
+	private final String value;
+	private final int size;
+
+	public HeaderField(String name, String value) {
+		this.name = name;
+		this.value = value;
+		this.size = name.getBytes(Http2Frame.UTF8).length + value.getBytes(Http2Frame.UTF8).length + ENTRY_OVERHEAD;
+	}
+
+	public String getName() { return this.name; }
+	public String getValue() { return this.value; }
+
+	/**
+	 * @return the size of this header as counted against the HPACK dynamic table size.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public String toString() {
+		return this.name + ": " + this.value;
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.concur.babel.transport.http2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HpackDecoder decompresses header blocks received on one connection (RFC 7541).  Header blocks must
+ * be decoded in the order they were received.
+ */
+public class HpackDecoder {
+
+	private final HpackDynamicTable table;
+	private final int maxTableSize;
+	private final int maxHeaderListSize;
+
+	/**
+	 * @param maxTableSize - the SETTINGS_HEADER_TABLE_SIZE advertised to the peer.
+	 * @param maxHeaderListSize - the largest decoded header list accepted, in HPACK size units.
+	 */
+	public HpackDecoder(int maxTableSize, int maxHeaderListSize) {
+		this.table = new HpackDynamicTable(maxTableSize);
+		this.maxTableSize = maxTableSize;
+		this.maxHeaderListSize = maxHeaderListSize;
+	}
+
+	public List<HeaderField> decode(byte[] block) throws Http2Exception {
+
+		List<HeaderField> headers = new ArrayList<HeaderField>();
+		int[] position = new int[] { 0 };
+		int listSize = 0;
+		boolean headerSeen = false;
+
+		while (position[0] < block.length) {
+
+			int b = block[position[0]] & 0xff;
+			HeaderField field;
+
+			if ((b & 0x80) != 0) {
+				int index = readInteger(block, position, 7);
+				field = this.lookup(index);
+			} else if ((b & 0x40) != 0) {
+				field = this.readLiteral(block, position, 6);
+				this.table.add(field);
+			} else if ((b & 0x20) != 0) {
+				if (headerSeen) {
+					throw new Http2Exception(Http2Frame.COMPRESSION_ERROR,
+						"Dynamic table size update after the first header");
+				}
+				int size = readInteger(block, position, 5);
+				if (size > this.maxTableSize) {
+					throw new Http2Exception(Http2Frame.COMPRESSION_ERROR,
+						"Dynamic table size update above the advertised maximum: " + size);
+				}
+				this.table.setMaxSize(size);
+				continue;
+			} else {
+				// without indexing (0000) and never indexed (0001) are decoded the same way
+				field = this.readLiteral(block, position, 4);
+			}
+
+			headerSeen = true;
+			listSize += field.size();
+			if (listSize > this.maxHeaderListSize) {
+				throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Header list too large");
+			}
+			headers.add(field);
+
+		}
+		return headers;
+
+	}
+
+	private HeaderField lookup(int index) throws Http2Exception {
+
+		if (index == 0) {
+			throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Invalid header table index 0");
+		}
+		return index <= HpackStaticTable.LENGTH ?
+			HpackStaticTable.get(index) :
+			this.table.get(index - HpackStaticTable.LENGTH);
+
+	}
+
+	private HeaderField readLiteral(byte[] block, int[] position, int prefixBits) throws Http2Exception {
+
+		int nameIndex = readInteger(block, position, prefixBits);
+		String name = nameIndex == 0 ? readString(block, position) : this.lookup(nameIndex).getName();
+		String value = readString(block, position);
+		return new HeaderField(name, value);
+
+	}
+
+	static int readInteger(byte[] block, int[] position, int prefixBits) throws Http2Exception {
+
+		int max = (1 << prefixBits) - 1;
+		int value = block[position[0]++] & max;
+		if (value < max) {
+			return value;
+		}
+		int shift = 0;
+		while (true) {
+			if (position[0] >= block.length) {
+				throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Truncated integer");
+			}
+			int b = block[position[0]++] & 0xff;
+			value += (b & 0x7f) << shift;
+			if (value < 0 || shift > 28) {
+				throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Integer overflow");
+			}
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+			shift += 7;
+		}
+
+	}
+
+	private static String readString(byte[] block, int[] position) throws Http2Exception {
+
+		if (position[0] >= block.length) {
+			throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Truncated string");
+		}
+		boolean huffman = (block[position[0]] & 0x80) != 0;
+		int length = readInteger(block, position, 7);
+		if (length > block.length - position[0]) {
+			throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Truncated string");
+		}
+		int offset = position[0];
+		position[0] += length;
+		if (huffman) {
+			return new String(Huffman.decode(block, offset, length), Http2Frame.UTF8);
+		}
+		return new String(block, offset, length, Http2Frame.UTF8);
+
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.concur.babel.transport.http2;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * HpackDynamicTable is the HPACK dynamic header table of one direction of a connection.  Entries are
+ * numbered with an ever increasing sequence so the encoder can find an entry's current index without
+ * searching the table.
+ */
+final class HpackDynamicTable {
+
+	private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+	private final Map<String, Long> fieldSequence = new HashMap<String, Long>();
+	private final Map<String, Long> nameSequence = new HashMap<String, Long>();
+
+	private int size = 0;
+	private int maxSize;
+	private long lastSequence = 0;
+
+	HpackDynamicTable(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	int length() { return this.entries.size(); }
+	int getSize() { return this.size; }
+	int getMaxSize() { return this.maxSize; }
+
+	/**
+	 * @param index - the index within the dynamic table, 1 being the newest entry.
+	 */
+	HeaderField get(int index) throws Http2Exception {
+
+		if (index < 1 || index > this.entries.size()) {
+			throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Invalid header table index " + index);
+		}
+		Iterator<Entry> it = this.entries.iterator();
+		for (int i = 1; i < index; i++) {
+			it.next();
+		}
+		return it.next().field;
+
+	}
+
+	void add(HeaderField field) {
+
+		int fieldSize = field.size();
+		if (fieldSize > this.maxSize) {
+			// an entry larger than the table empties it and is not added
+			this.clear();
+			return;
+		}
+		while (this.size + fieldSize > this.maxSize) {
+			this.evict();
+		}
+		Entry entry = new Entry(field, ++this.lastSequence);
+		this.entries.addFirst(entry);
+		this.size += fieldSize;
+		this.fieldSequence.put(HpackStaticTable.key(field.getName(), field.getValue()), entry.sequence);
+		this.nameSequence.put(field.getName(), entry.sequence);
+
+	}
+
+	void setMaxSize(int maxSize) {
+
+		this.maxSize = maxSize;
+		while (this.size > maxSize) {
+			this.evict();
+		}
+
+	}
+
+	/**
+	 * @return the index within the dynamic table of the entry with the given name and value, or -1.
+	 */
+	int indexOf(String name, String value) {
+		return this.toIndex(this.fieldSequence.get(HpackStaticTable.key(name, value)));
+	}
+
+	/**
+	 * @return the index within the dynamic table of the newest entry with the given name, or -1.
+	 */
+	int indexOfName(String name) {
+		return this.toIndex(this.nameSequence.get(name));
+	}
+
+	private int toIndex(Long sequence) {
+
+		if (sequence == null) {
+			return -1;
+		}
+		long index = this.lastSequence - sequence + 1;
+		return index <= this.entries.size() ? (int)index : -1;
+
+	}
+
+	private void evict() {
+
+		Entry entry = this.entries.removeLast();
+		this.size -= entry.field.size();
+		String key = HpackStaticTable.key(entry.field.getName(), entry.field.getValue());
+		Long sequence = this.fieldSequence.get(key);
+		if (sequence != null && sequence == entry.sequence) {
+			this.fieldSequence.remove(key);
+		}
+		sequence = this.nameSequence.get(entry.field.getName());
+		if (sequence != null && sequence == entry.sequence) {
+			this.nameSequence.remove(entry.field.getName());
+		}
+
+	}
+
+	private void clear() {
+
+		this.entries.clear();
+		this.fieldSequence.clear();
+		this.nameSequence.clear();
+		this.size = 0;
+
+	}
+
+	private static class Entry {
+
+		private final HeaderField field;
+		private final long sequence;
+
+		Entry(HeaderField field, long sequence) {
+			this.field = field;
+			this.sequence = sequence;
+		}
+
+	}
+
+}
@@ -0,0 +1,143 @@
+package com.concur.babel.transport.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * HpackEncoder compresses header lists for one connection (RFC 7541).  Headers are added to the
+ * dynamic table so that a header sent with the same value on a later request, such as the headers set
+ * on a transport, is sent as a single index.  Credentials are never indexed.  Header blocks must be
+ * encoded in the order they are sent on the connection.
+ */
+public class HpackEncoder {
+
+	public static final int DEFAULT_TABLE_SIZE = 4096;
+
+	private static final Set<String> SENSITIVE_HEADERS = new HashSet<String>(
+		Arrays.asList("authorization", "proxy-authorization", "cookie", "set-cookie"));
+
+	private final HpackDynamicTable table = new HpackDynamicTable(DEFAULT_TABLE_SIZE);
+	private int pendingMaxSize = -1;
+	private int minPendingMaxSize = -1;
+
+	/**
+	 * Method setMaxTableSize applies the SETTINGS_HEADER_TABLE_SIZE of the peer, the change is
+	 * signalled at the start of the next header block.
+	 *
+	 * @param maxSize - the largest table size the peer's decoder accepts.
+	 */
+	public void setMaxTableSize(int maxSize) {
+
+		int size = Math.min(maxSize, DEFAULT_TABLE_SIZE);
+		this.minPendingMaxSize = this.minPendingMaxSize == -1 ? size : Math.min(this.minPendingMaxSize, size);
+		this.pendingMaxSize = size;
+
+	}
+
+	/**
+	 * Method encode encodes a header list into a header block.
+	 *
+	 * @param headers - the headers, names must be lower case.
+	 * @return the header block.
+	 */
+	public byte[] encode(List<HeaderField> headers) {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+		if (this.pendingMaxSize != -1) {
+			if (this.minPendingMaxSize < this.pendingMaxSize) {
+				this.table.setMaxSize(this.minPendingMaxSize);
+				writeInteger(out, 0x20, 5, this.minPendingMaxSize);
+			}
+			this.table.setMaxSize(this.pendingMaxSize);
+			writeInteger(out, 0x20, 5, this.pendingMaxSize);
+			this.pendingMaxSize = -1;
+			this.minPendingMaxSize = -1;
+		}
+		for (HeaderField header : headers) {
+			this.encode(header, out);
+		}
+		return out.toByteArray();
+
+	}
+
+	private void encode(HeaderField header, ByteArrayOutputStream out) {
+
+		String name = header.getName();
+		String value = header.getValue();
+
+		if (SENSITIVE_HEADERS.contains(name)) {
+			this.writeLiteral(out, 0x10, 4, name, value);
+			return;
+		}
+
+		int index = HpackStaticTable.indexOf(name, value);
+		if (index == -1) {
+			int dynamic = this.table.indexOf(name, value);
+			index = dynamic == -1 ? -1 : HpackStaticTable.LENGTH + dynamic;
+		}
+		if (index != -1) {
+			writeInteger(out, 0x80, 7, index);
+			return;
+		}
+
+		if (header.size() > this.table.getMaxSize()) {
+			this.writeLiteral(out, 0x00, 4, name, value);
+		} else {
+			this.writeLiteral(out, 0x40, 6, name, value);
+			this.table.add(header);
+		}
+
+	}
+
+	private void writeLiteral(ByteArrayOutputStream out, int mask, int prefixBits, String name, String value) {
+
+		int nameIndex = HpackStaticTable.indexOfName(name);
+		if (nameIndex == -1) {
+			int dynamic = this.table.indexOfName(name);
+			nameIndex = dynamic == -1 ? -1 : HpackStaticTable.LENGTH + dynamic;
+		}
+		if (nameIndex == -1) {
+			writeInteger(out, mask, prefixBits, 0);
+			writeString(out, name);
+		} else {
+			writeInteger(out, mask, prefixBits, nameIndex);
+		}
+		writeString(out, value);
+
+	}
+
+	static void writeInteger(ByteArrayOutputStream out, int mask, int prefixBits, int value) {
+
+		int max = (1 << prefixBits) - 1;
+		if (value < max) {
+			out.write(mask | value);
+			return;
+		}
+		out.write(mask | max);
+		value -= max;
+		while (value >= 0x80) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String s) {
+
+		byte[] data = s.getBytes(Http2Frame.UTF8);
+		int huffmanLength = Huffman.encodedLength(data);
+		if (huffmanLength < data.length) {
+			writeInteger(out, 0x80, 7, huffmanLength);
+			Huffman.encode(data, out);
+		} else {
+			writeInteger(out, 0x00, 7, data.length);
+			out.write(data, 0, data.length);
+		}
+
+	}
+
+}
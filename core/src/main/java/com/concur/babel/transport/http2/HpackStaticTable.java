@@ -0,0 +1,118 @@
+package com.concur.babel.transport.http2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HpackStaticTable is the predefined HPACK header table (RFC 7541, Appendix A), indexes start at 1.
+ */
+final class HpackStaticTable {
+
+	private static final HeaderField[] ENTRIES = {
+		new HeaderField(":authority", ""),
+		new HeaderField(":method", "GET"),
+		new HeaderField(":method", "POST"),
+		new HeaderField(":path", "/"),
+		new HeaderField(":path", "/index.html"),
+		new HeaderField(":scheme", "http"),
+		new HeaderField(":scheme", "https"),
+		new HeaderField(":status", "200"),
+		new HeaderField(":status", "204"),
+		new HeaderField(":status", "206"),
+		new HeaderField(":status", "304"),
+		new HeaderField(":status", "400"),
+		new HeaderField(":status", "404"),
+		new HeaderField(":status", "500"),
+		new HeaderField("accept-charset", ""),
+		new HeaderField("accept-encoding", "gzip, deflate"),
+		new HeaderField("accept-language", ""),
+		new HeaderField("accept-ranges", ""),
+		new HeaderField("accept", ""),
+		new HeaderField("access-control-allow-origin", ""),
+		new HeaderField("age", ""),
+		new HeaderField("allow", ""),
+		new HeaderField("authorization", ""),
+		new HeaderField("cache-control", ""),
+		new HeaderField("content-disposition", ""),
+		new HeaderField("content-encoding", ""),
+		new HeaderField("content-language", ""),
+		new HeaderField("content-length", ""),
+		new HeaderField("content-location", ""),
+		new HeaderField("content-range", ""),
+		new HeaderField("content-type", ""),
+		new HeaderField("cookie", ""),
+		new HeaderField("date", ""),
+		new HeaderField("etag", ""),
+		new HeaderField("expect", ""),
+		new HeaderField("expires", ""),
+		new HeaderField("from", ""),
+		new HeaderField("host", ""),
+		new HeaderField("if-match", ""),
+		new HeaderField("if-modified-since", ""),
+		new HeaderField("if-none-match", ""),
+		new HeaderField("if-range", ""),
+		new HeaderField("if-unmodified-since", ""),
+		new HeaderField("last-modified", ""),
+		new HeaderField("link", ""),
+		new HeaderField("location", ""),
+		new HeaderField("max-forwards", ""),
+		new HeaderField("proxy-authenticate", ""),
+		new HeaderField("proxy-authorization", ""),
+		new HeaderField("range", ""),
+		new HeaderField("referer", ""),
+		new HeaderField("refresh", ""),
+		new HeaderField("retry-after", ""),
+		new HeaderField("server", ""),
+		new HeaderField("set-cookie", ""),
+		new HeaderField("strict-transport-security", ""),
+		new HeaderField("transfer-encoding", ""),
+		new HeaderField("user-agent", ""),
+		new HeaderField("vary", ""),
+		new HeaderField("via", ""),
+		new HeaderField("www-authenticate", "")
+	};
+
+	static final int LENGTH = ENTRIES.length;
+
+	private static final Map<String, Integer> NAME_INDEX = new HashMap<String, Integer>();
+	private static final Map<String, Integer> FIELD_INDEX = new HashMap<String, Integer>();
+
+	static {
+		for (int i = ENTRIES.length; i > 0; i--) {
+			HeaderField field = ENTRIES[i - 1];
+			NAME_INDEX.put(field.getName(), i);
+			if (field.getValue().length() > 0) {
+				FIELD_INDEX.put(key(field.getName(), field.getValue()), i);
+			}
+		}
+	}
+
+	private HpackStaticTable() {
+
+	}
+
+	static HeaderField get(int index) {
+		return ENTRIES[index - 1];
+	}
+
+	/**
+	 * @return the index of the entry with the given name and value, or -1.
+	 */
+	static int indexOf(String name, String value) {
+		Integer index = FIELD_INDEX.get(key(name, value));
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @return the lowest index of an entry with the given name, or -1.
+	 */
+	static int indexOfName(String name) {
+		Integer index = NAME_INDEX.get(name);
+		return index == null ? -1 : index;
+	}
+
+	static String key(String name, String value) {
+		return name + '\u0000' + value;
+	}
+
+}
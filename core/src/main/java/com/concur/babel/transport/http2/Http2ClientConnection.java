@@ -0,0 +1,217 @@
+package com.concur.babel.transport.http2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+
+/**
+ * Http2ClientConnection is the client side of an HTTP/2 connection over cleartext TCP ("h2c" with
+ * prior knowledge).  Requests are sent on concurrent streams, a daemon thread reads the responses.
+ */
+public class Http2ClientConnection extends Http2Connection {
+
+	private final String authority;
+	/** Signalled when a stream is removed, so openStream waits without holding the write lock. */
+	private final Object streamSlots = new Object();
+	private int nextStreamId = 1;
+
+	protected Http2ClientConnection(Socket socket, String authority) throws IOException {
+		super(socket);
+		this.authority = authority;
+	}
+
+	/**
+	 * Method open connects to a server and starts reading frames.
+	 *
+	 * @param host - the server host.
+	 * @param port - the server port.
+	 * @param connectTimeout - the connect timeout in milliseconds, 0 waits forever.
+	 * @return the connection.
+	 * @throws IOException
+	 */
+	public static Http2ClientConnection open(String host, int port, int connectTimeout) throws IOException {
+
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), connectTimeout);
+			final Http2ClientConnection connection = new Http2ClientConnection(socket, host + ":" + port);
+			connection.out.write(Http2Frame.CONNECTION_PREFACE);
+			connection.writeLocalSettings(Http2Frame.SETTINGS_ENABLE_PUSH, 0);
+
+			Thread reader = new Thread(new Runnable() {
+				public void run() {
+					connection.readLoop();
+				}
+			}, "babel-http2-reader-" + connection.authority);
+			reader.setDaemon(true);
+			reader.start();
+			return connection;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+
+	}
+
+	public String getAuthority() { return this.authority; }
+
+	/**
+	 * @return true if new streams can be opened on this connection.
+	 */
+	public boolean isUsable() {
+		return !this.closed && !this.goAwayReceived && this.nextStreamId > 0;
+	}
+
+	/**
+	 * Method openStream sends the request headers on a new stream, waiting if the server's limit of
+	 * concurrent streams is reached.
+	 *
+	 * @param headers - the request headers, names must be lower case.
+	 * @param endStream - true if the request has no body.
+	 * @param timeoutMillis - how long to wait for a free stream, 0 waits forever.
+	 * @return the stream.
+	 * @throws IOException
+	 */
+	public Http2Stream openStream(List<HeaderField> headers, boolean endStream, long timeoutMillis)
+	throws
+		IOException
+	{
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (this.streamSlots) {
+			while (this.streams.size() >= this.peerMaxConcurrentStreams) {
+				this.ensureOpen();
+				long remaining = timeoutMillis == 0 ? 0 : deadline - System.currentTimeMillis();
+				if (timeoutMillis != 0 && remaining <= 0) {
+					throw new SocketTimeoutException("Timed out waiting for a free HTTP/2 stream");
+				}
+				try {
+					this.streamSlots.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for a free HTTP/2 stream");
+				}
+			}
+		}
+
+		synchronized (this.writeLock) {
+			if (!this.isUsable()) {
+				throw new Http2Exception(Http2Frame.REFUSED_STREAM, "Connection no longer accepts streams", true);
+			}
+
+			// stream ids must be sent in increasing order, so allocating and writing share the lock
+			Http2Stream stream = this.newStream(this.nextStreamId);
+			this.nextStreamId += 2;
+			this.streams.put(stream.getId(), stream);
+			try {
+				this.writeHeaders(stream, headers, endStream);
+			} catch (IOException e) {
+				this.removeStream(stream);
+				throw e;
+			}
+			return stream;
+		}
+
+	}
+
+	/**
+	 * Method newRequestBody returns a stream that sends bytes as DATA frames, closing it ends the
+	 * stream.
+	 *
+	 * @param stream - the stream opened for the request.
+	 * @param timeoutMillis - how long to wait for flow control windows, 0 waits forever.
+	 * @return the body stream.
+	 */
+	public OutputStream newRequestBody(final Http2Stream stream, final long timeoutMillis) {
+
+		return new OutputStream() {
+
+			private final byte[] buffer = new byte[Http2Frame.DEFAULT_MAX_FRAME_SIZE];
+			private int count = 0;
+			private boolean ended = false;
+
+			@Override
+			public void write(int b) throws IOException {
+				if (this.count == this.buffer.length) {
+					this.flushBuffer(false);
+				}
+				this.buffer[this.count++] = (byte)b;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (len > this.buffer.length - this.count) {
+					this.flushBuffer(false);
+					if (len >= this.buffer.length) {
+						writeData(stream, b, off, len, false, timeoutMillis);
+						return;
+					}
+				}
+				System.arraycopy(b, off, this.buffer, this.count, len);
+				this.count += len;
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (!this.ended) {
+					this.ended = true;
+					this.flushBuffer(true);
+				}
+			}
+
+			private void flushBuffer(boolean endStream) throws IOException {
+				if (this.count > 0 || endStream) {
+					writeData(stream, this.buffer, 0, this.count, endStream, timeoutMillis);
+					this.count = 0;
+				}
+			}
+
+		};
+
+	}
+
+	@Override
+	protected void onHeaders(int streamId, List<HeaderField> headers, boolean endStream) throws IOException {
+
+		if ((streamId & 1) == 0) {
+			throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Server opened stream " + streamId);
+		}
+		Http2Stream stream = this.streams.get(streamId);
+		if (stream == null) {
+			return;
+		}
+		stream.receiveHeaders(headers);
+		if (endStream) {
+			this.endReceived(stream);
+		}
+
+	}
+
+	@Override
+	protected void onStreamRemoved(Http2Stream stream) {
+
+		synchronized (this.streamSlots) {
+			this.streamSlots.notifyAll();
+		}
+
+	}
+
+	@Override
+	protected void onMaxConcurrentStreamsChanged() {
+
+		synchronized (this.streamSlots) {
+			this.streamSlots.notifyAll();
+		}
+
+	}
+
+	@Override
+	protected boolean isLocallyInitiated(int streamId) {
+		return (streamId & 1) == 1;
+	}
+
+}
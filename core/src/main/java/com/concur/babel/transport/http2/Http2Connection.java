@@ -0,0 +1,699 @@
+package com.concur.babel.transport.http2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Http2Connection implements the parts of an HTTP/2 connection (RFC 7540) shared by clients and
+ * servers: the frame loop, settings, pings, flow control and shutdown.  One thread runs readLoop,
+ * any number of threads may write frames concurrently.
+ *
+ * Received bodies are buffered on their stream, so the receive windows are replenished as soon as
+ * DATA arrives.  Sending respects the windows of the peer.
+ */
+public abstract class Http2Connection implements Closeable {
+
+	protected static final Logger LOGGER = Logger.getLogger(Http2Connection.class.getName());
+
+	/**
+	 * The stream and connection receive window advertised to the peer.
+	 */
+	public static final int LOCAL_WINDOW_SIZE = 1 << 20;
+	public static final int MAX_HEADER_LIST_SIZE = 64 * 1024;
+
+	protected final Socket socket;
+	protected final InputStream in;
+	protected final OutputStream out;
+
+	/** Guards writing frames and the HPACK encoder, header blocks must be sent in encoding order. */
+	protected final Object writeLock = new Object();
+	/** Guards the send windows. */
+	private final Object flowLock = new Object();
+
+	protected final HpackEncoder encoder = new HpackEncoder();
+	private final HpackDecoder decoder = new HpackDecoder(HpackEncoder.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+	protected final ConcurrentMap<Integer, Http2Stream> streams = new ConcurrentHashMap<Integer, Http2Stream>();
+
+	private long connectionSendWindow = Http2Frame.DEFAULT_INITIAL_WINDOW_SIZE;
+	private int connectionUnacknowledged = 0;
+	private volatile int peerInitialWindowSize = Http2Frame.DEFAULT_INITIAL_WINDOW_SIZE;
+	private volatile int peerMaxFrameSize = Http2Frame.DEFAULT_MAX_FRAME_SIZE;
+	protected volatile int peerMaxConcurrentStreams = Integer.MAX_VALUE;
+
+	protected volatile boolean closed = false;
+	protected volatile boolean goAwayReceived = false;
+	protected volatile int lastPeerStreamId = 0;
+
+	private int headerStreamId = 0;
+	private int headerFlags = 0;
+	private ByteArrayOutputStream headerBlock;
+
+	protected Http2Connection(Socket socket) throws IOException {
+
+		this.socket = socket;
+		this.socket.setTcpNoDelay(true);
+		this.in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+		this.out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+
+	}
+
+	/**
+	 * Method readLoop reads and handles frames until the connection closes.
+	 */
+	public void readLoop() {
+
+		try {
+			while (!this.closed) {
+				this.handleFrame(Http2Frame.read(this.in, Http2Frame.DEFAULT_MAX_FRAME_SIZE));
+			}
+		} catch (Http2Exception e) {
+			this.goAway(e.getErrorCode());
+			this.close(e);
+		} catch (IOException e) {
+			this.close(e);
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Unexpected error on HTTP/2 connection", e);
+			this.goAway(Http2Frame.INTERNAL_ERROR);
+			this.close(new IOException(e));
+		}
+
+	}
+
+	public boolean isClosed() { return this.closed; }
+
+	public Socket getSocket() { return this.socket; }
+
+	/**
+	 * @return the number of streams that are open.
+	 */
+	public int getActiveStreams() { return this.streams.size(); }
+
+	/**
+	 * Method close closes the connection, streams that are still open fail.
+	 */
+	public void close() {
+		this.close(new EOFException("Connection closed"));
+	}
+
+	/**
+	 * Method writeHeaders sends a header block on a stream.
+	 *
+	 * @param stream - the stream.
+	 * @param headers - the headers, names must be lower case.
+	 * @param endStream - true if no body follows.
+	 * @throws IOException
+	 */
+	public void writeHeaders(Http2Stream stream, List<HeaderField> headers, boolean endStream) throws IOException {
+
+		synchronized (this.writeLock) {
+			this.ensureOpen();
+			this.writeHeaderBlock(stream.getId(), this.encoder.encode(headers), endStream);
+			this.out.flush();
+		}
+		if (endStream) {
+			this.endSent(stream);
+		}
+
+	}
+
+	/**
+	 * Method writeData sends body bytes on a stream, waiting for the peer's flow control windows.
+	 *
+	 * @param stream - the stream.
+	 * @param data - the bytes.
+	 * @param offset - the offset of the first byte.
+	 * @param length - the number of bytes.
+	 * @param endStream - true if this ends the stream.
+	 * @param timeoutMillis - how long to wait for the windows, 0 waits forever.
+	 * @throws IOException
+	 */
+	public void writeData(
+		Http2Stream stream,
+		byte[] data,
+		int offset,
+		int length,
+		boolean endStream,
+		long timeoutMillis)
+	throws
+		IOException
+	{
+
+		do {
+			int count = this.acquireWindow(stream, length, timeoutMillis);
+			boolean last = count == length;
+			synchronized (this.writeLock) {
+				this.ensureOpen();
+				Http2Frame.write(
+					this.out,
+					Http2Frame.TYPE_DATA,
+					last && endStream ? Http2Frame.FLAG_END_STREAM : 0,
+					stream.getId(),
+					data,
+					offset,
+					count);
+				if (last) {
+					this.out.flush();
+				}
+			}
+			offset += count;
+			length -= count;
+		} while (length > 0);
+
+		if (endStream) {
+			this.endSent(stream);
+		}
+
+	}
+
+	/**
+	 * Method resetStream abandons a stream.
+	 *
+	 * @param stream - the stream.
+	 * @param errorCode - the HTTP/2 error code sent to the peer.
+	 */
+	public void resetStream(Http2Stream stream, int errorCode) {
+
+		stream.fail(new Http2Exception(errorCode, "Stream reset"));
+		this.removeStream(stream);
+		try {
+			this.writeRstStream(stream.getId(), errorCode);
+		} catch (IOException e) {
+			// the connection is gone, so is the stream
+		}
+
+	}
+
+	/**
+	 * Method goAway tells the peer that no new streams will be accepted.
+	 *
+	 * @param errorCode - the HTTP/2 error code, NO_ERROR for a graceful shutdown.
+	 */
+	public void goAway(int errorCode) {
+
+		byte[] payload = new byte[8];
+		Http2Frame.writeInt(payload, 0, this.lastPeerStreamId);
+		Http2Frame.writeInt(payload, 4, errorCode);
+		try {
+			this.writeFrame(Http2Frame.TYPE_GOAWAY, 0, 0, payload);
+		} catch (IOException e) {
+			// the connection is already gone
+		}
+
+	}
+
+	/**
+	 * Method writeLocalSettings sends the settings of this endpoint, followed by a WINDOW_UPDATE that
+	 * grows the connection receive window.
+	 *
+	 * @param settings - identifier and value pairs to send besides INITIAL_WINDOW_SIZE and
+	 * MAX_HEADER_LIST_SIZE.
+	 * @throws IOException
+	 */
+	protected void writeLocalSettings(int... settings) throws IOException {
+
+		int[] all = new int[settings.length + 4];
+		System.arraycopy(settings, 0, all, 0, settings.length);
+		all[settings.length] = Http2Frame.SETTINGS_INITIAL_WINDOW_SIZE;
+		all[settings.length + 1] = LOCAL_WINDOW_SIZE;
+		all[settings.length + 2] = Http2Frame.SETTINGS_MAX_HEADER_LIST_SIZE;
+		all[settings.length + 3] = MAX_HEADER_LIST_SIZE;
+
+		byte[] payload = new byte[all.length / 2 * 6];
+		for (int i = 0; i < all.length; i += 2) {
+			int offset = i / 2 * 6;
+			payload[offset] = (byte)(all[i] >>> 8);
+			payload[offset + 1] = (byte)all[i];
+			Http2Frame.writeInt(payload, offset + 2, all[i + 1]);
+		}
+
+		synchronized (this.writeLock) {
+			Http2Frame.write(this.out, Http2Frame.TYPE_SETTINGS, 0, 0, payload, 0, payload.length);
+			byte[] increment = new byte[4];
+			Http2Frame.writeInt(increment, 0, LOCAL_WINDOW_SIZE - Http2Frame.DEFAULT_INITIAL_WINDOW_SIZE);
+			Http2Frame.write(this.out, Http2Frame.TYPE_WINDOW_UPDATE, 0, 0, increment, 0, 4);
+			this.out.flush();
+		}
+
+	}
+
+	/**
+	 * Method newStream creates a stream with the send window granted by the peer.
+	 */
+	protected Http2Stream newStream(int id) {
+		return new Http2Stream(id, this.peerInitialWindowSize);
+	}
+
+	/**
+	 * Method writeHeaderBlock writes a header block as a HEADERS frame followed by as many
+	 * CONTINUATION frames as needed, the caller must hold the write lock.
+	 */
+	protected void writeHeaderBlock(int streamId, byte[] block, boolean endStream) throws IOException {
+
+		int maxFrameSize = this.peerMaxFrameSize;
+		int offset = 0;
+		int type = Http2Frame.TYPE_HEADERS;
+		do {
+			int count = Math.min(maxFrameSize, block.length - offset);
+			boolean last = offset + count == block.length;
+			int flags = last ? Http2Frame.FLAG_END_HEADERS : 0;
+			if (type == Http2Frame.TYPE_HEADERS && endStream) {
+				flags |= Http2Frame.FLAG_END_STREAM;
+			}
+			Http2Frame.write(this.out, type, flags, streamId, block, offset, count);
+			offset += count;
+			type = Http2Frame.TYPE_CONTINUATION;
+		} while (offset < block.length);
+
+	}
+
+	/**
+	 * Method onHeaders is called on the reader thread for every complete header block.
+	 *
+	 * @param streamId - the stream the headers were received on.
+	 * @param headers - the decoded headers.
+	 * @param endStream - true if the peer ended the stream.
+	 * @throws IOException to fail the connection.
+	 */
+	protected abstract void onHeaders(int streamId, List<HeaderField> headers, boolean endStream)
+	throws
+		IOException;
+
+	/**
+	 * Method onStreamEnd is called on the reader thread once the peer ended a stream.
+	 */
+	protected void onStreamEnd(Http2Stream stream) {
+
+	}
+
+	/**
+	 * Method onStreamRemoved is called once a stream is closed in both directions or reset.
+	 */
+	protected void onStreamRemoved(Http2Stream stream) {
+
+	}
+
+	/**
+	 * Method isLocallyInitiated tells if a stream id belongs to a stream this endpoint opened.
+	 */
+	protected abstract boolean isLocallyInitiated(int streamId);
+
+	protected void ensureOpen() throws IOException {
+
+		if (this.closed) {
+			throw new EOFException("Connection closed");
+		}
+
+	}
+
+	protected void removeStream(Http2Stream stream) {
+
+		if (this.streams.remove(stream.getId(), stream)) {
+			this.onStreamRemoved(stream);
+		}
+
+	}
+
+	protected void close(IOException cause) {
+
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+		}
+		try {
+			this.socket.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+		for (Http2Stream stream : new ArrayList<Http2Stream>(this.streams.values())) {
+			stream.fail(cause);
+			this.removeStream(stream);
+		}
+		synchronized (this.flowLock) {
+			this.flowLock.notifyAll();
+		}
+
+	}
+
+	private void handleFrame(Http2Frame frame) throws IOException {
+
+		if (this.headerBlock != null && frame.getType() != Http2Frame.TYPE_CONTINUATION) {
+			throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Expected a CONTINUATION frame");
+		}
+
+		switch (frame.getType()) {
+			case Http2Frame.TYPE_DATA:
+				this.handleData(frame);
+				break;
+			case Http2Frame.TYPE_HEADERS:
+				this.requireStream(frame);
+				this.headerStreamId = frame.getStreamId();
+				this.headerFlags = frame.getFlags();
+				this.headerBlock = new ByteArrayOutputStream(frame.getPayload().length);
+				byte[] fragment = frame.getFragment();
+				this.headerBlock.write(fragment, 0, fragment.length);
+				this.endHeaderBlock(frame);
+				break;
+			case Http2Frame.TYPE_CONTINUATION:
+				if (this.headerBlock == null || frame.getStreamId() != this.headerStreamId) {
+					throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Unexpected CONTINUATION frame");
+				}
+				this.headerBlock.write(frame.getPayload(), 0, frame.getPayload().length);
+				if (this.headerBlock.size() > MAX_HEADER_LIST_SIZE) {
+					throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Header block too large");
+				}
+				this.endHeaderBlock(frame);
+				break;
+			case Http2Frame.TYPE_RST_STREAM:
+				this.handleRstStream(frame);
+				break;
+			case Http2Frame.TYPE_SETTINGS:
+				this.handleSettings(frame);
+				break;
+			case Http2Frame.TYPE_PUSH_PROMISE:
+				throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Server push is disabled");
+			case Http2Frame.TYPE_PING:
+				this.handlePing(frame);
+				break;
+			case Http2Frame.TYPE_GOAWAY:
+				this.handleGoAway(frame);
+				break;
+			case Http2Frame.TYPE_WINDOW_UPDATE:
+				this.handleWindowUpdate(frame);
+				break;
+			default:
+				// PRIORITY and unknown frame types are ignored
+				break;
+		}
+
+	}
+
+	private void endHeaderBlock(Http2Frame frame) throws IOException {
+
+		if (!frame.hasFlag(Http2Frame.FLAG_END_HEADERS)) {
+			return;
+		}
+		byte[] block = this.headerBlock.toByteArray();
+		this.headerBlock = null;
+		// always decode, even for streams that are gone, to keep the HPACK state in sync
+		List<HeaderField> headers = this.decoder.decode(block);
+		this.onHeaders(this.headerStreamId, headers, (this.headerFlags & Http2Frame.FLAG_END_STREAM) != 0);
+
+	}
+
+	private void handleData(Http2Frame frame) throws IOException {
+
+		this.requireStream(frame);
+		int length = frame.getPayload().length;
+		Http2Stream stream = this.streams.get(frame.getStreamId());
+		boolean endStream = frame.hasFlag(Http2Frame.FLAG_END_STREAM);
+
+		this.connectionUnacknowledged += length;
+		if (this.connectionUnacknowledged >= LOCAL_WINDOW_SIZE / 2) {
+			this.writeWindowUpdate(0, this.connectionUnacknowledged);
+			this.connectionUnacknowledged = 0;
+		}
+
+		if (stream == null || stream.isEndReceived()) {
+			this.writeRstStream(frame.getStreamId(), Http2Frame.STREAM_CLOSED);
+			return;
+		}
+
+		stream.receiveData(frame.getFragment());
+		if (endStream) {
+			this.endReceived(stream);
+			return;
+		}
+		stream.unacknowledged += length;
+		if (stream.unacknowledged >= LOCAL_WINDOW_SIZE / 2) {
+			this.writeWindowUpdate(stream.getId(), stream.unacknowledged);
+			stream.unacknowledged = 0;
+		}
+
+	}
+
+	/**
+	 * Method endReceived completes a stream the peer ended, it is called by subclasses when headers
+	 * end the stream.
+	 */
+	protected void endReceived(Http2Stream stream) {
+
+		stream.receiveEnd();
+		this.onStreamEnd(stream);
+		if (stream.isClosed()) {
+			this.removeStream(stream);
+		}
+
+	}
+
+	private void endSent(Http2Stream stream) {
+
+		stream.markEndSent();
+		if (stream.isClosed()) {
+			this.removeStream(stream);
+		}
+
+	}
+
+	private void handleRstStream(Http2Frame frame) throws IOException {
+
+		this.requireStream(frame);
+		if (frame.getPayload().length != 4) {
+			throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "Invalid RST_STREAM frame");
+		}
+		int errorCode = Http2Frame.readInt(frame.getPayload(), 0);
+		Http2Stream stream = this.streams.get(frame.getStreamId());
+		if (stream != null) {
+			stream.fail(new Http2Exception(
+				errorCode,
+				"Stream reset by peer with error code " + errorCode,
+				errorCode == Http2Frame.REFUSED_STREAM));
+			this.removeStream(stream);
+			synchronized (this.flowLock) {
+				this.flowLock.notifyAll();
+			}
+		}
+
+	}
+
+	private void handleSettings(Http2Frame frame) throws IOException {
+
+		if (frame.getStreamId() != 0) {
+			throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "SETTINGS frame on a stream");
+		}
+		byte[] payload = frame.getPayload();
+		if (frame.hasFlag(Http2Frame.FLAG_ACK)) {
+			if (payload.length != 0) {
+				throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "SETTINGS ACK with a payload");
+			}
+			return;
+		}
+		if (payload.length % 6 != 0) {
+			throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "Invalid SETTINGS frame");
+		}
+
+		for (int offset = 0; offset < payload.length; offset += 6) {
+			int id = ((payload[offset] & 0xff) << 8) | (payload[offset + 1] & 0xff);
+			int value = Http2Frame.readInt(payload, offset + 2);
+			switch (id) {
+				case Http2Frame.SETTINGS_HEADER_TABLE_SIZE:
+					synchronized (this.writeLock) {
+						this.encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+					}
+					break;
+				case Http2Frame.SETTINGS_ENABLE_PUSH:
+					if (value != 0 && value != 1) {
+						throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH");
+					}
+					break;
+				case Http2Frame.SETTINGS_MAX_CONCURRENT_STREAMS:
+					this.peerMaxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+					this.onMaxConcurrentStreamsChanged();
+					break;
+				case Http2Frame.SETTINGS_INITIAL_WINDOW_SIZE:
+					if (value < 0) {
+						throw new Http2Exception(Http2Frame.FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE");
+					}
+					synchronized (this.flowLock) {
+						int delta = value - this.peerInitialWindowSize;
+						this.peerInitialWindowSize = value;
+						for (Http2Stream stream : this.streams.values()) {
+							stream.sendWindow += delta;
+						}
+						this.flowLock.notifyAll();
+					}
+					break;
+				case Http2Frame.SETTINGS_MAX_FRAME_SIZE:
+					if (value < Http2Frame.DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+						throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE");
+					}
+					this.peerMaxFrameSize = value;
+					break;
+				default:
+					// unknown settings are ignored
+					break;
+			}
+		}
+
+		this.writeFrame(Http2Frame.TYPE_SETTINGS, Http2Frame.FLAG_ACK, 0, new byte[0]);
+
+	}
+
+	/**
+	 * Method onMaxConcurrentStreamsChanged is called on the reader thread when the peer changes
+	 * SETTINGS_MAX_CONCURRENT_STREAMS.
+	 */
+	protected void onMaxConcurrentStreamsChanged() {
+
+	}
+
+	private void handlePing(Http2Frame frame) throws IOException {
+
+		if (frame.getStreamId() != 0) {
+			throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "PING frame on a stream");
+		}
+		if (frame.getPayload().length != 8) {
+			throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "Invalid PING frame");
+		}
+		if (!frame.hasFlag(Http2Frame.FLAG_ACK)) {
+			this.writeFrame(Http2Frame.TYPE_PING, Http2Frame.FLAG_ACK, 0, frame.getPayload());
+		}
+
+	}
+
+	private void handleGoAway(Http2Frame frame) throws IOException {
+
+		if (frame.getStreamId() != 0) {
+			throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "GOAWAY frame on a stream");
+		}
+		if (frame.getPayload().length < 8) {
+			throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "Invalid GOAWAY frame");
+		}
+		int lastStreamId = Http2Frame.readInt(frame.getPayload(), 0) & 0x7fffffff;
+		int errorCode = Http2Frame.readInt(frame.getPayload(), 4);
+		this.goAwayReceived = true;
+
+		// streams the peer never processed can safely be sent again on another connection
+		for (Http2Stream stream : new ArrayList<Http2Stream>(this.streams.values())) {
+			if (stream.getId() > lastStreamId && this.isLocallyInitiated(stream.getId())) {
+				stream.fail(new Http2Exception(errorCode, "Connection is going away", true));
+				this.removeStream(stream);
+			}
+		}
+		if (this.streams.isEmpty()) {
+			this.close(new EOFException("Connection closed by peer"));
+		}
+
+	}
+
+	private void handleWindowUpdate(Http2Frame frame) throws IOException {
+
+		if (frame.getPayload().length != 4) {
+			throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE frame");
+		}
+		int increment = Http2Frame.readInt(frame.getPayload(), 0) & 0x7fffffff;
+		if (increment == 0) {
+			throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "WINDOW_UPDATE with no increment");
+		}
+		synchronized (this.flowLock) {
+			if (frame.getStreamId() == 0) {
+				this.connectionSendWindow += increment;
+				if (this.connectionSendWindow > Http2Frame.MAX_WINDOW_SIZE) {
+					throw new Http2Exception(Http2Frame.FLOW_CONTROL_ERROR, "Connection window overflow");
+				}
+			} else {
+				Http2Stream stream = this.streams.get(frame.getStreamId());
+				if (stream != null) {
+					stream.sendWindow += increment;
+				}
+			}
+			this.flowLock.notifyAll();
+		}
+
+	}
+
+	private int acquireWindow(Http2Stream stream, int length, long timeoutMillis) throws IOException {
+
+		if (length == 0) {
+			return 0;
+		}
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (this.flowLock) {
+			while (true) {
+				this.ensureOpen();
+				if (stream.getFailure() != null) {
+					throw stream.getFailure();
+				}
+				long available = Math.min(this.connectionSendWindow, stream.sendWindow);
+				if (available > 0) {
+					int count = (int)Math.min(Math.min(available, length), this.peerMaxFrameSize);
+					this.connectionSendWindow -= count;
+					stream.sendWindow -= count;
+					return count;
+				}
+				long remaining = timeoutMillis == 0 ? 0 : deadline - System.currentTimeMillis();
+				if (timeoutMillis != 0 && remaining <= 0) {
+					throw new SocketTimeoutException("Timed out waiting for the HTTP/2 flow control window");
+				}
+				try {
+					this.flowLock.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the flow control window");
+				}
+			}
+		}
+
+	}
+
+	private void requireStream(Http2Frame frame) throws Http2Exception {
+
+		if (frame.getStreamId() == 0) {
+			throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Frame requires a stream");
+		}
+
+	}
+
+	private void writeRstStream(int streamId, int errorCode) throws IOException {
+
+		byte[] payload = new byte[4];
+		Http2Frame.writeInt(payload, 0, errorCode);
+		this.writeFrame(Http2Frame.TYPE_RST_STREAM, 0, streamId, payload);
+
+	}
+
+	private void writeWindowUpdate(int streamId, int increment) throws IOException {
+
+		byte[] payload = new byte[4];
+		Http2Frame.writeInt(payload, 0, increment);
+		this.writeFrame(Http2Frame.TYPE_WINDOW_UPDATE, 0, streamId, payload);
+
+	}
+
+	private void writeFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+
+		synchronized (this.writeLock) {
+			this.ensureOpen();
+			Http2Frame.write(this.out, type, flags, streamId, payload, 0, payload.length);
+			this.out.flush();
+		}
+
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.concur.babel.transport.http2;
+
+import java.io.IOException;
+
+/**
+ * Http2Exception signals an HTTP/2 error, it carries the error code sent to or received from the peer
+ * in RST_STREAM or GOAWAY frames.
+ */
+@SuppressWarnings("serial")
+public class Http2Exception extends IOException {
+
+	private final int errorCode;
+	private final boolean retryable;
+
+	public Http2Exception(int errorCode, String message) {
+		this(errorCode, message, false);
+	}
+
+	/**
+	 * @param errorCode - the HTTP/2 error code.
+	 * @param message - the detail message.
+	 * @param retryable - true if the peer did not process the stream, so it is safe to send the
+	 * request again on a new connection.
+	 */
+	public Http2Exception(int errorCode, String message, boolean retryable) {
+		super(message);
+		this.errorCode = errorCode;
+		this.retryable = retryable;
+	}
+
+	public int getErrorCode() { return this.errorCode; }
+
+	public boolean isRetryable() { return this.retryable; }
+
+}
@@ -0,0 +1,193 @@
+package com.concur.babel.transport.http2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Http2Frame is a single HTTP/2 frame (RFC 7540, section 4) along with the constants of the frame
+ * layer and the methods that read and write frames.
+ */
+public class Http2Frame {
+
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The client connection preface, sent before the client's first SETTINGS frame.
+	 */
+	public static final byte[] CONNECTION_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(UTF8);
+
+	public static final int HEADER_LENGTH = 9;
+	public static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+	public static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+	public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+	public static final int TYPE_DATA = 0x0;
+	public static final int TYPE_HEADERS = 0x1;
+	public static final int TYPE_PRIORITY = 0x2;
+	public static final int TYPE_RST_STREAM = 0x3;
+	public static final int TYPE_SETTINGS = 0x4;
+	public static final int TYPE_PUSH_PROMISE = 0x5;
+	public static final int TYPE_PING = 0x6;
+	public static final int TYPE_GOAWAY = 0x7;
+	public static final int TYPE_WINDOW_UPDATE = 0x8;
+	public static final int TYPE_CONTINUATION = 0x9;
+
+	public static final int FLAG_END_STREAM = 0x1;
+	public static final int FLAG_ACK = 0x1;
+	public static final int FLAG_END_HEADERS = 0x4;
+	public static final int FLAG_PADDED = 0x8;
+	public static final int FLAG_PRIORITY = 0x20;
+
+	public static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	public static final int SETTINGS_ENABLE_PUSH = 0x2;
+	public static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	public static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	public static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+	public static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+	public static final int NO_ERROR = 0x0;
+	public static final int PROTOCOL_ERROR = 0x1;
+	public static final int INTERNAL_ERROR = 0x2;
+	public static final int FLOW_CONTROL_ERROR = 0x3;
+	public static final int STREAM_CLOSED = 0x5;
+	public static final int FRAME_SIZE_ERROR = 0x6;
+	public static final int REFUSED_STREAM = 0x7;
+	public static final int CANCEL = 0x8;
+	public static final int COMPRESSION_ERROR = 0x9;
+
+	private final int type;
+	private final int flags;
+	private final int streamId;
+	private final byte[] payload;
+
+	public Http2Frame(int type, int flags, int streamId, byte[] payload) {
+		this.type = type;
+		this.flags = flags;
+		this.streamId = streamId;
+		this.payload = payload;
+	}
+
+	public int getType() { return this.type; }
+	public int getFlags() { return this.flags; }
+	public int getStreamId() { return this.streamId; }
+	public byte[] getPayload() { return this.payload; }
+
+	public boolean hasFlag(int flag) {
+		return (this.flags & flag) != 0;
+	}
+
+	/**
+	 * Method read reads the next frame.
+	 *
+	 * @param in - the connection's input stream.
+	 * @param maxFrameSize - the SETTINGS_MAX_FRAME_SIZE advertised to the peer.
+	 * @return the frame.
+	 * @throws EOFException if the connection was closed between frames.
+	 * @throws IOException
+	 */
+	public static Http2Frame read(InputStream in, int maxFrameSize) throws IOException {
+
+		byte[] header = new byte[HEADER_LENGTH];
+		readFully(in, header, 0, HEADER_LENGTH);
+		int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+		if (length > maxFrameSize) {
+			throw new Http2Exception(FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds the maximum frame size");
+		}
+		int type = header[3] & 0xff;
+		int flags = header[4] & 0xff;
+		int streamId = readInt(header, 5) & 0x7fffffff;
+		byte[] payload = new byte[length];
+		readFully(in, payload, 0, length);
+		return new Http2Frame(type, flags, streamId, payload);
+
+	}
+
+	/**
+	 * Method write writes a frame, the stream is not flushed.
+	 */
+	public static void write(
+		OutputStream out,
+		int type,
+		int flags,
+		int streamId,
+		byte[] payload,
+		int offset,
+		int length)
+	throws
+		IOException
+	{
+
+		byte[] header = new byte[HEADER_LENGTH];
+		header[0] = (byte)(length >>> 16);
+		header[1] = (byte)(length >>> 8);
+		header[2] = (byte)length;
+		header[3] = (byte)type;
+		header[4] = (byte)flags;
+		writeInt(header, 5, streamId & 0x7fffffff);
+		out.write(header);
+		if (length > 0) {
+			out.write(payload, offset, length);
+		}
+
+	}
+
+	/**
+	 * Method getFragment returns the data of a DATA or HEADERS frame without padding and, for
+	 * HEADERS, the priority fields.
+	 */
+	public byte[] getFragment() throws Http2Exception {
+
+		int offset = 0;
+		int length = this.payload.length;
+		if (this.hasFlag(FLAG_PADDED)) {
+			if (length < 1) {
+				throw new Http2Exception(PROTOCOL_ERROR, "Padded frame without a pad length");
+			}
+			int padding = this.payload[0] & 0xff;
+			offset++;
+			length -= 1 + padding;
+		}
+		if (this.type == TYPE_HEADERS && this.hasFlag(FLAG_PRIORITY)) {
+			offset += 5;
+			length -= 5;
+		}
+		if (length < 0) {
+			throw new Http2Exception(PROTOCOL_ERROR, "Padding exceeds the frame payload");
+		}
+		byte[] fragment = new byte[length];
+		System.arraycopy(this.payload, offset, fragment, 0, length);
+		return fragment;
+
+	}
+
+	public static int readInt(byte[] b, int offset) {
+		return ((b[offset] & 0xff) << 24) |
+			((b[offset + 1] & 0xff) << 16) |
+			((b[offset + 2] & 0xff) << 8) |
+			(b[offset + 3] & 0xff);
+	}
+
+	public static void writeInt(byte[] b, int offset, int value) {
+		b[offset] = (byte)(value >>> 24);
+		b[offset + 1] = (byte)(value >>> 16);
+		b[offset + 2] = (byte)(value >>> 8);
+		b[offset + 3] = (byte)value;
+	}
+
+	static void readFully(InputStream in, byte[] b, int offset, int length) throws IOException {
+
+		while (length > 0) {
+			int count = in.read(b, offset, length);
+			if (count == -1) {
+				throw new EOFException("Connection closed");
+			}
+			offset += count;
+			length -= count;
+		}
+
+	}
+
+}
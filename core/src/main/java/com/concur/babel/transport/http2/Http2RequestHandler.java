@@ -0,0 +1,18 @@
+package com.concur.babel.transport.http2;
+
+/**
+ * Http2RequestHandler is called by an Http2ServerConnection for every complete request.
+ */
+public interface Http2RequestHandler {
+
+	/**
+	 * Method onRequest is called on the reader thread of the connection once the client ended a
+	 * stream, implementations that do real work should hand the stream off to another thread and
+	 * answer it with Http2ServerConnection.sendResponse.
+	 *
+	 * @param connection - the connection the request arrived on.
+	 * @param stream - the stream holding the request headers and body.
+	 */
+	void onRequest(Http2ServerConnection connection, Http2Stream stream);
+
+}
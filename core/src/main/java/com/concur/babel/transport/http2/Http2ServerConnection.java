@@ -0,0 +1,186 @@
+package com.concur.babel.transport.http2;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Http2ServerConnection is the server side of an HTTP/2 connection over cleartext TCP, clients must
+ * start with the connection preface ("h2c" with prior knowledge).
+ */
+public class Http2ServerConnection extends Http2Connection {
+
+	public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 256;
+
+	private final Http2RequestHandler handler;
+	private final int maxConcurrentStreams;
+	private volatile boolean shuttingDown = false;
+
+	public Http2ServerConnection(Socket socket, Http2RequestHandler handler) throws IOException {
+		this(socket, handler, DEFAULT_MAX_CONCURRENT_STREAMS);
+	}
+
+	public Http2ServerConnection(Socket socket, Http2RequestHandler handler, int maxConcurrentStreams)
+	throws
+		IOException
+	{
+		super(socket);
+		if (maxConcurrentStreams <= 0) {
+			throw new IllegalArgumentException("maxConcurrentStreams must be greater than ZERO");
+		}
+		this.handler = handler;
+		this.maxConcurrentStreams = maxConcurrentStreams;
+	}
+
+	/**
+	 * Method serve reads the connection preface, sends the server settings and handles frames until
+	 * the connection closes, it should run on a thread of its own.
+	 */
+	public void serve() {
+
+		try {
+			byte[] preface = new byte[Http2Frame.CONNECTION_PREFACE.length];
+			Http2Frame.readFully(this.in, preface, 0, preface.length);
+			for (int i = 0; i < preface.length; i++) {
+				if (preface[i] != Http2Frame.CONNECTION_PREFACE[i]) {
+					throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Invalid connection preface");
+				}
+			}
+			this.writeLocalSettings(Http2Frame.SETTINGS_MAX_CONCURRENT_STREAMS, this.maxConcurrentStreams);
+		} catch (IOException e) {
+			this.close(e);
+			return;
+		}
+		this.readLoop();
+
+	}
+
+	/**
+	 * Method sendResponse answers a request.
+	 *
+	 * @param stream - the request stream.
+	 * @param status - the HTTP status.
+	 * @param contentType - the content type of the body, may be null.
+	 * @param body - the body, null or empty to send headers only.
+	 * @throws IOException
+	 */
+	public void sendResponse(Http2Stream stream, int status, String contentType, byte[] body) throws IOException {
+		this.sendResponse(stream, status, contentType, null, body);
+	}
+
+	/**
+	 * Method sendResponse answers a request with a compressed body.
+	 *
+	 * @param stream - the request stream.
+	 * @param status - the HTTP status.
+	 * @param contentType - the content type of the body, may be null.
+	 * @param contentEncoding - the coding the body is compressed with, may be null.
+	 * @param body - the body, null or empty to send headers only.
+	 * @throws IOException
+	 */
+	public void sendResponse(
+		Http2Stream stream,
+		int status,
+		String contentType,
+		String contentEncoding,
+		byte[] body)
+	throws
+		IOException
+	{
+
+		List<HeaderField> headers = new ArrayList<HeaderField>(4);
+		headers.add(new HeaderField(":status", String.valueOf(status)));
+		boolean hasBody = body != null && body.length > 0;
+		if (hasBody && contentType != null) {
+			headers.add(new HeaderField("content-type", contentType));
+		}
+		if (hasBody && contentEncoding != null) {
+			headers.add(new HeaderField("content-encoding", contentEncoding));
+		}
+		headers.add(new HeaderField("content-length", String.valueOf(hasBody ? body.length : 0)));
+
+		this.writeHeaders(stream, headers, !hasBody);
+		if (hasBody) {
+			this.writeData(stream, body, 0, body.length, true, 0);
+		}
+
+	}
+
+	/**
+	 * Method shutdown stops accepting new streams, waits up to timeoutMillis for the open ones to
+	 * complete and closes the connection.
+	 */
+	public void shutdown(long timeoutMillis) {
+
+		this.shuttingDown = true;
+		this.goAway(Http2Frame.NO_ERROR);
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (this.streams) {
+			while (!this.streams.isEmpty() && !this.closed) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				try {
+					this.streams.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		this.close();
+
+	}
+
+	@Override
+	protected void onHeaders(int streamId, List<HeaderField> headers, boolean endStream) throws IOException {
+
+		Http2Stream stream = this.streams.get(streamId);
+		if (stream != null) {
+			// trailers, only the end of the stream matters
+			if (endStream) {
+				this.endReceived(stream);
+			}
+			return;
+		}
+
+		if ((streamId & 1) == 0 || streamId <= this.lastPeerStreamId) {
+			throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Invalid stream " + streamId);
+		}
+		this.lastPeerStreamId = streamId;
+
+		stream = this.newStream(streamId);
+		if (this.shuttingDown || this.streams.size() >= this.maxConcurrentStreams) {
+			this.resetStream(stream, Http2Frame.REFUSED_STREAM);
+			return;
+		}
+		stream.receiveHeaders(headers);
+		this.streams.put(streamId, stream);
+		if (endStream) {
+			this.endReceived(stream);
+		}
+
+	}
+
+	@Override
+	protected void onStreamEnd(Http2Stream stream) {
+		this.handler.onRequest(this, stream);
+	}
+
+	@Override
+	protected void onStreamRemoved(Http2Stream stream) {
+
+		synchronized (this.streams) {
+			this.streams.notifyAll();
+		}
+
+	}
+
+	@Override
+	protected boolean isLocallyInitiated(int streamId) {
+		return (streamId & 1) == 0;
+	}
+
+}
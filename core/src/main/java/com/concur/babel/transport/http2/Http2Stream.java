@@ -0,0 +1,149 @@
+package com.concur.babel.transport.http2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Http2Stream is one request/response exchange on an Http2Connection.  The headers and body received
+ * from the peer are buffered on the stream, the reader thread of the connection completes it once
+ * the peer ends the stream or resets it.
+ */
+public class Http2Stream {
+
+	private final int id;
+
+	private List<HeaderField> headers = Collections.emptyList();
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+	private boolean endReceived = false;
+	private boolean endSent = false;
+	private IOException failure;
+
+	/** Guarded by the connection's flow control lock. */
+	long sendWindow;
+
+	/** Bytes received but not yet acknowledged with a WINDOW_UPDATE, used by the reader thread only. */
+	int unacknowledged = 0;
+
+	Http2Stream(int id, long sendWindow) {
+		this.id = id;
+		this.sendWindow = sendWindow;
+	}
+
+	public int getId() { return this.id; }
+
+	public synchronized List<HeaderField> getHeaders() { return this.headers; }
+
+	/**
+	 * @return the value of the first header with the given name, which must be lower case.
+	 */
+	public synchronized String getHeader(String name) {
+
+		for (HeaderField header : this.headers) {
+			if (header.getName().equals(name)) {
+				return header.getValue();
+			}
+		}
+		return null;
+
+	}
+
+	/**
+	 * @return the :status of a response, or -1 if none was received.
+	 */
+	public int getStatus() {
+
+		String status = this.getHeader(":status");
+		try {
+			return status == null ? -1 : Integer.parseInt(status);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+
+	}
+
+	/**
+	 * @return the body received so far.
+	 */
+	public synchronized byte[] getBody() {
+		return this.body.toByteArray();
+	}
+
+	public synchronized InputStream getBodyInputStream() {
+		return new ByteArrayInputStream(this.body.toByteArray());
+	}
+
+	public synchronized boolean isEndReceived() { return this.endReceived; }
+
+	public synchronized boolean isEndSent() { return this.endSent; }
+
+	public synchronized IOException getFailure() { return this.failure; }
+
+	/**
+	 * Method awaitEnd waits until the peer has ended the stream.
+	 *
+	 * @param timeoutMillis - how long to wait, 0 waits forever.
+	 * @throws SocketTimeoutException if the peer did not end the stream in time.
+	 * @throws IOException if the stream was reset or the connection failed.
+	 */
+	public synchronized void awaitEnd(long timeoutMillis) throws IOException {
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (!this.endReceived && this.failure == null) {
+			long remaining = timeoutMillis == 0 ? 0 : deadline - System.currentTimeMillis();
+			if (timeoutMillis != 0 && remaining <= 0) {
+				throw new SocketTimeoutException("Read timed out");
+			}
+			try {
+				this.wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a response");
+			}
+		}
+		if (!this.endReceived) {
+			throw this.failure;
+		}
+
+	}
+
+	synchronized void receiveHeaders(List<HeaderField> headers) {
+
+		if (this.headers.isEmpty()) {
+			this.headers = headers;
+		}
+
+	}
+
+	synchronized void receiveData(byte[] data) {
+		this.body.write(data, 0, data.length);
+	}
+
+	synchronized void receiveEnd() {
+		this.endReceived = true;
+		this.notifyAll();
+	}
+
+	synchronized void markEndSent() {
+		this.endSent = true;
+	}
+
+	synchronized boolean isClosed() {
+		return this.failure != null || (this.endReceived && this.endSent);
+	}
+
+	synchronized void fail(IOException failure) {
+
+		if (this.failure == null) {
+			this.failure = failure;
+		}
+		this.notifyAll();
+
+	}
+
+}
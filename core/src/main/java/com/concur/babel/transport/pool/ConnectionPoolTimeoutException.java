@@ -0,0 +1,16 @@
+package com.concur.babel.transport.pool;
+
+import java.io.IOException;
+
+/**
+ * ConnectionPoolTimeoutException is thrown when no pooled connection became available for a route
+ * within the lease timeout.
+ */
+@SuppressWarnings("serial")
+public class ConnectionPoolTimeoutException extends IOException {
+
+	public ConnectionPoolTimeoutException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,442 @@
+package com.concur.babel.transport.pool;
+
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpConnectionPool keeps persistent HTTP connections open between babel calls so that each call
+ * does not pay for a TCP (and TLS) handshake.  The pool is bounded per route and in total, callers
+ * wait up to a lease timeout when the limit is reached.  Idle connections are evicted after an idle
+ * timeout, every connection is retired after a maximum lifetime and connections that sat idle are
+ * checked for staleness before being handed out again.
+ *
+ * A pool is thread safe and is meant to be shared by all transports calling the same services.
+ */
+public class HttpConnectionPool {
+
+	public static final int DEFAULT_MAX_PER_ROUTE = 20;
+	public static final int DEFAULT_MAX_TOTAL = 200;
+	public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+	public static final long DEFAULT_MAX_LIFETIME = 300000;
+	public static final long DEFAULT_VALIDATE_AFTER_INACTIVITY = 2000;
+	public static final long DEFAULT_EVICTION_INTERVAL = 5000;
+
+	private static HttpConnectionPool defaultPool;
+
+	private final int maxPerRoute;
+	private final int maxTotal;
+	private final Map<HttpRoute, RouteState> routes = new HashMap<HttpRoute, RouteState>();
+
+	private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private volatile long maxLifetime = DEFAULT_MAX_LIFETIME;
+	private volatile long validateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+
+	private int totalLeased = 0;
+	private int totalIdle = 0;
+	private int totalPending = 0;
+	private boolean shutdown = false;
+	private ScheduledExecutorService evictor;
+
+	/**
+	 * Creates a pool with the default limits.
+	 */
+	public HttpConnectionPool() {
+		this(DEFAULT_MAX_PER_ROUTE, DEFAULT_MAX_TOTAL);
+	}
+
+	/**
+	 * Creates a pool.
+	 *
+	 * @param maxPerRoute - the maximum number of connections to a single scheme/host/port.
+	 * @param maxTotal - the maximum number of connections across all routes.
+	 */
+	public HttpConnectionPool(int maxPerRoute, int maxTotal) {
+
+		preCondition(maxPerRoute > 0, "maxPerRoute must be greater than ZERO");
+		preCondition(maxTotal >= maxPerRoute, "maxTotal must be greater than or equal to maxPerRoute");
+
+		this.maxPerRoute = maxPerRoute;
+		this.maxTotal = maxTotal;
+
+	}
+
+	/**
+	 * Method getDefault returns the process wide pool used by transports that are not given a pool of
+	 * their own.  Idle connections in the default pool are evicted by a background daemon thread.
+	 *
+	 * @return the shared pool.
+	 */
+	public static synchronized HttpConnectionPool getDefault() {
+
+		if (defaultPool == null) {
+			defaultPool = new HttpConnectionPool();
+			defaultPool.startEvictor(DEFAULT_EVICTION_INTERVAL);
+		}
+		return defaultPool;
+
+	}
+
+	/**
+	 * Method setIdleTimeout sets how long a connection may sit unused in the pool before it is closed.
+	 *
+	 * @param idleTimeout - the timeout in milliseconds, 0 disables idle eviction.
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		preCondition(idleTimeout >= 0, "idleTimeout must be greater than or equal to ZERO");
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Method setMaxLifetime sets how long a connection may be used in total before it is retired,
+	 * which lets load balancers rebalance long lived clients.
+	 *
+	 * @param maxLifetime - the lifetime in milliseconds, 0 means connections live forever.
+	 */
+	public void setMaxLifetime(long maxLifetime) {
+		preCondition(maxLifetime >= 0, "maxLifetime must be greater than or equal to ZERO");
+		this.maxLifetime = maxLifetime;
+	}
+
+	/**
+	 * Method setValidateAfterInactivity sets how long a connection must have been idle before it is
+	 * checked for staleness when leased.
+	 *
+	 * @param validateAfterInactivity - the time in milliseconds, 0 validates on every lease.
+	 */
+	public void setValidateAfterInactivity(long validateAfterInactivity) {
+		preCondition(validateAfterInactivity >= 0,
+			"validateAfterInactivity must be greater than or equal to ZERO");
+		this.validateAfterInactivity = validateAfterInactivity;
+	}
+
+	public int getMaxPerRoute() { return this.maxPerRoute; }
+	public int getMaxTotal() { return this.maxTotal; }
+
+	/**
+	 * Method lease hands out a connection for the given route, reusing an idle one if possible,
+	 * opening a new one if the limits allow it, or waiting for one to be released.
+	 *
+	 * @param route - the route to connect to.
+	 * @param connectTimeout - the timeout, in milliseconds, used when a new connection is opened.
+	 * @param leaseTimeout - how long to wait, in milliseconds, for a connection to become available,
+	 * 0 means wait forever.
+	 * @return a connection that must be handed back with release.
+	 * @throws IOException if a connection could not be opened or none became available in time.
+	 */
+	public PooledConnection lease(HttpRoute route, int connectTimeout, long leaseTimeout)
+	throws
+		IOException
+	{
+
+		notNull("route", route);
+
+		while (true) {
+
+			List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+			PooledConnection connection;
+			try {
+				connection = this.acquire(route, leaseTimeout, toClose);
+			} finally {
+				closeAll(toClose);
+			}
+
+			if (connection == null) {
+				return this.openReserved(route, connectTimeout);
+			}
+
+			long now = System.currentTimeMillis();
+			if (now - connection.getLastUsedAt() < this.validateAfterInactivity || !connection.isStale()) {
+				connection.markLeased();
+				return connection;
+			}
+
+			connection.close();
+			this.release(connection, false);
+
+		}
+
+	}
+
+	/**
+	 * Method release returns a leased connection to the pool.
+	 *
+	 * @param connection - the connection being returned.
+	 * @param reusable - true if the response was fully consumed and the server allows the connection
+	 * to be kept alive, otherwise the connection is closed.
+	 */
+	public void release(PooledConnection connection, boolean reusable) {
+
+		notNull("connection", connection);
+
+		boolean close;
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+
+			RouteState state = this.routeState(connection.getRoute());
+			state.leased--;
+			this.totalLeased--;
+
+			close = !reusable || this.shutdown || !connection.isOpen() || this.isExpired(connection, now);
+			if (!close) {
+				connection.markReleased(now);
+				state.idle.addFirst(connection);
+				this.totalIdle++;
+			}
+			this.notifyAll();
+
+		}
+
+		if (close) {
+			connection.close();
+		}
+
+	}
+
+	/**
+	 * Method closeExpiredConnections closes idle connections that passed their idle timeout or their
+	 * maximum lifetime.  It runs periodically when an evictor is started.
+	 */
+	public void closeExpiredConnections() {
+
+		List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			for (RouteState state : this.routes.values()) {
+				for (Iterator<PooledConnection> i = state.idle.iterator(); i.hasNext();) {
+					PooledConnection connection = i.next();
+					if (this.isExpired(connection, now)) {
+						i.remove();
+						this.totalIdle--;
+						toClose.add(connection);
+					}
+				}
+			}
+		}
+		closeAll(toClose);
+
+	}
+
+	/**
+	 * Method startEvictor starts a daemon thread that closes expired idle connections at the given
+	 * interval.
+	 *
+	 * @param intervalInMillis - the eviction interval in milliseconds.
+	 */
+	public synchronized void startEvictor(long intervalInMillis) {
+
+		preCondition(intervalInMillis > 0, "intervalInMillis must be greater than ZERO");
+		if (this.evictor != null) {
+			return;
+		}
+
+		this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "babel-http-pool-evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				closeExpiredConnections();
+			}
+		}, intervalInMillis, intervalInMillis, TimeUnit.MILLISECONDS);
+
+	}
+
+	/**
+	 * Method shutdown closes all idle connections and stops the evictor, leased connections are
+	 * closed as they are released.
+	 */
+	public void shutdown() {
+
+		List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+		synchronized (this) {
+			this.shutdown = true;
+			for (RouteState state : this.routes.values()) {
+				toClose.addAll(state.idle);
+				this.totalIdle -= state.idle.size();
+				state.idle.clear();
+			}
+			if (this.evictor != null) {
+				this.evictor.shutdownNow();
+				this.evictor = null;
+			}
+			this.notifyAll();
+		}
+		closeAll(toClose);
+
+	}
+
+	/**
+	 * @return stats for the whole pool.
+	 */
+	public synchronized PoolStats getTotalStats() {
+		return new PoolStats(this.totalLeased, this.totalIdle, this.totalPending, this.maxTotal);
+	}
+
+	/**
+	 * @param route - the route to get stats for.
+	 * @return stats for a single route.
+	 */
+	public synchronized PoolStats getStats(HttpRoute route) {
+
+		notNull("route", route);
+		RouteState state = this.routes.get(route);
+		return state == null ?
+			new PoolStats(0, 0, 0, this.maxPerRoute) :
+			new PoolStats(state.leased, state.idle.size(), state.pending, this.maxPerRoute);
+
+	}
+
+	/**
+	 * Takes an idle connection for the route, or reserves a slot for a new one in which case null is
+	 * returned.  Expired connections and connections evicted to make room are added to toClose.
+	 */
+	private synchronized PooledConnection acquire(
+		HttpRoute route,
+		long leaseTimeout,
+		List<PooledConnection> toClose)
+	throws
+		IOException
+	{
+
+		RouteState state = this.routeState(route);
+		long deadline = leaseTimeout > 0 ? System.currentTimeMillis() + leaseTimeout : 0;
+
+		state.pending++;
+		this.totalPending++;
+		try {
+
+			while (true) {
+
+				if (this.shutdown) {
+					throw new IOException("Connection pool has been shut down");
+				}
+
+				long now = System.currentTimeMillis();
+				PooledConnection connection;
+				while ((connection = state.idle.pollFirst()) != null) {
+					this.totalIdle--;
+					if (this.isExpired(connection, now)) {
+						toClose.add(connection);
+						continue;
+					}
+					state.leased++;
+					this.totalLeased++;
+					return connection;
+				}
+
+				if (state.leased < this.maxPerRoute) {
+					if (this.totalLeased + this.totalIdle >= this.maxTotal) {
+						this.evictOldestIdle(toClose);
+					}
+					if (this.totalLeased + this.totalIdle < this.maxTotal) {
+						state.leased++;
+						this.totalLeased++;
+						return null;
+					}
+				}
+
+				long wait = deadline == 0 ? 0 : deadline - now;
+				if (deadline != 0 && wait <= 0) {
+					throw new ConnectionPoolTimeoutException("Timeout waiting for a connection to " +
+						route + " " + new PoolStats(state.leased, state.idle.size(), state.pending,
+						this.maxPerRoute));
+				}
+				try {
+					this.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for a connection to " + route);
+				}
+
+			}
+
+		} finally {
+			state.pending--;
+			this.totalPending--;
+		}
+
+	}
+
+	private PooledConnection openReserved(HttpRoute route, int connectTimeout) throws IOException {
+
+		try {
+			PooledConnection connection = PooledConnection.open(route, connectTimeout);
+			connection.markLeased();
+			return connection;
+		} catch (IOException e) {
+			synchronized (this) {
+				this.routeState(route).leased--;
+				this.totalLeased--;
+				this.notifyAll();
+			}
+			throw e;
+		}
+
+	}
+
+	private void evictOldestIdle(List<PooledConnection> toClose) {
+
+		RouteState oldestState = null;
+		for (RouteState state : this.routes.values()) {
+			if (!state.idle.isEmpty() && (oldestState == null ||
+				state.idle.peekLast().getLastUsedAt() < oldestState.idle.peekLast().getLastUsedAt()))
+			{
+				oldestState = state;
+			}
+		}
+		if (oldestState != null) {
+			toClose.add(oldestState.idle.pollLast());
+			this.totalIdle--;
+		}
+
+	}
+
+	private boolean isExpired(PooledConnection connection, long now) {
+
+		return (this.idleTimeout > 0 && now - connection.getLastUsedAt() > this.idleTimeout) ||
+			(this.maxLifetime > 0 && now - connection.getCreatedAt() > this.maxLifetime);
+
+	}
+
+	private RouteState routeState(HttpRoute route) {
+
+		RouteState state = this.routes.get(route);
+		if (state == null) {
+			state = new RouteState();
+			this.routes.put(route, state);
+		}
+		return state;
+
+	}
+
+	private static void closeAll(List<PooledConnection> connections) {
+		for (PooledConnection connection : connections) {
+			connection.close();
+		}
+	}
+
+	private static class RouteState {
+
+		private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+		private int leased = 0;
+		private int pending = 0;
+
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.concur.babel.transport.pool;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.net.URL;
+
+/**
+ * HttpRoute identifies the target of pooled connections, connections are only reused for requests
+ * going to the same scheme, host and port.
+ */
+public final class HttpRoute {
+
+	private final String scheme;
+	private final String host;
+	private final int port;
+
+	public HttpRoute(String scheme, String host, int port) {
+
+		notNull("scheme", scheme);
+		notNull("host", host);
+
+		this.scheme = scheme.toLowerCase();
+		this.host = host.toLowerCase();
+		this.port = port;
+
+	}
+
+	/**
+	 * Creates a route for the given url, using the scheme's default port if none is present.
+	 *
+	 * @param url - the url.
+	 * @return a route for the url.
+	 */
+	public static HttpRoute of(URL url) {
+
+		notNull("url", url);
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		return new HttpRoute(url.getProtocol(), url.getHost(), port);
+
+	}
+
+	public String getScheme() { return this.scheme; }
+	public String getHost() { return this.host; }
+	public int getPort() { return this.port; }
+
+	public boolean isSecure() { return "https".equals(this.scheme); }
+
+	@Override
+	public boolean equals(Object o) {
+
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof HttpRoute)) {
+			return false;
+		}
+		HttpRoute other = (HttpRoute)o;
+		return this.port == other.port &&
+			this.scheme.equals(other.scheme) &&
+			this.host.equals(other.host);
+
+	}
+
+	@Override
+	public int hashCode() {
+		return (this.scheme.hashCode() * 31 + this.host.hashCode()) * 31 + this.port;
+	}
+
+	@Override
+	public String toString() {
+		return this.scheme + "://" + this.host + ":" + this.port;
+	}
+
+}
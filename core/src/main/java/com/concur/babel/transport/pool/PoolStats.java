@@ -0,0 +1,47 @@
+package com.concur.babel.transport.pool;
+
+/**
+ * PoolStats is a point in time snapshot of the state of an HttpConnectionPool, either for a single
+ * route or for the whole pool.
+ */
+public class PoolStats {
+
+	private final int leased;
+	private final int idle;
+	private final int pending;
+	private final int max;
+
+	public PoolStats(int leased, int idle, int pending, int max) {
+		this.leased = leased;
+		this.idle = idle;
+		this.pending = pending;
+		this.max = max;
+	}
+
+	/**
+	 * @return the number of connections currently in use by a request.
+	 */
+	public int getLeased() { return this.leased; }
+
+	/**
+	 * @return the number of open connections waiting to be reused.
+	 */
+	public int getIdle() { return this.idle; }
+
+	/**
+	 * @return the number of requests waiting for a connection to become available.
+	 */
+	public int getPending() { return this.pending; }
+
+	/**
+	 * @return the maximum number of connections allowed.
+	 */
+	public int getMax() { return this.max; }
+
+	@Override
+	public String toString() {
+		return "[leased: " + this.leased + "; idle: " + this.idle + "; pending: " + this.pending +
+			"; max: " + this.max + "]";
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.concur.babel.transport.pool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * PooledConnection is a socket connection owned by an HttpConnectionPool.  It is handed out to one
+ * request at a time and returned to the pool once the response has been read.
+ */
+public class PooledConnection {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final HttpRoute route;
+	private final Socket socket;
+	private final BufferedInputStream in;
+	private final OutputStream out;
+	private final long createdAt;
+
+	private long lastUsedAt;
+	private int useCount = 0;
+
+	PooledConnection(HttpRoute route, Socket socket) throws IOException {
+
+		this.route = route;
+		this.socket = socket;
+		this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+		this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+		this.createdAt = System.currentTimeMillis();
+		this.lastUsedAt = this.createdAt;
+
+	}
+
+	/**
+	 * Method open connects a new socket for the given route, negotiating TLS for https routes.
+	 *
+	 * @param route - the route to connect to.
+	 * @param connectTimeout - the connect timeout in milliseconds.
+	 * @return a new connection.
+	 * @throws IOException
+	 */
+	static PooledConnection open(HttpRoute route, int connectTimeout) throws IOException {
+
+		Socket socket = new Socket();
+		try {
+
+			socket.setTcpNoDelay(true);
+			socket.setKeepAlive(true);
+			socket.connect(new InetSocketAddress(route.getHost(), route.getPort()), connectTimeout);
+
+			if (route.isSecure()) {
+				SSLSocket sslSocket = (SSLSocket)((SSLSocketFactory)SSLSocketFactory.getDefault())
+					.createSocket(socket, route.getHost(), route.getPort(), true);
+				SSLParameters params = sslSocket.getSSLParameters();
+				params.setEndpointIdentificationAlgorithm("HTTPS");
+				sslSocket.setSSLParameters(params);
+				sslSocket.setSoTimeout(connectTimeout);
+				sslSocket.startHandshake();
+				socket = sslSocket;
+			}
+
+			return new PooledConnection(route, socket);
+
+		} catch (IOException e) {
+			try {
+				socket.close();
+			} catch (IOException ignore) {
+			}
+			throw e;
+		}
+
+	}
+
+	public HttpRoute getRoute() { return this.route; }
+	public InputStream getInputStream() { return this.in; }
+	public OutputStream getOutputStream() { return this.out; }
+	public long getCreatedAt() { return this.createdAt; }
+	public long getLastUsedAt() { return this.lastUsedAt; }
+
+	/**
+	 * @return true if this connection has already served at least one request, a failure on a reused
+	 * connection usually means the server closed it while it sat in the pool.
+	 */
+	public boolean isReused() { return this.useCount > 1; }
+
+	public void setReadTimeout(int timeoutInMillis) throws SocketException {
+		this.socket.setSoTimeout(timeoutInMillis);
+	}
+
+	public boolean isOpen() {
+		return !this.socket.isClosed() && !this.socket.isInputShutdown() && !this.socket.isOutputShutdown();
+	}
+
+	public void close() {
+		try {
+			this.socket.close();
+		} catch (IOException e) {
+			// Nothing we can do, the connection is being discarded.
+		}
+	}
+
+	/**
+	 * Method isStale checks, without blocking, if the server has closed this connection or sent
+	 * unsolicited data while it was idle.  Either way the connection is no longer usable.
+	 *
+	 * @return true if the connection should be discarded.
+	 */
+	boolean isStale() {
+
+		if (!this.isOpen()) {
+			return true;
+		}
+
+		try {
+
+			if (this.in.available() > 0) {
+				return true;
+			}
+
+			int timeout = this.socket.getSoTimeout();
+			try {
+				this.socket.setSoTimeout(1);
+				this.in.mark(1);
+				if (this.in.read() == -1) {
+					return true;
+				}
+				this.in.reset();
+				return true;
+			} catch (SocketTimeoutException e) {
+				return false;
+			} finally {
+				this.socket.setSoTimeout(timeout);
+			}
+
+		} catch (IOException e) {
+			return true;
+		}
+
+	}
+
+	void markLeased() {
+		this.useCount++;
+	}
+
+	void markReleased(long now) {
+		this.lastUsedAt = now;
+	}
+
+}
@@ -0,0 +1,17 @@
+package com.concur.babel.transport.retry;
+
+/**
+ * Backoff defines how long a client waits before retrying a failed call.
+ */
+public interface Backoff {
+
+	/**
+	 * Method getDelay is used to get the delay before a retry.
+	 *
+	 * @param retry - the number of the retry, 1 for the first retry.
+	 * @param previousDelay - the delay before the previous retry, 0 for the first retry.
+	 * @return the delay in milliseconds.
+	 */
+	long getDelay(int retry, long previousDelay);
+
+}
@@ -0,0 +1,76 @@
+package com.concur.babel.transport.retry;
+
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ExponentialBackoff grows the delay between retries from a base delay by a multiplier up to a
+ * maximum delay, randomized by a Jitter.  The default jitter is FULL.
+ */
+public class ExponentialBackoff implements Backoff {
+
+	private final long baseDelay;
+	private final long maxDelay;
+	private final double multiplier;
+	private final Jitter jitter;
+
+	public ExponentialBackoff(long baseDelay, long maxDelay) {
+		this(baseDelay, maxDelay, 2.0, Jitter.FULL);
+	}
+
+	/**
+	 * Creates a new ExponentialBackoff
+	 *
+	 * @param baseDelay - the delay before the first retry, in milliseconds.
+	 * @param maxDelay - the longest delay, in milliseconds.
+	 * @param multiplier - the factor the delay grows by with every retry.
+	 * @param jitter - how the delays are randomized.
+	 */
+	public ExponentialBackoff(long baseDelay, long maxDelay, double multiplier, Jitter jitter) {
+
+		preCondition(baseDelay > 0, "baseDelay must be greater than ZERO");
+		preCondition(maxDelay >= baseDelay, "maxDelay must be greater than or equal to baseDelay");
+		preCondition(multiplier >= 1, "multiplier must be greater than or equal to ONE");
+		notNull("jitter", jitter);
+
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.multiplier = multiplier;
+		this.jitter = jitter;
+
+	}
+
+	public long getDelay(int retry, long previousDelay) {
+
+		Random random = ThreadLocalRandom.current();
+		switch (this.jitter) {
+			case FULL:
+				return (long)(random.nextDouble() * (this.getExponentialDelay(retry) + 1));
+			case DECORRELATED:
+				long upper = Math.min(this.maxDelay, Math.max(this.baseDelay, previousDelay) * 3);
+				return this.baseDelay + (long)(random.nextDouble() * (upper - this.baseDelay + 1));
+			default:
+				return this.getExponentialDelay(retry);
+		}
+
+	}
+
+	public long getBaseDelay() { return this.baseDelay; }
+
+	public long getMaxDelay() { return this.maxDelay; }
+
+	public double getMultiplier() { return this.multiplier; }
+
+	public Jitter getJitter() { return this.jitter; }
+
+	private long getExponentialDelay(int retry) {
+
+		double delay = this.baseDelay * Math.pow(this.multiplier, Math.max(0, retry - 1));
+		return delay >= this.maxDelay ? this.maxDelay : (long)delay;
+
+	}
+
+}
@@ -0,0 +1,23 @@
+package com.concur.babel.transport.retry;
+
+import static com.concur.babel.ArgValidator.preCondition;
+
+/**
+ * FixedBackoff waits the same delay before every retry.
+ */
+public class FixedBackoff implements Backoff {
+
+	private final long delay;
+
+	public FixedBackoff(long delay) {
+		preCondition(delay >= 0, "delay must be greater than or equal to ZERO");
+		this.delay = delay;
+	}
+
+	public long getDelay(int retry, long previousDelay) {
+		return this.delay;
+	}
+
+	public long getDelay() { return this.delay; }
+
+}
@@ -0,0 +1,18 @@
+package com.concur.babel.transport.retry;
+
+/**
+ * Jitter defines how an ExponentialBackoff randomizes its delays, so clients that failed at the same
+ * moment do not retry at the same moment.
+ */
+public enum Jitter {
+
+	/** The delay is base * multiplier^(retry - 1), capped at the maximum. */
+	NONE,
+
+	/** The delay is random between 0 and the delay without jitter. */
+	FULL,
+
+	/** The delay is random between the base and three times the previous delay, capped at the maximum. */
+	DECORRELATED
+
+}
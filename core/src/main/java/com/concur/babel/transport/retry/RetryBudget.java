@@ -0,0 +1,85 @@
+package com.concur.babel.transport.retry;
+
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RetryBudget is a token bucket that caps retries at a ratio of the successful calls.  Every
+ * successful call deposits ratio tokens and every retry withdraws one, the bucket starts full and
+ * holds at most capacity tokens, so a client that has been failing for a while stops retrying
+ * instead of multiplying the load on a struggling service.  It is safe to share between transports.
+ */
+public class RetryBudget {
+
+	public static final double DEFAULT_RATIO = 0.1;
+	public static final int DEFAULT_CAPACITY = 10;
+
+	/** tokens are kept in thousandths so deposits of a fraction of a token are exact enough */
+	private static final long SCALE = 1000;
+
+	private final long deposit;
+	private final long capacity;
+	private final AtomicLong balance;
+
+	public RetryBudget() {
+		this(DEFAULT_RATIO, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new RetryBudget
+	 *
+	 * @param ratio - the retries allowed per successful call, 0.1 allows one retry for every ten
+	 * successful calls.
+	 * @param capacity - the largest number of retries that can be saved up.
+	 */
+	public RetryBudget(double ratio, int capacity) {
+
+		preCondition(ratio >= 0, "ratio must be greater than or equal to ZERO");
+		preCondition(capacity >= 1, "capacity must be greater than or equal to ONE");
+
+		this.deposit = (long)(ratio * SCALE);
+		this.capacity = capacity * SCALE;
+		this.balance = new AtomicLong(this.capacity);
+
+	}
+
+	/**
+	 * Method deposit records a successful call.
+	 */
+	public void deposit() {
+
+		long current;
+		do {
+			current = this.balance.get();
+			if (current >= this.capacity) {
+				return;
+			}
+		} while (!this.balance.compareAndSet(current, Math.min(this.capacity, current + this.deposit)));
+
+	}
+
+	/**
+	 * Method tryWithdraw takes a token for a retry.
+	 *
+	 * @return true if the retry is within the budget.
+	 */
+	public boolean tryWithdraw() {
+
+		long current;
+		do {
+			current = this.balance.get();
+			if (current < SCALE) {
+				return false;
+			}
+		} while (!this.balance.compareAndSet(current, current - SCALE));
+		return true;
+
+	}
+
+	/**
+	 * @return the number of retries currently allowed.
+	 */
+	public double getBalance() { return this.balance.get() / (double)SCALE; }
+
+}
@@ -0,0 +1,20 @@
+package com.concur.babel.transport.retry;
+
+/**
+ * RetryDenial is the reason a retryable failure was not retried.
+ */
+public enum RetryDenial {
+
+	/** The call was attempted the maximum number of times. */
+	ATTEMPTS_EXHAUSTED,
+
+	/** The RetryBudget had no tokens left. */
+	BUDGET_EXHAUSTED,
+
+	/** The delay before the retry would end after the deadline of the call. */
+	DEADLINE_EXCEEDED,
+
+	/** The Retry-After of the response asked for a longer wait than the maxRetryAfter of the policy. */
+	RETRY_AFTER_TOO_LONG
+
+}
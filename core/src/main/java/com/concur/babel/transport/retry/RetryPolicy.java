@@ -0,0 +1,240 @@
+package com.concur.babel.transport.retry;
+
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * RetryPolicy decides if and when a failed call is retried.  Calls that could not connect or timed
+ * out, and responses with a retryable status (429 and 503 by default), are retried up to maxRetries
+ * times after a delay from the Backoff, or the server's Retry-After if that is longer.  Retries
+ * must fit within the RetryBudget and end before the deadline of the call.
+ *
+ * By default calls are not retried, the budget allows one retry for every ten successful calls.
+ */
+public class RetryPolicy {
+
+	public static final int STATUS_TOO_MANY_REQUESTS = 429;
+	public static final int STATUS_SERVICE_UNAVAILABLE = 503;
+
+	private static final String HTTP_DATE = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+	private int maxRetries = 0;
+	private Backoff backoff = new FixedBackoff(0);
+	private RetryBudget budget = new RetryBudget();
+	private long deadline = 0;
+	private boolean honorRetryAfter = true;
+	private long maxRetryAfter = 30000;
+	private boolean retryReadTimeouts = true;
+	private Set<Integer> retryableStatusCodes = new HashSet<Integer>(
+		Arrays.asList(STATUS_TOO_MANY_REQUESTS, STATUS_SERVICE_UNAVAILABLE));
+
+	/**
+	 * Creates a new RetryPolicy that does not retry.
+	 */
+	public RetryPolicy() {}
+
+	/**
+	 * Creates a new RetryPolicy with the settings of another one, changing one does not change the
+	 * other.  The budget is not copied, both policies take their retries from the same one.
+	 *
+	 * @param policy - the policy to copy.
+	 */
+	public RetryPolicy(RetryPolicy policy) {
+
+		notNull("policy", policy);
+		this.maxRetries = policy.maxRetries;
+		this.backoff = policy.backoff;
+		this.budget = policy.budget;
+		this.deadline = policy.deadline;
+		this.honorRetryAfter = policy.honorRetryAfter;
+		this.maxRetryAfter = policy.maxRetryAfter;
+		this.retryReadTimeouts = policy.retryReadTimeouts;
+		this.retryableStatusCodes = new HashSet<Integer>(policy.retryableStatusCodes);
+
+	}
+
+	/**
+	 * Method setMaxRetries sets the number of times a failed call is retried.  The default is 0.
+	 */
+	public void setMaxRetries(int maxRetries) {
+		preCondition(maxRetries >= 0, "maxRetries must be greater than or equal to ZERO");
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Method setBackoff sets how long to wait before each retry, see ExponentialBackoff.  The default
+	 * is no delay.
+	 */
+	public void setBackoff(Backoff backoff) {
+		notNull("backoff", backoff);
+		this.backoff = backoff;
+	}
+
+	/**
+	 * Method setBudget sets the budget retries are taken from.
+	 *
+	 * @param budget - the budget, null to retry without a budget.
+	 */
+	public void setBudget(RetryBudget budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Method setDeadline sets how long a call may take across all of its attempts and the delays in
+	 * between, a retry that would start after the deadline is not made.  The default is 0, no
+	 * deadline.
+	 *
+	 * @param deadline - the deadline in milliseconds from the start of the first attempt.
+	 */
+	public void setDeadline(long deadline) {
+		preCondition(deadline >= 0, "deadline must be greater than or equal to ZERO");
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Method setHonorRetryAfter sets if the Retry-After of a retryable response is waited for when it
+	 * is longer than the backoff delay.  The default is true.
+	 */
+	public void setHonorRetryAfter(boolean honorRetryAfter) {
+		this.honorRetryAfter = honorRetryAfter;
+	}
+
+	/**
+	 * Method setMaxRetryAfter sets the longest Retry-After that is waited for, a response asking for
+	 * a longer wait is not retried.  The default is 30000 milliseconds.
+	 */
+	public void setMaxRetryAfter(long maxRetryAfter) {
+		preCondition(maxRetryAfter >= 0, "maxRetryAfter must be greater than or equal to ZERO");
+		this.maxRetryAfter = maxRetryAfter;
+	}
+
+	/**
+	 * Method setRetryReadTimeouts sets if calls that timed out waiting for a response are retried,
+	 * the server may have processed such a call so only turn it on for idempotent services.  Calls
+	 * that could not connect are always retryable.  The default is true.
+	 */
+	public void setRetryReadTimeouts(boolean retryReadTimeouts) {
+		this.retryReadTimeouts = retryReadTimeouts;
+	}
+
+	/**
+	 * Method setRetryableStatusCodes sets the response status codes that are retried.
+	 */
+	public void setRetryableStatusCodes(Set<Integer> retryableStatusCodes) {
+		notNull("retryableStatusCodes", retryableStatusCodes);
+		this.retryableStatusCodes = retryableStatusCodes;
+	}
+
+	public int getMaxRetries() { return this.maxRetries; }
+
+	public Backoff getBackoff() { return this.backoff; }
+
+	public RetryBudget getBudget() { return this.budget; }
+
+	public long getDeadline() { return this.deadline; }
+
+	public boolean isHonorRetryAfter() { return this.honorRetryAfter; }
+
+	public long getMaxRetryAfter() { return this.maxRetryAfter; }
+
+	public boolean isRetryReadTimeouts() { return this.retryReadTimeouts; }
+
+	public Set<Integer> getRetryableStatusCodes() { return this.retryableStatusCodes; }
+
+	/**
+	 * Method isRetryable tells if a call that failed with an exception may be retried.
+	 *
+	 * @param e - the exception the attempt failed with.
+	 * @return true if the failure is retryable.
+	 */
+	public boolean isRetryable(IOException e) {
+
+		if (e instanceof ConnectException) {
+			return true;
+		}
+		if (e instanceof SocketTimeoutException) {
+			return this.retryReadTimeouts || isConnectTimeout((SocketTimeoutException)e);
+		}
+		return false;
+
+	}
+
+	/**
+	 * Method isRetryable tells if a call answered with a status code may be retried.
+	 *
+	 * @param statusCode - the status code of the response.
+	 * @return true if the status is retryable.
+	 */
+	public boolean isRetryable(int statusCode) {
+		return this.retryableStatusCodes.contains(statusCode);
+	}
+
+	/**
+	 * Method onSuccess records a successful call in the budget.
+	 */
+	public void onSuccess() {
+
+		if (this.budget != null) {
+			this.budget.deposit();
+		}
+
+	}
+
+	/**
+	 * Method tryAcquireRetry takes a retry from the budget.
+	 *
+	 * @return true if the retry may be made.
+	 */
+	public boolean tryAcquireRetry() {
+		return this.budget == null || this.budget.tryWithdraw();
+	}
+
+	/**
+	 * Method parseRetryAfter parses a Retry-After header, in seconds or as an HTTP date.
+	 *
+	 * @param retryAfter - the value of the header, may be null.
+	 * @param now - the current time in milliseconds.
+	 * @return the delay it asks for in milliseconds, or -1 if there is no valid header.
+	 */
+	public static long parseRetryAfter(String retryAfter, long now) {
+
+		if (retryAfter == null || retryAfter.trim().length() == 0) {
+			return -1;
+		}
+		String value = retryAfter.trim();
+		try {
+			long seconds = Long.parseLong(value);
+			if (seconds < 0) {
+				return -1;
+			}
+			// a delay too long to count in milliseconds is as good as forever
+			return seconds > Long.MAX_VALUE / 1000 ? Long.MAX_VALUE : seconds * 1000;
+		} catch (NumberFormatException e) {
+			// not delta-seconds, try an HTTP date
+		}
+		SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return Math.max(0, format.parse(value).getTime() - now);
+		} catch (ParseException e) {
+			return -1;
+		}
+
+	}
+
+	private static boolean isConnectTimeout(SocketTimeoutException e) {
+		return e.getMessage() != null && e.getMessage().toLowerCase(Locale.US).contains("connect");
+	}
+
+}
@@ -1,11 +1,15 @@
 package com.concur.babel.transport.server;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.logging.Logger;
 
 import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.compression.CompressionPolicy;
+import com.concur.babel.transport.compression.DecompressedSizeExceededException;
 
 import static com.concur.babel.ArgValidator.*;
 
@@ -42,6 +46,8 @@ public abstract class BabelServerTransport implements ServerTransport {
 		
 	}
 	
+	public Protocol getProtocol() { return this.protocol; }
+	
 	protected abstract boolean isDebugging();
 	
 	protected void log(String message) {
@@ -71,4 +77,54 @@ public abstract class BabelServerTransport implements ServerTransport {
 		
 	}	
 	
+	/**
+	 * Method readBytes reads a message body up to its end, as the bytes the protocol reads it from.
+	 */
+	protected byte[] readBytes(InputStream in) {
+		
+		ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+		byte[] bytes = new byte[4096];
+		try {
+			for (int read = in.read(bytes); read != -1; read = in.read(bytes)) {
+				body.write(bytes, 0, read);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return body.toByteArray();
+		
+	}
+	
+	/**
+	 * Method readBytes reads a message body sent with a Content-Encoding up to its end, decompressed.
+	 * A coding the policy does not support, or a body that decompresses past its maximum size, is
+	 * refused with a RequestBodyException.
+	 */
+	protected byte[] readBytes(
+		InputStream in, 
+		String contentEncoding, 
+		CompressionPolicy compression, 
+		String serviceName) 
+	{
+		
+		InputStream body;
+		try {
+			body = compression.decompress(in, contentEncoding, serviceName);
+		} catch (IllegalArgumentException e) {
+			throw new RequestBodyException(RequestBodyException.STATUS_UNSUPPORTED_MEDIA_TYPE, e.getMessage(), e);
+		}
+		try {
+			return this.readBytes(body);
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof DecompressedSizeExceededException) {
+				throw new RequestBodyException(
+					RequestBodyException.STATUS_PAYLOAD_TOO_LARGE, 
+					e.getCause().getMessage(), 
+					e.getCause());
+			}
+			throw e;
+		}
+		
+	}
+	
 }
@@ -0,0 +1,105 @@
+package com.concur.babel.transport.server;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.concur.babel.ServiceMethod;
+import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.batch.BatchCall;
+import com.concur.babel.transport.batch.BatchCallResult;
+
+/**
+ * BatchItemServerTransport is the server transport of one call of a batch.  The request comes from
+ * the BatchCall and the response is kept as a BatchCallResult, everything about the connection, like
+ * the headers and addresses, is the one of the transport the batch was received on.
+ */
+public class BatchItemServerTransport extends BabelServerTransport {
+
+	private final ServerTransport batchTransport;
+	private final BatchCall call;
+	private final boolean isDebugging;
+	private String responseMessage;
+	private Code responseCode;
+
+	public BatchItemServerTransport(ServerTransport batchTransport, BatchCall call, Protocol protocol) {
+
+		super(protocol);
+
+		notNull("batchTransport", batchTransport);
+		notNull("call", call);
+
+		this.batchTransport = batchTransport;
+		this.call = call;
+		this.isDebugging = batchTransport instanceof BabelServerTransport &&
+			((BabelServerTransport)batchTransport).isDebugging();
+
+	}
+
+	public void write(Code code, Object src) {
+
+		this.responseCode = code;
+		this.responseMessage = src == null ? null : this.protocol.write(src);
+		if (this.isDebugging()) {
+			this.log("Babel Write Message: " + this.responseMessage);
+		}
+
+	}
+
+	public ServiceMethod read(Class<? extends ServiceMethod> clazz) {
+
+		if (this.isDebugging()) {
+			this.log("Babel Read Message: " + this.call.getMessage());
+		}
+
+		ServiceMethod serviceMethod = this.call.getMessage() == null ?
+			null :
+			this.protocol.read(this.call.getMessage(), clazz);
+		if (serviceMethod == null) {
+			throw new RuntimeException("Unable to parse babel service call json for " +
+				this.getServiceName() + "-" + this.getMethodName());
+		}
+
+		return serviceMethod;
+
+	}
+
+	/**
+	 * @return the outcome of the call, null if no response was written.
+	 */
+	public BatchCallResult getResult() {
+		return this.responseCode == null ?
+			null :
+			new BatchCallResult(this.responseCode.getValue(), this.responseMessage);
+	}
+
+	public ServerTransport getBatchTransport() { return this.batchTransport; }
+
+	public String getServiceName() { return this.call.getServiceName(); }
+
+	public String getMethodName() { return this.call.getMethodName(); }
+
+	public String getMessage() { return this.call.getMessage(); }
+
+	public String getResponseMessage() { return this.responseMessage; }
+
+	public Code getResponseCode() { return this.responseCode; }
+
+	public String getHeader(String name) { return this.batchTransport.getHeader(name); }
+
+	public Set<String> getHeaderNames() { return this.batchTransport.getHeaderNames(); }
+
+	public String getLocalHostName() { return this.batchTransport.getLocalHostName(); }
+
+	public String getLocalIpAddress() { return this.batchTransport.getLocalIpAddress(); }
+
+	public String getRemoteIpAddress() { return this.batchTransport.getRemoteIpAddress(); }
+
+	public Map<String, String> getHeaders() { return this.batchTransport.getHeaders(); }
+
+	public int getPort() { return this.batchTransport.getPort(); }
+
+	protected boolean isDebugging() { return this.isDebugging; }
+
+}
@@ -0,0 +1,250 @@
+package com.concur.babel.transport.server;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.concur.babel.ServiceMethod;
+import com.concur.babel.exception.BabelException;
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.protocol.Protocol;
+import com.concur.babel.protocol.ProtocolStreams;
+import com.concur.babel.transport.BaseTransport;
+import com.concur.babel.transport.compression.CompressingOutputStream;
+import com.concur.babel.transport.compression.CompressionPolicy;
+import com.concur.babel.transport.compression.ContentCoding;
+import com.concur.babel.transport.http2.HeaderField;
+import com.concur.babel.transport.http2.Http2ServerConnection;
+import com.concur.babel.transport.http2.Http2Stream;
+
+/**
+ * Http2ServerTransport is the server transport for a request received on a stream of an HTTP/2
+ * connection, the service and method are the last two segments of the :path.
+ */
+public class Http2ServerTransport extends BabelServerTransport {
+
+	private final Http2ServerConnection connection;
+	private final Http2Stream stream;
+	private final Map<String, String> headers = new HashMap<String, String>();
+	private String serviceName;
+	private String methodName;
+	private final byte[] body;
+	private String message;
+	private byte[] responseBody;
+	private String responseMessage;
+	private Code responseCode;
+	private boolean isDebugging = false;
+	private final CompressionPolicy compression;
+
+	public Http2ServerTransport(Http2ServerConnection connection, Http2Stream stream, Protocol protocol) {
+		this(connection, stream, protocol, CompressionPolicy.disabled());
+	}
+
+	public Http2ServerTransport(
+		Http2ServerConnection connection,
+		Http2Stream stream,
+		Protocol protocol,
+		CompressionPolicy compression)
+	{
+
+		super(protocol);
+
+		notNull("connection", connection);
+		notNull("stream", stream);
+		notNull("compression", compression);
+
+		this.connection = connection;
+		this.stream = stream;
+		this.compression = compression;
+		this.parseHeaders();
+		this.body = this.readBody();
+
+	}
+
+	public String getHeader(String name) {
+
+		String value = this.headers.get(name.toLowerCase());
+		try {
+			return (value == null ? value : URLDecoder.decode(value, "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new BabelException(e);
+		}
+
+	}
+
+	public Set<String> getHeaderNames() { return this.headers.keySet(); }
+
+	public void write(Code code, Object src) {
+
+		this.responseCode = code;
+		this.responseBody = null;
+		this.responseMessage = null;
+		byte[] body = null;
+		ContentCoding coding = null;
+
+		try {
+			if (src != null) {
+				ByteArrayOutputStream message = new ByteArrayOutputStream(1024);
+				ProtocolStreams.write(this.protocol, src, message);
+				body = message.toByteArray();
+				this.responseBody = body;
+				if (this.isDebugging()) {
+					this.log("Babel Write Message: " + this.getResponseMessage());
+				}
+				coding = this.compression.getResponseCoding(
+					this.headers.get("accept-encoding"),
+					this.serviceName,
+					body.length);
+				if (coding != null) {
+					ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+					CompressingOutputStream out = this.compression.compress(compressed, coding, this.serviceName);
+					out.write(body);
+					out.close();
+					body = compressed.toByteArray();
+				}
+			}
+
+			this.connection.sendResponse(
+				this.stream,
+				code.getValue(),
+				this.protocol instanceof JSONProtocol ? "application/json" : null,
+				coding == null ? null : coding.getName(),
+				body);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write response on HTTP/2 stream " + this.stream.getId(), e);
+		}
+
+	}
+
+	public ServiceMethod read(Class<? extends ServiceMethod> clazz) {
+
+		if (this.isDebugging()) {
+			this.log("Babel Read Message: " + this.getMessage());
+		}
+
+		ServiceMethod serviceMethod = ProtocolStreams.read(this.protocol, new ByteArrayInputStream(this.body), clazz);
+		if (serviceMethod == null) {
+			throw new RuntimeException("Unable to parse babel service call json for " +
+				this.serviceName + "-" + this.methodName);
+		}
+
+		return serviceMethod;
+
+	}
+
+	public Http2Stream getStream() { return this.stream; }
+
+	public String getServiceName() { return this.serviceName; }
+
+	public String getMethodName() { return this.methodName; }
+
+	/**
+	 * Method getMessage gets the request message, decoded from its bytes the first time it is asked for.
+	 */
+	public String getMessage() {
+
+		if (this.message == null) {
+			this.message = new String(this.body, ProtocolStreams.getCharset(this.protocol));
+		}
+		return this.message;
+
+	}
+
+	/**
+	 * Method getResponseMessage gets the response message, decoded from its bytes the first time it
+	 * is asked for.
+	 */
+	public String getResponseMessage() {
+
+		if (this.responseMessage == null && this.responseBody != null) {
+			this.responseMessage = new String(this.responseBody, ProtocolStreams.getCharset(this.protocol));
+		}
+		return this.responseMessage;
+
+	}
+
+	public Code getResponseCode() { return this.responseCode; }
+
+	public String getLocalHostName() { return this.getSocket().getLocalAddress().getCanonicalHostName(); }
+
+	public String getLocalIpAddress() { return this.getSocket().getLocalAddress().getHostAddress(); }
+
+	public String getRemoteIpAddress() {
+		return this.getSocket().getInetAddress() == null ? null : this.getSocket().getInetAddress().getHostAddress();
+	}
+
+	public Map<String, String> getHeaders() {
+
+		Map<String, String> headers = new HashMap<String, String>();
+		for (String headerName : this.getHeaderNames()) {
+			headers.put(headerName, this.getHeader(headerName));
+		}
+		return headers;
+
+	}
+
+	public int getPort() { return this.getSocket().getLocalPort(); }
+
+	protected boolean isDebugging() { return this.isDebugging; }
+
+	private Socket getSocket() { return this.connection.getSocket(); }
+
+	private byte[] readBody() {
+
+		String contentEncoding = this.headers.get("content-encoding");
+		if (contentEncoding == null) {
+			return this.stream.getBody();
+		}
+
+		try {
+			return this.readBytes(this.stream.getBodyInputStream(), contentEncoding, this.compression, this.serviceName);
+		} catch (RequestBodyException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw new RuntimeException("Unable to read babel message from HTTP/2 stream for " +
+				this.serviceName + "-" + this.methodName, e);
+		}
+
+	}
+
+	private void parseHeaders() {
+
+		String path = null;
+		for (HeaderField header : this.stream.getHeaders()) {
+			if (header.getName().equals(":path")) {
+				path = header.getValue();
+			} else if (!header.getName().startsWith(":")) {
+				this.headers.put(header.getName(), header.getValue());
+			}
+		}
+
+		if (path == null) {
+			throw new RuntimeException("Calling service was not found in the HTTP/2 request");
+		}
+		int query = path.indexOf('?');
+		String[] callingInfo = (query == -1 ? path : path.substring(0, query)).split("/");
+		if (callingInfo.length < 3) {
+			throw new RuntimeException("URL: " + path + " does not appear to " +
+				"contain service/method, be sure to include a URL in this format: " +
+				"serviceName/methodName");
+		}
+
+		this.serviceName = callingInfo[callingInfo.length - 2];
+		this.methodName = callingInfo[callingInfo.length - 1];
+
+		String debug = this.headers.get(BaseTransport.DEBUG_HEADER.toLowerCase());
+		if (debug != null) {
+			this.isDebugging = Boolean.parseBoolean(debug);
+		}
+
+	}
+
+}
@@ -2,7 +2,9 @@ package com.concur.babel.transport.server;
 
 import static com.concur.babel.ArgValidator.notNull;
 
-import java.io.InputStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.Enumeration;
@@ -18,7 +20,12 @@ import com.concur.babel.ServiceMethod;
 import com.concur.babel.exception.BabelException;
 import com.concur.babel.protocol.JSONProtocol;
 import com.concur.babel.protocol.Protocol;
+import com.concur.babel.protocol.ProtocolStreams;
 import com.concur.babel.transport.BaseTransport;
+import com.concur.babel.transport.HttpTransport;
+import com.concur.babel.transport.compression.CompressingOutputStream;
+import com.concur.babel.transport.compression.CompressionPolicy;
+import com.concur.babel.transport.compression.ContentCoding;
 
 public class HttpServerTransport extends BabelServerTransport {
 
@@ -26,24 +33,50 @@ public class HttpServerTransport extends BabelServerTransport {
 	private HttpServletResponse response;
 	private String serviceName;
 	private String methodName;
+	private byte[] body;
 	private String message;
+	private ByteArrayOutputStream responseBody;
 	private String responseMessage;
 	private Code responseCode;
 	private boolean isDebugging = false;	
+	private final CompressionPolicy compression;
 	
+	/**
+	 * Creates a new HttpServerTransport that does not compress responses, compressed requests are
+	 * still decompressed.
+	 */
 	public HttpServerTransport(
 		HttpServletRequest request, 
 		HttpServletResponse response, 
 		Protocol protocol) 
 	{
+		this(request, response, protocol, CompressionPolicy.disabled());
+	}
+	
+	/**
+	 * Creates a new HttpServerTransport
+	 * 
+	 * @param request - the servlet request.
+	 * @param response - the servlet response.
+	 * @param protocol - the protocol being used on the wire.
+	 * @param compression - decides which responses are compressed.
+	 */
+	public HttpServerTransport(
+		HttpServletRequest request, 
+		HttpServletResponse response, 
+		Protocol protocol,
+		CompressionPolicy compression) 
+	{
 		
 		super(protocol);
 		
 		notNull("request", request);
 		notNull("response", response);
+		notNull("compression", compression);
 		
 		this.request = request;
 		this.response = response;
+		this.compression = compression;
 		this.parseRequest(request);
 		
 	}
@@ -82,14 +115,36 @@ public class HttpServerTransport extends BabelServerTransport {
 	
 		try {
 		
-			String responseMessage = this.protocol.write(src);
-			this.responseMessage = responseMessage;
+			// the body is buffered as bytes, the compression policy needs its length
+			ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+			ProtocolStreams.write(this.protocol, src, body);
+			this.responseBody = body;
+			this.responseMessage = null;
 		
 			if (this.isDebugging()) {
-				this.log("Babel Write Message: " + responseMessage);
+				this.log("Babel Write Message: " + this.getResponseMessage());
 			}
 
-            this.response.getWriter().write(responseMessage);
+			String acceptEncoding = this.request.getHeader(HttpTransport.ACCEPT_ENCODING);
+			ContentCoding coding = ContentCoding.negotiate(acceptEncoding) == null ? 
+				null : 
+				this.compression.getResponseCoding(acceptEncoding, this.serviceName, body.size());
+			if (coding == null) {
+				OutputStream out = this.response.getOutputStream();
+				body.writeTo(out);
+				out.flush();
+				return;
+			}
+			
+			this.response.setHeader(HttpTransport.CONTENT_ENCODING, coding.getName());
+			this.response.addHeader("Vary", HttpTransport.ACCEPT_ENCODING);
+			CompressingOutputStream out = this.compression.compress(
+				this.response.getOutputStream(), 
+				coding, 
+				this.serviceName);
+			body.writeTo(out);
+			out.finish();
+			out.flush();
 		
 		} catch (Exception e) {
 			throw new RuntimeException("Unable to write response on output stream!");
@@ -102,11 +157,11 @@ public class HttpServerTransport extends BabelServerTransport {
 		ServiceMethod serviceMethod;
 		if (this.isDebugging()) {
 		
-			this.log("Babel Read Message: " + this.message);
+			this.log("Babel Read Message: " + this.getMessage());
 					
 		}
 		
-		serviceMethod = this.protocol.read(this.message, clazz);
+		serviceMethod = ProtocolStreams.read(this.protocol, new ByteArrayInputStream(this.body), clazz);
 	
 		if (serviceMethod == null) {
 			throw new RuntimeException("Unable to parse babel service call json for " +
@@ -125,9 +180,32 @@ public class HttpServerTransport extends BabelServerTransport {
 	
 	public String getMethodName() { return this.methodName; }
 	
-	public String getMessage() { return this.message; }
+	/**
+	 * Method getMessage gets the request message, decoded from its bytes the first time it is asked for.
+	 */
+	public String getMessage() { 
+		
+		if (this.message == null && this.body != null) {
+			this.message = new String(this.body, ProtocolStreams.getCharset(this.protocol));
+		}
+		return this.message; 
+		
+	}
 	
-	public String getResponseMessage() { return this.responseMessage; }
+	/**
+	 * Method getResponseMessage gets the response message, decoded from its bytes the first time it
+	 * is asked for.
+	 */
+	public String getResponseMessage() { 
+		
+		if (this.responseMessage == null && this.responseBody != null) {
+			this.responseMessage = new String(
+				this.responseBody.toByteArray(), 
+				ProtocolStreams.getCharset(this.protocol));
+		}
+		return this.responseMessage; 
+		
+	}
 	
 	public Code getResponseCode() { return this.responseCode; }
 
@@ -178,9 +256,14 @@ public class HttpServerTransport extends BabelServerTransport {
 		
 		try {
 			
-			this.message = this.readerToString(
-				new InputStreamReader(request.getInputStream(), "UTF-8"));
+			this.body = this.readBytes(
+				request.getInputStream(), 
+				request.getHeader(HttpTransport.CONTENT_ENCODING), 
+				this.compression,
+				this.serviceName);
 			
+		} catch (RequestBodyException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new RuntimeException("Unable to read babel message from input stream for " +
 				this.serviceName + "-" + this.methodName, e);
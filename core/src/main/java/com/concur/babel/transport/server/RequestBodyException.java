@@ -0,0 +1,27 @@
+package com.concur.babel.transport.server;
+
+/**
+ * RequestBodyException is thrown when the body of a request can not be read because of what the
+ * client sent: a Content-Encoding the server does not support, or a compressed body that
+ * decompresses past the maximum size of the CompressionPolicy.  The server answers it with its
+ * status code, the service is not called.
+ */
+@SuppressWarnings("serial")
+public class RequestBodyException extends RuntimeException {
+
+	public static final int STATUS_PAYLOAD_TOO_LARGE = 413;
+	public static final int STATUS_UNSUPPORTED_MEDIA_TYPE = 415;
+
+	private final int statusCode;
+
+	public RequestBodyException(int statusCode, String message, Throwable cause) {
+		super(message, cause);
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * @return the HTTP status the request is answered with.
+	 */
+	public int getStatusCode() { return this.statusCode; }
+
+}
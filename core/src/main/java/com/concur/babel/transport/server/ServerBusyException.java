@@ -0,0 +1,45 @@
+package com.concur.babel.transport.server;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.concur.babel.Error;
+import com.concur.babel.ServiceError;
+import com.concur.babel.exception.BabelException;
+
+/**
+ * ServerBusyException is the error a server answers a request with when it has no room to process
+ * it, the service was not called so the request may be retried.  Its service error has the code
+ * SERVER_BUSY.
+ */
+@SuppressWarnings("serial")
+public class ServerBusyException extends BabelException {
+
+	public static final String ERROR_CODE = "SERVER_BUSY";
+
+	public ServerBusyException(String message) {
+		// built directly, rejecting fast should not cost formatting a stack trace into the error
+		super(createServiceError(message));
+	}
+
+	/**
+	 * Method createServiceError builds the service error of a ServerBusyException, without the cost
+	 * of creating the exception.
+	 */
+	public static ServiceError createServiceError(String message) {
+
+		Error error = new Error();
+		error.setCode(ERROR_CODE);
+		error.setMessage(message);
+		List<Error> errors = new ArrayList<Error>(1);
+		errors.add(error);
+
+		ServiceError serviceError = new ServiceError();
+		serviceError.setTime(new Date());
+		serviceError.setErrors(errors);
+		return serviceError;
+
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.concur.babel.transport.server;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.concur.babel.Error;
+import com.concur.babel.ServiceError;
+import com.concur.babel.exception.BabelException;
+
+/**
+ * ServerDrainingException is the error a server answers a request with once it is shutting down,
+ * the service was not called so the request may be sent to another server.  Its service error has
+ * the code SERVER_DRAINING.
+ */
+@SuppressWarnings("serial")
+public class ServerDrainingException extends BabelException {
+
+	public static final String ERROR_CODE = "SERVER_DRAINING";
+
+	public ServerDrainingException(String message) {
+		super(createServiceError(message));
+	}
+
+	/**
+	 * Method createServiceError builds the service error of a ServerDrainingException, without the
+	 * cost of creating the exception.
+	 */
+	public static ServiceError createServiceError(String message) {
+
+		Error error = new Error();
+		error.setCode(ERROR_CODE);
+		error.setMessage(message);
+		List<Error> errors = new ArrayList<Error>(1);
+		errors.add(error);
+
+		ServiceError serviceError = new ServiceError();
+		serviceError.setTime(new Date());
+		serviceError.setErrors(errors);
+		return serviceError;
+
+	}
+
+}
@@ -2,9 +2,11 @@ package com.concur.babel.transport.server;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -13,12 +15,24 @@ import java.util.StringTokenizer;
 import com.concur.babel.ServiceMethod;
 import com.concur.babel.protocol.Protocol;
 import com.concur.babel.transport.BaseTransport;
+import com.concur.babel.transport.socket.SocketFrame;
+import com.concur.babel.transport.socket.ServerConnection;
 
 import static com.concur.babel.ArgValidator.*;
 
+/**
+ * SocketServerTransport is the server transport for a request received on a socket, either the one
+ * request of a legacy connection, which is read on demand, or a request read by a ServerConnection,
+ * which is answered with the id of the request.
+ */
 public class SocketServerTransport extends BabelServerTransport {
 
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
 	private final Socket socket;
+	private final InputStream in;
+	private final ServerConnection connection;
+	private final long requestId;
 	private String serviceName;
 	private String methodName;
 	private String message;
@@ -27,20 +41,59 @@ public class SocketServerTransport extends BabelServerTransport {
 	private boolean streamRead = false;
 	private Map<String, String> headers = new HashMap<String, String>();
 	private boolean isDebugging = false;
-	private final String serverName;
-	private final String localAddr;
-	private final String remoteAddr;
+	private String serverName;
+	private String localAddr;
+	private String remoteAddr;
 	
 	public SocketServerTransport(Socket socket, Protocol protocol) {
+		this(socket, null, protocol);
+	}
+	
+	/**
+	 * Creates a new SocketServerTransport for the request of a legacy connection.
+	 * 
+	 * @param socket - the socket of the connection.
+	 * @param in - the stream the request is read from, null to read from the socket.
+	 * @param protocol - the protocol being used on the wire.
+	 */
+	public SocketServerTransport(Socket socket, InputStream in, Protocol protocol) {
 		
 		super(protocol);
 		notNull("socket", socket);
 		this.socket = socket;
-		this.serverName = this.socket.getLocalAddress().getCanonicalHostName();
-		this.localAddr = new String(this.socket.getLocalAddress().getAddress());
-		this.remoteAddr = this.socket.getRemoteSocketAddress() != null ?
-			this.socket.getRemoteSocketAddress().toString() :
-			null;
+		this.in = in;
+		this.connection = null;
+		this.requestId = 0;
+		// the host name takes a reverse DNS lookup, it is looked up only when asked for
+		
+	}
+	
+	/**
+	 * Creates a new SocketServerTransport for a request read by a connection.
+	 * 
+	 * @param connection - the connection the request was read from.
+	 * @param request - the request.
+	 * @param protocol - the protocol being used on the wire.
+	 */
+	public SocketServerTransport(ServerConnection connection, SocketFrame request, Protocol protocol) {
+		
+		super(protocol);
+		notNull("connection", connection);
+		notNull("request", request);
+		this.socket = null;
+		this.in = null;
+		this.connection = connection;
+		this.requestId = request.getRequestId();
+		// connection metadata is looked up once per connection, when first asked for
+		
+		this.headers.putAll(request.getHeaders());
+		this.serviceName = request.getServiceName();
+		this.methodName = request.getMethodName();
+		this.message = request.getBody();
+		this.streamRead = true;
+		if (this.headers.containsKey(BaseTransport.DEBUG_HEADER)) {
+			this.isDebugging = Boolean.parseBoolean(this.headers.get(BaseTransport.DEBUG_HEADER));
+		}
 		
 	}
 
@@ -61,11 +114,46 @@ public class SocketServerTransport extends BabelServerTransport {
 		
 	}
 	
-	public String getLocalHostName() { return this.serverName; }
+	public String getLocalHostName() { 
+		
+		if (this.connection != null) {
+			return this.connection.getLocalHostName();
+		}
+		if (this.serverName == null) {
+			this.serverName = this.socket.getLocalAddress().getCanonicalHostName();
+		}
+		return this.serverName; 
+		
+	}
 	
-	public String getLocalIpAddress() { return this.localAddr; }
+	public String getLocalIpAddress() { 
+		
+		if (this.connection != null) {
+			return this.connection.getLocalIpAddress();
+		}
+		if (this.localAddr == null) {
+			this.localAddr = this.socket.getLocalAddress().getHostAddress();
+		}
+		return this.localAddr; 
+		
+	}
 
-	public String getRemoteIpAddress() { return this.remoteAddr; }
+	public String getRemoteIpAddress() { 
+		
+		if (this.connection != null) {
+			return this.connection.getRemoteIpAddress();
+		}
+		if (this.remoteAddr == null && this.socket.getInetAddress() != null) {
+			this.remoteAddr = this.socket.getInetAddress().getHostAddress();
+		}
+		return this.remoteAddr; 
+		
+	}
+	
+	/**
+	 * @return the id of the request on a multiplexed connection, 0 on a legacy connection.
+	 */
+	public long getRequestId() { return this.requestId; }
 	
 	public String getMessage() { return this.message; }
 	
@@ -73,11 +161,18 @@ public class SocketServerTransport extends BabelServerTransport {
 	
 	public Code getResponseCode() { return this.responseCode; }
 	
-	public int getPort() { return this.socket.getLocalPort(); }
+	public int getPort() { 
+		return this.connection != null ? this.connection.getLocalPort() : this.socket.getLocalPort(); 
+	}
 	
 	@Override
 	public void write(Code code, Object src) {
 
+		if (this.connection != null) {
+			this.writeMultiplexed(code, src);
+			return;
+		}
+		
 		try {
 		
 			this.responseCode = code;
@@ -90,8 +185,8 @@ public class SocketServerTransport extends BabelServerTransport {
 				this.log("Babel Write Socket Message: " + message);
 			}
 			
-			out.write(header.getBytes());
-			out.write(message.getBytes());
+			out.write(header.getBytes(UTF8));
+			out.write(message.getBytes(UTF8));
 			out.flush();
 			this.responseMessage = message;
 			
@@ -144,14 +239,52 @@ public class SocketServerTransport extends BabelServerTransport {
 		return this.headers; 
 	}
 	
+	/**
+	 * Method writeServerBusy answers a request with a ServerBusyException error without calling the
+	 * service and completes it, a connection the answer can not be written to is closed.
+	 * 
+	 * @param connection - the connection the request was read from.
+	 * @param request - the request.
+	 * @param protocol - the protocol being used on the wire.
+	 */
+	public static void writeServerBusy(ServerConnection connection, SocketFrame request, Protocol protocol) {
+		
+		try {
+			new SocketServerTransport(connection, request, protocol).write(
+				Code.UNEXPECTED_ERROR,
+				ServerBusyException.createServiceError("Server is busy, the request was not processed"));
+		} catch (RuntimeException e) {
+			connection.close();
+		} finally {
+			connection.requestCompleted();
+		}
+		
+	}
+	
 	protected boolean isDebugging() { return this.isDebugging; }
 	
+	private void writeMultiplexed(Code code, Object src) {
+		
+		this.responseCode = code;
+		String message = this.protocol.write(src);
+		if (this.isDebugging()) {
+			this.log("Babel Write Socket Message " + this.requestId + ": " + message);
+		}
+		try {
+			this.connection.writeResponse(this.requestId, code.getValue(), message);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write to the socket stream", e);
+		}
+		this.responseMessage = message;
+		
+	}
+	
 	private void readStream() {
 		
 		try {
 			
 			BufferedReader reader = new BufferedReader(
-				new InputStreamReader(this.socket.getInputStream()));			
+				new InputStreamReader(this.in != null ? this.in : this.socket.getInputStream(), UTF8));			
 			String headerMsg = reader.readLine();
 			String routingMsg = reader.readLine();
 			this.message = reader.readLine();
@@ -0,0 +1,319 @@
+package com.concur.babel.transport.socket;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * BinaryFrames reads and writes the binary socket wire format.  Unlike the line based format of
+ * SocketFrames, every field is length-prefixed, so headers and messages may hold any characters and
+ * a frame is read without scanning its bytes.  A binary connection is always multiplexed, it starts
+ * with its first frame, every frame is laid out as:
+ *
+ * <pre>
+ *   byte    MAGIC
+ *   byte    VERSION
+ *   byte    type, REQUEST, RESPONSE or GOAWAY
+ *   int     length of the rest of the frame
+ *   long    request id, for a GOAWAY the id of the last request the server read
+ *   int     status code, 0 for a request
+ *   short   length of the service name, followed by its UTF-8 bytes
+ *   short   length of the method name, followed by its UTF-8 bytes
+ *   int     length of the header block, followed by short length prefixed names and values
+ *   int     length of the message, -1 for none, followed by its UTF-8 bytes
+ * </pre>
+ *
+ * The head of a frame, everything up to the message, is encoded on its own so the message can be
+ * written from its own buffer with a gathering write.
+ */
+public final class BinaryFrames {
+
+	public static final byte MAGIC = (byte)0xBA;
+	public static final byte VERSION = 1;
+
+	public static final byte REQUEST = 1;
+	public static final byte RESPONSE = 2;
+	public static final byte GOAWAY = 3;
+
+	/**
+	 * The length of the prelude, magic, version, type and frame length, that precedes every frame.
+	 */
+	public static final int PRELUDE_LENGTH = 7;
+
+	/**
+	 * The length of the head of a response frame, which has no service, method or headers.
+	 */
+	public static final int RESPONSE_HEAD_LENGTH = PRELUDE_LENGTH + 8 + 4 + 2 + 2 + 4 + 4;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] EMPTY = new byte[0];
+
+	private BinaryFrames() {
+	}
+
+	/**
+	 * Method encodeRequestHead encodes the head of a request frame.
+	 *
+	 * @param requestId - the id of the request.
+	 * @param headers - the request headers.
+	 * @param serviceName - the service name.
+	 * @param methodName - the method name.
+	 * @param bodyLength - the length of the message that follows the head, -1 for none.
+	 * @return the head, ready to be written.
+	 */
+	public static ByteBuffer encodeRequestHead(
+		long requestId,
+		Map<String, String> headers,
+		String serviceName,
+		String methodName,
+		int bodyLength)
+	{
+		return encodeHead(REQUEST, requestId, 0, serviceName, methodName, headers, bodyLength);
+	}
+
+	/**
+	 * Method encodeResponseHead encodes the head of a response frame.
+	 *
+	 * @param requestId - the id of the request answered.
+	 * @param status - the status code.
+	 * @param bodyLength - the length of the message that follows the head, -1 for none.
+	 * @return the head, ready to be written.
+	 */
+	public static ByteBuffer encodeResponseHead(long requestId, int status, int bodyLength) {
+
+		ByteBuffer buffer = ByteBuffer.allocate(RESPONSE_HEAD_LENGTH);
+		putResponseHead(buffer, requestId, status, bodyLength);
+		buffer.flip();
+		return buffer;
+
+	}
+
+	/**
+	 * Method putResponseHead puts the head of a response frame, RESPONSE_HEAD_LENGTH bytes, into a
+	 * buffer the message can follow it in.
+	 *
+	 * @param buffer - the buffer.
+	 * @param requestId - the id of the request answered.
+	 * @param status - the status code.
+	 * @param bodyLength - the length of the message that follows the head, -1 for none.
+	 */
+	public static void putResponseHead(ByteBuffer buffer, long requestId, int status, int bodyLength) {
+
+		buffer.put(MAGIC).put(VERSION).put(RESPONSE);
+		buffer.putInt(RESPONSE_HEAD_LENGTH - PRELUDE_LENGTH + Math.max(bodyLength, 0));
+		buffer.putLong(requestId).putInt(status);
+		buffer.putShort((short)0).putShort((short)0).putInt(0);
+		buffer.putInt(bodyLength);
+
+	}
+
+	/**
+	 * Method encodeGoAway encodes a GOAWAY frame.
+	 *
+	 * @param lastRequestId - the id of the last request the server read.
+	 * @return the frame, ready to be written.
+	 */
+	public static ByteBuffer encodeGoAway(long lastRequestId) {
+		return encodeHead(GOAWAY, lastRequestId, 0, null, null, null, -1);
+	}
+
+	/**
+	 * Method readFrame reads a frame from a stream, a GOAWAY is returned as a frame with the status
+	 * -1 and the id of the last request the server read.
+	 *
+	 * @return the frame, null if the stream ended between frames.
+	 * @throws IOException if the frame is invalid or longer than maxFrameLength.
+	 */
+	public static SocketFrame readFrame(DataInputStream in, int maxFrameLength) throws IOException {
+
+		int magic = in.read();
+		if (magic == -1) {
+			return null;
+		}
+		byte[] prelude = new byte[PRELUDE_LENGTH];
+		prelude[0] = (byte)magic;
+		in.readFully(prelude, 1, PRELUDE_LENGTH - 1);
+		int length = readPrelude(ByteBuffer.wrap(prelude), maxFrameLength);
+
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		return decodeFrame(prelude[2], ByteBuffer.wrap(payload));
+
+	}
+
+	/**
+	 * Method readRequest reads a request frame from a stream.
+	 *
+	 * @return the request, null if the stream ended between frames.
+	 * @throws IOException if the frame is invalid, longer than maxFrameLength or not a request.
+	 */
+	public static SocketFrame readRequest(DataInputStream in, int maxFrameLength) throws IOException {
+
+		SocketFrame frame = readFrame(in, maxFrameLength);
+		if (frame != null && frame.getServiceName() == null) {
+			throw new IOException("Babel binary frame " + frame.getRequestId() + " is not a request");
+		}
+		return frame;
+
+	}
+
+	/**
+	 * Method isBinary tells if a stream starts with the MAGIC byte, without consuming it.
+	 *
+	 * @param in - a stream that supports mark.
+	 * @throws IOException
+	 */
+	public static boolean isBinary(InputStream in) throws IOException {
+
+		in.mark(1);
+		int b = in.read();
+		in.reset();
+		return b == (MAGIC & 0xff);
+
+	}
+
+	/**
+	 * Method readPrelude checks the prelude of a frame.
+	 *
+	 * @param buffer - a buffer with at least PRELUDE_LENGTH bytes remaining, which are consumed.
+	 * @return the length of the rest of the frame.
+	 * @throws IOException if the prelude is invalid or the frame longer than maxFrameLength.
+	 */
+	static int readPrelude(ByteBuffer buffer, int maxFrameLength) throws IOException {
+
+		byte magic = buffer.get();
+		byte version = buffer.get();
+		byte type = buffer.get();
+		int length = buffer.getInt();
+		if (magic != MAGIC) {
+			throw new IOException("Invalid babel binary frame magic: " + (magic & 0xff));
+		}
+		if (version != VERSION) {
+			throw new IOException("Unsupported babel binary frame version: " + version);
+		}
+		if (type != REQUEST && type != RESPONSE && type != GOAWAY) {
+			throw new IOException("Invalid babel binary frame type: " + type);
+		}
+		if (length < 0 || length > maxFrameLength) {
+			throw new IOException("Babel binary frame length " + length + " is invalid or longer than " + maxFrameLength);
+		}
+		return length;
+
+	}
+
+	/**
+	 * Method decodeFrame decodes the rest of a frame after its prelude.
+	 *
+	 * @param type - the frame type from the prelude.
+	 * @param payload - the rest of the frame.
+	 * @throws IOException if the frame is invalid.
+	 */
+	static SocketFrame decodeFrame(byte type, ByteBuffer payload) throws IOException {
+
+		try {
+			long requestId = payload.getLong();
+			int status = payload.getInt();
+			String serviceName = readString(payload, payload.getShort() & 0xffff);
+			String methodName = readString(payload, payload.getShort() & 0xffff);
+
+			int headerLength = payload.getInt();
+			if (headerLength < 0 || headerLength > payload.remaining()) {
+				throw new IOException("Invalid babel binary header block length: " + headerLength);
+			}
+			Map<String, String> headers = new HashMap<String, String>();
+			int headerEnd = payload.position() + headerLength;
+			while (payload.position() < headerEnd) {
+				String name = readString(payload, payload.getShort() & 0xffff);
+				headers.put(name, readString(payload, payload.getShort() & 0xffff));
+			}
+
+			int bodyLength = payload.getInt();
+			String body = bodyLength == -1 ? null : readString(payload, bodyLength);
+
+			if (type == GOAWAY) {
+				return new SocketFrame(requestId, -1, null);
+			}
+			if (type == RESPONSE) {
+				return new SocketFrame(requestId, status, body);
+			}
+			if (serviceName.length() == 0 || methodName.length() == 0) {
+				throw new IOException("Babel binary request " + requestId + " has no service or method");
+			}
+			return new SocketFrame(requestId, headers, serviceName, methodName, body);
+		} catch (RuntimeException e) {
+			// a length pointing past the end of the frame
+			throw new IOException("Invalid babel binary frame", e);
+		}
+
+	}
+
+	private static ByteBuffer encodeHead(
+		byte type,
+		long requestId,
+		int status,
+		String serviceName,
+		String methodName,
+		Map<String, String> headers,
+		int bodyLength)
+	{
+
+		byte[] service = serviceName != null ? serviceName.getBytes(UTF8) : EMPTY;
+		byte[] method = methodName != null ? methodName.getBytes(UTF8) : EMPTY;
+		checkShortLength(service);
+		checkShortLength(method);
+
+		byte[][] headerBytes = null;
+		int headerLength = 0;
+		if (headers != null && !headers.isEmpty()) {
+			headerBytes = new byte[headers.size() * 2][];
+			int i = 0;
+			for (Entry<String, String> header : headers.entrySet()) {
+				headerBytes[i] = header.getKey().getBytes(UTF8);
+				headerBytes[i + 1] = header.getValue() != null ? header.getValue().getBytes(UTF8) : EMPTY;
+				checkShortLength(headerBytes[i]);
+				checkShortLength(headerBytes[i + 1]);
+				headerLength += 4 + headerBytes[i].length + headerBytes[i + 1].length;
+				i += 2;
+			}
+		}
+
+		int headLength = 8 + 4 + 2 + service.length + 2 + method.length + 4 + headerLength + 4;
+		int frameLength = headLength + Math.max(bodyLength, 0);
+		ByteBuffer buffer = ByteBuffer.allocate(PRELUDE_LENGTH + headLength);
+		buffer.put(MAGIC).put(VERSION).put(type).putInt(frameLength);
+		buffer.putLong(requestId).putInt(status);
+		buffer.putShort((short)service.length).put(service);
+		buffer.putShort((short)method.length).put(method);
+		buffer.putInt(headerLength);
+		if (headerBytes != null) {
+			for (byte[] bytes : headerBytes) {
+				buffer.putShort((short)bytes.length).put(bytes);
+			}
+		}
+		buffer.putInt(bodyLength);
+		buffer.flip();
+		return buffer;
+
+	}
+
+	private static String readString(ByteBuffer buffer, int length) throws IOException {
+
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IOException("Invalid babel binary field length: " + length);
+		}
+		return Utf8Buffers.decode(buffer, length);
+
+	}
+
+	private static void checkShortLength(byte[] bytes) {
+		if (bytes.length > 0xffff) {
+			throw new IllegalArgumentException("Babel binary frame field is longer than " + 0xffff + " bytes");
+		}
+	}
+
+}
@@ -0,0 +1,223 @@
+package com.concur.babel.transport.socket;
+
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BufferArena hands out direct buffers in size classes, each class four times the size of the one
+ * below it, so a request of any size reuses a buffer close to its size.  Every class is a shared
+ * ByteBufferPool, in front of which each thread keeps a few buffers of the smaller classes, so a
+ * thread that releases what it acquired rarely touches the shared pools.  A buffer must be released
+ * exactly once, by any thread, once it is no longer used.  Sizes above the largest class get heap
+ * buffers which are not pooled.
+ */
+public class BufferArena {
+
+	public static final int DEFAULT_MIN_BUFFER_SIZE = 1024;
+	public static final int DEFAULT_SIZE_CLASSES = 6;
+	public static final int DEFAULT_MAX_POOLED = 256;
+	public static final int DEFAULT_THREAD_CACHE_SIZE = 8;
+
+	/**
+	 * The largest buffer kept in the cache of a thread, larger ones are only kept in the shared pools
+	 * so idle threads do not hold on to much memory.
+	 */
+	public static final int MAX_THREAD_CACHED_SIZE = 64 * 1024;
+
+	private final ByteBufferPool[] classes;
+	private final int threadCacheSize;
+	private final int threadCachedClasses;
+	private final ThreadLocal<ThreadCache> threadCache;
+	private final AtomicLong acquired = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicInteger outstanding = new AtomicInteger();
+
+	public BufferArena() {
+		this(DEFAULT_MIN_BUFFER_SIZE, DEFAULT_SIZE_CLASSES, DEFAULT_MAX_POOLED, DEFAULT_THREAD_CACHE_SIZE);
+	}
+
+	/**
+	 * Creates a new BufferArena
+	 *
+	 * @param minBufferSize - the capacity of the buffers of the smallest class.
+	 * @param sizeClasses - the number of size classes.
+	 * @param maxPooled - the most buffers of each class kept in the shared pools.
+	 * @param threadCacheSize - the most buffers of each class kept by a thread, 0 keeps none, which
+	 * suits virtual threads that are not reused.
+	 */
+	public BufferArena(int minBufferSize, int sizeClasses, int maxPooled, int threadCacheSize) {
+
+		preCondition(minBufferSize > 0, "minBufferSize must be greater than ZERO");
+		preCondition(sizeClasses >= 1, "sizeClasses must be greater than or equal to ONE");
+		preCondition(
+			(long)minBufferSize << (2 * (sizeClasses - 1)) <= Integer.MAX_VALUE,
+			"the largest size class must fit an int");
+		preCondition(maxPooled >= 0, "maxPooled must be greater than or equal to ZERO");
+		preCondition(threadCacheSize >= 0, "threadCacheSize must be greater than or equal to ZERO");
+
+		this.classes = new ByteBufferPool[sizeClasses];
+		int cachedClasses = 0;
+		for (int i = 0; i < sizeClasses; i++) {
+			int size = minBufferSize << (2 * i);
+			this.classes[i] = new ByteBufferPool(size, maxPooled);
+			if (size <= MAX_THREAD_CACHED_SIZE) {
+				cachedClasses = i + 1;
+			}
+		}
+		this.threadCacheSize = threadCacheSize;
+		this.threadCachedClasses = threadCacheSize > 0 ? cachedClasses : 0;
+		final int cached = this.threadCachedClasses;
+		this.threadCache = new ThreadLocal<ThreadCache>() {
+			protected ThreadCache initialValue() {
+				return new ThreadCache(cached, BufferArena.this.threadCacheSize);
+			}
+		};
+
+	}
+
+	/**
+	 * Method acquire returns a cleared buffer with room for at least size bytes, its limit is its
+	 * capacity.
+	 *
+	 * @param size - the number of bytes needed.
+	 */
+	public ByteBuffer acquire(int size) {
+
+		preCondition(size >= 0, "size must be greater than or equal to ZERO");
+		this.acquired.incrementAndGet();
+		int sizeClass = this.sizeClassOf(size);
+		if (sizeClass == -1) {
+			return ByteBuffer.allocate(size);
+		}
+
+		ByteBuffer buffer = null;
+		if (sizeClass < this.threadCachedClasses) {
+			buffer = this.threadCache.get().poll(sizeClass);
+		}
+		if (buffer == null) {
+			buffer = this.classes[sizeClass].poll();
+		}
+		if (buffer != null) {
+			this.hits.incrementAndGet();
+		} else {
+			buffer = ByteBuffer.allocateDirect(this.classes[sizeClass].getBufferSize());
+		}
+		this.outstanding.incrementAndGet();
+		return buffer;
+
+	}
+
+	/**
+	 * Method release returns a buffer acquired from the arena, other buffers are ignored.  The buffer
+	 * must not be used after it was released.
+	 */
+	public void release(ByteBuffer buffer) {
+
+		if (buffer == null || !buffer.isDirect()) {
+			return;
+		}
+		int sizeClass = this.sizeClassOf(buffer.capacity());
+		if (sizeClass == -1 || this.classes[sizeClass].getBufferSize() != buffer.capacity()) {
+			return;
+		}
+		this.outstanding.decrementAndGet();
+		buffer.clear();
+		if (sizeClass < this.threadCachedClasses && this.threadCache.get().offer(sizeClass, buffer)) {
+			return;
+		}
+		this.classes[sizeClass].release(buffer);
+
+	}
+
+	/**
+	 * @return the capacity of the buffers of the largest class, larger requests get heap buffers.
+	 */
+	public int getMaxBufferSize() { return this.classes[this.classes.length - 1].getBufferSize(); }
+
+	/**
+	 * @return the number of buffers acquired.
+	 */
+	public long getAcquireCount() { return this.acquired.get(); }
+
+	/**
+	 * @return the share of acquired buffers that were reused, from 0 to 1.
+	 */
+	public double getHitRate() {
+
+		long acquired = this.acquired.get();
+		return acquired == 0 ? 0 : (double)this.hits.get() / acquired;
+
+	}
+
+	/**
+	 * @return the number of pooled-size buffers acquired and not released yet, a number that keeps
+	 * growing means buffers are leaking.
+	 */
+	public int getOutstandingCount() { return this.outstanding.get(); }
+
+	/**
+	 * @return the number of buffers waiting to be reused in the shared pools, not counting those
+	 * kept by threads.
+	 */
+	public int getPooledCount() {
+
+		int count = 0;
+		for (ByteBufferPool pool : this.classes) {
+			count += pool.getPooledCount();
+		}
+		return count;
+
+	}
+
+	private int sizeClassOf(int size) {
+
+		for (int i = 0; i < this.classes.length; i++) {
+			if (size <= this.classes[i].getBufferSize()) {
+				return i;
+			}
+		}
+		return -1;
+
+	}
+
+	/**
+	 * ThreadCache is the stack of buffers of each cached class kept by one thread.
+	 */
+	private static class ThreadCache {
+
+		private final ByteBuffer[][] buffers;
+		private final int[] counts;
+
+		ThreadCache(int sizeClasses, int size) {
+			this.buffers = new ByteBuffer[sizeClasses][size];
+			this.counts = new int[sizeClasses];
+		}
+
+		ByteBuffer poll(int sizeClass) {
+
+			if (this.counts[sizeClass] == 0) {
+				return null;
+			}
+			int top = --this.counts[sizeClass];
+			ByteBuffer buffer = this.buffers[sizeClass][top];
+			this.buffers[sizeClass][top] = null;
+			return buffer;
+
+		}
+
+		boolean offer(int sizeClass, ByteBuffer buffer) {
+
+			if (this.counts[sizeClass] == this.buffers[sizeClass].length) {
+				return false;
+			}
+			this.buffers[sizeClass][this.counts[sizeClass]++] = buffer;
+			return true;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.concur.babel.transport.socket;
+
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ByteBufferPool keeps direct buffers of one size for reuse, allocating a direct buffer is costly and
+ * its memory is only freed when the buffer is collected.  Buffers may be acquired and released from
+ * any thread.
+ */
+public class ByteBufferPool {
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * Creates a new ByteBufferPool
+	 *
+	 * @param bufferSize - the capacity of the buffers.
+	 * @param maxPooled - the most buffers kept for reuse, more are left to be collected.
+	 */
+	public ByteBufferPool(int bufferSize, int maxPooled) {
+
+		preCondition(bufferSize > 0, "bufferSize must be greater than ZERO");
+		preCondition(maxPooled >= 0, "maxPooled must be greater than or equal to ZERO");
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+
+	}
+
+	/**
+	 * Method acquire returns a cleared buffer, a pooled one if there is one.
+	 */
+	public ByteBuffer acquire() {
+
+		ByteBuffer buffer = this.poll();
+		return buffer != null ? buffer : ByteBuffer.allocateDirect(this.bufferSize);
+
+	}
+
+	/**
+	 * Method poll returns a cleared pooled buffer, null if there is none.
+	 */
+	ByteBuffer poll() {
+
+		ByteBuffer buffer = this.buffers.poll();
+		if (buffer == null) {
+			return null;
+		}
+		this.pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+
+	}
+
+	/**
+	 * Method release returns a buffer to the pool, buffers that were not acquired from a pool of this
+	 * size are ignored.  The buffer must not be used after it was released.
+	 */
+	public void release(ByteBuffer buffer) {
+
+		if (buffer == null || !buffer.isDirect() || buffer.capacity() != this.bufferSize) {
+			return;
+		}
+		if (this.pooled.incrementAndGet() > this.maxPooled) {
+			this.pooled.decrementAndGet();
+			return;
+		}
+		this.buffers.add(buffer);
+
+	}
+
+	public int getBufferSize() { return this.bufferSize; }
+
+	/**
+	 * @return the number of buffers waiting to be reused.
+	 */
+	public int getPooledCount() { return this.pooled.get(); }
+
+}
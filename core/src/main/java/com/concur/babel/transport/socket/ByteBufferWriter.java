@@ -0,0 +1,150 @@
+package com.concur.babel.transport.socket;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * ByteBufferWriter encodes what is written to it in UTF-8 straight into a buffer of a BufferArena,
+ * moving to a buffer of a larger class when it is full, so a message can be serialized for a
+ * channel without the byte arrays of a ByteArrayOutputStream.  The buffer must be released to the
+ * arena once it was written, or the writer closed if it was not taken.
+ */
+public class ByteBufferWriter extends Writer {
+
+	private final BufferArena buffers;
+	private ByteBuffer buffer;
+	private char highSurrogate = 0;
+
+	public ByteBufferWriter(BufferArena buffers) {
+		this(buffers, BufferArena.DEFAULT_MIN_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a new ByteBufferWriter
+	 *
+	 * @param buffers - the arena of the buffers.
+	 * @param initialSize - the expected number of bytes.
+	 */
+	public ByteBufferWriter(BufferArena buffers, int initialSize) {
+
+		notNull("buffers", buffers);
+		this.buffers = buffers;
+		this.buffer = buffers.acquire(initialSize);
+
+	}
+
+	public void write(int c) {
+
+		this.ensureRemaining(4);
+		this.put((char)c);
+
+	}
+
+	public void write(char[] chars, int offset, int length) {
+
+		this.ensureRemaining(length * 3 + 1);
+		for (int i = offset; i < offset + length; i++) {
+			this.put(chars[i]);
+		}
+
+	}
+
+	public void write(String text, int offset, int length) {
+
+		this.ensureRemaining(length * 3 + 1);
+		for (int i = offset; i < offset + length; i++) {
+			this.put(text.charAt(i));
+		}
+
+	}
+
+	public void flush() {
+	}
+
+	/**
+	 * Method close releases the buffer, unless it was taken by toByteBuffer.
+	 */
+	public void close() {
+
+		if (this.buffer != null) {
+			this.buffers.release(this.buffer);
+			this.buffer = null;
+		}
+
+	}
+
+	/**
+	 * Method toByteBuffer hands over the buffer, flipped for writing, the writer can not be used
+	 * anymore.  The buffer must be released to the arena once written.
+	 */
+	public ByteBuffer toByteBuffer() {
+
+		if (this.buffer == null) {
+			throw new IllegalStateException("ByteBufferWriter was closed");
+		}
+		if (this.highSurrogate != 0) {
+			this.highSurrogate = 0;
+			this.buffer.put((byte)'?');
+		}
+		ByteBuffer buffer = this.buffer;
+		this.buffer = null;
+		buffer.flip();
+		return buffer;
+
+	}
+
+	private void put(char c) {
+
+		if (this.highSurrogate != 0) {
+			char high = this.highSurrogate;
+			this.highSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				int codePoint = Character.toCodePoint(high, c);
+				this.buffer.put((byte)(0xf0 | (codePoint >> 18)));
+				this.buffer.put((byte)(0x80 | ((codePoint >> 12) & 0x3f)));
+				this.buffer.put((byte)(0x80 | ((codePoint >> 6) & 0x3f)));
+				this.buffer.put((byte)(0x80 | (codePoint & 0x3f)));
+				return;
+			}
+			// an unpaired surrogate is encoded as String.getBytes does
+			this.buffer.put((byte)'?');
+		}
+
+		if (c < 0x80) {
+			this.buffer.put((byte)c);
+		} else if (c < 0x800) {
+			this.buffer.put((byte)(0xc0 | (c >> 6)));
+			this.buffer.put((byte)(0x80 | (c & 0x3f)));
+		} else if (Character.isHighSurrogate(c)) {
+			this.highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			this.buffer.put((byte)'?');
+		} else {
+			this.buffer.put((byte)(0xe0 | (c >> 12)));
+			this.buffer.put((byte)(0x80 | ((c >> 6) & 0x3f)));
+			this.buffer.put((byte)(0x80 | (c & 0x3f)));
+		}
+
+	}
+
+	private void ensureRemaining(int bytes) {
+
+		if (this.buffer == null) {
+			throw new IllegalStateException("ByteBufferWriter was closed");
+		}
+		if (this.buffer.remaining() >= bytes) {
+			return;
+		}
+		long needed = (long)this.buffer.position() + bytes;
+		int size = (int)Math.min(Integer.MAX_VALUE, Math.max(needed, 2L * this.buffer.capacity()));
+		ByteBuffer larger = this.buffers.acquire(size);
+		this.buffer.flip();
+		larger.put(this.buffer);
+		this.buffers.release(this.buffer);
+		this.buffer = larger;
+
+	}
+
+}
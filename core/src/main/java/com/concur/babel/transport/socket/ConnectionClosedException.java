@@ -0,0 +1,27 @@
+package com.concur.babel.transport.socket;
+
+import java.io.IOException;
+
+/**
+ * ConnectionClosedException is thrown for a request on a multiplexed socket connection that closed
+ * before the request was answered.  It is retryable if the request is known not to have been
+ * processed, because it was never sent or the server said it did not read it.
+ */
+@SuppressWarnings("serial")
+public class ConnectionClosedException extends IOException {
+
+	private final boolean retryable;
+
+	public ConnectionClosedException(String message, boolean retryable) {
+		super(message);
+		this.retryable = retryable;
+	}
+
+	public ConnectionClosedException(String message, boolean retryable, Throwable cause) {
+		super(message, cause);
+		this.retryable = retryable;
+	}
+
+	public boolean isRetryable() { return this.retryable; }
+
+}
@@ -0,0 +1,18 @@
+package com.concur.babel.transport.socket;
+
+/**
+ * FrameFormat is the wire format of a multiplexed socket connection.
+ */
+public enum FrameFormat {
+
+	/**
+	 * Requests and responses are lines of text, see SocketFrames.
+	 */
+	LINES,
+
+	/**
+	 * Requests and responses are length-prefixed binary frames, see BinaryFrames.
+	 */
+	BINARY
+
+}
@@ -0,0 +1,174 @@
+package com.concur.babel.transport.socket;
+
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * NioEventLoop serves NioServerConnections with one selector on one thread, it reads and decodes
+ * requests, finishes writes the channels did not take at once and closes idle connections.  It never
+ * calls services itself, so a slow request or a slow client only holds up its own connection.
+ */
+public class NioEventLoop implements Runnable {
+
+	private static final Logger LOGGER = Logger.getLogger(NioEventLoop.class.getName());
+
+	private final Selector selector;
+	private final BufferArena buffers;
+	private final int readBufferSize;
+	private final long idleCheckInterval;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicInteger connections = new AtomicInteger();
+	private volatile Thread thread;
+	private volatile boolean stopped = false;
+
+	/**
+	 * Creates a new NioEventLoop, it is run on a thread of its own.
+	 *
+	 * @param buffers - the arena of the read buffer and of the responses of the connections.
+	 * @param readBufferSize - the size of the buffer the channels are read into.
+	 * @param idleCheckInterval - how often, in milliseconds, connections are checked for the idle timeout.
+	 * @throws IOException if the selector can not be opened.
+	 */
+	public NioEventLoop(BufferArena buffers, int readBufferSize, long idleCheckInterval) throws IOException {
+
+		notNull("buffers", buffers);
+		preCondition(readBufferSize > 0, "readBufferSize must be greater than ZERO");
+		preCondition(idleCheckInterval > 0, "idleCheckInterval must be greater than ZERO");
+		this.buffers = buffers;
+		this.readBufferSize = readBufferSize;
+		this.idleCheckInterval = idleCheckInterval;
+		this.selector = Selector.open();
+
+	}
+
+	/**
+	 * Method register hands a connection to the event loop, it is served from then on.
+	 */
+	public void register(final NioServerConnection connection) {
+
+		this.connections.incrementAndGet();
+		this.execute(new Runnable() {
+			public void run() {
+				connection.register(selector);
+			}
+		});
+
+	}
+
+	/**
+	 * Method execute runs a task on the event loop.
+	 */
+	public void execute(Runnable task) {
+
+		this.tasks.add(task);
+		if (Thread.currentThread() != this.thread) {
+			this.selector.wakeup();
+		}
+
+	}
+
+	/**
+	 * @return the number of open connections of the event loop.
+	 */
+	public int getConnectionCount() { return this.connections.get(); }
+
+	public void run() {
+
+		this.thread = Thread.currentThread();
+		ByteBuffer readBuffer = this.buffers.acquire(this.readBufferSize);
+		long lastIdleCheck = System.currentTimeMillis();
+		try {
+
+			while (!this.stopped) {
+
+				this.selector.select(this.idleCheckInterval);
+				this.runTasks();
+
+				Iterator<SelectionKey> selected = this.selector.selectedKeys().iterator();
+				while (selected.hasNext()) {
+					SelectionKey key = selected.next();
+					selected.remove();
+					NioServerConnection connection = (NioServerConnection)key.attachment();
+					try {
+						if (key.isValid() && key.isWritable()) {
+							connection.onWritable();
+						}
+						if (key.isValid() && key.isReadable()) {
+							connection.onReadable(readBuffer);
+						}
+					} catch (CancelledKeyException e) {
+						// closed by a thread answering a request
+					}
+				}
+
+				long now = System.currentTimeMillis();
+				if (now - lastIdleCheck >= this.idleCheckInterval) {
+					lastIdleCheck = now;
+					for (SelectionKey key : this.selector.keys()) {
+						if (key.isValid()) {
+							((NioServerConnection)key.attachment()).checkIdle(now);
+						}
+					}
+				}
+
+			}
+
+		} catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "Babel socket event loop failed", e);
+		} finally {
+			for (SelectionKey key : this.selector.keys()) {
+				((NioServerConnection)key.attachment()).close();
+			}
+			try {
+				this.selector.close();
+			} catch (IOException e) {
+				// nothing else to do
+			}
+			this.buffers.release(readBuffer);
+		}
+
+	}
+
+	/**
+	 * Method stop stops the event loop, its connections are closed.
+	 */
+	public void stop() {
+		this.stopped = true;
+		this.selector.wakeup();
+	}
+
+	/**
+	 * @return the arena the buffers of the event loop and its connections come from.
+	 */
+	BufferArena getBuffers() { return this.buffers; }
+
+	void connectionClosed() {
+		this.connections.decrementAndGet();
+	}
+
+	private void runTasks() {
+
+		Runnable task;
+		while ((task = this.tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Babel socket event loop task failed", e);
+			}
+		}
+
+	}
+
+}
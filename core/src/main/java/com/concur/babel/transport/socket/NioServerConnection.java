@@ -0,0 +1,586 @@
+package com.concur.babel.transport.socket;
+
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * NioServerConnection is the server side of a socket connection served by a NioEventLoop, over TCP
+ * or a Unix domain socket.  It speaks the legacy and the multiplexed wire format, see SocketFrames,
+ * and the binary one, see BinaryFrames.  Reads and decoding happen on the event loop, requests are
+ * handed to the handler which should process them on another thread, a client may pipeline any
+ * number of them up to the in-flight limit.  Responses are encoded into buffers of the BufferArena
+ * of the event loop and written by the thread answering, responses that become ready while it
+ * writes are coalesced into its next gathering write.  What the channel does not take is written
+ * by the event loop once the channel is writable.  Buffers go back to the arena once written.  A
+ * connection that reached its maximum number of requests is not read anymore and is sent a GOAWAY
+ * once they are answered, so the client moves on to a new connection.
+ */
+public class NioServerConnection implements ServerConnection {
+
+	private static final Logger LOGGER = Logger.getLogger(NioServerConnection.class.getName());
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int GOAWAY_TIMEOUT = 1000;
+	private static final byte[] CRLF = new byte[] { '\r', '\n' };
+
+	private final SocketChannel channel;
+	private final NioEventLoop eventLoop;
+	private final SocketRequestHandler handler;
+	private final SocketFrameDecoder decoder;
+	private final int idleTimeout;
+	private final List<SocketFrame> frames = new ArrayList<SocketFrame>();
+	private final ArrayDeque<SocketFrame> pending = new ArrayDeque<SocketFrame>();
+	private final Object writeLock = new Object();
+	private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile int maxInFlight = Integer.MAX_VALUE;
+	private volatile int maxRequests = 0;
+	private long requestCount = 0;
+	private volatile boolean requestLimitReached = false;
+	private SelectionKey key;
+	private boolean flushing = false;
+	private boolean awaitingWritable = false;
+	private long goAwayAt = 0;
+	private volatile long lastActive = System.currentTimeMillis();
+	private volatile long lastRequestId = 0;
+	private volatile boolean inputClosed = false;
+	private volatile boolean readPaused = false;
+	private volatile boolean legacy = false;
+	private volatile boolean binary = false;
+	private volatile boolean goingAway = false;
+	private volatile boolean outputShutdown = false;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private volatile String localHostName;
+	private volatile String localIpAddress;
+	private volatile String remoteIpAddress;
+
+	/**
+	 * Creates a new NioServerConnection, it is served once registered with its event loop.
+	 *
+	 * @param channel - the accepted channel, in non-blocking mode.
+	 * @param eventLoop - the event loop serving the connection.
+	 * @param handler - the handler of the requests.
+	 * @param idleTimeout - how long, in milliseconds, the connection may be idle, 0 waits forever.
+	 * @param maxLineLength - the maximum length, in bytes, of a line of a request.
+	 */
+	public NioServerConnection(
+		SocketChannel channel,
+		NioEventLoop eventLoop,
+		SocketRequestHandler handler,
+		int idleTimeout,
+		int maxLineLength)
+	{
+
+		notNull("channel", channel);
+		notNull("eventLoop", eventLoop);
+		notNull("handler", handler);
+		this.channel = channel;
+		this.eventLoop = eventLoop;
+		this.handler = handler;
+		this.idleTimeout = idleTimeout;
+		this.decoder = new SocketFrameDecoder(maxLineLength);
+
+	}
+
+	public void writeResponse(long requestId, int status, String body) throws IOException {
+
+		if (this.closed.get()) {
+			throw new ClosedChannelException();
+		}
+
+		// the response is encoded straight into a buffer of the arena, released once written
+		BufferArena buffers = this.eventLoop.getBuffers();
+		int bodyLength = body != null ? Utf8Buffers.encodedLength(body) : 0;
+		ByteBuffer buffer;
+		if (this.binary) {
+			buffer = buffers.acquire(BinaryFrames.RESPONSE_HEAD_LENGTH + bodyLength);
+			BinaryFrames.putResponseHead(buffer, requestId, status, body != null ? bodyLength : -1);
+		} else {
+			buffer = buffers.acquire(bodyLength + 48);
+			if (!this.legacy) {
+				putDecimal(buffer, requestId);
+				buffer.put(CRLF);
+			}
+			putDecimal(buffer, status);
+			buffer.put(CRLF);
+		}
+		if (body != null) {
+			Utf8Buffers.encode(body, buffer);
+		}
+		if (!this.binary) {
+			buffer.put(CRLF);
+		}
+		buffer.flip();
+		this.write(buffer);
+
+	}
+
+	/**
+	 * Method setMaxInFlight sets the number of requests that may be in flight at once, the
+	 * connection is not read while they are.  The default is no limit.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		preCondition(maxInFlight >= 1, "maxInFlight must be greater than or equal to ONE");
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Method setMaxRequests sets the number of requests served on a multiplexed connection, after
+	 * which it is sent a GOAWAY and closed.  The default, 0, serves requests until the client closes.
+	 */
+	public void setMaxRequests(int maxRequests) {
+		preCondition(maxRequests >= 0, "maxRequests must be greater than or equal to ZERO");
+		this.maxRequests = maxRequests;
+	}
+
+	public void requestCompleted() {
+
+		int inFlight = this.inFlight.decrementAndGet();
+		this.lastActive = System.currentTimeMillis();
+		if (this.readPaused && inFlight < this.maxInFlight) {
+			this.eventLoop.execute(new Runnable() {
+				public void run() {
+					resumeReading();
+				}
+			});
+		}
+		if (this.requestLimitReached && inFlight == 0) {
+			this.eventLoop.execute(new Runnable() {
+				public void run() {
+					goAway(System.currentTimeMillis());
+				}
+			});
+		}
+		this.closeIfDone();
+
+	}
+
+	public int getInFlightCount() { return this.inFlight.get(); }
+
+	public int getLocalPort() {
+
+		InetSocketAddress address = inetAddress(this.localAddress());
+		return address != null ? address.getPort() : 0;
+
+	}
+
+	public boolean isClosed() { return this.closed.get(); }
+
+	public void close() {
+
+		// the event loop and the threads answering requests may close the connection at once
+		if (!this.closed.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			// nothing else to do
+		}
+		synchronized (this.writeLock) {
+			// a thread flushing may still be writing the queued buffers, it releases them once it stops
+			if (!this.flushing) {
+				this.releaseQueue();
+			}
+		}
+		this.eventLoop.connectionClosed();
+
+	}
+
+	public String getLocalHostName() {
+
+		if (this.localHostName == null) {
+			this.localHostName = hostAddress(this.localAddress()).getCanonicalHostName();
+		}
+		return this.localHostName;
+
+	}
+
+	public String getLocalIpAddress() {
+
+		if (this.localIpAddress == null) {
+			this.localIpAddress = hostAddress(this.localAddress()).getHostAddress();
+		}
+		return this.localIpAddress;
+
+	}
+
+	public String getRemoteIpAddress() {
+
+		if (this.remoteIpAddress == null) {
+			try {
+				this.remoteIpAddress = hostAddress(this.channel.getRemoteAddress()).getHostAddress();
+			} catch (IOException e) {
+				// the connection is closed
+			}
+		}
+		return this.remoteIpAddress;
+
+	}
+
+	/**
+	 * Method register registers the channel with the selector of the event loop, on the event loop.
+	 */
+	void register(Selector selector) {
+
+		try {
+			this.key = this.channel.register(selector, SelectionKey.OP_READ, this);
+		} catch (IOException e) {
+			this.close();
+		}
+
+	}
+
+	/**
+	 * Method onReadable reads what is available into the buffer of the event loop and hands the
+	 * requests it completes to the handler, on the event loop.
+	 */
+	void onReadable(ByteBuffer buffer) {
+
+		int read;
+		buffer.clear();
+		try {
+			read = this.channel.read(buffer);
+		} catch (IOException e) {
+			this.close();
+			return;
+		}
+		if (read == -1) {
+			this.inputClosed = true;
+			this.setInterest(SelectionKey.OP_READ, false);
+			this.closeIfDone();
+			return;
+		}
+		this.lastActive = System.currentTimeMillis();
+		if (this.goingAway || this.requestLimitReached) {
+			// requests that crossed the GOAWAY are dropped, the client resends them
+			return;
+		}
+
+		buffer.flip();
+		try {
+			this.decoder.decode(buffer, this.frames);
+		} catch (IOException e) {
+			LOGGER.log(Level.FINE, "Babel socket connection from " + this.getRemoteIpAddress() + " failed", e);
+			this.close();
+			return;
+		}
+		this.legacy = Boolean.FALSE.equals(this.decoder.isMultiplexed());
+		this.binary = this.decoder.isBinary();
+
+		this.pending.addAll(this.frames);
+		this.frames.clear();
+		this.dispatchPending();
+
+		if (!this.pending.isEmpty()) {
+			// the requests decoded past the limit wait here, the next ones in the socket buffers,
+			// then the client, until one completes
+			this.readPaused = true;
+			this.setInterest(SelectionKey.OP_READ, false);
+			if (this.inFlight.get() < this.maxInFlight) {
+				this.resumeReading();
+			}
+		}
+
+		if (this.decoder.isFinished()) {
+			// a legacy connection carries one request, it is closed once that is answered
+			this.inputClosed = true;
+			this.setInterest(SelectionKey.OP_READ, false);
+			this.closeIfDone();
+		}
+
+	}
+
+	/**
+	 * Method onWritable writes the queued responses once the channel takes more, on the event loop.
+	 */
+	void onWritable() {
+
+		synchronized (this.writeLock) {
+			if (this.flushing) {
+				return;
+			}
+			this.awaitingWritable = false;
+			this.flushing = true;
+		}
+		if (this.flush()) {
+			this.setInterest(SelectionKey.OP_WRITE, false);
+			this.onFlushed();
+		}
+
+	}
+
+	/**
+	 * Method checkIdle closes the connection if it was idle, with no request in flight, for the idle
+	 * timeout, a multiplexed connection is sent a GOAWAY first.  It is called on the event loop.
+	 */
+	void checkIdle(long now) {
+
+		if (this.closed.get()) {
+			return;
+		}
+		if (this.goingAway) {
+			if (now - this.goAwayAt >= GOAWAY_TIMEOUT) {
+				this.close();
+			}
+			return;
+		}
+		if (this.idleTimeout == 0 || this.inFlight.get() > 0 || now - this.lastActive < this.idleTimeout) {
+			return;
+		}
+		if (!Boolean.TRUE.equals(this.decoder.isMultiplexed())) {
+			this.close();
+			return;
+		}
+		this.goAway(now);
+
+	}
+
+	private void goAway(long now) {
+
+		if (this.goingAway || this.closed.get()) {
+			return;
+		}
+		this.goingAway = true;
+		this.goAwayAt = now;
+		if (this.binary) {
+			this.write(BinaryFrames.encodeGoAway(this.lastRequestId));
+		} else {
+			this.write(ByteBuffer.wrap((SocketFrames.GOAWAY + " " + this.lastRequestId + "\r\n").getBytes(UTF8)));
+		}
+
+	}
+
+	private void write(ByteBuffer... buffers) {
+
+		synchronized (this.writeLock) {
+			if (this.closed.get()) {
+				for (ByteBuffer buffer : buffers) {
+					this.eventLoop.getBuffers().release(buffer);
+				}
+				return;
+			}
+			for (ByteBuffer buffer : buffers) {
+				this.writeQueue.add(buffer);
+			}
+			if (this.flushing || this.awaitingWritable) {
+				// the thread flushing, or the event loop once the channel is writable, writes these
+				// along with what else is queued
+				return;
+			}
+			this.flushing = true;
+		}
+		if (this.flush()) {
+			this.onFlushed();
+		} else {
+			this.eventLoop.execute(new Runnable() {
+				public void run() {
+					setInterest(SelectionKey.OP_WRITE, true);
+				}
+			});
+		}
+
+	}
+
+	/**
+	 * Method flush writes the queue with gathering writes, responses queued while a write is going on
+	 * go out with the next one, until the queue is empty or the channel takes no more.  The caller
+	 * must have set flushing.
+	 *
+	 * @return true if the queue was written, false if the rest waits for the channel to be writable.
+	 */
+	private boolean flush() {
+
+		while (true) {
+
+			ByteBuffer[] batch;
+			synchronized (this.writeLock) {
+				batch = this.writeQueue.toArray(new ByteBuffer[this.writeQueue.size()]);
+			}
+			try {
+				this.channel.write(batch);
+			} catch (IOException e) {
+				this.close();
+				synchronized (this.writeLock) {
+					this.flushing = false;
+					this.releaseQueue();
+				}
+				return true;
+			}
+
+			synchronized (this.writeLock) {
+				if (this.closed.get()) {
+					// the connection was closed while this thread wrote, the buffers are no longer in use
+					this.flushing = false;
+					this.releaseQueue();
+					return true;
+				}
+				while (!this.writeQueue.isEmpty() && !this.writeQueue.peek().hasRemaining()) {
+					this.eventLoop.getBuffers().release(this.writeQueue.poll());
+				}
+				if (this.writeQueue.isEmpty()) {
+					this.flushing = false;
+					return true;
+				}
+				if (batch.length > 0 && batch[batch.length - 1].hasRemaining()) {
+					this.flushing = false;
+					this.awaitingWritable = true;
+					return false;
+				}
+			}
+
+		}
+
+	}
+
+	/**
+	 * Method releaseQueue gives the queued buffers back to the arena, the caller holds the write lock
+	 * and no thread may be writing them.
+	 */
+	private void releaseQueue() {
+
+		for (ByteBuffer buffer : this.writeQueue) {
+			this.eventLoop.getBuffers().release(buffer);
+		}
+		this.writeQueue.clear();
+
+	}
+
+	private void dispatchPending() {
+
+		while (!this.pending.isEmpty() && this.inFlight.get() < this.maxInFlight) {
+			SocketFrame request = this.pending.poll();
+			this.lastRequestId = request.getRequestId();
+			this.inFlight.incrementAndGet();
+			this.handler.onRequest(this, request);
+
+			if (this.maxRequests > 0 && !this.legacy && ++this.requestCount >= this.maxRequests) {
+				// the requests after the last one are dropped, the client resends them after the GOAWAY
+				this.requestLimitReached = true;
+				this.pending.clear();
+				this.setInterest(SelectionKey.OP_READ, false);
+				if (this.inFlight.get() == 0) {
+					this.goAway(System.currentTimeMillis());
+				}
+			}
+		}
+
+	}
+
+	private void resumeReading() {
+
+		if (!this.readPaused || this.closed.get()) {
+			return;
+		}
+		this.dispatchPending();
+		if (this.pending.isEmpty()) {
+			this.readPaused = false;
+			if (this.requestLimitReached) {
+				return;
+			}
+			if (this.inputClosed) {
+				this.closeIfDone();
+			} else {
+				this.setInterest(SelectionKey.OP_READ, true);
+			}
+		}
+
+	}
+
+	private void onFlushed() {
+
+		if (this.goingAway && !this.outputShutdown) {
+			this.outputShutdown = true;
+			try {
+				this.channel.shutdownOutput();
+			} catch (IOException e) {
+				this.close();
+				return;
+			}
+		}
+		this.closeIfDone();
+
+	}
+
+	private void closeIfDone() {
+
+		if (!this.inputClosed || this.readPaused || this.inFlight.get() > 0) {
+			return;
+		}
+		synchronized (this.writeLock) {
+			if (!this.writeQueue.isEmpty()) {
+				return;
+			}
+		}
+		this.close();
+
+	}
+
+	private SocketAddress localAddress() {
+
+		try {
+			return this.channel.getLocalAddress();
+		} catch (IOException e) {
+			return null;
+		}
+
+	}
+
+	private static InetSocketAddress inetAddress(SocketAddress address) {
+		return address instanceof InetSocketAddress ? (InetSocketAddress)address : null;
+	}
+
+	private static InetAddress hostAddress(SocketAddress address) {
+
+		// both ends of a Unix domain socket are on this host
+		InetSocketAddress inetAddress = inetAddress(address);
+		return inetAddress != null ? inetAddress.getAddress() : InetAddress.getLoopbackAddress();
+
+	}
+
+	private static void putDecimal(ByteBuffer buffer, long value) {
+
+		// request ids and status codes are never negative
+		long divisor = 1;
+		while (divisor <= value / 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			buffer.put((byte)('0' + (value / divisor) % 10));
+		}
+
+	}
+
+	private void setInterest(int op, boolean on) {
+
+		SelectionKey key = this.key;
+		if (key == null || !key.isValid()) {
+			return;
+		}
+		try {
+			key.interestOps(on ? key.interestOps() | op : key.interestOps() & ~op);
+		} catch (RuntimeException e) {
+			// the key was cancelled, the connection is closed
+		}
+
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.concur.babel.transport.socket;
+
+/**
+ * RejectionPolicy tells a socket server what to do with a request its WorkerPool rejected.
+ */
+public enum RejectionPolicy {
+
+	/**
+	 * The request is answered at once with a ServerBusyException error, the service is not called.
+	 */
+	RESPOND_BUSY,
+
+	/**
+	 * The request is run on the thread that read it, which stops reading its connection, or all the
+	 * connections of an event loop, until the request is done.
+	 */
+	CALLER_RUNS
+
+}
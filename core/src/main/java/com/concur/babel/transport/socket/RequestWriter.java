@@ -0,0 +1,21 @@
+package com.concur.babel.transport.socket;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * RequestWriter writes the message of a request on a socket connection, it is called before the
+ * connection is locked for writing, into a buffer of the request, so a message that fails leaves
+ * the connection as it was.
+ */
+public interface RequestWriter {
+
+	/**
+	 * Method write writes the message followed by a line break.
+	 *
+	 * @param writer - the buffer of the request, the connection writes it after the request head.
+	 * @throws IOException
+	 */
+	void write(Writer writer) throws IOException;
+
+}
@@ -0,0 +1,49 @@
+package com.concur.babel.transport.socket;
+
+import java.io.IOException;
+
+/**
+ * ServerConnection is the server side of a socket connection requests are read from, either a
+ * blocking SocketServerConnection or a NioServerConnection of an event loop.  Responses may be
+ * written from any thread in any order.
+ */
+public interface ServerConnection {
+
+	/**
+	 * Method writeResponse writes the response of a request.
+	 *
+	 * @param requestId - the id of the request.
+	 * @param status - the status code.
+	 * @param body - the response message.
+	 * @throws IOException
+	 */
+	void writeResponse(long requestId, int status, String body) throws IOException;
+
+	/**
+	 * Method requestCompleted must be called once a request handed to the handler was answered, or
+	 * could not be.
+	 */
+	void requestCompleted();
+
+	/**
+	 * @return the number of requests read but not yet completed.
+	 */
+	int getInFlightCount();
+
+	/**
+	 * @return the local port of the connection.
+	 */
+	int getLocalPort();
+
+	String getLocalHostName();
+
+	String getLocalIpAddress();
+
+	String getRemoteIpAddress();
+
+	/**
+	 * Method close closes the connection.
+	 */
+	void close();
+
+}
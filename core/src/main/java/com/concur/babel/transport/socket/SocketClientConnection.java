@@ -0,0 +1,457 @@
+package com.concur.babel.transport.socket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SocketClientConnection is the client side of a multiplexed socket connection, see SocketFrames and
+ * BinaryFrames.  Any number of threads can send requests on it, each waits for the response with its
+ * own request id, which a daemon thread reads as they arrive, so requests are pipelined.  A binary
+ * connection serializes the message of a request into a buffer of a BufferArena shared by all
+ * connections, requests sent while another thread writes are coalesced into its next gathering
+ * write on the channel.
+ */
+public class SocketClientConnection {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final BufferArena BUFFERS = new BufferArena();
+
+	private final Socket socket;
+	private final String authority;
+	private final SocketChannel channel;
+	private final Writer writer;
+	private final BufferedReader reader;
+	private final DataInputStream binaryIn;
+	private final Object writeLock = new Object();
+	private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+	private final AtomicInteger waitingWriters = new AtomicInteger();
+	private boolean flushing = false;
+	private final ConcurrentMap<Long, PendingResponse> pending = new ConcurrentHashMap<Long, PendingResponse>();
+	private final AtomicLong nextRequestId = new AtomicLong(1);
+	private volatile boolean closed = false;
+	private volatile long goAwayRequestId = -1;
+	private volatile long lastUsed = System.currentTimeMillis();
+
+	protected SocketClientConnection(Socket socket, String authority) throws IOException {
+
+		this.socket = socket;
+		this.authority = authority;
+		this.channel = null;
+		this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), UTF8), 8192);
+		this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8), 8192);
+		this.binaryIn = null;
+
+	}
+
+	protected SocketClientConnection(SocketChannel channel, String authority) throws IOException {
+
+		this.socket = null;
+		this.authority = authority;
+		this.channel = channel;
+		this.writer = null;
+		this.reader = null;
+		this.binaryIn = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 8192));
+
+	}
+
+	/**
+	 * Method open connects to a server, sends the preface and starts reading responses.
+	 *
+	 * @param host - the server host.
+	 * @param port - the server port.
+	 * @param connectTimeout - the connect timeout in milliseconds, 0 waits forever.
+	 * @return the connection.
+	 * @throws IOException
+	 */
+	public static SocketClientConnection open(String host, int port, int connectTimeout) throws IOException {
+		return open(host, port, connectTimeout, FrameFormat.LINES);
+	}
+
+	/**
+	 * Method open connects to a server, sends the preface of a line based connection and starts
+	 * reading responses.
+	 *
+	 * @param host - the server host.
+	 * @param port - the server port.
+	 * @param connectTimeout - the connect timeout in milliseconds, 0 waits forever.
+	 * @param format - the wire format of the connection.
+	 * @return the connection.
+	 * @throws IOException
+	 */
+	public static SocketClientConnection open(String host, int port, int connectTimeout, FrameFormat format)
+	throws
+		IOException
+	{
+
+		// a binary connection is written through its channel, for gathering writes
+		SocketChannel channel = format == FrameFormat.BINARY ? SocketChannel.open() : null;
+		Socket socket = channel != null ? channel.socket() : new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress(host, port), connectTimeout);
+			final SocketClientConnection connection = channel != null ?
+				new SocketClientConnection(channel, host + ":" + port) :
+				new SocketClientConnection(socket, host + ":" + port);
+			if (channel == null) {
+				SocketFrames.writePreface(connection.writer);
+			}
+			return startReading(connection);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+
+	}
+
+	/**
+	 * Method open connects to a server listening on a Unix domain socket, the connection carries
+	 * binary frames, and starts reading responses.  It needs JDK 16 or later.
+	 *
+	 * @param socketPath - the path of the socket file.
+	 * @return the connection.
+	 * @throws IOException
+	 */
+	public static SocketClientConnection open(Path socketPath) throws IOException {
+
+		SocketChannel channel = UnixDomainSockets.open(socketPath);
+		return startReading(new SocketClientConnection(channel, socketPath.toString()));
+
+	}
+
+	public String getAuthority() { return this.authority; }
+
+	/**
+	 * @return true if new requests can be sent on this connection.
+	 */
+	public boolean isUsable() {
+		return !this.closed && this.goAwayRequestId == -1;
+	}
+
+	/**
+	 * @return the number of requests waiting for a response.
+	 */
+	public int getPendingCount() { return this.pending.size(); }
+
+	/**
+	 * @return the milliseconds since a request was last sent or answered.
+	 */
+	public long getIdleMillis() {
+		return this.pending.isEmpty() ? System.currentTimeMillis() - this.lastUsed : 0;
+	}
+
+	/**
+	 * Method send writes a request, the response is waited for with the returned PendingResponse.
+	 *
+	 * @param headers - the request headers.
+	 * @param serviceName - the service name.
+	 * @param methodName - the method name.
+	 * @param requestWriter - writes the request message.
+	 * @return the pending response.
+	 * @throws IOException
+	 */
+	public PendingResponse send(
+		Map<String, String> headers,
+		String serviceName,
+		String methodName,
+		RequestWriter requestWriter)
+	throws
+		IOException
+	{
+
+		ByteBuffer message = null;
+		CharArrayWriter line = null;
+		if (this.channel != null) {
+			// the message is serialized straight into a pooled buffer, the frame carries its length
+			ByteBufferWriter writer = new ByteBufferWriter(BUFFERS);
+			try {
+				requestWriter.write(writer);
+			} catch (IOException e) {
+				writer.close();
+				throw e;
+			} catch (RuntimeException e) {
+				writer.close();
+				throw e;
+			}
+			message = writer.toByteBuffer();
+		} else {
+			// a message that fails half way must not be left in the writer the connection shares
+			line = new CharArrayWriter(512);
+			requestWriter.write(line);
+		}
+
+		PendingResponse response;
+		boolean flush;
+		this.waitingWriters.incrementAndGet();
+		synchronized (this.writeLock) {
+			this.waitingWriters.decrementAndGet();
+			if (!this.isUsable()) {
+				BUFFERS.release(message);
+				this.flushWriter();
+				throw new ConnectionClosedException("Connection to " + this.authority + " no longer accepts requests", true);
+			}
+
+			// ids must be written in increasing order for GOAWAY, so allocating and queuing or writing
+			// share the lock
+			long requestId = this.nextRequestId.getAndIncrement();
+			response = new PendingResponse(requestId);
+			this.pending.put(requestId, response);
+			if (message != null) {
+				this.writeQueue.add(BinaryFrames.encodeRequestHead(requestId, headers, serviceName, methodName, message.remaining()));
+				this.writeQueue.add(message);
+				// the thread writing sends this request along with what else is queued
+				flush = !this.flushing;
+				this.flushing = true;
+			} else {
+				try {
+					SocketFrames.writeRequestHead(this.writer, requestId, headers, serviceName, methodName);
+					line.writeTo(this.writer);
+					// a thread waiting for the lock flushes this request along with its own
+					if (this.waitingWriters.get() == 0) {
+						this.writer.flush();
+					}
+				} catch (IOException e) {
+					this.pending.remove(requestId);
+					this.close();
+					throw e;
+				}
+				flush = false;
+			}
+		}
+		if (flush) {
+			this.flushQueue();
+		}
+		this.lastUsed = System.currentTimeMillis();
+		return response;
+
+	}
+
+	/**
+	 * @return the arena binary connections serialize requests into, for its hit rate and
+	 * outstanding buffer metrics.
+	 */
+	public static BufferArena getBufferArena() { return BUFFERS; }
+
+	/**
+	 * Method close closes the connection, requests waiting for a response fail.
+	 */
+	public void close() {
+		this.close(new ConnectionClosedException("Connection to " + this.authority + " was closed", false));
+	}
+
+	private void close(IOException cause) {
+
+		this.closed = true;
+		try {
+			if (this.channel != null) {
+				this.channel.close();
+			} else {
+				this.socket.close();
+			}
+		} catch (IOException e) {
+			// nothing else to do
+		}
+		for (PendingResponse response : this.pending.values()) {
+			response.fail(cause);
+		}
+		this.pending.clear();
+
+	}
+
+	private void flushWriter() {
+
+		// a line based request may have been left for this thread to flush
+		if (this.writer != null && !this.closed) {
+			try {
+				this.writer.flush();
+			} catch (IOException e) {
+				this.close();
+			}
+		}
+
+	}
+
+	/**
+	 * Method flushQueue writes the queued binary requests with gathering writes, requests queued
+	 * while a write is going on go out with the next one, until the queue is empty.
+	 */
+	private void flushQueue() throws IOException {
+
+		while (true) {
+
+			ByteBuffer[] batch;
+			synchronized (this.writeLock) {
+				if (this.writeQueue.isEmpty()) {
+					this.flushing = false;
+					return;
+				}
+				batch = this.writeQueue.toArray(new ByteBuffer[this.writeQueue.size()]);
+			}
+
+			try {
+				while (batch[batch.length - 1].hasRemaining()) {
+					this.channel.write(batch);
+				}
+			} catch (IOException e) {
+				synchronized (this.writeLock) {
+					this.flushing = false;
+					for (ByteBuffer buffer : this.writeQueue) {
+						BUFFERS.release(buffer);
+					}
+					this.writeQueue.clear();
+				}
+				this.close();
+				throw e;
+			}
+
+			synchronized (this.writeLock) {
+				for (ByteBuffer buffer : batch) {
+					this.writeQueue.poll();
+					BUFFERS.release(buffer);
+				}
+			}
+
+		}
+
+	}
+
+	private static SocketClientConnection startReading(final SocketClientConnection connection) {
+
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				connection.readLoop();
+			}
+		}, "babel-socket-reader-" + connection.authority);
+		reader.setDaemon(true);
+		reader.start();
+		return connection;
+
+	}
+
+	private void readLoop() {
+
+		IOException cause;
+		try {
+			while (true) {
+				SocketFrame frame = this.binaryIn != null ?
+					BinaryFrames.readFrame(this.binaryIn, Integer.MAX_VALUE) :
+					SocketFrames.readResponse(this.reader);
+				if (frame == null) {
+					cause = new ConnectionClosedException("Connection to " + this.authority + " was closed by the server", false);
+					break;
+				}
+				if (frame.getStatus() == -1) {
+					this.onGoAway(frame.getRequestId());
+					continue;
+				}
+				PendingResponse response = this.pending.remove(frame.getRequestId());
+				if (response != null) {
+					this.lastUsed = System.currentTimeMillis();
+					response.complete(frame);
+				}
+			}
+		} catch (IOException e) {
+			cause = this.closed ? e : new ConnectionClosedException("Connection to " + this.authority + " failed", false, e);
+		}
+		this.close(cause);
+
+	}
+
+	private void onGoAway(long lastRequestId) {
+
+		synchronized (this.writeLock) {
+			this.goAwayRequestId = lastRequestId;
+		}
+		for (PendingResponse response : this.pending.values()) {
+			if (response.requestId > lastRequestId) {
+				this.pending.remove(response.requestId);
+				response.fail(new ConnectionClosedException(
+					"Connection to " + this.authority + " is going away, request " + response.requestId + " was not processed",
+					true));
+			}
+		}
+
+	}
+
+	/**
+	 * PendingResponse is the response of a request sent on the connection.
+	 */
+	public class PendingResponse {
+
+		private final long requestId;
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile SocketFrame response;
+		private volatile IOException failure;
+
+		private PendingResponse(long requestId) {
+			this.requestId = requestId;
+		}
+
+		public long getRequestId() { return this.requestId; }
+
+		/**
+		 * Method await waits for the response.
+		 *
+		 * @param timeoutMillis - how long to wait, 0 waits forever.
+		 * @return the response.
+		 * @throws IOException if the connection failed or the response did not arrive in time.
+		 */
+		public SocketFrame await(long timeoutMillis) throws IOException {
+
+			try {
+				if (timeoutMillis == 0) {
+					this.latch.await();
+				} else if (!this.latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+					pending.remove(this.requestId);
+					throw new SocketTimeoutException("Read timed out waiting for request " + this.requestId +
+						" on " + authority);
+				}
+			} catch (InterruptedException e) {
+				pending.remove(this.requestId);
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for request " + this.requestId);
+			}
+
+			if (this.failure != null) {
+				throw this.failure;
+			}
+			return this.response;
+
+		}
+
+		private void complete(SocketFrame response) {
+			this.response = response;
+			this.latch.countDown();
+		}
+
+		private void fail(IOException failure) {
+			this.failure = failure;
+			this.latch.countDown();
+		}
+
+	}
+
+}
@@ -0,0 +1,167 @@
+package com.concur.babel.transport.socket;
+
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * SocketConnectionPool holds a fixed number of long-lived multiplexed connections to one server, over
+ * TCP or a Unix domain socket, requests take turns on them.  A connection is opened on first use and
+ * replaced once it is closed, told to go away or was idle longer than the idle timeout.
+ */
+public class SocketConnectionPool {
+
+	public static final int DEFAULT_IDLE_TIMEOUT = 30000;
+
+	private final String host;
+	private final int port;
+	private final FrameFormat format;
+	private final Path socketPath;
+	private final AtomicReferenceArray<SocketClientConnection> connections;
+	private final Object[] locks;
+	private final AtomicInteger next = new AtomicInteger();
+	private volatile int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+	/**
+	 * Creates a new SocketConnectionPool
+	 *
+	 * @param host - the server host.
+	 * @param port - the server port.
+	 * @param size - the number of connections.
+	 */
+	public SocketConnectionPool(String host, int port, int size) {
+		this(host, port, size, FrameFormat.LINES);
+	}
+
+	/**
+	 * Creates a new SocketConnectionPool
+	 *
+	 * @param host - the server host.
+	 * @param port - the server port.
+	 * @param size - the number of connections.
+	 * @param format - the wire format of the connections.
+	 */
+	public SocketConnectionPool(String host, int port, int size, FrameFormat format) {
+
+		notNull("host", host);
+		notNull("format", format);
+		preCondition(size >= 1, "size must be greater than or equal to ONE");
+		this.host = host;
+		this.port = port;
+		this.format = format;
+		this.socketPath = null;
+		this.connections = new AtomicReferenceArray<SocketClientConnection>(size);
+		this.locks = new Object[size];
+		for (int i = 0; i < size; i++) {
+			this.locks[i] = new Object();
+		}
+
+	}
+
+	/**
+	 * Creates a new SocketConnectionPool of binary connections to a server listening on a Unix domain
+	 * socket.
+	 *
+	 * @param socketPath - the path of the socket file.
+	 * @param size - the number of connections.
+	 */
+	public SocketConnectionPool(Path socketPath, int size) {
+
+		notNull("socketPath", socketPath);
+		preCondition(size >= 1, "size must be greater than or equal to ONE");
+		this.host = socketPath.toString();
+		this.port = 0;
+		this.format = FrameFormat.BINARY;
+		this.socketPath = socketPath;
+		this.connections = new AtomicReferenceArray<SocketClientConnection>(size);
+		this.locks = new Object[size];
+		for (int i = 0; i < size; i++) {
+			this.locks[i] = new Object();
+		}
+
+	}
+
+	/**
+	 * Method setIdleTimeout sets how long, in milliseconds, a connection may be unused before it is
+	 * replaced, it should be shorter than the idle timeout of the server.  The default is 30000.
+	 */
+	public void setIdleTimeout(int idleTimeout) {
+		preCondition(idleTimeout >= 0, "idleTimeout must be greater than or equal to ZERO");
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Method getConnection gets the next connection, opening it if needed.
+	 *
+	 * @param connectTimeout - the connect timeout in milliseconds.
+	 * @return the connection.
+	 * @throws IOException if the server can not be reached.
+	 */
+	public SocketClientConnection getConnection(int connectTimeout) throws IOException {
+
+		int index = (this.next.getAndIncrement() & Integer.MAX_VALUE) % this.connections.length();
+		SocketClientConnection connection = this.connections.get(index);
+		if (this.isFresh(connection)) {
+			return connection;
+		}
+
+		// each slot connects on its own lock so a slow connect does not stall the other connections
+		synchronized (this.locks[index]) {
+			connection = this.connections.get(index);
+			if (this.isFresh(connection)) {
+				return connection;
+			}
+			if (connection != null && connection.getPendingCount() == 0) {
+				connection.close();
+			}
+			connection = this.socketPath != null ?
+				SocketClientConnection.open(this.socketPath) :
+				SocketClientConnection.open(this.host, this.port, connectTimeout, this.format);
+			this.connections.set(index, connection);
+			return connection;
+		}
+
+	}
+
+	/**
+	 * Method close closes the connections, requests waiting for a response fail.
+	 */
+	public void close() {
+
+		for (int i = 0; i < this.connections.length(); i++) {
+			SocketClientConnection connection = this.connections.getAndSet(i, null);
+			if (connection != null) {
+				connection.close();
+			}
+		}
+
+	}
+
+	/**
+	 * @return the number of open connections.
+	 */
+	public int getOpenCount() {
+
+		int count = 0;
+		for (int i = 0; i < this.connections.length(); i++) {
+			SocketClientConnection connection = this.connections.get(i);
+			if (connection != null && connection.isUsable()) {
+				count++;
+			}
+		}
+		return count;
+
+	}
+
+	private boolean isFresh(SocketClientConnection connection) {
+
+		return connection != null && connection.isUsable() &&
+			(this.idleTimeout == 0 || connection.getIdleMillis() < this.idleTimeout);
+
+	}
+
+}
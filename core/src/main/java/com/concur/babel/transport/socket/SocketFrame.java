@@ -0,0 +1,68 @@
+package com.concur.babel.transport.socket;
+
+import java.util.Map;
+
+/**
+ * SocketFrame is a request or a response on a multiplexed socket connection, the request id pairs
+ * a response with its request so responses can arrive in any order.
+ */
+public class SocketFrame {
+
+	private final long requestId;
+	private final Map<String, String> headers;
+	private final String serviceName;
+	private final String methodName;
+	private final int status;
+	private final String body;
+
+	/**
+	 * Creates a request frame
+	 *
+	 * @param requestId - the id of the request, unique on its connection.
+	 * @param headers - the request headers.
+	 * @param serviceName - the service name.
+	 * @param methodName - the method name.
+	 * @param body - the request message.
+	 */
+	public SocketFrame(long requestId, Map<String, String> headers, String serviceName, String methodName, String body) {
+
+		this.requestId = requestId;
+		this.headers = headers;
+		this.serviceName = serviceName;
+		this.methodName = methodName;
+		this.status = 0;
+		this.body = body;
+
+	}
+
+	/**
+	 * Creates a response frame
+	 *
+	 * @param requestId - the id of the request answered.
+	 * @param status - the status code, see BabelServerTransport.Code.
+	 * @param body - the response message.
+	 */
+	public SocketFrame(long requestId, int status, String body) {
+
+		this.requestId = requestId;
+		this.headers = null;
+		this.serviceName = null;
+		this.methodName = null;
+		this.status = status;
+		this.body = body;
+
+	}
+
+	public long getRequestId() { return this.requestId; }
+
+	public Map<String, String> getHeaders() { return this.headers; }
+
+	public String getServiceName() { return this.serviceName; }
+
+	public String getMethodName() { return this.methodName; }
+
+	public int getStatus() { return this.status; }
+
+	public String getBody() { return this.body; }
+
+}
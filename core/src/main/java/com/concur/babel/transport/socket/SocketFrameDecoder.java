@@ -0,0 +1,199 @@
+package com.concur.babel.transport.socket;
+
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SocketFrameDecoder decodes the requests of a connection from its bytes as they arrive, for
+ * servers reading from non-blocking channels.  A connection starting with the binary MAGIC byte
+ * carries BinaryFrames, otherwise the first line tells if the connection is multiplexed, see
+ * SocketFrames, a legacy connection carries a single request.  Bytes of a partial line or frame are
+ * kept until the rest of it arrives, a binary frame that arrives whole is decoded straight out of
+ * the buffer read.
+ */
+public class SocketFrameDecoder {
+
+	public static final int DEFAULT_MAX_LINE_LENGTH = 16 * 1024 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int RETAINED_CAPACITY = 64 * 1024;
+
+	private final int maxLineLength;
+	private byte[] line = new byte[128];
+	private int length = 0;
+	private final String[] lines = new String[4];
+	private int lineCount = 0;
+	private Boolean multiplexed;
+	private boolean binary = false;
+	private boolean preludeRead = false;
+	private int frameLength = 0;
+	private boolean finished = false;
+
+	public SocketFrameDecoder() {
+		this(DEFAULT_MAX_LINE_LENGTH);
+	}
+
+	/**
+	 * Creates a new SocketFrameDecoder
+	 *
+	 * @param maxLineLength - the maximum length, in bytes, of a line, a request message is one line,
+	 * or of a binary frame.
+	 */
+	public SocketFrameDecoder(int maxLineLength) {
+		preCondition(maxLineLength > 0, "maxLineLength must be greater than ZERO");
+		this.maxLineLength = maxLineLength;
+	}
+
+	/**
+	 * Method decode consumes the bytes of the buffer and adds the requests they complete to frames.
+	 * Bytes following the request of a legacy connection are ignored.
+	 *
+	 * @param buffer - the bytes read, from its position to its limit.
+	 * @param frames - the list complete requests are added to.
+	 * @throws IOException if a line or frame is too long or a request is invalid.
+	 */
+	public void decode(ByteBuffer buffer, List<SocketFrame> frames) throws IOException {
+
+		if (this.multiplexed == null && this.length == 0 && buffer.hasRemaining() &&
+			buffer.get(buffer.position()) == BinaryFrames.MAGIC)
+		{
+			this.binary = true;
+			this.multiplexed = Boolean.TRUE;
+		}
+		if (this.binary) {
+			this.decodeBinary(buffer, frames);
+			return;
+		}
+
+		while (buffer.hasRemaining() && !this.finished) {
+
+			byte b = buffer.get();
+			if (b == '\n') {
+				this.onLine(frames);
+				continue;
+			}
+			if (this.length == this.line.length) {
+				if (this.length >= this.maxLineLength) {
+					throw new IOException("Babel socket line is longer than " + this.maxLineLength + " bytes");
+				}
+				this.line = Arrays.copyOf(this.line, Math.min(this.length * 2, this.maxLineLength));
+			}
+			this.line[this.length++] = b;
+
+		}
+
+	}
+
+	/**
+	 * @return true if the connection started with the PREFACE, null until its first line was read.
+	 */
+	public Boolean isMultiplexed() { return this.multiplexed; }
+
+	/**
+	 * @return true if the connection carries BinaryFrames.
+	 */
+	public boolean isBinary() { return this.binary; }
+
+	/**
+	 * @return true once the request of a legacy connection was decoded, no more requests follow.
+	 */
+	public boolean isFinished() { return this.finished; }
+
+	/**
+	 * @return true if bytes of a request that is not complete were decoded.
+	 */
+	public boolean hasPartialFrame() { return this.length > 0 || this.lineCount > 0 || this.preludeRead; }
+
+	private void decodeBinary(ByteBuffer buffer, List<SocketFrame> frames) throws IOException {
+
+		while (buffer.hasRemaining()) {
+
+			if (this.length == 0 && buffer.remaining() >= BinaryFrames.PRELUDE_LENGTH) {
+				// a frame that arrived whole is decoded straight out of the read buffer
+				int start = buffer.position();
+				int frameLength = BinaryFrames.readPrelude(buffer, this.maxLineLength);
+				byte type = buffer.get(start + 2);
+				if (type != BinaryFrames.REQUEST) {
+					throw new IOException("Babel binary frame of type " + type + " is not a request");
+				}
+				if (buffer.remaining() >= frameLength) {
+					int limit = buffer.limit();
+					int end = buffer.position() + frameLength;
+					buffer.limit(end);
+					frames.add(BinaryFrames.decodeFrame(type, buffer));
+					buffer.limit(limit);
+					buffer.position(end);
+					continue;
+				}
+				buffer.position(start);
+			}
+
+			// the prelude gives the length of the rest of the frame
+			int needed = this.preludeRead ? BinaryFrames.PRELUDE_LENGTH + this.frameLength : BinaryFrames.PRELUDE_LENGTH;
+			if (this.line.length < needed) {
+				this.line = Arrays.copyOf(this.line, needed);
+			}
+			int count = Math.min(needed - this.length, buffer.remaining());
+			buffer.get(this.line, this.length, count);
+			this.length += count;
+			if (this.length < needed) {
+				return;
+			}
+
+			if (!this.preludeRead) {
+				this.frameLength = BinaryFrames.readPrelude(
+					ByteBuffer.wrap(this.line, 0, BinaryFrames.PRELUDE_LENGTH), this.maxLineLength);
+				if (this.line[2] != BinaryFrames.REQUEST) {
+					throw new IOException("Babel binary frame of type " + this.line[2] + " is not a request");
+				}
+				this.preludeRead = true;
+				continue;
+			}
+
+			frames.add(BinaryFrames.decodeFrame(
+				this.line[2], ByteBuffer.wrap(this.line, BinaryFrames.PRELUDE_LENGTH, this.frameLength)));
+			this.preludeRead = false;
+			this.length = 0;
+			if (this.line.length > RETAINED_CAPACITY) {
+				// an idle connection should not hold on to the buffer of its largest request
+				this.line = new byte[128];
+			}
+
+		}
+
+	}
+
+	private void onLine(List<SocketFrame> frames) throws IOException {
+
+		int end = this.length > 0 && this.line[this.length - 1] == '\r' ? this.length - 1 : this.length;
+		String text = new String(this.line, 0, end, UTF8);
+		this.length = 0;
+
+		if (this.multiplexed == null) {
+			this.multiplexed = SocketFrames.PREFACE.equals(text);
+			if (this.multiplexed) {
+				return;
+			}
+		}
+
+		this.lines[this.lineCount++] = text;
+		if (!this.multiplexed && this.lineCount == 3) {
+			frames.add(SocketFrames.newRequest(0, this.lines[0], this.lines[1], this.lines[2]));
+			this.finished = true;
+		} else if (this.multiplexed && this.lineCount == 4) {
+			frames.add(SocketFrames.newRequest(
+				SocketFrames.parseRequestId(this.lines[0]), this.lines[1], this.lines[2], this.lines[3]));
+		} else {
+			return;
+		}
+		Arrays.fill(this.lines, null);
+		this.lineCount = 0;
+
+	}
+
+}
@@ -0,0 +1,229 @@
+package com.concur.babel.transport.socket;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.StringTokenizer;
+
+/**
+ * SocketFrames reads and writes the line based socket wire format.  A legacy connection carries one
+ * request, a header line, a "service||method" line and a message line, answered by a status line and
+ * a message line.  A multiplexed connection starts with the PREFACE line and then carries any number
+ * of requests, each prefixed by a request id line, answered by responses prefixed by the same id in
+ * the order they complete.  Before closing an idle multiplexed connection the server sends a GOAWAY
+ * line with the id of the last request it read, later requests were not processed.
+ */
+public final class SocketFrames {
+
+	public static final String PREFACE = "BABEL-MUX/1";
+	public static final String GOAWAY = "GOAWAY";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] PREFACE_BYTES = (PREFACE + "\r\n").getBytes(UTF8);
+
+	private SocketFrames() {
+	}
+
+	/**
+	 * Method isPreface reads the PREFACE from a stream, if the stream does not start with it the
+	 * stream is reset to where it was.
+	 *
+	 * @param in - a stream that supports mark.
+	 * @return true if the stream started with the PREFACE.
+	 * @throws IOException
+	 */
+	public static boolean isPreface(InputStream in) throws IOException {
+
+		in.mark(PREFACE_BYTES.length);
+		for (byte b : PREFACE_BYTES) {
+			// compare byte by byte, a short legacy request must not block waiting for more bytes
+			if (in.read() != (b & 0xff)) {
+				in.reset();
+				return false;
+			}
+		}
+		return true;
+
+	}
+
+	public static void writePreface(Writer writer) throws IOException {
+		writer.write(PREFACE);
+		writer.write("\r\n");
+	}
+
+	/**
+	 * Method writeRequestHead writes the lines of a request before its message.
+	 */
+	public static void writeRequestHead(
+		Writer writer,
+		long requestId,
+		Map<String, String> headers,
+		String serviceName,
+		String methodName)
+	throws
+		IOException
+	{
+
+		writer.write(Long.toString(requestId));
+		writer.write("\r\n");
+		writer.write(formatHeaders(headers));
+		writer.write("\r\n");
+		writer.write(serviceName);
+		writer.write("||");
+		writer.write(methodName);
+		writer.write("\r\n");
+
+	}
+
+	/**
+	 * Method readRequest reads a request of a multiplexed connection.
+	 *
+	 * @return the request, null if the connection was closed between requests.
+	 * @throws IOException
+	 */
+	public static SocketFrame readRequest(BufferedReader reader) throws IOException {
+
+		String id = reader.readLine();
+		if (id == null) {
+			return null;
+		}
+		String headers = readLine(reader);
+		String route = readLine(reader);
+		String body = readLine(reader);
+		return newRequest(parseRequestId(id), headers, route, body);
+
+	}
+
+	public static void writeResponse(Writer writer, long requestId, int status, String body) throws IOException {
+
+		writer.write(Long.toString(requestId));
+		writer.write("\r\n");
+		writer.write(Integer.toString(status));
+		writer.write("\r\n");
+		if (body != null) {
+			writer.write(body);
+		}
+		writer.write("\r\n");
+
+	}
+
+	public static void writeGoAway(Writer writer, long lastRequestId) throws IOException {
+		writer.write(GOAWAY + " " + lastRequestId + "\r\n");
+	}
+
+	/**
+	 * Method readResponse reads a response of a multiplexed connection, a GOAWAY is returned as a
+	 * frame with the status -1 and the id of the last request the server read.
+	 *
+	 * @return the response, null if the connection was closed between responses.
+	 * @throws IOException
+	 */
+	public static SocketFrame readResponse(BufferedReader reader) throws IOException {
+
+		String id = reader.readLine();
+		if (id == null) {
+			return null;
+		}
+		if (id.startsWith(GOAWAY)) {
+			return new SocketFrame(parseRequestId(id.substring(GOAWAY.length()).trim()), -1, null);
+		}
+		String status = readLine(reader);
+		String body = readLine(reader);
+		try {
+			return new SocketFrame(parseRequestId(id), Integer.parseInt(status), body);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid babel socket status: " + status);
+		}
+
+	}
+
+	/**
+	 * Method formatHeaders joins headers as "name=value||name=value".
+	 */
+	public static String formatHeaders(Map<String, String> headers) {
+
+		StringBuilder sb = new StringBuilder();
+		if (headers != null) {
+			for (Entry<String, String> header : headers.entrySet()) {
+				if (sb.length() > 0) {
+					sb.append("||");
+				}
+				sb.append(header.getKey()).append('=').append(header.getValue());
+			}
+		}
+		return sb.toString();
+
+	}
+
+	/**
+	 * Method parseHeaders splits a header line written by formatHeaders.
+	 */
+	public static Map<String, String> parseHeaders(String headerLine) {
+
+		Map<String, String> headers = new HashMap<String, String>();
+		if (headerLine == null) {
+			return headers;
+		}
+		StringTokenizer tokenizer = new StringTokenizer(headerLine, "||");
+		while (tokenizer.hasMoreTokens()) {
+			String pair = tokenizer.nextToken();
+			int separator = pair.indexOf('=');
+			if (separator > 0) {
+				headers.put(pair.substring(0, separator), pair.substring(separator + 1));
+			}
+		}
+		return headers;
+
+	}
+
+	/**
+	 * Method newRequest builds a request frame from its lines.
+	 *
+	 * @param requestId - the id of the request, 0 for the request of a legacy connection.
+	 * @param headerLine - the header line.
+	 * @param route - the "service||method" line.
+	 * @param body - the message line.
+	 * @throws IOException if the route is invalid.
+	 */
+	static SocketFrame newRequest(long requestId, String headerLine, String route, String body) throws IOException {
+
+		int separator = route.indexOf("||");
+		if (separator == -1) {
+			throw new IOException("Invalid babel socket route: " + route);
+		}
+		return new SocketFrame(
+			requestId,
+			parseHeaders(headerLine),
+			route.substring(0, separator),
+			route.substring(separator + 2),
+			body);
+
+	}
+
+	static long parseRequestId(String id) throws IOException {
+
+		try {
+			return Long.parseLong(id);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid babel socket request id: " + id);
+		}
+
+	}
+
+	private static String readLine(BufferedReader reader) throws IOException {
+
+		String line = reader.readLine();
+		if (line == null) {
+			throw new EOFException("Babel socket connection closed in the middle of a frame");
+		}
+		return line;
+
+	}
+
+}
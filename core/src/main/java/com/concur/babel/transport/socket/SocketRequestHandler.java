@@ -0,0 +1,18 @@
+package com.concur.babel.transport.socket;
+
+/**
+ * SocketRequestHandler is called by a ServerConnection for each request it reads, on the thread
+ * reading the connection, so it should hand the request off to be processed.  The handler must
+ * call requestCompleted on the connection once the request was answered.
+ */
+public interface SocketRequestHandler {
+
+	/**
+	 * Method onRequest will be called when a request was read.
+	 *
+	 * @param connection - the connection, responses are written with writeResponse.
+	 * @param request - the request.
+	 */
+	void onRequest(ServerConnection connection, SocketFrame request);
+
+}
@@ -0,0 +1,314 @@
+package com.concur.babel.transport.socket;
+
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SocketServerConnection is the server side of a multiplexed socket connection, either line based,
+ * see SocketFrames, or binary, see BinaryFrames.  It reads requests until the client closes the
+ * connection or it is idle, with no request in flight, for the idle timeout.  A client may pipeline
+ * requests, reading stops while the maximum number of requests is in flight, which leaves the
+ * client blocked by TCP flow control.  Responses may be written from any thread in any order, the
+ * responses of threads waiting to write are flushed together.  A connection that reached its
+ * maximum number of requests is sent a GOAWAY once they are answered, so the client moves on to a
+ * new connection.
+ */
+public class SocketServerConnection implements ServerConnection {
+
+	private static final Logger LOGGER = Logger.getLogger(SocketServerConnection.class.getName());
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int GOAWAY_TIMEOUT = 1000;
+
+	private final Socket socket;
+	private final OutputStream out;
+	private final Writer writer;
+	private BufferedReader reader;
+	private DataInputStream binaryIn;
+	private volatile boolean binary = false;
+	private final Object writeLock = new Object();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger waitingWriters = new AtomicInteger();
+	private final Object flowLock = new Object();
+	private volatile int maxInFlight = Integer.MAX_VALUE;
+	private volatile int maxRequests = 0;
+	private volatile long lastRequestId = 0;
+	private volatile boolean closed = false;
+
+	private volatile String localHostName;
+	private volatile String localIpAddress;
+	private volatile String remoteIpAddress;
+
+	public SocketServerConnection(Socket socket) throws IOException {
+
+		notNull("socket", socket);
+		this.socket = socket;
+		this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+		this.writer = new BufferedWriter(new OutputStreamWriter(this.out, UTF8), 8192);
+
+	}
+
+	/**
+	 * Method setMaxInFlight sets the number of requests that may be in flight at once, the next
+	 * request is not read until one completes.  The default is no limit.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		preCondition(maxInFlight >= 1, "maxInFlight must be greater than or equal to ONE");
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Method setMaxRequests sets the number of requests served on the connection, after which it
+	 * is sent a GOAWAY and closed.  The default, 0, serves requests until the client closes.
+	 */
+	public void setMaxRequests(int maxRequests) {
+		preCondition(maxRequests >= 0, "maxRequests must be greater than or equal to ZERO");
+		this.maxRequests = maxRequests;
+	}
+
+	/**
+	 * Method serve reads requests and passes them to the handler, it returns once the connection is
+	 * closed.
+	 *
+	 * @param reader - the reader of the connection, positioned after the preface.
+	 * @param idleTimeout - how long, in milliseconds, the connection may be idle, 0 waits forever.
+	 * @param handler - the handler of the requests.
+	 */
+	public void serve(BufferedReader reader, int idleTimeout, SocketRequestHandler handler) {
+		this.reader = reader;
+		this.serve(idleTimeout, handler);
+	}
+
+	/**
+	 * Method serveBinary reads binary requests and passes them to the handler, it returns once the
+	 * connection is closed.
+	 *
+	 * @param in - the stream of the connection, positioned at its first frame.
+	 * @param idleTimeout - how long, in milliseconds, the connection may be idle, 0 waits forever.
+	 * @param handler - the handler of the requests.
+	 */
+	public void serveBinary(InputStream in, int idleTimeout, SocketRequestHandler handler) {
+		this.binaryIn = new DataInputStream(in);
+		this.binary = true;
+		this.serve(idleTimeout, handler);
+	}
+
+	private void serve(int idleTimeout, SocketRequestHandler handler) {
+
+		int requests = 0;
+		try {
+			this.socket.setSoTimeout(idleTimeout);
+			while (!this.closed) {
+
+				if (!this.awaitRoomInFlight()) {
+					break;
+				}
+
+				SocketFrame request;
+				try {
+					request = this.binary ?
+						BinaryFrames.readRequest(this.binaryIn, SocketFrameDecoder.DEFAULT_MAX_LINE_LENGTH) :
+						SocketFrames.readRequest(this.reader);
+				} catch (SocketTimeoutException e) {
+					// a request still in flight keeps the connection open, its client is waiting
+					if (this.inFlight.get() == 0) {
+						this.goAway();
+						break;
+					}
+					continue;
+				}
+				if (request == null) {
+					break;
+				}
+
+				this.lastRequestId = request.getRequestId();
+				this.inFlight.incrementAndGet();
+				handler.onRequest(this, request);
+
+				if (this.maxRequests > 0 && ++requests >= this.maxRequests) {
+					// the next requests of the client, if it sent any, are resent on a new connection
+					if (this.awaitNoneInFlight()) {
+						this.goAway();
+					}
+					break;
+				}
+
+			}
+		} catch (IOException e) {
+			if (!this.closed) {
+				LOGGER.log(Level.FINE, "Babel socket connection from " + this.getRemoteIpAddress() + " failed", e);
+			}
+		}
+		this.close();
+
+	}
+
+	public void writeResponse(long requestId, int status, String body) throws IOException {
+
+		this.waitingWriters.incrementAndGet();
+		synchronized (this.writeLock) {
+			// a thread waiting for the lock flushes this response along with its own
+			boolean flush = this.waitingWriters.decrementAndGet() == 0;
+			if (this.binary) {
+				byte[] message = body != null ? body.getBytes(UTF8) : null;
+				ByteBuffer head = BinaryFrames.encodeResponseHead(requestId, status, message != null ? message.length : -1);
+				this.out.write(head.array(), 0, head.limit());
+				if (message != null) {
+					this.out.write(message);
+				}
+				if (flush) {
+					this.out.flush();
+				}
+				return;
+			}
+			SocketFrames.writeResponse(this.writer, requestId, status, body);
+			if (flush) {
+				this.writer.flush();
+			}
+		}
+
+	}
+
+	public void requestCompleted() {
+
+		this.inFlight.decrementAndGet();
+		if (this.maxInFlight != Integer.MAX_VALUE || this.maxRequests > 0) {
+			synchronized (this.flowLock) {
+				this.flowLock.notifyAll();
+			}
+		}
+
+	}
+
+	public int getInFlightCount() { return this.inFlight.get(); }
+
+	public int getLocalPort() { return this.socket.getLocalPort(); }
+
+	public Socket getSocket() { return this.socket; }
+
+	public boolean isClosed() { return this.closed; }
+
+	public void close() {
+
+		this.closed = true;
+		try {
+			this.socket.close();
+		} catch (IOException e) {
+			// nothing else to do
+		}
+		synchronized (this.flowLock) {
+			this.flowLock.notifyAll();
+		}
+
+	}
+
+	public String getLocalHostName() {
+
+		if (this.localHostName == null) {
+			this.localHostName = this.socket.getLocalAddress().getCanonicalHostName();
+		}
+		return this.localHostName;
+
+	}
+
+	public String getLocalIpAddress() {
+
+		if (this.localIpAddress == null) {
+			this.localIpAddress = this.socket.getLocalAddress().getHostAddress();
+		}
+		return this.localIpAddress;
+
+	}
+
+	public String getRemoteIpAddress() {
+
+		if (this.remoteIpAddress == null && this.socket.getInetAddress() != null) {
+			this.remoteIpAddress = this.socket.getInetAddress().getHostAddress();
+		}
+		return this.remoteIpAddress;
+
+	}
+
+	private boolean awaitRoomInFlight() {
+
+		synchronized (this.flowLock) {
+			while (this.inFlight.get() >= this.maxInFlight && !this.closed) {
+				try {
+					this.flowLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return !this.closed;
+
+	}
+
+	private boolean awaitNoneInFlight() {
+
+		synchronized (this.flowLock) {
+			while (this.inFlight.get() > 0 && !this.closed) {
+				try {
+					this.flowLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return !this.closed;
+
+	}
+
+	private void goAway() throws IOException {
+
+		synchronized (this.writeLock) {
+			if (this.binary) {
+				ByteBuffer goAway = BinaryFrames.encodeGoAway(this.lastRequestId);
+				this.out.write(goAway.array(), 0, goAway.limit());
+				this.out.flush();
+			} else {
+				SocketFrames.writeGoAway(this.writer, this.lastRequestId);
+				this.writer.flush();
+			}
+		}
+		this.socket.shutdownOutput();
+
+		// requests that crossed the GOAWAY are dropped, the client resends them, reading them until the
+		// client closes keeps the close from resetting the connection before the client saw the GOAWAY
+		try {
+			this.socket.setSoTimeout(GOAWAY_TIMEOUT);
+			if (this.binary) {
+				byte[] skip = new byte[1024];
+				while (this.binaryIn.read(skip) != -1) {
+					continue;
+				}
+			} else {
+				while (this.reader.readLine() != null) {
+					continue;
+				}
+			}
+		} catch (SocketTimeoutException e) {
+			// the client did not close in time
+		}
+
+	}
+
+}
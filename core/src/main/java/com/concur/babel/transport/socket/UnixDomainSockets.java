@@ -0,0 +1,122 @@
+package com.concur.babel.transport.socket;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * UnixDomainSockets opens channels on Unix domain sockets, which JDK 16 or later supports.  The
+ * library is built for older JDKs, so the JDK 16 API is looked up reflectively and calls fail with
+ * an UnsupportedOperationException on a JDK without it.
+ */
+public final class UnixDomainSockets {
+
+	private static final ProtocolFamily UNIX = findProtocolFamily();
+	private static final Method NEW_ADDRESS = findMethod("java.net.UnixDomainSocketAddress", "of", Path.class);
+	private static final Method OPEN_CHANNEL = findMethod(SocketChannel.class.getName(), "open", ProtocolFamily.class);
+	private static final Method OPEN_SERVER_CHANNEL =
+		findMethod(ServerSocketChannel.class.getName(), "open", ProtocolFamily.class);
+
+	private UnixDomainSockets() {
+	}
+
+	/**
+	 * @return true if the JDK supports Unix domain sockets, JDK 16 or later.
+	 */
+	public static boolean isSupported() {
+		return UNIX != null && NEW_ADDRESS != null && OPEN_CHANNEL != null && OPEN_SERVER_CHANNEL != null;
+	}
+
+	/**
+	 * Method address returns the address of the socket file.
+	 */
+	public static SocketAddress address(Path socketPath) {
+
+		try {
+			return (SocketAddress)invoke(NEW_ADDRESS, null, socketPath);
+		} catch (IOException e) {
+			// creating an address does no I/O
+			throw new IllegalStateException(e);
+		}
+
+	}
+
+	/**
+	 * Method open opens a blocking channel connected to the socket file.
+	 *
+	 * @throws IOException if the socket file does not accept connections.
+	 */
+	public static SocketChannel open(Path socketPath) throws IOException {
+
+		SocketChannel channel = (SocketChannel)invoke(OPEN_CHANNEL, null, UNIX);
+		try {
+			channel.connect(address(socketPath));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+
+	}
+
+	/**
+	 * Method openServer opens a server channel, which is not bound yet.
+	 */
+	public static ServerSocketChannel openServer() throws IOException {
+		return (ServerSocketChannel)invoke(OPEN_SERVER_CHANNEL, null, UNIX);
+	}
+
+	private static Object invoke(Method method, Object target, Object argument) throws IOException {
+
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Unix domain sockets need JDK 16 or later");
+		}
+		try {
+			return method.invoke(target, argument);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+
+	}
+
+	private static ProtocolFamily findProtocolFamily() {
+
+		try {
+			return StandardProtocolFamily.valueOf("UNIX");
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+
+	}
+
+	private static Method findMethod(String className, String name, Class<?> parameterType) {
+
+		try {
+			return Class.forName(className).getMethod(name, parameterType);
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+
+	}
+
+}
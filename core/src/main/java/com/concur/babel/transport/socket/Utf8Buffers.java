@@ -0,0 +1,151 @@
+package com.concur.babel.transport.socket;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Utf8Buffers encodes text straight into byte buffers and decodes it straight out of them, without
+ * the intermediate byte arrays of String.getBytes and new String.  Text is encoded the way
+ * String.getBytes does, an unpaired surrogate becomes '?', and malformed bytes decode to U+FFFD.
+ */
+public final class Utf8Buffers {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAX_CACHED_CHARS = 16 * 1024;
+
+	private static final ThreadLocal<CharsetDecoder> DECODER = new ThreadLocal<CharsetDecoder>() {
+		protected CharsetDecoder initialValue() {
+			return UTF8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+	};
+
+	private static final ThreadLocal<CharBuffer> CHARS = new ThreadLocal<CharBuffer>() {
+		protected CharBuffer initialValue() {
+			return CharBuffer.allocate(1024);
+		}
+	};
+
+	private Utf8Buffers() {
+	}
+
+	/**
+	 * Method encodedLength returns the number of bytes the text takes in UTF-8.
+	 */
+	public static int encodedLength(CharSequence text) {
+
+		int length = 0;
+		int count = text.length();
+		for (int i = 0; i < count; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+
+	}
+
+	/**
+	 * Method encode writes the text to the buffer in UTF-8.
+	 *
+	 * @param text - the text.
+	 * @param buffer - a buffer with at least encodedLength(text) bytes remaining.
+	 */
+	public static void encode(CharSequence text, ByteBuffer buffer) {
+
+		int count = text.length();
+		for (int i = 0; i < count; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte)c);
+			} else if (c < 0x800) {
+				buffer.put((byte)(0xc0 | (c >> 6)));
+				buffer.put((byte)(0x80 | (c & 0x3f)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				buffer.put((byte)(0xf0 | (codePoint >> 18)));
+				buffer.put((byte)(0x80 | ((codePoint >> 12) & 0x3f)));
+				buffer.put((byte)(0x80 | ((codePoint >> 6) & 0x3f)));
+				buffer.put((byte)(0x80 | (codePoint & 0x3f)));
+			} else if (Character.isSurrogate(c)) {
+				buffer.put((byte)'?');
+			} else {
+				buffer.put((byte)(0xe0 | (c >> 12)));
+				buffer.put((byte)(0x80 | ((c >> 6) & 0x3f)));
+				buffer.put((byte)(0x80 | (c & 0x3f)));
+			}
+		}
+
+	}
+
+	/**
+	 * Method encode returns the text in UTF-8 in a buffer of the arena, ready to be written, which
+	 * must be released to the arena once written.
+	 */
+	public static ByteBuffer encode(CharSequence text, BufferArena arena) {
+
+		ByteBuffer buffer = arena.acquire(encodedLength(text));
+		encode(text, buffer);
+		buffer.flip();
+		return buffer;
+
+	}
+
+	/**
+	 * Method decode reads length bytes of UTF-8 text from the buffer.
+	 *
+	 * @param buffer - the buffer, its position is moved past the text.
+	 * @param length - the number of bytes of the text.
+	 */
+	public static String decode(ByteBuffer buffer, int length) {
+
+		if (length == 0) {
+			return "";
+		}
+		if (buffer.hasArray()) {
+			String text = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8);
+			buffer.position(buffer.position() + length);
+			return text;
+		}
+
+		// a direct buffer is decoded into characters kept by the thread, no byte array is needed
+		int limit = buffer.limit();
+		buffer.limit(buffer.position() + length);
+		CharBuffer chars = CHARS.get();
+		if (chars.capacity() < length) {
+			chars = CharBuffer.allocate(length);
+			if (length <= MAX_CACHED_CHARS) {
+				CHARS.set(chars);
+			}
+		}
+		chars.clear();
+		CharsetDecoder decoder = DECODER.get();
+		decoder.reset();
+		CoderResult result = decoder.decode(buffer, chars, true);
+		if (!result.isUnderflow()) {
+			// one byte never decodes to more than one char, the characters always fit
+			throw new IllegalStateException("UTF-8 decoding of " + length + " bytes failed: " + result);
+		}
+		decoder.flush(chars);
+		buffer.limit(limit);
+		chars.flip();
+		return chars.toString();
+
+	}
+
+}
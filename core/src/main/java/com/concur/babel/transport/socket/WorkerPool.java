@@ -0,0 +1,236 @@
+package com.concur.babel.transport.socket;
+
+import static com.concur.babel.ArgValidator.notNull;
+import static com.concur.babel.ArgValidator.preCondition;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.concur.babel.transport.async.AsyncExecutors;
+
+/**
+ * WorkerPool runs the requests of a socket server with admission control, a request that finds the
+ * pool full is rejected at once instead of piling up in memory.  In the PLATFORM_THREADS mode a fixed
+ * number of threads run the requests and up to queueSize more wait in a queue.  In the
+ * VIRTUAL_THREADS mode, on JDKs with virtual threads, every request gets a virtual thread of its own,
+ * at most maxConcurrency of them run at once and up to queueSize more wait for a turn.
+ */
+public class WorkerPool implements Executor {
+
+	public enum Mode { PLATFORM_THREADS, VIRTUAL_THREADS }
+
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+	private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+	private final Mode mode;
+	private final int maxConcurrency;
+	private final int queueSize;
+	private final ExecutorService executor;
+	private final Semaphore admitted;
+	private final Semaphore running;
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Creates a new WorkerPool of platform threads.
+	 *
+	 * @param threads - the number of threads running requests.
+	 * @param queueSize - the number of requests that may wait for a thread, 0 waits for none.
+	 * @param name - the prefix of the thread names.
+	 */
+	public WorkerPool(int threads, int queueSize, String name) {
+		this(Mode.PLATFORM_THREADS, threads, queueSize, name);
+	}
+
+	/**
+	 * Creates a new WorkerPool
+	 *
+	 * @param mode - how requests are run.
+	 * @param maxConcurrency - the number of requests running at once.
+	 * @param queueSize - the number of requests that may wait to run, 0 waits for none.
+	 * @param name - the prefix of the thread names, platform threads only.
+	 */
+	public WorkerPool(Mode mode, int maxConcurrency, int queueSize, String name) {
+
+		notNull("mode", mode);
+		preCondition(maxConcurrency >= 1, "maxConcurrency must be greater than or equal to ONE");
+		preCondition(queueSize >= 0, "queueSize must be greater than or equal to ZERO");
+		preCondition(mode != Mode.VIRTUAL_THREADS || isVirtualThreadsSupported(),
+			"virtual threads are not supported by this JDK");
+		this.mode = mode;
+		this.maxConcurrency = maxConcurrency;
+		this.queueSize = queueSize;
+
+		if (mode == Mode.VIRTUAL_THREADS) {
+			this.executor = newVirtualThreadExecutor();
+			this.admitted = new Semaphore(maxConcurrency + queueSize);
+			this.running = new Semaphore(maxConcurrency);
+		} else {
+			BlockingQueue<Runnable> queue = queueSize > 0 ?
+				new ArrayBlockingQueue<Runnable>(queueSize) :
+				new SynchronousQueue<Runnable>();
+			this.executor = new ThreadPoolExecutor(
+				maxConcurrency,
+				maxConcurrency,
+				60,
+				TimeUnit.SECONDS,
+				queue,
+				new AsyncExecutors.DaemonThreadFactory(name),
+				new ThreadPoolExecutor.AbortPolicy());
+			this.admitted = null;
+			this.running = null;
+		}
+
+	}
+
+	/**
+	 * @return true if the JDK supports virtual threads, JDK 21 or later.
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+	}
+
+	/**
+	 * Method execute runs a task on the pool.
+	 *
+	 * @throws RejectedExecutionException if the pool is full or shut down.
+	 */
+	public void execute(final Runnable task) {
+
+		if (this.admitted != null && !this.admitted.tryAcquire()) {
+			this.rejected.incrementAndGet();
+			throw new RejectedExecutionException("Worker pool is full");
+		}
+
+		try {
+			this.executor.execute(new Runnable() {
+				public void run() {
+					runTask(task);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			if (this.admitted != null) {
+				this.admitted.release();
+			}
+			this.rejected.incrementAndGet();
+			throw e;
+		}
+
+	}
+
+	/**
+	 * Method shutdown stops taking requests, the ones already taken still run.
+	 */
+	public void shutdown() {
+		this.executor.shutdown();
+	}
+
+	/**
+	 * Method awaitTermination waits for the requests taken before shutdown to finish.
+	 *
+	 * @return true if they finished in time.
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return this.executor.awaitTermination(timeout, unit);
+	}
+
+	public Mode getMode() { return this.mode; }
+
+	public int getMaxConcurrency() { return this.maxConcurrency; }
+
+	public int getQueueSize() { return this.queueSize; }
+
+	/**
+	 * @return the number of requests waiting to run.
+	 */
+	public int getQueueDepth() {
+
+		if (this.admitted != null) {
+			return Math.max(0, this.maxConcurrency + this.queueSize - this.admitted.availablePermits() - this.active.get());
+		}
+		return ((ThreadPoolExecutor)this.executor).getQueue().size();
+
+	}
+
+	/**
+	 * @return the number of requests running.
+	 */
+	public int getActiveCount() { return this.active.get(); }
+
+	/**
+	 * @return the number of requests that ran, successfully or not.
+	 */
+	public long getCompletedCount() { return this.completed.get(); }
+
+	/**
+	 * @return the number of requests rejected because the pool was full or shut down.
+	 */
+	public long getRejectedCount() { return this.rejected.get(); }
+
+	@Override
+	public String toString() {
+		return "[mode: " + this.mode + "; active: " + this.getActiveCount() + "; queued: " +
+			this.getQueueDepth() + "; rejected: " + this.getRejectedCount() + "]";
+	}
+
+	private void runTask(Runnable task) {
+
+		boolean acquired = false;
+		try {
+			if (this.running != null) {
+				// a waiting virtual thread only costs its stack
+				this.running.acquireUninterruptibly();
+				acquired = true;
+			}
+			this.active.incrementAndGet();
+			try {
+				task.run();
+			} finally {
+				this.active.decrementAndGet();
+				this.completed.incrementAndGet();
+			}
+		} finally {
+			if (acquired) {
+				this.running.release();
+			}
+			if (this.admitted != null) {
+				this.admitted.release();
+			}
+		}
+
+	}
+
+	private static ExecutorService newVirtualThreadExecutor() {
+
+		try {
+			return (ExecutorService)NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+		} catch (Exception e) {
+			throw new IllegalStateException("Unable to create a virtual thread executor", e);
+		}
+
+	}
+
+	private static Method findVirtualThreadExecutor() {
+
+		try {
+			return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+
+	}
+
+}
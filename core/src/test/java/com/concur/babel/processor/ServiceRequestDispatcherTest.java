@@ -2,26 +2,47 @@ package com.concur.babel.processor;
 
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import com.concur.babel.transport.server.handler.CallHandler;
 import org.easymock.Capture;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 import com.concur.babel.ServiceError;
 import com.concur.babel.exception.BabelException;
 import com.concur.babel.exception.builder.ExceptionBuilder;
 import com.concur.babel.exception.builder.GenericExceptionBuilder;
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.service.BlockingTweetService;
 import com.concur.babel.test.service.TweetService;
 import com.concur.babel.test.service.TweetServiceImpl;
+import com.concur.babel.transport.batch.BatchCall;
+import com.concur.babel.transport.batch.BatchCallResult;
+import com.concur.babel.transport.batch.BatchServiceMethod;
 import com.concur.babel.transport.server.BabelServerTransport;
+import com.concur.babel.transport.server.HttpServerTransport;
+import com.concur.babel.transport.server.ServerDrainingException;
 import com.concur.babel.transport.server.ServerTransport;
 import org.omg.SendingContext.RunTime;
 
@@ -356,6 +377,162 @@ public class ServiceRequestDispatcherTest {
 
 	}
 
+	@Test
+	public void testBatchCallsAreDispatchedOneByOne() {
+		
+		final List<String> succeeded = Collections.synchronizedList(new ArrayList<String>());
+		final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+		ServiceRequestDispatcher dispatcher = new ServiceRequestDispatcher();
+		dispatcher.register(new TweetService.Invoker(new TweetServiceImpl()));
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		dispatcher.setBatchExecutor(executor);
+		dispatcher.addCallHandler(new CallHandler() {
+			public void onSuccess(ServerTransport transport, long duration) {
+				succeeded.add(transport.getMethodName());
+			}
+			public void onFailure(ServerTransport transport, long duration, Integer errorCode, Exception exception) {
+				failed.add(transport.getMethodName() + ":" + errorCode);
+			}
+		});
+		
+		JSONProtocol protocol = new JSONProtocol();
+		BatchServiceMethod batch = new BatchServiceMethod();
+		for (int i = 0; i < 8; i++) {
+			batch.add(new BatchCall("TweetService", "deleteTweet", protocol.write(new TweetService.deleteTweet(1, 2))));
+		}
+		batch.add(new BatchCall("TweetService", "deleteTweet", protocol.write(new TweetService.deleteTweet(-1, 2))));
+		batch.add(new BatchCall("TweetService", "unknownMethod", "{}"));
+		
+		MockHttpServletResponse response = this.dispatchBatch(dispatcher, protocol, batch);
+		executor.shutdown();
+		assertEquals(200, response.getStatus());
+		
+		List<BatchCallResult> results = this.readBatchResults(protocol, response);
+		assertEquals(10, results.size());
+		for (int i = 0; i < 8; i++) {
+			assertEquals(200, results.get(i).getCode());
+		}
+		assertEquals(500, results.get(8).getCode());
+		assertEquals("9999", protocol.read(results.get(8).getMessage(), ServiceError.class).getErrors().get(0).getCode());
+		assertEquals(500, results.get(9).getCode());
+		
+		assertEquals(8, succeeded.size());
+		assertEquals(2, failed.size());
+		assertTrue(failed.contains("deleteTweet:500"));
+		assertTrue(failed.contains("unknownMethod:500"));
+		
+	}
+	
+	@Test
+	public void testBatchesOverTheMaximumSizeAreRefused() {
+		
+		ServiceRequestDispatcher dispatcher = new ServiceRequestDispatcher();
+		dispatcher.register(new TweetService.Invoker(new TweetServiceImpl()));
+		dispatcher.setMaxBatchSize(1);
+		
+		JSONProtocol protocol = new JSONProtocol();
+		BatchServiceMethod batch = new BatchServiceMethod();
+		batch.add(new BatchCall("TweetService", "getAllTweets", "{}"));
+		batch.add(new BatchCall("TweetService", "getAllTweets", "{}"));
+		
+		MockHttpServletResponse response = this.dispatchBatch(dispatcher, protocol, batch);
+		assertEquals(500, response.getStatus());
+		
+		try {
+			dispatcher.setMaxBatchSize(0);
+			fail("a batch must be allowed at least one call");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+	}
+	
+	@Test
+	public void testBatchesCanNotBeNested() {
+		
+		ServiceRequestDispatcher dispatcher = new ServiceRequestDispatcher();
+		
+		JSONProtocol protocol = new JSONProtocol();
+		BatchServiceMethod batch = new BatchServiceMethod();
+		batch.add(new BatchCall(BatchServiceMethod.SERVICE_NAME, BatchServiceMethod.METHOD_NAME, 
+			protocol.write(new BatchServiceMethod())));
+		
+		MockHttpServletResponse response = this.dispatchBatch(dispatcher, protocol, batch);
+		assertEquals(200, response.getStatus());
+		assertEquals(500, this.readBatchResults(protocol, response).get(0).getCode());
+		
+	}
+	
+	@Test
+	public void testDrainAnswersNewRequestsAndWaitsForThoseInFlight() throws Exception {
+		
+		final ServiceRequestDispatcher dispatcher = new ServiceRequestDispatcher();
+		final BlockingTweetService service = new BlockingTweetService();
+		dispatcher.register(new TweetService.Invoker(service));
+		final JSONProtocol protocol = new JSONProtocol();
+		
+		final MockHttpServletResponse first = new MockHttpServletResponse();
+		Thread caller = new Thread(new Runnable() {
+			public void run() {
+				dispatcher.dispatch(new HttpServerTransport(getAllTweetsRequest(), first, protocol));
+			}
+		});
+		caller.start();
+		assertTrue(service.awaitStarted(1, 2000));
+		
+		dispatcher.drain();
+		assertTrue(dispatcher.isDraining());
+		assertEquals(1, dispatcher.getInFlightCount());
+		MockHttpServletResponse second = new MockHttpServletResponse();
+		assertFalse(dispatcher.dispatch(new HttpServerTransport(getAllTweetsRequest(), second, protocol)));
+		assertEquals(500, second.getStatus());
+		ServiceError error = protocol.read(second.getContentAsString(), ServiceError.class);
+		assertEquals(ServerDrainingException.ERROR_CODE, error.getErrors().get(0).getCode());
+		assertFalse(dispatcher.awaitDrained(50, TimeUnit.MILLISECONDS));
+		
+		service.release();
+		assertTrue(dispatcher.awaitDrained(2, TimeUnit.SECONDS));
+		caller.join(2000);
+		assertEquals(200, first.getStatus());
+		assertEquals(0, dispatcher.getInFlightCount());
+		
+	}
+	
+	private static MockHttpServletRequest getAllTweetsRequest() {
+		
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setPathInfo("/tweetservice/getAllTweets");
+		request.setContent("{}".getBytes(Charset.forName("UTF-8")));
+		return request;
+		
+	}
+	
+	private MockHttpServletResponse dispatchBatch(
+		ServiceRequestDispatcher dispatcher, 
+		JSONProtocol protocol, 
+		BatchServiceMethod batch) 
+	{
+		
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setPathInfo("/" + BatchServiceMethod.SERVICE_NAME + "/" + BatchServiceMethod.METHOD_NAME);
+		request.setContent(protocol.write(batch).getBytes(Charset.forName("UTF-8")));
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		
+		dispatcher.dispatch(new HttpServerTransport(request, response, protocol));
+		return response;
+		
+	}
+	
+	private List<BatchCallResult> readBatchResults(JSONProtocol protocol, MockHttpServletResponse response) {
+		
+		try {
+			return protocol.read(response.getContentAsString(), new BatchServiceMethod().getReturnType());
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		
+	}
+
 	private class InnerServiceErrorBuilder implements ExceptionBuilder {
 
 		public BabelException buildException(
@@ -376,5 +553,5 @@ public class ServiceRequestDispatcherTest {
 		}
 		
 	}
-	
+		
 }
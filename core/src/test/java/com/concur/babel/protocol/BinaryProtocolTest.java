@@ -0,0 +1,233 @@
+package com.concur.babel.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.Error;
+import com.concur.babel.ServiceError;
+import com.concur.babel.test.model.Result;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.model.TweetPostResult;
+import com.concur.babel.test.model.TweetType;
+import com.concur.babel.test.service.TweetService;
+import com.google.gson.annotations.SerializedName;
+
+@RunWith(JUnit4.class)
+public class BinaryProtocolTest {
+
+	private final BinaryProtocol protocol = new BinaryProtocol();
+
+	@Test
+	public void testServiceMethodRoundTrip() {
+
+		Tweet tweet = new Tweet();
+		tweet.setText("naïve || line=break\r\n");
+		tweet.setTweetType(TweetType.RETWEET);
+
+		// generated service methods have no default constructor
+		TweetService.postTweet read = this.protocol.read(
+			this.protocol.writeBytes(new TweetService.postTweet(-7, tweet, true)),
+			TweetService.postTweet.class);
+		assertEquals(-7, read.userId);
+		assertEquals(true, read.test);
+		assertEquals("naïve || line=break\r\n", read.tweet.getText());
+		assertEquals(TweetType.RETWEET, read.tweet.getTweetType());
+
+	}
+
+	@Test
+	public void testBabelEnumsAreWrittenAsTheirValue() {
+
+		assertArrayEquals(new byte[] { WireType.VARINT, 2 }, this.protocol.writeBytes(Result.SUCCESS));
+		assertEquals(Result.FAILURE, this.protocol.read(new byte[] { WireType.VARINT, 0 }, Result.class));
+		// a value this version of the enum does not have is null, as an unknown name is with JSON
+		assertNull(this.protocol.read(new byte[] { WireType.VARINT, 10 }, Result.class));
+
+	}
+
+	@Test
+	public void testDatesAreWrittenAsEpochMilliseconds() {
+
+		TweetPostResult result = new TweetPostResult();
+		result.setResult(Result.SUCCESS);
+		result.setPostDate(new Date(1380585600123L));
+
+		TweetPostResult read = this.protocol.read(this.protocol.writeBytes(result), TweetPostResult.class);
+		assertEquals(Result.SUCCESS, read.getResult());
+		assertEquals(new Date(1380585600123L), read.getPostDate());
+
+	}
+
+	@Test
+	public void testValuesJSONWritesAsStrings() {
+
+		Values values = new Values();
+		values.id = Long.MAX_VALUE;
+		values.amount = new BigDecimal("-12345678901234567890.125");
+		values.data = new byte[] { 0, 1, -1, 10, 13 };
+		values.ratio = 0.25;
+		values.numbers = new int[] { 1, -1, 300 };
+		values.counts = new HashMap<String, Long>();
+		values.counts.put("a", -1L);
+
+		byte[] message = this.protocol.writeBytes(values);
+		Values read = this.protocol.read(message, Values.class);
+		assertEquals(Long.MAX_VALUE, read.id);
+		assertEquals(new BigDecimal("-12345678901234567890.125"), read.amount);
+		assertArrayEquals(new byte[] { 0, 1, -1, 10, 13 }, read.data);
+		assertEquals(0.25, read.ratio, 0);
+		assertArrayEquals(new int[] { 1, -1, 300 }, read.numbers);
+		assertEquals(Collections.singletonMap("a", -1L), read.counts);
+		assertTrue(message.length < new JSONProtocol().write(values).length());
+
+	}
+
+	@Test
+	public void testServiceErrorRoundTrip() {
+
+		Map<String, Map<String, String>> context = new HashMap<String, Map<String, String>>();
+		context.put("request", Collections.singletonMap("id", "42"));
+		ServiceError inner = new ServiceError(
+			null,
+			new ArrayList<String>(),
+			Arrays.asList(new Error("INNER", "inner failure", null)),
+			context,
+			null,
+			null);
+		ServiceError error = new ServiceError(
+			new Date(0),
+			Arrays.asList("a", "b"),
+			Arrays.asList(new Error("CODE", "message", Arrays.asList("param"))),
+			context,
+			"details",
+			inner);
+
+		ServiceError read = this.protocol.read(this.protocol.write(error), ServiceError.class);
+		assertEquals(new Date(0), read.getTime());
+		assertEquals(Arrays.asList("a", "b"), read.getTags());
+		assertEquals("CODE", read.getErrors().get(0).getCode());
+		assertEquals("42", read.getContext().get("request").get("id"));
+		assertEquals("details", read.getDetails());
+		assertEquals("inner failure", read.getInner().getErrors().get(0).getMessage());
+		assertNull(read.getInner().getInner());
+
+	}
+
+	@Test
+	public void testGenericReturnTypes() {
+
+		Tweet tweet = new Tweet();
+		tweet.setText("one");
+		List<Tweet> tweets = Arrays.asList(tweet, null);
+
+		List<Tweet> read = this.protocol.read(
+			this.protocol.write(tweets),
+			new TweetService.getAllTweets().getReturnType());
+		assertEquals(2, read.size());
+		assertEquals("one", read.get(0).getText());
+		assertNull(read.get(1));
+
+	}
+
+	@Test
+	public void testUnknownFieldsAreSkippedAndMissingFieldsLeftAlone() {
+
+		VersionTwo two = new VersionTwo();
+		two.name = "babel";
+		two.tags = Arrays.asList("new");
+		two.count = 3;
+
+		VersionOne one = this.protocol.read(this.protocol.writeBytes(two), VersionOne.class);
+		assertEquals("babel", one.name);
+		assertEquals(3, one.count);
+
+		VersionTwo read = this.protocol.read(this.protocol.writeBytes(one), VersionTwo.class);
+		assertEquals("babel", read.name);
+		assertEquals(3, read.count);
+		assertEquals(Arrays.asList("default"), read.tags);
+
+	}
+
+	@Test
+	public void testFieldWhoseTypeChangedIsSkipped() {
+
+		VersionOne one = new VersionOne();
+		one.name = "babel";
+		one.count = 3;
+
+		Renamed read = this.protocol.read(this.protocol.writeBytes(one), Renamed.class);
+		assertNull(read.count);
+		assertEquals("babel", read.name);
+
+	}
+
+	@Test
+	public void testNullAndEmptyMessages() {
+
+		assertNull(this.protocol.read(this.protocol.write(null), Tweet.class));
+		assertNull(this.protocol.read("", Tweet.class));
+
+	}
+
+	@Test
+	public void testMalformedMessageFails() {
+
+		byte[] message = this.protocol.writeBytes(new TweetService.postTweet(1, new Tweet(), false));
+		try {
+			this.protocol.read(Arrays.copyOf(message, message.length - 1), TweetService.postTweet.class);
+			fail("a truncated message should not be read");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().startsWith("Unable to parse babel binary message"));
+		}
+
+	}
+
+	public static class Values {
+		private long id;
+		private BigDecimal amount;
+		private byte[] data;
+		private double ratio;
+		private int[] numbers;
+		private Map<String, Long> counts;
+	}
+
+	public static class VersionOne {
+		@SerializedName("Name")
+		private String name;
+		@SerializedName("Count")
+		private int count;
+	}
+
+	public static class VersionTwo {
+		@SerializedName("Tags")
+		private List<String> tags = Arrays.asList("default");
+		@SerializedName("Name")
+		private String name;
+		@SerializedName("Count")
+		private long count;
+	}
+
+	public static class Renamed {
+		@SerializedName("Count")
+		private String count;
+		@SerializedName("Name")
+		private String name;
+	}
+
+}
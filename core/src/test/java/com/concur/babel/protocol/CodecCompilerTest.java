@@ -0,0 +1,277 @@
+package com.concur.babel.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.Error;
+import com.concur.babel.ServiceError;
+import com.concur.babel.test.model.Result;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.model.TweetPostResult;
+import com.concur.babel.test.model.TweetType;
+import com.concur.babel.test.service.TweetService;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class CodecCompilerTest {
+
+	private final JSONProtocol compiled = new JSONProtocol();
+	private final JSONProtocol reflective = new JSONProtocol(false);
+
+	@Test
+	public void testServiceMethodsAreWrittenAsGsonWritesThem() {
+
+		Tweet tweet = new Tweet();
+		tweet.setText("naïve \"quoted\" </script>");
+		tweet.setTweetType(TweetType.RETWEET);
+
+		TweetService.postTweet postTweet = new TweetService.postTweet(42, tweet, true);
+		String json = this.assertSameJSON(postTweet, TweetService.postTweet.class);
+		TweetService.postTweet read = this.compiled.read(json, TweetService.postTweet.class);
+		assertEquals(42, read.userId);
+		assertTrue(read.test);
+		assertEquals(tweet.getText(), read.tweet.getText());
+		assertEquals(TweetType.RETWEET, read.tweet.getTweetType());
+
+		// a null model is left out
+		this.assertSameJSON(new TweetService.postTweet(0, null, false), TweetService.postTweet.class);
+		this.assertSameJSON(new TweetService.postTweet(1, new Tweet(), false), TweetService.postTweet.class);
+
+		TweetPostResult result = new TweetPostResult();
+		result.setResult(Result.SUCCESS);
+		result.setPostDate(new Date(1380585600000L));
+		this.assertSameJSON(result, TweetPostResult.class);
+
+		Type tweets = new TweetService.getAllTweets().getReturnType();
+		this.assertSameJSON(Arrays.asList(tweet, null, new Tweet()), tweets);
+
+		assertTrue(CodecCompiler.isCompiled(TweetService.postTweet.class));
+		assertTrue(CodecCompiler.isCompiled(Tweet.class));
+
+	}
+
+	@Test
+	public void testServiceErrorsAreWrittenAsGsonWritesThem() {
+
+		ServiceError inner = new ServiceError(
+			new Date(0),
+			Collections.<String>emptyList(),
+			Collections.<Error>emptyList(),
+			Collections.<String, Map<String, String>>emptyMap(),
+			"inner details",
+			null);
+		ServiceError error = new ServiceError(
+			new Date(1380585600000L),
+			Arrays.asList("validation", null),
+			Arrays.asList(new Error("INVALID_TWEET", "the tweet is too long", Arrays.asList("text"))),
+			Collections.singletonMap("request", Collections.singletonMap("id", "0af3c2")),
+			null,
+			inner);
+
+		String json = this.assertSameJSON(error, ServiceError.class);
+		ServiceError read = this.compiled.read(json, ServiceError.class);
+		assertEquals("INVALID_TWEET", read.getErrors().get(0).getCode());
+		assertEquals("inner details", read.getInner().getDetails());
+		assertNull(read.getDetails());
+
+	}
+
+	@Test
+	public void testPrimitivesAndBoxesAreWrittenAsGsonWritesThem() {
+
+		Values values = new Values();
+		values.count = -7;
+		values.total = Long.MAX_VALUE;
+		values.boxedTotal = 12L;
+		values.flag = true;
+		values.ratio = 0.25;
+		values.amount = new BigDecimal("10.50");
+		values.bytes = new byte[] { 1, 2, 3 };
+		values.letter = 'x';
+		values.anything = 5L;
+		values.renamed = "renamed";
+
+		String json = this.assertSameJSON(values, Values.class);
+		// the protocol writes longs as strings, primitive or not
+		assertTrue(json, json.contains("\"total\":\"9223372036854775807\""));
+		assertTrue(json, json.contains("\"anything\":\"5\""));
+		assertTrue(json, json.contains("\"other_name\":\"renamed\""));
+
+		Values read = this.compiled.read(json, Values.class);
+		assertEquals(-7, read.count);
+		assertEquals(Long.MAX_VALUE, read.total);
+		assertEquals(Long.valueOf(12), read.boxedTotal);
+		assertTrue(read.flag);
+		assertEquals("renamed", read.renamed);
+		assertEquals(3, read.bytes.length);
+
+		this.assertSameJSON(new Values(), Values.class);
+
+		WithTransientField transientField = new WithTransientField();
+		transientField.kept = "kept";
+		transientField.skipped = "skipped";
+		assertEquals("{\"kept\":\"kept\"}", this.assertSameJSON(transientField, WithTransientField.class));
+		assertTrue(CodecCompiler.isCompiled(WithTransientField.class));
+
+	}
+
+	@Test
+	public void testMessagesAreReadInAnyOrder() {
+
+		String json = "{\"renamed\":\"ignored\",\"flag\":\"true\",\"count\":null,\"unknown\":{\"a\":[1]}," +
+			"\"other_name\":true,\"total\":\"3\",\"count\":2}";
+
+		Values compiled = this.compiled.read(json, Values.class);
+		Values reflective = this.reflective.read(json, Values.class);
+		assertEquals(this.reflective.write(reflective), this.compiled.write(compiled));
+		assertEquals(2, compiled.count);
+		assertEquals(3, compiled.total);
+		assertTrue(compiled.flag);
+		assertEquals("true", compiled.renamed);
+
+	}
+
+	@Test
+	public void testGenericAndInheritedFieldsAreWrittenAsGsonWritesThem() {
+
+		Child child = new Child();
+		child.name = "child";
+		child.value = "generic";
+		child.values = Arrays.asList(1, 2);
+		child.parentName = "parent";
+
+		Type type = new TypeToken<Child>() { }.getType();
+		String json = this.assertSameJSON(child, type);
+		Child read = this.compiled.read(json, Child.class);
+		assertEquals("generic", read.value);
+		assertEquals(Arrays.asList(1, 2), read.values);
+		assertEquals("parent", read.parentName);
+
+		Holder<Tweet> holder = new Holder<Tweet>();
+		holder.value = new Tweet();
+		holder.value.setText("held");
+		Type holderType = new TypeToken<Holder<Tweet>>() { }.getType();
+		json = this.assertSameJSON(holder, holderType);
+		Holder<Tweet> readHolder = this.compiled.read(json, holderType);
+		assertEquals("held", readHolder.value.getText());
+
+		// a value of a subclass is written with the fields of the subclass, it is read back as a map
+		Holder<Object> any = new Holder<Object>();
+		any.value = child;
+		assertEquals(this.reflective.write(any), this.compiled.write(any));
+
+	}
+
+	@Test
+	public void testUnsupportedShapesAreLeftToGson() {
+
+		assertFalse(CodecCompiler.isCompiled(WithFinalField.class));
+		assertFalse(CodecCompiler.isCompiled(String.class));
+		assertFalse(CodecCompiler.isCompiled(TweetType.class));
+		assertFalse(CodecCompiler.isCompiled(Parent.class));
+
+		WithFinalField withFinal = new WithFinalField();
+		this.assertSameJSON(withFinal, WithFinalField.class);
+
+	}
+
+	@Test
+	public void testServiceMethodsAreCompiledWhenRegistered() {
+
+		CodecCompiler.compile(TweetService.getAllTweets.class);
+		assertTrue(CodecCompiler.isCompiled(TweetService.getAllTweets.class));
+		assertTrue(CodecCompiler.isCompiled(Tweet.class));
+
+		new TweetService.Invoker(new TweetServiceStub());
+		assertTrue(CodecCompiler.isCompiled(TweetService.postTweet.class));
+		assertTrue(CodecCompiler.isCompiled(TweetPostResult.class));
+
+	}
+
+	private String assertSameJSON(Object message, Type type) {
+
+		String expected = this.reflective.write(message);
+		assertEquals(expected, this.compiled.write(message));
+		assertEquals(expected, this.compiled.write(this.compiled.read(expected, type)));
+		assertEquals(expected, this.reflective.write(this.compiled.read(expected, type)));
+		return expected;
+
+	}
+
+	public static class Values {
+
+		private int count;
+		private long total;
+		private Long boxedTotal;
+		private boolean flag;
+		private double ratio;
+		private BigDecimal amount;
+		private byte[] bytes;
+		private char letter;
+		private Object anything;
+		@SerializedName("other_name")
+		private String renamed;
+
+	}
+
+	public abstract static class Parent<T> {
+
+		String parentName;
+		T value;
+
+	}
+
+	public static class Child extends Parent<String> {
+
+		private String name;
+		private List<Integer> values;
+
+	}
+
+	public static class Holder<T> {
+
+		private T value;
+
+	}
+
+	public static class WithFinalField {
+
+		private final String name = "fixed";
+
+	}
+
+	public static class WithTransientField {
+
+		private String kept;
+		private transient String skipped;
+
+	}
+
+	static class TweetServiceStub implements TweetService.Iface {
+
+		public TweetPostResult postTweet(int userId, Tweet tweet, boolean test) { return null; }
+
+		public void deleteTweet(int userId, int tweetId) { }
+
+		public List<Tweet> getAllTweets() { return null; }
+
+		public List<Tweet> recentTweets(int userId) { return null; }
+
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.concur.babel.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.ResponseServiceMethod;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.model.TweetPostResult;
+import com.concur.babel.test.model.TweetType;
+import com.concur.babel.test.service.TweetService;
+import com.concur.babel.transport.BaseClient;
+import com.concur.babel.transport.BaseTransport;
+import com.google.gson.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class CodecRegistryTest {
+
+	@Test
+	public void testDefaultClientsShareTheJSONProtocol() {
+
+		TestClient first = new TestClient("http://localhost:9999/babel");
+		TestClient second = new TestClient("http://localhost:9998/babel");
+		assertSame(CodecRegistry.getJSONProtocol(), first.getTransport().getProtocol());
+		assertSame(CodecRegistry.getJSONProtocol(), second.getTransport().getProtocol());
+
+	}
+
+	@Test
+	public void testReturnTypesAreResolvedOncePerClass() {
+
+		Type expected = new TypeToken<List<Tweet>>() { }.getType();
+		Type returnType = ResponseServiceMethod.getReturnType(TweetService.getAllTweets.class);
+		assertEquals(expected, returnType);
+		assertSame(returnType, new TweetService.getAllTweets().getReturnType());
+		assertSame(returnType, new TweetService.getAllTweets().getReturnType());
+		assertEquals(TweetPostResult.class, ResponseServiceMethod.getReturnType(TweetService.postTweet.class));
+
+		try {
+			ResponseServiceMethod.getReturnType(TweetService.deleteTweet.class);
+			fail("a void service method has no return type");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+	}
+
+	@Test
+	public void testInvokersRegisterTheirServiceMethods() {
+
+		new TweetService.Invoker(new CodecCompilerTest.TweetServiceStub());
+		assertTrue(CodecRegistry.getServiceMethods().contains(TweetService.postTweet.class));
+		assertTrue(CodecRegistry.getServiceMethods().contains(TweetService.deleteTweet.class));
+		assertTrue(CodecCompiler.isCompiled(TweetPostResult.class));
+
+		// warming up creates adapters, it does not change what is written
+		String before = new JSONProtocol().write(new TweetService.postTweet(1, new Tweet(), true));
+		CodecRegistry.warmUp();
+		CodecRegistry.warmUp(new BinaryProtocol());
+		assertEquals(before, CodecRegistry.getJSONProtocol().write(new TweetService.postTweet(1, new Tweet(), true)));
+
+	}
+
+	@Test
+	public void testTheSharedProtocolIsThreadSafe() throws Exception {
+
+		final JSONProtocol protocol = CodecRegistry.getJSONProtocol();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < 64; i++) {
+				final int userId = i;
+				results.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						Tweet tweet = new Tweet();
+						tweet.setText("tweet " + userId);
+						tweet.setTweetType(TweetType.TWEET);
+						for (int j = 0; j < 200; j++) {
+							String json = protocol.write(new TweetService.postTweet(userId, tweet, false));
+							TweetService.postTweet read = protocol.read(json, TweetService.postTweet.class);
+							if (read.userId != userId || !tweet.getText().equals(read.tweet.getText())) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+	}
+
+	private static class TestClient extends BaseClient {
+
+		TestClient(String url) {
+			super(url);
+		}
+
+		BaseTransport getTransport() { return (BaseTransport)this.transport; }
+
+	}
+
+}
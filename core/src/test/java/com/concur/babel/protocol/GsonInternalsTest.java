@@ -0,0 +1,59 @@
+package com.concur.babel.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.service.TweetService;
+import com.google.gson.Gson;
+
+/**
+ * Fails when a Gson upgrade changes what the protocols rely on beyond its public API, see
+ * GsonInternals.
+ */
+@RunWith(JUnit4.class)
+public class GsonInternalsTest {
+
+	@Test
+	public void testClassesWithoutANoArgConstructorAreAllocated() {
+
+		TweetService.postTweet method = GsonInternals.allocate(TweetService.postTweet.class);
+
+		assertEquals(0, method.userId);
+		assertFalse(method.test);
+		assertNull(method.tweet);
+
+	}
+
+	@Test
+	public void testTheReflectiveAdapterIsRecognized() {
+
+		Gson gson = new Gson();
+
+		assertTrue(GsonInternals.isReflective(gson.getAdapter(Tweet.class)));
+		assertFalse(GsonInternals.isReflective(gson.getAdapter(String.class)));
+		assertFalse(GsonInternals.isReflective(gson.getAdapter(Integer.class)));
+
+	}
+
+	@Test
+	public void testBuiltInAdaptersAreSharedByEveryGson() {
+
+		// CompiledAdapter reads and writes a field without boxing only when its adapter is the built-in one
+		Gson gson = new Gson();
+
+		assertSame(gson.getAdapter(Integer.class), new Gson().getAdapter(Integer.class));
+		assertSame(gson.getAdapter(Integer.class), gson.getAdapter(int.class));
+		assertSame(gson.getAdapter(Boolean.class), gson.getAdapter(boolean.class));
+		assertSame(gson.getAdapter(String.class), new Gson().getAdapter(String.class));
+
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.concur.babel.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class JSONProtocolTest {
+
+	private static final DateTimeFormatter JODA = ISODateTimeFormat.dateTime();
+
+	private final JSONProtocol protocol = new JSONProtocol();
+
+	@Test
+	public void testDatesArePrintedAndParsedAsJodaDoes() {
+
+		DateTimeZone defaultZone = DateTimeZone.getDefault();
+		Random random = new Random(7);
+		try {
+			// historic offsets in seconds, half and quarter hours, and daylight saving on both sides
+			for (String zone : new String[] { "UTC", "America/Chicago", "Asia/Kolkata", "Asia/Kathmandu",
+				"Australia/Lord_Howe", "Pacific/Chatham", "Europe/Amsterdam", "Africa/Monrovia" })
+			{
+				DateTimeZone.setDefault(DateTimeZone.forID(zone));
+				for (int i = 0; i < 2000; i++) {
+					// from before the year 0 to after the year 9999
+					long millis = (long)((random.nextDouble() - 0.5) * 2 * 320000000000000L);
+					this.assertSameDate(millis);
+				}
+				for (long millis : new long[] { 0, -1, 1, 951782400000L, 951868799999L, -62167219200000L,
+					-62167219200001L, 253402300799999L, 253402300800000L, Long.MAX_VALUE / 2 })
+				{
+					this.assertSameDate(millis);
+				}
+			}
+		} finally {
+			DateTimeZone.setDefault(defaultZone);
+		}
+
+	}
+
+	@Test
+	public void testDatesInOtherShapesAreParsedByJoda() {
+
+		for (String text : new String[] { "2013-09-01T00:00:00.000-05:00", "2013-09-01T00:00:00.000Z",
+			"2013-09-01T00:00:00.000+14:00", "2013-09-01T00:00:00.000-00:00", "2012-02-29T23:59:59.999+05:45",
+			"2013-09-01T00:00:00.1Z", "2013-09-01T00:00:00.123456789+01:00", "2013-09-01T00:00:00.000+01",
+			"-0044-03-15T12:00:00.000Z", "12013-09-01T00:00:00.000Z" })
+		{
+			assertEquals(text, JODA.parseMillis(text), IsoDateFormat.parse(text));
+			assertEquals(text, JODA.parseMillis(text), this.protocol.read("\"" + text + "\"", Date.class).getTime());
+		}
+
+		for (String text : new String[] { "2013-02-29T00:00:00.000Z", "2013-13-01T00:00:00.000Z",
+			"2013-09-01T24:00:00.000Z", "2013-09-01T00:60:00.000Z", "2013-09-01T00:00:00.000+24:00",
+			"2013-09-01T00:00:00.000+01:60", "2013-09-01 00:00:00.000Z", "2013-09-01T00:00:00.000", "sometime" })
+		{
+			try {
+				this.protocol.read("\"" + text + "\"", Date.class);
+				fail(text);
+			} catch (RuntimeException e) {
+				assertTrue(e.getMessage().startsWith("Unable to parse date"));
+				assertTrue(e.getCause() instanceof IllegalArgumentException);
+			}
+		}
+		assertNull(this.protocol.read("null", Date.class));
+
+	}
+
+	@Test
+	public void testBytesAreEncodedAndDecodedAsCommonsCodecDoes() {
+
+		Random random = new Random(11);
+		for (int length = 0; length < 200; length++) {
+			byte[] bytes = new byte[length];
+			random.nextBytes(bytes);
+			String encoded = Base64.encodeBase64String(bytes);
+			assertEquals(encoded, Base64Codec.encode(bytes));
+			assertArrayEquals(bytes, Base64Codec.decode(encoded));
+			// the padding is escaped as any '=' in a string is
+			assertEquals(this.protocol.write(encoded), this.protocol.write(bytes));
+			assertArrayEquals(bytes, this.protocol.read(this.protocol.write(bytes), byte[].class));
+		}
+
+		// lenient text is decoded as commons codec decodes it
+		for (String text : new String[] { "", "QQ", "QUI", "QUJD\r\nREVG", "QU=JD", "-_-_", "QR==", "QUJ=",
+			"====", "QUJD=", "Q", "é", "QUJDREVG\n" })
+		{
+			assertArrayEquals(text, Base64.decodeBase64(text), Base64Codec.decode(text));
+		}
+		assertNull(this.protocol.read("null", byte[].class));
+
+	}
+
+	@Test
+	public void testLongsAndDecimalsAreWrittenAsStrings() {
+
+		assertEquals("\"9223372036854775807\"", this.protocol.write(Long.MAX_VALUE));
+		assertEquals("\"-12\"", this.protocol.write(-12L));
+		assertEquals("\"12345.67890\"", this.protocol.write(new BigDecimal("12345.67890")));
+		assertEquals("\"1E+3\"", this.protocol.write(new BigDecimal("1E+3")));
+
+		assertEquals(Long.valueOf(42), this.protocol.read("\"42\"", Long.class));
+		assertEquals(Long.valueOf(42), this.protocol.read("42", Long.class));
+		assertNull(this.protocol.read("null", Long.class));
+		assertEquals(new BigDecimal("1.50"), this.protocol.read("\"1.50\"", BigDecimal.class));
+		assertEquals(new BigDecimal("1.50"), this.protocol.read("1.50", BigDecimal.class));
+		assertNull(this.protocol.read("null", BigDecimal.class));
+
+	}
+
+	@Test
+	public void testValuesThatAreNotStringsAreReadAsTheirText() {
+
+		assertArrayEquals(Base64.decodeBase64("true"), this.protocol.read("true", byte[].class));
+		assertArrayEquals(Base64.decodeBase64("1234"), this.protocol.read("1234", byte[].class));
+		try {
+			this.protocol.read("1378000000", Date.class);
+			fail("a number is not a date");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().startsWith("Unable to parse date"));
+		}
+
+	}
+
+	private void assertSameDate(long millis) {
+
+		String expected = JODA.print(millis);
+		assertEquals(millis + " in " + DateTimeZone.getDefault(), expected, IsoDateFormat.print(millis));
+		assertEquals("\"" + expected + "\"", this.protocol.write(new Date(millis)));
+		assertEquals(expected, JODA.parseMillis(expected), IsoDateFormat.parse(expected));
+
+	}
+
+}
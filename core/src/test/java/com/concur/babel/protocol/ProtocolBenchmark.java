@@ -0,0 +1,121 @@
+package com.concur.babel.protocol;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.concur.babel.Error;
+import com.concur.babel.ServiceError;
+import com.concur.babel.test.model.Result;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.model.TweetPostResult;
+import com.concur.babel.test.model.TweetType;
+import com.concur.babel.test.service.TweetService;
+
+/**
+ * ProtocolBenchmark compares the size of the messages of the JSONProtocol and the BinaryProtocol
+ * and the time it takes to write and read them, for the messages of the TweetService.  JSON is
+ * measured with the codecs of CodecCompiler ("json") and with the reflection of Gson ("gson").  It is not a
+ * unit test, run it by hand:
+ *
+ * <pre>
+ *   java -cp ... com.concur.babel.protocol.ProtocolBenchmark [iterations]
+ * </pre>
+ *
+ * The JSON messages are measured as UTF-8 bytes, every message is written and read as many times as
+ * asked for, after as many rounds to warm up.
+ */
+public class ProtocolBenchmark {
+
+	public static void main(String[] args) {
+
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+		Tweet tweet = new Tweet();
+		tweet.setText("benchmark tweet with a little text in it");
+		tweet.setTweetType(TweetType.RETWEET);
+
+		TweetPostResult postResult = new TweetPostResult();
+		postResult.setResult(Result.SUCCESS);
+		postResult.setPostDate(new Date());
+
+		List<Tweet> tweets = new ArrayList<Tweet>();
+		for (int i = 0; i < 10; i++) {
+			Tweet t = new Tweet();
+			t.setText("benchmark tweet number " + i);
+			t.setTweetType(i % 2 == 0 ? TweetType.TWEET : TweetType.RETWEET);
+			tweets.add(t);
+		}
+
+		Map<String, Map<String, String>> context =
+			Collections.singletonMap("request", Collections.singletonMap("id", "0af3c2"));
+		ServiceError error = new ServiceError(
+			new Date(),
+			Arrays.asList("validation"),
+			Arrays.asList(new Error("INVALID_TWEET", "the tweet is too long", Arrays.asList("text"))),
+			context,
+			null,
+			null);
+
+		Protocol[] protocols = new Protocol[] { new JSONProtocol(false), new JSONProtocol(), new BinaryProtocol() };
+		System.out.printf("%-20s %-8s %8s %12s %12s%n", "message", "protocol", "bytes", "write ns", "read ns");
+		run("postTweet", new TweetService.postTweet(1234567, tweet, false), TweetService.postTweet.class, protocols, iterations);
+		run("TweetPostResult", postResult, TweetPostResult.class, protocols, iterations);
+		run("List<Tweet> x10", tweets, new TweetService.getAllTweets().getReturnType(), protocols, iterations);
+		run("ServiceError", error, ServiceError.class, protocols, iterations);
+
+	}
+
+	private static void run(String name, Object message, Type type, Protocol[] protocols, int iterations) {
+
+		for (int p = 0; p < protocols.length; p++) {
+			Protocol protocol = protocols[p];
+			String label = protocol instanceof BinaryProtocol ? "binary" : p == 0 ? "gson" : "json";
+			int bytes;
+			try {
+				bytes = protocol instanceof BinaryProtocol ?
+					((BinaryProtocol)protocol).writeBytes(message).length :
+					protocol.write(message).getBytes("UTF-8").length;
+			} catch (java.io.UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+
+			time(protocol, message, type, iterations);
+			long[] nanos = time(protocol, message, type, iterations);
+			System.out.printf("%-20s %-8s %8d %12d %12d%n", name, label, bytes, nanos[0] / iterations, nanos[1] / iterations);
+		}
+
+	}
+
+	private static long[] time(Protocol protocol, Object message, Type type, int iterations) {
+
+		Object sink = null;
+		String written = null;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			written = protocol.write(message);
+		}
+		long write = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			sink = protocol.read(written, type);
+		}
+		long read = System.nanoTime() - start;
+
+		if (sink == null) {
+			throw new IllegalStateException(name(protocol) + " did not read the message back");
+		}
+		return new long[] { write, read };
+
+	}
+
+	private static String name(Protocol protocol) {
+		return protocol.getClass().getSimpleName();
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.concur.babel.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.model.TweetType;
+import com.concur.babel.test.service.TweetService;
+
+@RunWith(JUnit4.class)
+public class ProtocolStreamsTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testJSONStreamsAreTheUTF8OfItsStrings() throws Exception {
+
+		JSONProtocol protocol = new JSONProtocol();
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			// ASCII, two and three byte chars and a surrogate pair, across the buffer of the writer
+			text.append("a é 日 😀 ");
+		}
+		// unpaired surrogates are written as String.getBytes writes them
+		text.append("\uDE00 \uD83D");
+		Tweet tweet = new Tweet();
+		tweet.setText(text.toString());
+		tweet.setTweetType(TweetType.TWEET);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		protocol.write(tweet, out);
+		assertArrayEquals(protocol.write(tweet).getBytes(UTF8), out.toByteArray());
+
+		Tweet read = protocol.read(new ByteArrayInputStream(out.toByteArray()), Tweet.class);
+		assertEquals(text.toString().replace("\uDE00 \uD83D", "? ?"), read.getText());
+		assertEquals(TweetType.TWEET, read.getTweetType());
+
+	}
+
+	@Test
+	public void testProtocolsWithoutStreamsAreBridgedAsUTF8() {
+
+		Protocol protocol = new TextOnlyProtocol();
+		Tweet tweet = new Tweet();
+		tweet.setText("naïve");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProtocolStreams.write(protocol, new TweetService.postTweet(1, tweet, false), out);
+		assertArrayEquals(
+			new JSONProtocol().write(new TweetService.postTweet(1, tweet, false)).getBytes(UTF8),
+			out.toByteArray());
+
+		TweetService.postTweet read = ProtocolStreams.read(
+			protocol,
+			new ByteArrayInputStream(out.toByteArray()),
+			TweetService.postTweet.class);
+		assertEquals("naïve", read.tweet.getText());
+		assertEquals(UTF8, ProtocolStreams.getCharset(protocol));
+
+		StringWriter writer = new StringWriter();
+		ProtocolStreams.write(protocol, new TweetService.postTweet(1, tweet, false), writer);
+		assertEquals(protocol.write(new TweetService.postTweet(1, tweet, false)), writer.toString());
+
+	}
+
+	@Test
+	public void testBinaryStreamsAreItsBytes() {
+
+		BinaryProtocol protocol = new BinaryProtocol();
+		Tweet tweet = new Tweet();
+		tweet.setText("naïve");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProtocolStreams.write(protocol, tweet, out);
+		assertArrayEquals(protocol.writeBytes(tweet), out.toByteArray());
+		assertEquals(protocol.write(tweet), new String(out.toByteArray(), ProtocolStreams.getCharset(protocol)));
+
+		List<Tweet> tweets = ProtocolStreams.read(
+			protocol,
+			new ByteArrayInputStream(protocol.writeBytes(Arrays.asList(tweet))),
+			new TweetService.getAllTweets().getReturnType());
+		assertEquals("naïve", tweets.get(0).getText());
+
+	}
+
+	@Test
+	public void testEmptyStreamsAreNull() {
+
+		assertNull(ProtocolStreams.read(new JSONProtocol(), new ByteArrayInputStream(new byte[0]), Tweet.class));
+		assertNull(ProtocolStreams.read(new BinaryProtocol(), new ByteArrayInputStream(new byte[0]), Tweet.class));
+
+	}
+
+	/**
+	 * TextOnlyProtocol only implements the Protocol interface, as protocols written before streams did.
+	 */
+	private static class TextOnlyProtocol implements Protocol {
+
+		private final JSONProtocol json = new JSONProtocol();
+
+		public <T> T read(String json, Class<T> classOfT) { return this.json.read(json, classOfT); }
+
+		public <T> T read(String json, Type typeOfT) { return this.json.read(json, typeOfT); }
+
+		public <T> T read(Reader reader, Class<T> classOfT) { return this.json.read(reader, classOfT); }
+
+		public <T> T read(Reader reader, Type typeOfT) { return this.json.read(reader, typeOfT); }
+
+		public String write(Object src) { return this.json.write(src); }
+
+	}
+
+}
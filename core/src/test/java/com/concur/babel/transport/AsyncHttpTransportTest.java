@@ -0,0 +1,148 @@
+package com.concur.babel.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.exception.BabelApplicationException;
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.service.TweetService;
+import com.concur.babel.transport.async.ServiceCallback;
+import com.concur.babel.transport.async.ServiceFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(JUnit4.class)
+public class AsyncHttpTransportTest {
+
+	private HttpServer server;
+	private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+	private String url;
+
+	@Before
+	public void startServer() throws IOException {
+
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/babel", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+				InputStream in = exchange.getRequestBody();
+				while (in.read() != -1) {
+				}
+				int status = 200;
+				String response = "[{\"text\":\"hello\"}]";
+				if (exchange.getRequestURI().getPath().endsWith("/deleteTweet")) {
+					status = 409;
+					response = "{\"Errors\":[{\"Code\":\"NOT_FOUND\",\"Message\":\"missing\"}]}";
+				}
+				byte[] body = response.getBytes("UTF-8");
+				exchange.sendResponseHeaders(status, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		this.server.start();
+		this.url = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/babel";
+
+	}
+
+	@After
+	public void stopServer() {
+		this.server.stop(0);
+	}
+
+	@Test
+	public void testInvokeAsyncNotifiesCallback() throws Exception {
+
+		AsyncHttpTransport transport = new AsyncHttpTransport(this.url, new JSONProtocol());
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<List<Tweet>> result = new AtomicReference<List<Tweet>>();
+
+		ServiceFuture<List<Tweet>> future = transport.invokeAsync(new TweetService.getAllTweets());
+		future.addCallback(new ServiceCallback<List<Tweet>>() {
+			public void onSuccess(List<Tweet> tweets) {
+				result.set(tweets);
+				latch.countDown();
+			}
+			public void onFailure(Exception e) {
+				latch.countDown();
+			}
+		});
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals("hello", result.get().get(0).getText());
+		assertEquals("hello", future.get().get(0).getText());
+		transport.close();
+
+	}
+
+	@Test
+	public void testBlockingCallsReuseConnection() {
+
+		AsyncHttpTransport transport = new AsyncHttpTransport(this.url, new JSONProtocol());
+		TweetService.Client client = new TweetService.Client(transport);
+
+		for (int i = 0; i < 5; i++) {
+			assertEquals("hello", client.getAllTweets().get(0).getText());
+		}
+
+		assertEquals(1, this.clientPorts.size());
+		transport.close();
+
+	}
+
+	@Test
+	public void testApplicationErrorFailsFuture() {
+
+		AsyncHttpTransport transport = new AsyncHttpTransport(this.url, new JSONProtocol());
+		ServiceFuture<Void> future = transport.invokeAsync(new TweetService.deleteTweet(1, 2));
+
+		try {
+			future.join();
+			fail("Expected a BabelApplicationException");
+		} catch (BabelApplicationException e) {
+			assertEquals("NOT_FOUND", e.getServiceError().getErrors().get(0).getCode());
+		}
+		assertTrue(future.isDone());
+		transport.close();
+
+	}
+
+	@Test
+	public void testBlockingTransportCanBeInvokedAsync() throws Exception {
+
+		HttpTransport transport = new HttpTransport(this.url, new JSONProtocol());
+		ServiceFuture<Void> future = transport.invokeAsync(new TweetService.deleteTweet(1, 2));
+
+		try {
+			future.join();
+			fail("Expected a BabelApplicationException");
+		} catch (BabelApplicationException e) {
+			assertNull(e.getCause());
+		}
+
+	}
+
+}
@@ -0,0 +1,504 @@
+package com.concur.babel.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.exception.BabelException;
+import com.concur.babel.protocol.BinaryProtocol;
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.test.model.Result;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.service.BlockingTweetService;
+import com.concur.babel.test.service.TweetService;
+import com.concur.babel.test.service.TweetServiceImpl;
+import com.concur.babel.transport.server.ServerBusyException;
+import com.concur.babel.transport.server.ServerDrainingException;
+import com.concur.babel.transport.server.SocketServerTransport;
+import com.concur.babel.transport.socket.FrameFormat;
+import com.concur.babel.transport.socket.RequestWriter;
+import com.concur.babel.transport.socket.SocketClientConnection;
+import com.concur.babel.transport.socket.SocketFrame;
+import com.concur.babel.transport.socket.UnixDomainSockets;
+import com.concur.babel.transport.socket.WorkerPool;
+
+@RunWith(JUnit4.class)
+public class BabelNioSocketServerTest {
+
+	private BabelNioSocketServer server;
+
+	@Before
+	public void startServer() {
+
+		this.server = new BabelNioSocketServer(0, new JSONProtocol(), 4, 2);
+		this.server.register(new TweetService.Invoker(new TweetServiceImpl()));
+		this.server.setIdleTimeout(200);
+		this.server.bind();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				server.start();
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+	}
+
+	@After
+	public void stopServer() {
+		SocketTransport.closeConnections();
+		this.server.stop();
+	}
+
+	@Test
+	public void testLegacyCallsRoundTrip() {
+		this.assertRoundTrip(new SocketTransport("127.0.0.1", this.server.getPort(), new JSONProtocol()));
+	}
+
+	@Test
+	public void testMultiplexedCallsRoundTrip() throws Exception {
+
+		SocketTransport transport = new SocketTransport("127.0.0.1", this.server.getPort(), new JSONProtocol());
+		transport.setMultiplexed(true);
+		this.assertRoundTrip(transport);
+
+		// the server sends GOAWAY on the idle connection and closes it, the next call opens a new one
+		this.assertConnectionCount(0);
+		assertEquals(1, new TweetService.Client(transport).getAllTweets().size());
+
+	}
+
+	@Test
+	public void testIdleMultiplexedConnectionsAreSentGoAway() throws Exception {
+
+		SocketClientConnection connection = SocketClientConnection.open("127.0.0.1", this.server.getPort(), 1000);
+		try {
+			SocketFrame response = connection.send(new HashMap<String, String>(), "TweetService", "getAllTweets",
+				new RequestWriter() {
+					public void write(Writer writer) throws IOException {
+						writer.write("{}\r\n");
+					}
+				}).await(1000);
+			assertEquals(200, response.getStatus());
+			assertTrue(connection.isUsable());
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (connection.isUsable() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertFalse(connection.isUsable());
+			assertEquals(0, connection.getPendingCount());
+		} finally {
+			connection.close();
+		}
+		this.assertConnectionCount(0);
+
+	}
+
+	@Test
+	public void testBinaryCallsRoundTrip() throws Exception {
+
+		SocketTransport transport = new SocketTransport("127.0.0.1", this.server.getPort(), new JSONProtocol());
+		transport.setFrameFormat(FrameFormat.BINARY);
+		this.assertRoundTrip(transport);
+
+		// every response buffer went back to the arena, the event loops keep their read buffers
+		for (int i = 0; i < 100 && this.server.getBufferArena().getOutstandingCount() > 2; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, this.server.getBufferArena().getOutstandingCount());
+
+		// the server sends GOAWAY on the idle connection and closes it, the next call opens a new one
+		this.assertConnectionCount(0);
+		assertEquals(1, new TweetService.Client(transport).getAllTweets().size());
+
+	}
+
+	@Test
+	public void testBinaryProtocolCallsRoundTrip() {
+
+		final BabelNioSocketServer binary = new BabelNioSocketServer(0, new BinaryProtocol(), 4, 1);
+		DeletingTweetService service = new DeletingTweetService();
+		binary.register(new TweetService.Invoker(service));
+		binary.bind();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				binary.start();
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		try {
+			// the protocol writes any byte, it needs length delimited frames
+			SocketTransport transport = new SocketTransport("127.0.0.1", binary.getPort(), new BinaryProtocol());
+			transport.setFrameFormat(FrameFormat.BINARY);
+			this.assertRoundTrip(transport);
+
+			// messages ending in the bytes of a line break are sent whole, 5 and -7 zigzag encode to 0x0A and 0x0D
+			TweetService.Client client = new TweetService.Client(transport);
+			for (int tweetId : new int[] { 5, -7 }) {
+				byte[] message = new BinaryProtocol().writeBytes(new TweetService.deleteTweet(1, tweetId));
+				assertTrue(message[message.length - 1] == '\n' || message[message.length - 1] == '\r');
+				client.deleteTweet(1, tweetId);
+			}
+			assertEquals(Arrays.asList(2, 5, -7), service.deleted);
+		} finally {
+			binary.stop();
+		}
+
+	}
+
+	@Test
+	public void testUnixDomainSocketCallsRoundTrip() throws Exception {
+
+		if (!UnixDomainSockets.isSupported()) {
+			return;
+		}
+
+		Path socketPath = Files.createTempDirectory("babel").resolve("babel.sock");
+		final BabelNioSocketServer local = new BabelNioSocketServer(socketPath, new JSONProtocol());
+		local.register(new TweetService.Invoker(new TweetServiceImpl()));
+		local.setSocketFilePermissions("rw-------");
+		local.bind();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				local.start();
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		try {
+			assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(socketPath));
+			this.assertRoundTrip(new SocketTransport(socketPath, new JSONProtocol()));
+		} finally {
+			local.stop();
+		}
+		assertFalse(Files.exists(socketPath));
+		Files.delete(socketPath.getParent());
+
+	}
+
+	@Test
+	public void testStalledClientsDoNotBlockOthers() throws Exception {
+
+		List<Socket> stalled = new ArrayList<Socket>();
+		for (int i = 0; i < 50; i++) {
+			Socket socket = new Socket("127.0.0.1", this.server.getPort());
+			OutputStream out = socket.getOutputStream();
+			out.write("call=".getBytes("UTF-8"));
+			out.flush();
+			stalled.add(socket);
+		}
+
+		SocketTransport transport = new SocketTransport("127.0.0.1", this.server.getPort(), new JSONProtocol(), 1000);
+		assertTrue(new TweetService.Client(transport).getAllTweets().isEmpty());
+
+		// the half sent requests are closed once idle
+		for (Socket socket : stalled) {
+			socket.setSoTimeout(2000);
+			assertEquals(-1, socket.getInputStream().read());
+			socket.close();
+		}
+		Thread.sleep(100);
+		assertEquals(0, this.server.getConnectionCount());
+
+	}
+
+	@Test
+	public void testConnectionGoesAwayAfterMaxRequests() throws Exception {
+
+		this.server.setMaxRequests(2);
+		Socket socket = new Socket("127.0.0.1", this.server.getPort());
+		StringBuilder requests = new StringBuilder("BABEL-MUX/1\r\n");
+		for (int i = 1; i <= 3; i++) {
+			requests.append(i).append("\r\nx=1\r\nTweetService||getAllTweets\r\n{}\r\n");
+		}
+		socket.getOutputStream().write(requests.toString().getBytes("UTF-8"));
+		socket.getOutputStream().flush();
+
+		// the third request is not served, the client resends it on a new connection
+		BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+		Set<String> answered = new HashSet<String>();
+		for (int i = 0; i < 2; i++) {
+			answered.add(reader.readLine());
+			assertEquals("200", reader.readLine());
+			assertEquals("[]", reader.readLine());
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("1", "2")), answered);
+		assertEquals("GOAWAY 2", reader.readLine());
+		assertEquals(null, reader.readLine());
+		socket.close();
+
+	}
+
+	@Test
+	public void testClientReconnectsAfterMaxRequests() {
+
+		this.server.setMaxRequests(3);
+		SocketTransport transport = new SocketTransport("127.0.0.1", this.server.getPort(), new JSONProtocol());
+		transport.setMultiplexed(true);
+		transport.setMaxConnections(1);
+		TweetService.Client client = new TweetService.Client(transport);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(0, client.getAllTweets().size());
+		}
+
+	}
+
+	@Test
+	public void testRequestSplitAcrossWrites() throws Exception {
+
+		Socket socket = new Socket("127.0.0.1", this.server.getPort());
+		OutputStream out = socket.getOutputStream();
+		byte[] request = "BABEL-MUX/1\r\n7\r\nx=1\r\nTweetService||getAllTweets\r\n{}\r\n".getBytes("UTF-8");
+		for (byte b : request) {
+			out.write(b);
+			out.flush();
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+		assertEquals("7", reader.readLine());
+		assertEquals("200", reader.readLine());
+		assertEquals("[]", reader.readLine());
+		socket.close();
+
+	}
+
+	@Test
+	public void testPipelinedRequestsWaitForInFlightLimit() throws Exception {
+
+		final BlockingTweetService blocking = new BlockingTweetService();
+		final BabelNioSocketServer pipelined = new BabelNioSocketServer(0, new JSONProtocol(), 4, 1);
+		pipelined.register(new TweetService.Invoker(blocking));
+		pipelined.setMaxInFlight(2);
+		pipelined.bind();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				pipelined.start();
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		try {
+			// six requests in one write, without waiting for a response
+			Socket socket = new Socket("127.0.0.1", pipelined.getPort());
+			StringBuilder requests = new StringBuilder("BABEL-MUX/1\r\n");
+			for (int i = 1; i <= 6; i++) {
+				requests.append(i).append("\r\nx=1\r\nTweetService||getAllTweets\r\n{}\r\n");
+			}
+			socket.getOutputStream().write(requests.toString().getBytes("UTF-8"));
+			socket.getOutputStream().flush();
+
+			Thread.sleep(300);
+			assertEquals(2, blocking.getStartedCount());
+			blocking.release();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			Set<String> answered = new HashSet<String>();
+			for (int i = 0; i < 6; i++) {
+				answered.add(reader.readLine());
+				assertEquals("200", reader.readLine());
+				assertEquals("[]", reader.readLine());
+			}
+			assertEquals(6, answered.size());
+			assertEquals(6, blocking.getStartedCount());
+			socket.close();
+		} finally {
+			blocking.release();
+			pipelined.stop();
+		}
+
+	}
+
+	@Test
+	public void testShutdownDrainsRequestsInFlight() throws Exception {
+
+		final BlockingTweetService blocking = new BlockingTweetService();
+		final BabelNioSocketServer draining = new BabelNioSocketServer(0, new JSONProtocol(), 4, 1);
+		draining.register(new TweetService.Invoker(blocking));
+		draining.bind();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				draining.start();
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		final SocketTransport transport = new SocketTransport("127.0.0.1", draining.getPort(), new JSONProtocol());
+		transport.setMultiplexed(true);
+		transport.setMaxConnections(1);
+		final List<Tweet> answered = new ArrayList<Tweet>();
+		Thread caller = new Thread(new Runnable() {
+			public void run() {
+				answered.addAll(new TweetService.Client(transport).getAllTweets());
+			}
+		});
+		caller.start();
+		for (int i = 0; i < 200 && draining.getInFlightCount() == 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, draining.getInFlightCount());
+
+		final boolean[] drained = new boolean[1];
+		Thread stopper = new Thread(new Runnable() {
+			public void run() {
+				drained[0] = draining.shutdown(5, TimeUnit.SECONDS);
+			}
+		});
+		stopper.start();
+		for (int i = 0; i < 200 && !draining.getManager().isDraining(); i++) {
+			Thread.sleep(10);
+		}
+
+		try {
+			// the open connection is still read, its new requests are turned away
+			new TweetService.Client(transport).getAllTweets();
+			fail("the server should be draining");
+		} catch (BabelException e) {
+			assertEquals(ServerDrainingException.ERROR_CODE, e.getServiceError().getErrors().get(0).getCode());
+		}
+
+		blocking.release();
+		stopper.join(5000);
+		caller.join(2000);
+		assertTrue(drained[0]);
+		assertEquals(1, blocking.getStartedCount());
+		assertEquals(0, draining.getInFlightCount());
+		// the event loop closes its connections once it wakes up
+		for (int i = 0; i < 200 && draining.getConnectionCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, draining.getConnectionCount());
+
+	}
+
+	@Test
+	public void testFullWorkerPoolAnswersBusy() throws Exception {
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final BabelNioSocketServer busy = new BabelNioSocketServer(0, new JSONProtocol(), new WorkerPool(1, 0, "test-worker"), 1) {
+			protected void callService(SocketServerTransport serverTransport, Map<String, String> requestContext) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.callService(serverTransport, requestContext);
+			}
+		};
+		busy.register(new TweetService.Invoker(new TweetServiceImpl()));
+		busy.bind();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				busy.start();
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		try {
+			final SocketTransport transport = new SocketTransport("127.0.0.1", busy.getPort(), new JSONProtocol());
+			transport.setMultiplexed(true);
+			Thread first = new Thread(new Runnable() {
+				public void run() {
+					new TweetService.Client(transport).getAllTweets();
+				}
+			});
+			first.start();
+			assertTrue(started.await(2, TimeUnit.SECONDS));
+
+			try {
+				new TweetService.Client(transport).getAllTweets();
+				fail("the worker pool should be full");
+			} catch (BabelException e) {
+				assertEquals(ServerBusyException.ERROR_CODE, e.getServiceError().getErrors().get(0).getCode());
+			}
+			assertEquals(1, busy.getWorkerPool().getActiveCount());
+			assertEquals(1, busy.getWorkerPool().getRejectedCount());
+
+			release.countDown();
+			first.join(2000);
+			// the worker counts the request after the response was written
+			for (int i = 0; i < 100 && busy.getWorkerPool().getCompletedCount() == 0; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, busy.getWorkerPool().getCompletedCount());
+		} finally {
+			release.countDown();
+			busy.stop();
+		}
+
+	}
+
+	/**
+	 * Waits, up to five seconds, for the server to have a number of open connections.
+	 */
+	private void assertConnectionCount(int count) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (this.server.getConnectionCount() != count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, this.server.getConnectionCount());
+
+	}
+
+	private void assertRoundTrip(SocketTransport transport) {
+
+		TweetService.Client client = new TweetService.Client(transport);
+		Tweet tweet = new Tweet();
+		tweet.setText("naïve || line=break");
+
+		assertEquals(Result.SUCCESS, client.postTweet(1, tweet, false).getResult());
+		assertEquals("naïve || line=break", client.getAllTweets().get(0).getText());
+		client.deleteTweet(1, 2);
+
+	}
+
+	/**
+	 * DeletingTweetService deletes any tweet and keeps the ids it was asked to delete.
+	 */
+	public static class DeletingTweetService extends TweetServiceImpl {
+
+		private final List<Integer> deleted = new CopyOnWriteArrayList<Integer>();
+
+		public void deleteTweet(int userId, int tweetId) {
+			this.deleted.add(tweetId);
+		}
+
+	}
+
+}
@@ -0,0 +1,237 @@
+package com.concur.babel.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.test.service.TweetService;
+import com.concur.babel.transport.handler.HedgeHandler;
+import com.concur.babel.transport.handler.ServiceConnection;
+import com.concur.babel.transport.hedge.HedgePolicy;
+import com.concur.babel.transport.hedge.LatencyTracker;
+import com.concur.babel.transport.retry.RetryBudget;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(JUnit4.class)
+public class HedgingTransportTest {
+
+	private HttpServer slow;
+	private HttpServer fast;
+	private final AtomicInteger slowRequests = new AtomicInteger();
+	private final AtomicInteger fastRequests = new AtomicInteger();
+	private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void startServers() throws IOException {
+		this.slow = this.startServer(this.slowRequests, 1000);
+		this.fast = this.startServer(this.fastRequests, 0);
+	}
+
+	@After
+	public void stopServers() {
+		this.slow.stop(0);
+		this.fast.stop(0);
+	}
+
+	@Test
+	public void testSlowRequestIsHedgedAndHedgeWins() {
+
+		HedgePolicy policy = this.newPolicy(50);
+		TweetService.Client client = this.newClient(policy, this.getUrl(this.slow), this.getUrl(this.fast));
+
+		long start = System.currentTimeMillis();
+		assertTrue(client.getAllTweets().isEmpty());
+		assertTrue(System.currentTimeMillis() - start < 800);
+		assertEquals(1, this.slowRequests.get());
+		assertEquals(1, this.fastRequests.get());
+		assertEquals(Arrays.asList("hedge 1", "complete 1 1"), this.events);
+
+	}
+
+	@Test
+	public void testFastRequestIsNotHedged() throws Exception {
+
+		HedgePolicy policy = this.newPolicy(500);
+		TweetService.Client client = this.newClient(policy, this.getUrl(this.fast), this.getUrl(this.slow));
+
+		assertTrue(client.getAllTweets().isEmpty());
+		Thread.sleep(600);
+		assertEquals(1, this.fastRequests.get());
+		assertEquals(0, this.slowRequests.get());
+		assertEquals(Arrays.asList("complete 0 0"), this.events);
+
+	}
+
+	@Test
+	public void testMethodsNotMarkedIdempotentAreNotHedged() {
+
+		HedgePolicy policy = new HedgePolicy();
+		policy.setDelay(50);
+		TweetService.Client client = this.newClient(policy, this.getUrl(this.slow), this.getUrl(this.fast));
+
+		assertTrue(client.getAllTweets().isEmpty());
+		assertEquals(1, this.slowRequests.get());
+		assertEquals(0, this.fastRequests.get());
+		assertTrue(this.events.isEmpty());
+
+	}
+
+	@Test
+	public void testBudgetCapsHedges() {
+
+		HedgePolicy policy = this.newPolicy(300);
+		policy.setBudget(new RetryBudget(0, 1));
+		HedgingTransport transport = this.newTransport(policy, this.getUrl(this.slow), this.getUrl(this.fast),
+			this.getUrl(this.slow), this.getUrl(this.fast));
+		TweetService.Client client = new TweetService.Client(transport);
+
+		assertTrue(client.getAllTweets().isEmpty());
+		assertTrue(client.getAllTweets().isEmpty());
+		assertTrue(client.getAllTweets().isEmpty());
+		assertEquals(Arrays.asList("hedge 1", "complete 1 1", "complete 0 0", "denied 1", "complete 0 0"),
+			this.events);
+
+	}
+
+	@Test
+	public void testFailedRequestIsHedgedRightAway() throws IOException {
+
+		ServerSocket closed = new ServerSocket(0);
+		String refused = "http://127.0.0.1:" + closed.getLocalPort() + "/babel";
+		closed.close();
+
+		HedgePolicy policy = this.newPolicy(5000);
+		TweetService.Client client = this.newClient(policy, refused, this.getUrl(this.fast));
+
+		long start = System.currentTimeMillis();
+		assertTrue(client.getAllTweets().isEmpty());
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertEquals(Arrays.asList("hedge 1", "complete 1 1"), this.events);
+
+	}
+
+	@Test
+	public void testDelayFollowsLatencyPercentile() {
+
+		HedgePolicy policy = new HedgePolicy();
+		policy.setDelay(100);
+		policy.setDelayPercentile(90);
+		policy.setMinimumSamples(10);
+		LatencyTracker latencies = new LatencyTracker(10, 1);
+
+		for (int i = 1; i <= 9; i++) {
+			latencies.record(i * 10);
+		}
+		assertEquals(100, policy.getDelay(latencies));
+		latencies.record(100);
+		assertEquals(90, policy.getDelay(latencies));
+
+		for (int i = 0; i < 10; i++) {
+			latencies.record(5);
+		}
+		assertEquals(5, policy.getDelay(latencies));
+		assertEquals(5, latencies.getPercentile(50));
+
+	}
+
+	private HedgePolicy newPolicy(long delay) {
+
+		HedgePolicy policy = new HedgePolicy();
+		policy.setDelay(delay);
+		policy.addIdempotentMethod("TweetService", "getAllTweets");
+		return policy;
+
+	}
+
+	private TweetService.Client newClient(HedgePolicy policy, String... urls) {
+		return new TweetService.Client(this.newTransport(policy, urls));
+	}
+
+	private HedgingTransport newTransport(HedgePolicy policy, String... urls) {
+
+		List<BaseTransport> endpoints = new ArrayList<BaseTransport>();
+		for (String url : urls) {
+			endpoints.add(new HttpTransport(url, new JSONProtocol()));
+		}
+		HedgingTransport transport = new HedgingTransport(endpoints, policy);
+		transport.addResponseHandler(new HedgeHandler() {
+			public void onHedge(ServiceConnection serviceConnection, Map<String, String> headers,
+				int hedge, long elapsed)
+			{
+				events.add("hedge " + hedge);
+			}
+			public void onHedgeDenied(ServiceConnection serviceConnection, Map<String, String> headers,
+				int hedge)
+			{
+				events.add("denied " + hedge);
+			}
+			public void onHedgeComplete(ServiceConnection serviceConnection, Map<String, String> headers,
+				int hedges, int winner, long duration)
+			{
+				events.add("complete " + hedges + " " + winner);
+			}
+			public void onSuccess(ServiceConnection serviceConnection, Map<String, String> headers,
+				String request, String response, long duration)
+			{
+			}
+			public void onFailure(ServiceConnection serviceConnection, Map<String, String> headers,
+				String request, String response, long duration, Integer errorCode, Exception exception)
+			{
+			}
+		});
+		return transport;
+
+	}
+
+	private HttpServer startServer(final AtomicInteger requests, final long delay) throws IOException {
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/babel", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getRequestBody().close();
+				requests.incrementAndGet();
+				if (delay > 0) {
+					try {
+						Thread.sleep(delay);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				byte[] body = "[]".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		return server;
+
+	}
+
+	private String getUrl(HttpServer server) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/babel";
+	}
+
+}
@@ -0,0 +1,245 @@
+package com.concur.babel.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.exception.BabelException;
+import com.concur.babel.protocol.BinaryProtocol;
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.test.model.Result;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.model.TweetPostResult;
+import com.concur.babel.test.service.BlockingTweetService;
+import com.concur.babel.test.service.TweetService;
+import com.concur.babel.test.service.TweetServiceImpl;
+import com.concur.babel.transport.batch.BatchResult;
+import com.concur.babel.transport.http2.Http2ClientConnection;
+
+@RunWith(JUnit4.class)
+public class Http2TransportTest {
+
+	private BabelHttp2Server server;
+	private String url;
+
+	@Before
+	public void startServer() {
+
+		this.server = new BabelHttp2Server(0, new JSONProtocol());
+		this.server.register(new TweetService.Invoker(new TweetServiceImpl()));
+		this.server.bind();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				server.start();
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+		this.url = "http://127.0.0.1:" + this.server.getPort() + "/babel";
+
+	}
+
+	@After
+	public void stopServer() {
+		Http2Transport.closeConnections();
+		this.server.stop();
+	}
+
+	@Test
+	public void testCallsRoundTrip() {
+
+		TweetService.Client client = new TweetService.Client(new Http2Transport(this.url, new JSONProtocol()));
+		Tweet tweet = new Tweet();
+		tweet.setText("naïve");
+
+		assertEquals(Result.SUCCESS, client.postTweet(1, tweet, false).getResult());
+		assertEquals("naïve", client.getAllTweets().get(0).getText());
+		client.deleteTweet(1, 2);
+
+	}
+
+	@Test
+	public void testLargeBodiesAreCompressedBothWays() {
+
+		Http2Transport transport = new Http2Transport(this.url, new JSONProtocol());
+		transport.getCompression().setCompressRequests(true);
+		TweetService.Client client = new TweetService.Client(transport);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			text.append("compressible ");
+		}
+		Tweet tweet = new Tweet();
+		tweet.setText(text.toString());
+
+		assertEquals(Result.SUCCESS, client.postTweet(1, tweet, false).getResult());
+		assertEquals(text.toString(), client.getAllTweets().get(0).getText());
+
+		assertEquals(1, transport.getCompression().getMetrics().getStats("TweetService").getCompressed());
+		assertEquals(1, transport.getCompression().getMetrics().getStats("TweetService").getDecompressed());
+		assertEquals(1, this.server.getCompression().getMetrics().getStats("TweetService").getDecompressed());
+		assertEquals(1, this.server.getCompression().getMetrics().getStats("TweetService").getCompressed());
+
+	}
+
+	@Test
+	public void testServiceErrorIsMapped() {
+
+		TweetService.Client client = new TweetService.Client(new Http2Transport(this.url, new JSONProtocol()));
+		try {
+			// recentTweets is not registered with the test invoker
+			client.recentTweets(1);
+			fail("Expected a BabelException");
+		} catch (BabelException e) {
+			assertEquals("9999", e.getServiceError().getErrors().get(0).getCode());
+		}
+
+	}
+
+	@Test
+	public void testBinaryProtocolBodiesAreSentAsBytes() {
+
+		final BabelHttp2Server server = new BabelHttp2Server(0, new BinaryProtocol());
+		server.register(new TweetService.Invoker(new TweetServiceImpl()));
+		server.bind();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				server.start();
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		try {
+			TweetService.Client client = new TweetService.Client(
+				new Http2Transport("http://127.0.0.1:" + server.getPort() + "/babel", new BinaryProtocol()));
+			Tweet tweet = new Tweet();
+			// chars above 0x7f are single bytes of a binary message, they must not be sent as UTF-8
+			tweet.setText("naïve");
+
+			assertEquals(Result.SUCCESS, client.postTweet(1, tweet, false).getResult());
+			assertEquals("naïve", client.getAllTweets().get(0).getText());
+			try {
+				client.recentTweets(1);
+				fail("Expected a BabelException");
+			} catch (BabelException e) {
+				assertEquals("9999", e.getServiceError().getErrors().get(0).getCode());
+			}
+		} finally {
+			server.stop();
+		}
+
+	}
+
+	@Test
+	public void testBatchReturnsResultsAndErrorsInOrder() {
+
+		TweetService.Client client = new TweetService.Client(new Http2Transport(this.url, new JSONProtocol()));
+		Tweet tweet = new Tweet();
+		tweet.setText("batched");
+
+		List<BatchResult> results = client.invokeBatch(Arrays.asList(
+			new TweetService.postTweet(1, tweet, false),
+			new TweetService.deleteTweet(1, 2),
+			new TweetService.recentTweets(1),
+			new TweetService.getAllTweets()));
+
+		assertEquals(4, results.size());
+		assertEquals(Result.SUCCESS, results.get(0).<TweetPostResult>get().getResult());
+		assertTrue(results.get(1).isSuccess());
+		assertNull(results.get(1).get());
+		assertFalse(results.get(2).isSuccess());
+		assertEquals("9999", results.get(2).getServiceError().getErrors().get(0).getCode());
+		try {
+			results.get(2).get();
+			fail("Expected a BabelException");
+		} catch (BabelException e) {
+			assertSame(results.get(2).getException(), e);
+		}
+		List<Tweet> tweets = results.get(3).get();
+		assertEquals("batched", tweets.get(0).getText());
+
+	}
+
+	@Test
+	public void testConcurrentCallsShareOneConnection() throws Exception {
+
+		final Http2Transport transport = new Http2Transport(this.url, new JSONProtocol());
+		final TweetService.Client client = new TweetService.Client(transport);
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		List<Future<TweetPostResult>> results = new ArrayList<Future<TweetPostResult>>();
+
+		for (int i = 0; i < 200; i++) {
+			final Tweet tweet = new Tweet();
+			tweet.setText("tweet " + i);
+			results.add(executor.submit(new Callable<TweetPostResult>() {
+				public TweetPostResult call() {
+					return client.postTweet(1, tweet, false);
+				}
+			}));
+		}
+		for (Future<TweetPostResult> result : results) {
+			assertEquals(Result.SUCCESS, result.get().getResult());
+		}
+		executor.shutdown();
+
+		assertSame(transport.getConnection(), new Http2Transport(this.url, new JSONProtocol()).getConnection());
+
+	}
+
+	@Test
+	public void testInterruptedCallsResetTheirStream() throws Exception {
+
+		BlockingTweetService blocking = new BlockingTweetService();
+		this.server.register(new TweetService.Invoker(blocking));
+		final Http2Transport transport = new Http2Transport(this.url, new JSONProtocol());
+		Http2ClientConnection connection = transport.getConnection();
+		final List<Exception> failures = new ArrayList<Exception>();
+		Thread caller = new Thread(new Runnable() {
+			public void run() {
+				try {
+					new TweetService.Client(transport).getAllTweets();
+				} catch (RuntimeException e) {
+					failures.add(e);
+				}
+			}
+		});
+
+		try {
+			caller.start();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (connection.getActiveStreams() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			assertEquals(1, connection.getActiveStreams());
+
+			caller.interrupt();
+			caller.join(5000);
+
+			assertFalse(caller.isAlive());
+			assertEquals(1, failures.size());
+			assertEquals(0, connection.getActiveStreams());
+			assertTrue(connection.isUsable());
+		} finally {
+			blocking.release();
+		}
+
+	}
+
+}
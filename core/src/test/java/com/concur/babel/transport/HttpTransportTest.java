@@ -0,0 +1,184 @@
+package com.concur.babel.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.service.TweetService;
+import com.concur.babel.transport.handler.ResponseHandler;
+import com.concur.babel.transport.handler.ServiceConnection;
+import com.concur.babel.transport.pool.HttpConnectionPool;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(JUnit4.class)
+public class HttpTransportTest {
+
+	private static final String RESPONSE = "[\n  {\n    \"text\": \"café\\nline two\"\n  }\n]\n";
+
+	private HttpServer server;
+	private String url;
+	private final List<String> responses = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+	private volatile String transferEncoding;
+	private volatile String contentLength;
+	private volatile String requestBody;
+
+	@Before
+	public void startServer() throws IOException {
+
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/babel", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+				contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+				InputStream in = exchange.getRequestBody();
+				ByteArrayOutputStream request = new ByteArrayOutputStream();
+				int b;
+				while ((b = in.read()) != -1) {
+					request.write(b);
+				}
+				requestBody = new String(request.toByteArray(), "UTF-8");
+				String response = exchange.getRequestURI().getPath().endsWith("/postTweet") ? "{}" : RESPONSE;
+				byte[] body = response.getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		this.server.start();
+		this.url = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/babel";
+
+	}
+
+	@After
+	public void stopServer() {
+		this.server.stop(0);
+	}
+
+	@Test
+	public void testResponseIsDecodedFromStream() {
+
+		HttpTransport transport = new HttpTransport(this.url, new JSONProtocol());
+		transport.addResponseHandler(new RecordingHandler());
+
+		List<Tweet> tweets = new TweetService.Client(transport).getAllTweets();
+
+		assertEquals("café\nline two", tweets.get(0).getText());
+		assertEquals(1, this.responses.size());
+		assertNull(this.responses.get(0));
+
+	}
+
+	@Test
+	public void testCapturedResponseIsPassedToHandlers() {
+
+		HttpTransport transport = new HttpTransport(this.url, new JSONProtocol());
+		transport.addResponseHandler(new RecordingHandler());
+		transport.setCaptureResponse(true);
+
+		List<Tweet> tweets = new TweetService.Client(transport).getAllTweets();
+
+		assertEquals("café\nline two", tweets.get(0).getText());
+		assertEquals(RESPONSE, this.responses.get(0));
+
+	}
+
+	@Test
+	public void testRequestIsStreamedChunked() {
+
+		HttpTransport transport = new HttpTransport(this.url, new JSONProtocol());
+		transport.addResponseHandler(new RecordingHandler());
+		Tweet tweet = new Tweet();
+		tweet.setText("naïve");
+
+		new TweetService.Client(transport).postTweet(1, tweet, false);
+
+		assertEquals("chunked", this.transferEncoding);
+		assertEquals(new JSONProtocol().write(new TweetService.postTweet(1, tweet, false)), this.requestBody);
+		assertNull(this.requests.get(0));
+
+	}
+
+	@Test
+	public void testRequestIsSentWithContentLength() {
+
+		PooledHttpTransport transport = new PooledHttpTransport(this.url, new JSONProtocol(), new HttpConnectionPool(1, 1));
+		transport.setChunkedStreaming(false);
+		transport.setCaptureRequest(true);
+		transport.addResponseHandler(new RecordingHandler());
+		Tweet tweet = new Tweet();
+		tweet.setText("naïve");
+
+		new TweetService.Client(transport).postTweet(1, tweet, false);
+
+		assertNull(this.transferEncoding);
+		assertEquals(String.valueOf(this.requestBody.getBytes(Charset.forName("UTF-8")).length), this.contentLength);
+		assertEquals(this.requestBody, this.requests.get(0));
+		transport.getPool().shutdown();
+
+	}
+
+	@Test
+	public void testPooledRequestIsStreamedChunked() {
+
+		PooledHttpTransport transport = new PooledHttpTransport(this.url, new JSONProtocol(), new HttpConnectionPool(1, 1));
+		Tweet tweet = new Tweet();
+		tweet.setText("naïve");
+
+		new TweetService.Client(transport).postTweet(1, tweet, false);
+
+		assertEquals("chunked", this.transferEncoding);
+		assertEquals(new JSONProtocol().write(new TweetService.postTweet(1, tweet, false)), this.requestBody);
+		transport.getPool().shutdown();
+
+	}
+
+	private class RecordingHandler implements ResponseHandler {
+
+		public void onSuccess(
+			ServiceConnection serviceConnection,
+			Map<String, String> headers,
+			String request,
+			String response,
+			long duration)
+		{
+			requests.add(request);
+			responses.add(response);
+		}
+
+		public void onFailure(
+			ServiceConnection serviceConnection,
+			Map<String, String> headers,
+			String request,
+			String response,
+			long duration,
+			Integer errorCode,
+			Exception exception)
+		{
+
+		}
+
+	}
+
+}
@@ -0,0 +1,223 @@
+package com.concur.babel.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.service.TweetService;
+import com.concur.babel.transport.pool.ConnectionPoolTimeoutException;
+import com.concur.babel.transport.pool.HttpConnectionPool;
+import com.concur.babel.transport.pool.HttpRoute;
+import com.concur.babel.transport.pool.PooledConnection;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(JUnit4.class)
+public class PooledHttpTransportTest {
+
+	private HttpServer server;
+	private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+	private String url;
+
+	@Before
+	public void startServer() throws IOException {
+
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/babel", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+				InputStream in = exchange.getRequestBody();
+				while (in.read() != -1) {
+				}
+				byte[] body = "[{\"text\":\"hello\"}]".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		this.server.start();
+		this.url = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/babel";
+
+	}
+
+	@After
+	public void stopServer() {
+		this.server.stop(0);
+	}
+
+	@Test
+	public void testConnectionIsReusedAcrossCalls() {
+
+		HttpConnectionPool pool = new HttpConnectionPool(2, 2);
+		PooledHttpTransport transport = new PooledHttpTransport(this.url, new JSONProtocol(), pool);
+		TweetService.Client client = new TweetService.Client(transport);
+
+		for (int i = 0; i < 5; i++) {
+			List<Tweet> tweets = client.getAllTweets();
+			assertEquals("hello", tweets.get(0).getText());
+		}
+
+		assertEquals(1, this.clientPorts.size());
+		assertEquals(0, transport.getPoolStats().getLeased());
+		assertEquals(1, transport.getPoolStats().getIdle());
+		pool.shutdown();
+
+	}
+
+	@Test
+	public void testLeaseTimesOutWhenRouteIsExhausted() throws IOException {
+
+		HttpConnectionPool pool = new HttpConnectionPool(1, 1);
+		HttpRoute route = new HttpRoute("http", "127.0.0.1", this.server.getAddress().getPort());
+		PooledConnection connection = pool.lease(route, 1000, 1000);
+
+		try {
+			pool.lease(route, 1000, 50);
+			fail("Expected the lease to time out");
+		} catch (ConnectionPoolTimeoutException e) {
+			assertTrue(e.getMessage().startsWith("Timeout waiting for a connection"));
+		}
+
+		pool.release(connection, true);
+		assertEquals(1, pool.getStats(route).getIdle());
+		assertEquals(0, pool.getStats(route).getPending());
+		pool.shutdown();
+		assertEquals(0, pool.getTotalStats().getIdle());
+
+	}
+
+	@Test
+	public void testExpiredIdleConnectionsAreEvicted() throws Exception {
+
+		HttpConnectionPool pool = new HttpConnectionPool(1, 1);
+		pool.setIdleTimeout(1);
+		HttpRoute route = new HttpRoute("http", "127.0.0.1", this.server.getAddress().getPort());
+		pool.release(pool.lease(route, 1000, 1000), true);
+
+		Thread.sleep(10);
+		pool.closeExpiredConnections();
+
+		assertEquals(0, pool.getStats(route).getIdle());
+		pool.shutdown();
+
+	}
+
+	@Test
+	public void testCallsSentBeforeTheConnectionClosedAreNotReplayed() throws Exception {
+
+		// the server reads the second request on the connection and closes it without answering, it
+		// may have processed the call so the transport must not send it again by itself
+		final ServerSocket listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		final AtomicInteger requests = new AtomicInteger();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						Socket socket = listener.accept();
+						try {
+							InputStream in = socket.getInputStream();
+							OutputStream out = socket.getOutputStream();
+							while (readRequest(in)) {
+								if (requests.incrementAndGet() == 2) {
+									break;
+								}
+								byte[] body = "[{\"text\":\"hello\"}]".getBytes("UTF-8");
+								out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes("US-ASCII"));
+								out.write(body);
+								out.flush();
+							}
+						} finally {
+							socket.close();
+						}
+					}
+				} catch (IOException e) {
+					// the listener was closed
+				}
+			}
+		});
+		acceptor.start();
+
+		HttpConnectionPool pool = new HttpConnectionPool(1, 1);
+		PooledHttpTransport transport = new PooledHttpTransport(
+			"http://127.0.0.1:" + listener.getLocalPort() + "/babel", new JSONProtocol(), pool);
+		transport.setChunkedStreaming(false);
+		TweetService.Client client = new TweetService.Client(transport);
+		try {
+			assertEquals("hello", client.getAllTweets().get(0).getText());
+			try {
+				client.getAllTweets();
+				fail("Expected the call to fail");
+			} catch (RuntimeException e) {
+				// the connection was closed without a response
+			}
+			assertEquals(2, requests.get());
+		} finally {
+			pool.shutdown();
+			listener.close();
+			acceptor.join(5000);
+		}
+
+	}
+
+	private static boolean readRequest(InputStream in) throws IOException {
+
+		int contentLength = 0;
+		String line = readLine(in);
+		if (line == null) {
+			return false;
+		}
+		while ((line = readLine(in)) != null && line.length() > 0) {
+			if (line.toLowerCase(Locale.US).startsWith("content-length:")) {
+				contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+			}
+		}
+		for (int i = 0; i < contentLength; i++) {
+			if (in.read() == -1) {
+				return false;
+			}
+		}
+		return line != null;
+
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+
+		StringBuilder sb = new StringBuilder();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1) {
+				return null;
+			}
+			if (b != '\r') {
+				sb.append((char)b);
+			}
+		}
+		return sb.toString();
+
+	}
+
+}
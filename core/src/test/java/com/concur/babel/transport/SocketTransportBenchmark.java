@@ -0,0 +1,132 @@
+package com.concur.babel.transport;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.service.TweetService;
+import com.concur.babel.test.service.TweetServiceImpl;
+import com.concur.babel.transport.socket.FrameFormat;
+import com.concur.babel.transport.socket.UnixDomainSockets;
+
+/**
+ * SocketTransportBenchmark compares calls to a BabelNioSocketServer over loopback TCP with calls over
+ * a Unix domain socket.  It is not a unit test, run it by hand:
+ *
+ * <pre>
+ *   java -cp ... com.concur.babel.transport.SocketTransportBenchmark [threads] [calls per thread]
+ * </pre>
+ *
+ * Every call reads a small list of tweets, the throughput and latency percentiles of each transport
+ * are printed once it was warmed up.
+ */
+public class SocketTransportBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int calls = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+		TweetServiceImpl service = new TweetServiceImpl();
+		for (int i = 0; i < 10; i++) {
+			Tweet tweet = new Tweet();
+			tweet.setText("benchmark tweet number " + i);
+			service.postTweet(1, tweet, false);
+		}
+
+		BabelNioSocketServer tcp = start(new BabelNioSocketServer(0, new JSONProtocol()), service);
+		SocketTransport lines = new SocketTransport("127.0.0.1", tcp.getPort(), new JSONProtocol());
+		lines.setMultiplexed(true);
+		run("tcp lines", lines, threads, calls);
+		SocketTransport binary = new SocketTransport("127.0.0.1", tcp.getPort(), new JSONProtocol());
+		binary.setFrameFormat(FrameFormat.BINARY);
+		run("tcp binary", binary, threads, calls);
+		tcp.stop();
+
+		if (!UnixDomainSockets.isSupported()) {
+			System.out.println("unix domain sockets need JDK 16 or later");
+		} else {
+			Path directory = Files.createTempDirectory("babel");
+			Path socketPath = directory.resolve("babel.sock");
+			BabelNioSocketServer unix = start(new BabelNioSocketServer(socketPath, new JSONProtocol()), service);
+			run("unix binary", new SocketTransport(socketPath, new JSONProtocol()), threads, calls);
+			unix.stop();
+			Files.delete(directory);
+		}
+		SocketTransport.closeConnections();
+
+	}
+
+	private static BabelNioSocketServer start(final BabelNioSocketServer server, TweetServiceImpl service) {
+
+		server.register(new TweetService.Invoker(service));
+		server.bind();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				server.start();
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return server;
+
+	}
+
+	private static void run(String name, SocketTransport transport, int threads, int calls) throws Exception {
+
+		// the first round warms up the JIT and the connections
+		measure(transport, threads, calls / 2);
+		long start = System.nanoTime();
+		long[] latencies = measure(transport, threads, calls);
+		long elapsed = System.nanoTime() - start;
+
+		Arrays.sort(latencies);
+		System.out.println(String.format(
+			"%-12s %9.0f calls/s   p50 %6.1fus   p99 %7.1fus   p99.9 %7.1fus",
+			name,
+			latencies.length / (elapsed / 1e9),
+			latencies[latencies.length / 2] / 1e3,
+			latencies[(int)(latencies.length * 0.99)] / 1e3,
+			latencies[(int)(latencies.length * 0.999)] / 1e3));
+
+	}
+
+	private static long[] measure(final SocketTransport transport, int threads, final int calls) throws Exception {
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+		for (int i = 0; i < threads; i++) {
+			results.add(executor.submit(new Callable<long[]>() {
+				public long[] call() {
+					TweetService.Client client = new TweetService.Client(transport);
+					long[] latencies = new long[calls];
+					for (int i = 0; i < calls; i++) {
+						long start = System.nanoTime();
+						client.getAllTweets();
+						latencies[i] = System.nanoTime() - start;
+					}
+					return latencies;
+				}
+			}));
+		}
+
+		long[] latencies = new long[threads * calls];
+		for (int i = 0; i < threads; i++) {
+			System.arraycopy(results.get(i).get(), 0, latencies, i * calls, calls);
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		return latencies;
+
+	}
+
+}
@@ -0,0 +1,383 @@
+package com.concur.babel.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.test.model.Result;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.service.BlockingTweetService;
+import com.concur.babel.test.service.TweetService;
+import com.concur.babel.test.service.TweetServiceImpl;
+import com.concur.babel.transport.socket.FrameFormat;
+import com.concur.babel.transport.socket.RequestWriter;
+import com.concur.babel.transport.socket.SocketClientConnection;
+import com.concur.babel.transport.socket.SocketFrame;
+import com.concur.babel.transport.socket.SocketFrames;
+
+@RunWith(JUnit4.class)
+public class SocketTransportTest {
+
+	private BabelSimpleSocketServer server;
+
+	@Before
+	public void startServer() {
+
+		this.server = new BabelSimpleSocketServer(0, new JSONProtocol());
+		this.server.register(new TweetService.Invoker(new TweetServiceImpl()));
+		this.server.setIdleTimeout(200);
+		this.server.bind();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				server.start();
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+	}
+
+	@After
+	public void stopServer() {
+		SocketTransport.closeConnections();
+		this.server.stop();
+	}
+
+	@Test
+	public void testLegacyCallsRoundTrip() {
+		this.assertRoundTrip(new SocketTransport("127.0.0.1", this.server.getPort(), new JSONProtocol()));
+	}
+
+	@Test
+	public void testMultiplexedCallsRoundTrip() throws Exception {
+
+		SocketTransport transport = new SocketTransport("127.0.0.1", this.server.getPort(), new JSONProtocol());
+		transport.setMultiplexed(true);
+		this.assertRoundTrip(transport);
+
+		// the server closes the idle connection, the next call opens a new one
+		this.assertConnectionCount(0);
+		assertEquals(1, new TweetService.Client(transport).getAllTweets().size());
+
+	}
+
+	@Test
+	public void testIdleMultiplexedConnectionsAreClosed() throws Exception {
+
+		SocketClientConnection connection = SocketClientConnection.open("127.0.0.1", this.server.getPort(), 1000);
+		try {
+			SocketFrame response = connection.send(new HashMap<String, String>(), "TweetService", "getAllTweets",
+				new RequestWriter() {
+					public void write(Writer writer) throws IOException {
+						writer.write("{}\r\n");
+					}
+				}).await(1000);
+			assertEquals(200, response.getStatus());
+			assertTrue(connection.isUsable());
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (connection.isUsable() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertFalse(connection.isUsable());
+			assertEquals(0, connection.getPendingCount());
+		} finally {
+			connection.close();
+		}
+		this.assertConnectionCount(0);
+
+	}
+
+	@Test
+	public void testRequestFailingToSerializeLeavesTheConnectionUsable() throws Exception {
+
+		SocketClientConnection connection = SocketClientConnection.open("127.0.0.1", this.server.getPort(), 1000);
+		try {
+			for (int i = 0; i < 3; i++) {
+				try {
+					// the message fails half way through
+					connection.send(new HashMap<String, String>(), "TweetService", "getAllTweets", new RequestWriter() {
+						public void write(Writer writer) throws IOException {
+							writer.write("{\"userId\":");
+							throw new IllegalStateException("serialization failed");
+						}
+					});
+					fail("the request should not have been sent");
+				} catch (IllegalStateException e) {
+					// expected
+				}
+				assertEquals(0, connection.getPendingCount());
+				assertTrue(connection.isUsable());
+
+				// nothing of the failed request was sent on the connection
+				SocketFrame response = connection.send(new HashMap<String, String>(), "TweetService", "getAllTweets",
+					new RequestWriter() {
+						public void write(Writer writer) throws IOException {
+							writer.write("{}\r\n");
+						}
+					}).await(1000);
+				assertEquals(200, response.getStatus());
+				assertEquals("[]", response.getBody());
+			}
+		} finally {
+			connection.close();
+		}
+
+	}
+
+	@Test
+	public void testBinaryCallsRoundTrip() throws Exception {
+
+		SocketTransport transport = new SocketTransport("127.0.0.1", this.server.getPort(), new JSONProtocol());
+		transport.setFrameFormat(FrameFormat.BINARY);
+		this.assertRoundTrip(transport);
+
+		// the server closes the idle connection, the next call opens a new one
+		this.assertConnectionCount(0);
+		assertEquals(1, new TweetService.Client(transport).getAllTweets().size());
+
+	}
+
+	@Test
+	public void testPipelinedRequestsWaitForInFlightLimit() throws Exception {
+
+		final BlockingTweetService blocking = new BlockingTweetService();
+		final BabelSimpleSocketServer pipelined = new BabelSimpleSocketServer(0, new JSONProtocol(), 4);
+		pipelined.register(new TweetService.Invoker(blocking));
+		pipelined.setMaxInFlight(2);
+		pipelined.bind();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				pipelined.start();
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		try {
+			// six requests in one write, without waiting for a response
+			Socket socket = new Socket("127.0.0.1", pipelined.getPort());
+			StringBuilder requests = new StringBuilder("BABEL-MUX/1\r\n");
+			for (int i = 1; i <= 6; i++) {
+				requests.append(i).append("\r\nx=1\r\nTweetService||getAllTweets\r\n{}\r\n");
+			}
+			socket.getOutputStream().write(requests.toString().getBytes("UTF-8"));
+			socket.getOutputStream().flush();
+
+			Thread.sleep(300);
+			assertEquals(2, blocking.getStartedCount());
+			blocking.release();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			Set<String> answered = new HashSet<String>();
+			for (int i = 0; i < 6; i++) {
+				answered.add(reader.readLine());
+				assertEquals("200", reader.readLine());
+				assertEquals("[]", reader.readLine());
+			}
+			assertEquals(6, answered.size());
+			assertEquals(6, blocking.getStartedCount());
+			socket.close();
+		} finally {
+			blocking.release();
+			pipelined.stop();
+		}
+
+	}
+
+	@Test
+	public void testConnectionGoesAwayAfterMaxRequests() throws Exception {
+
+		this.server.setMaxRequests(2);
+		Socket socket = new Socket("127.0.0.1", this.server.getPort());
+		StringBuilder requests = new StringBuilder("BABEL-MUX/1\r\n");
+		for (int i = 1; i <= 3; i++) {
+			requests.append(i).append("\r\nx=1\r\nTweetService||getAllTweets\r\n{}\r\n");
+		}
+		socket.getOutputStream().write(requests.toString().getBytes("UTF-8"));
+		socket.getOutputStream().flush();
+
+		// the third request is not served, the client resends it on a new connection
+		BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+		Set<String> answered = new HashSet<String>();
+		for (int i = 0; i < 2; i++) {
+			answered.add(reader.readLine());
+			assertEquals("200", reader.readLine());
+			assertEquals("[]", reader.readLine());
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("1", "2")), answered);
+		assertEquals("GOAWAY 2", reader.readLine());
+		assertEquals(null, reader.readLine());
+		socket.close();
+
+	}
+
+	@Test
+	public void testConcurrentCallsShareOneConnection() throws Exception {
+
+		final AtomicInteger accepted = new AtomicInteger();
+		final ServerSocket listener = new ServerSocket(0);
+		Thread fake = this.startFakeServer(new FakeServer() {
+			public void serve() throws IOException {
+				Socket socket = listener.accept();
+				accepted.incrementAndGet();
+				BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+				assertTrue(SocketFrames.isPreface(in));
+				BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+				Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+
+				// answer in batches of four, newest first
+				List<SocketFrame> requests = new ArrayList<SocketFrame>();
+				for (int i = 0; i < 40; i++) {
+					requests.add(SocketFrames.readRequest(reader));
+					if (requests.size() == 4) {
+						for (int j = requests.size() - 1; j >= 0; j--) {
+							SocketFrame request = requests.get(j);
+							SocketFrames.writeResponse(writer, request.getRequestId(), 200,
+								"[{\"text\":\"" + request.getHeaders().get("call") + "\"}]");
+						}
+						writer.flush();
+						requests.clear();
+					}
+				}
+				socket.close();
+			}
+		});
+
+		ExecutorService callers = Executors.newFixedThreadPool(8);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int i = 0; i < 40; i++) {
+			final String call = String.valueOf(i);
+			results.add(callers.submit(new Callable<String>() {
+				public String call() {
+					SocketTransport transport = new SocketTransport("127.0.0.1", listener.getLocalPort(), new JSONProtocol());
+					transport.setMultiplexed(true);
+					transport.setMaxConnections(1);
+					transport.setHeader("call", call);
+					return new TweetService.Client(transport).getAllTweets().get(0).getText();
+				}
+			}));
+		}
+		for (int i = 0; i < 40; i++) {
+			assertEquals(String.valueOf(i), results.get(i).get());
+		}
+		callers.shutdown();
+		fake.join(5000);
+		listener.close();
+		assertEquals(1, accepted.get());
+
+	}
+
+	@Test
+	public void testCallCrossingGoAwayIsResent() throws Exception {
+
+		final ServerSocket listener = new ServerSocket(0);
+		Thread fake = this.startFakeServer(new FakeServer() {
+			public void serve() throws IOException {
+				for (int connection = 0; connection < 2; connection++) {
+					Socket socket = listener.accept();
+					BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+					assertTrue(SocketFrames.isPreface(in));
+					BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+					Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+					SocketFrame request = SocketFrames.readRequest(reader);
+					if (connection == 0) {
+						SocketFrames.writeGoAway(writer, request.getRequestId() - 1);
+					} else {
+						SocketFrames.writeResponse(writer, request.getRequestId(), 200, "[{\"text\":\"again\"}]");
+					}
+					writer.flush();
+					socket.shutdownOutput();
+					while (reader.readLine() != null) {
+						continue;
+					}
+					socket.close();
+				}
+			}
+		});
+
+		SocketTransport transport = new SocketTransport("127.0.0.1", listener.getLocalPort(), new JSONProtocol());
+		transport.setMultiplexed(true);
+		assertEquals("again", new TweetService.Client(transport).getAllTweets().get(0).getText());
+		SocketTransport.closeConnections();
+		fake.join(5000);
+		listener.close();
+
+	}
+
+	/**
+	 * Waits, up to five seconds, for the server to have a number of open connections.
+	 */
+	private void assertConnectionCount(int count) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (this.server.getConnectionCount() != count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, this.server.getConnectionCount());
+
+	}
+
+	private void assertRoundTrip(SocketTransport transport) {
+
+		TweetService.Client client = new TweetService.Client(transport);
+		Tweet tweet = new Tweet();
+		tweet.setText("naïve || line=break");
+
+		assertEquals(Result.SUCCESS, client.postTweet(1, tweet, false).getResult());
+		assertEquals("naïve || line=break", client.getAllTweets().get(0).getText());
+		client.deleteTweet(1, 2);
+
+	}
+
+	private Thread startFakeServer(final FakeServer fake) {
+
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					fake.serve();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+
+	}
+
+	private interface FakeServer {
+		void serve() throws IOException;
+	}
+
+}
@@ -0,0 +1,247 @@
+package com.concur.babel.transport.circuit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.test.service.TweetService;
+import com.concur.babel.transport.HttpTransport;
+import com.concur.babel.transport.handler.ServiceConnection;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(JUnit4.class)
+public class CircuitBreakerTest {
+
+	private HttpServer server;
+	private String url;
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile boolean failing = true;
+	private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void startServer() throws IOException {
+
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/babel", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getRequestBody().close();
+				requests.incrementAndGet();
+				if (failing) {
+					exchange.sendResponseHeaders(503, -1);
+					exchange.close();
+					return;
+				}
+				byte[] body = "[]".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		this.server.start();
+		this.url = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/babel";
+
+	}
+
+	@After
+	public void stopServer() {
+		this.server.stop(0);
+	}
+
+	@Test
+	public void testOpensOnceFailureRateReachesThreshold() {
+
+		CircuitBreaker breaker = this.newRegistry(10, 4, 60000).getCircuitBreaker("svc/method");
+		for (int i = 0; i < 3; i++) {
+			assertTrue(breaker.tryAcquirePermission());
+			breaker.onFailure(1);
+		}
+		assertEquals(-1, breaker.getFailureRate(), 0.001);
+		assertEquals(CircuitState.CLOSED, breaker.getState());
+
+		assertTrue(breaker.tryAcquirePermission());
+		breaker.onSuccess(1);
+		assertEquals(75, breaker.getFailureRate(), 0.001);
+		assertEquals(CircuitState.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquirePermission());
+		assertEquals(Collections.singletonList("svc/method CLOSED>OPEN"), this.events);
+
+	}
+
+	@Test
+	public void testWindowForgetsOldestCalls() {
+
+		CircuitBreaker breaker = this.newRegistry(4, 4, 60000).getCircuitBreaker("svc/method");
+		breaker.onFailure(1);
+		for (int i = 0; i < 10; i++) {
+			breaker.onSuccess(1);
+		}
+		assertEquals(0, breaker.getFailureRate(), 0.001);
+		breaker.onFailure(1);
+		assertEquals(25, breaker.getFailureRate(), 0.001);
+		assertEquals(CircuitState.CLOSED, breaker.getState());
+
+	}
+
+	@Test
+	public void testSlowCallsOpenTheBreaker() {
+
+		CircuitBreakerPolicy policy = new CircuitBreakerPolicy();
+		policy.setWindowSize(4);
+		policy.setMinimumCalls(4);
+		policy.setSlowCallDuration(100);
+		policy.setSlowCallRateThreshold(50);
+		CircuitBreaker breaker = new CircuitBreakerRegistry(policy).getCircuitBreaker("svc/method");
+
+		breaker.onSuccess(10);
+		breaker.onSuccess(10);
+		breaker.onSuccess(150);
+		assertEquals(CircuitState.CLOSED, breaker.getState());
+		breaker.onSuccess(150);
+		assertEquals(50, breaker.getSlowCallRate(), 0.001);
+		assertEquals(CircuitState.OPEN, breaker.getState());
+
+	}
+
+	@Test
+	public void testHalfOpenClosesAfterTrialCallsSucceed() {
+
+		CircuitBreaker breaker = this.newRegistry(2, 2, 0).getCircuitBreaker("svc/method");
+		breaker.onFailure(1);
+		breaker.onFailure(1);
+		assertEquals(CircuitState.OPEN, breaker.getState());
+
+		assertTrue(breaker.tryAcquirePermission());
+		assertEquals(CircuitState.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.tryAcquirePermission());
+		breaker.onSuccess(1);
+		assertEquals(CircuitState.HALF_OPEN, breaker.getState());
+		breaker.onSuccess(1);
+		assertEquals(CircuitState.CLOSED, breaker.getState());
+		assertEquals(-1, breaker.getFailureRate(), 0.001);
+
+		breaker.onFailure(1);
+		breaker.onFailure(1);
+		assertTrue(breaker.tryAcquirePermission());
+		breaker.onFailure(1);
+		assertEquals(CircuitState.OPEN, breaker.getState());
+		assertEquals(
+			"[svc/method CLOSED>OPEN, svc/method OPEN>HALF_OPEN, svc/method HALF_OPEN>CLOSED, " +
+			"svc/method CLOSED>OPEN, svc/method OPEN>HALF_OPEN, svc/method HALF_OPEN>OPEN]",
+			this.events.toString());
+
+	}
+
+	@Test
+	public void testRegistryKeysByServiceMethodAndOptionallyHost() {
+
+		CircuitBreakerRegistry registry = new CircuitBreakerRegistry();
+		CircuitBreaker breaker = registry.getCircuitBreaker(new ServiceConnection("svc", "method", "a", 80));
+		assertSame(breaker, registry.getCircuitBreaker(new ServiceConnection("svc", "method", "b", 80)));
+		assertEquals("svc/method", breaker.getName());
+
+		CircuitBreakerPolicy policy = new CircuitBreakerPolicy();
+		policy.setPerHost(true);
+		registry = new CircuitBreakerRegistry(policy);
+		assertEquals("svc/method@a:80",
+			registry.getCircuitBreaker(new ServiceConnection("svc", "method", "a", 80)).getName());
+		assertEquals(1, registry.getCircuitBreakers().size());
+
+	}
+
+	@Test
+	public void testOpenBreakerFailsCallsWithoutCallingTheService() {
+
+		CircuitBreakerRegistry registry = this.newRegistry(3, 3, 60000);
+		HttpTransport transport = new HttpTransport(this.url, new JSONProtocol());
+		transport.setCircuitBreakers(registry);
+		TweetService.Client client = new TweetService.Client(transport);
+
+		for (int i = 0; i < 3; i++) {
+			try {
+				client.getAllTweets();
+				fail("expected the 503 to fail the call");
+			} catch (CircuitBreakerOpenException e) {
+				fail("breaker opened early");
+			} catch (RuntimeException expected) {
+				// 503
+			}
+		}
+		assertEquals(3, this.requests.get());
+		assertEquals(CircuitState.OPEN, registry.getCircuitBreaker("TweetService/getAllTweets").getState());
+
+		try {
+			client.getAllTweets();
+			fail("expected the open breaker to fail the call");
+		} catch (CircuitBreakerOpenException e) {
+			assertEquals(CircuitBreakerOpenException.ERROR_CODE, e.getServiceError().getErrors().get(0).getCode());
+			assertEquals("TweetService/getAllTweets", e.getCircuitBreaker().getName());
+		}
+		assertEquals(3, this.requests.get());
+
+	}
+
+	@Test
+	public void testTrialCallClosesBreakerOnceServiceRecovers() throws Exception {
+
+		CircuitBreakerRegistry registry = this.newRegistry(2, 2, 50);
+		registry.getPolicy().setHalfOpenCalls(1);
+		HttpTransport transport = new HttpTransport(this.url, new JSONProtocol());
+		transport.setCircuitBreakers(registry);
+		TweetService.Client client = new TweetService.Client(transport);
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				client.getAllTweets();
+				fail("expected the 503 to fail the call");
+			} catch (RuntimeException expected) {
+				// 503
+			}
+		}
+		CircuitBreaker breaker = registry.getCircuitBreaker("TweetService/getAllTweets");
+		assertEquals(CircuitState.OPEN, breaker.getState());
+
+		this.failing = false;
+		Thread.sleep(60);
+		assertTrue(client.getAllTweets().isEmpty());
+		assertEquals(CircuitState.CLOSED, breaker.getState());
+
+	}
+
+	private CircuitBreakerRegistry newRegistry(int windowSize, int minimumCalls, long openDuration) {
+
+		CircuitBreakerPolicy policy = new CircuitBreakerPolicy();
+		policy.setWindowSize(windowSize);
+		policy.setMinimumCalls(minimumCalls);
+		policy.setOpenDuration(openDuration);
+		policy.setHalfOpenCalls(2);
+		CircuitBreakerRegistry registry = new CircuitBreakerRegistry(policy);
+		registry.addListener(new CircuitBreakerListener() {
+			public void onStateChange(CircuitBreaker circuitBreaker, CircuitState from, CircuitState to) {
+				events.add(circuitBreaker.getName() + " " + from + ">" + to);
+			}
+		});
+		return registry;
+
+	}
+
+}
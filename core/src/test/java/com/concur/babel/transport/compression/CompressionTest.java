@@ -0,0 +1,271 @@
+package com.concur.babel.transport.compression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CompressionTest {
+
+	private static final byte[] PAYLOAD = payload();
+
+	@Test
+	public void testGzipIsReadableByTheJdk() throws IOException {
+
+		CompressionPolicy policy = new CompressionPolicy();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		OutputStream out = policy.compress(compressed, ContentCoding.GZIP, "TweetService");
+		out.write(PAYLOAD);
+		out.close();
+
+		assertArrayEquals(PAYLOAD, readFully(new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))));
+		assertTrue(compressed.size() < PAYLOAD.length / 4);
+
+	}
+
+	@Test
+	public void testGzipFromTheJdkIsDecompressed() throws IOException {
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(compressed);
+		out.write(PAYLOAD);
+		out.close();
+
+		InputStream in = new CompressionPolicy().decompress(
+			new ByteArrayInputStream(compressed.toByteArray()), "gzip", "TweetService");
+		assertArrayEquals(PAYLOAD, readFully(in));
+
+	}
+
+	@Test
+	public void testCorruptGzipTrailerIsRejected() throws IOException {
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(compressed);
+		out.write(PAYLOAD);
+		out.close();
+		byte[] bytes = compressed.toByteArray();
+		bytes[bytes.length - 8] ^= 1;
+
+		try {
+			readFully(new CompressionPolicy().decompress(new ByteArrayInputStream(bytes), "gzip", "TweetService"));
+			fail("Expected a ZipException");
+		} catch (ZipException e) {
+			assertTrue(e.getMessage().contains("trailer"));
+		}
+
+	}
+
+	@Test
+	public void testZlibAndRawDeflateAreBothAccepted() throws IOException {
+
+		ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+		DeflaterOutputStream out = new DeflaterOutputStream(zlib);
+		out.write(PAYLOAD);
+		out.close();
+
+		ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		out = new DeflaterOutputStream(raw, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+		out.write(PAYLOAD);
+		out.close();
+
+		CompressionPolicy policy = new CompressionPolicy();
+		assertArrayEquals(PAYLOAD, readFully(policy.decompress(new ByteArrayInputStream(zlib.toByteArray()), "deflate", null)));
+		assertArrayEquals(PAYLOAD, readFully(policy.decompress(new ByteArrayInputStream(raw.toByteArray()), "deflate", null)));
+
+	}
+
+	@Test
+	public void testCodersAreReturnedToThePool() throws IOException {
+
+		CompressionPolicy policy = new CompressionPolicy();
+		policy.setCodecPool(new CodecPool(4, Deflater.DEFAULT_COMPRESSION));
+
+		for (int i = 0; i < 10; i++) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			OutputStream out = policy.compress(compressed, ContentCoding.GZIP, null);
+			out.write(PAYLOAD);
+			out.close();
+			readFully(policy.decompress(new ByteArrayInputStream(compressed.toByteArray()), "gzip", null));
+		}
+
+		assertEquals(1, policy.getCodecPool().getIdleDeflaters());
+		assertEquals(1, policy.getCodecPool().getIdleInflaters());
+
+	}
+
+	@Test
+	public void testAcceptEncodingIsNegotiated() {
+
+		assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("gzip, deflate"));
+		assertEquals(ContentCoding.DEFLATE, ContentCoding.negotiate("gzip;q=0.5, deflate"));
+		assertEquals(ContentCoding.DEFLATE, ContentCoding.negotiate("deflate, gzip;q=0"));
+		assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("*"));
+		assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("X-GZIP"));
+		assertNull(ContentCoding.negotiate("br, identity"));
+		assertNull(ContentCoding.negotiate(null));
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedContentEncodingIsRejected() {
+		new CompressionPolicy().decompress(new ByteArrayInputStream(PAYLOAD), "br", null);
+	}
+
+	@Test
+	public void testBodiesDecompressingPastTheMaximumAreRejected() throws IOException {
+
+		// a megabyte of zeros compresses to about a kilobyte
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(compressed);
+		out.write(new byte[1024 * 1024]);
+		out.close();
+
+		CompressionPolicy policy = new CompressionPolicy();
+		policy.setMaxDecompressedSize(64 * 1024);
+		InputStream in = policy.decompress(new ByteArrayInputStream(compressed.toByteArray()), "gzip", "TweetService");
+		try {
+			readFully(in);
+			fail("expected the body to be rejected");
+		} catch (DecompressedSizeExceededException e) {
+			assertEquals(64 * 1024, e.getMaxSize());
+		}
+		assertEquals(-1, in.read());
+
+		policy.setMaxDecompressedSize(PAYLOAD.length);
+		ByteArrayOutputStream exact = new ByteArrayOutputStream();
+		out = new GZIPOutputStream(exact);
+		out.write(PAYLOAD);
+		out.close();
+		in = policy.decompress(new ByteArrayInputStream(exact.toByteArray()), "gzip", "TweetService");
+		assertArrayEquals(PAYLOAD, readFully(in));
+
+	}
+
+	@Test
+	public void testBodiesBelowTheThresholdAreNotCompressed() throws IOException {
+
+		CompressionPolicy policy = new CompressionPolicy();
+		policy.setCompressRequests(true);
+		RecordingOpener opener = new RecordingOpener();
+
+		OutputStream out = new ThresholdOutputStream(opener, policy, "TweetService", false);
+		out.write(PAYLOAD, 0, 100);
+		out.close();
+
+		assertNull(opener.coding);
+		assertEquals(100, opener.contentLength);
+		assertEquals(100, opener.body.size());
+		assertEquals(1, policy.getMetrics().getStats("TweetService").getSkipped());
+
+	}
+
+	@Test
+	public void testBodiesAboveTheThresholdAreCompressed() throws IOException {
+
+		CompressionPolicy policy = new CompressionPolicy();
+		policy.setCompressRequests(true);
+
+		RecordingOpener opener = new RecordingOpener();
+		OutputStream out = new ThresholdOutputStream(opener, policy, "TweetService", false);
+		out.write(PAYLOAD);
+		out.close();
+
+		assertEquals(ContentCoding.GZIP, opener.coding);
+		assertEquals(opener.body.size(), opener.contentLength);
+		assertArrayEquals(PAYLOAD, readFully(new GZIPInputStream(new ByteArrayInputStream(opener.body.toByteArray()))));
+
+		opener = new RecordingOpener();
+		out = new ThresholdOutputStream(opener, policy, "TweetService", true);
+		for (byte b : PAYLOAD) {
+			out.write(b);
+		}
+		out.close();
+
+		assertEquals(ContentCoding.GZIP, opener.coding);
+		assertEquals(-1, opener.contentLength);
+		assertArrayEquals(PAYLOAD, readFully(new GZIPInputStream(new ByteArrayInputStream(opener.body.toByteArray()))));
+
+		CompressionStats stats = policy.getMetrics().getStats("TweetService");
+		assertEquals(2, stats.getCompressed());
+		assertEquals(2L * PAYLOAD.length, stats.getBytesBeforeCompression());
+		assertTrue(stats.getCompressionRatio() < 0.25);
+
+	}
+
+	@Test
+	public void testThresholdsArePerService() throws IOException {
+
+		CompressionPolicy policy = new CompressionPolicy();
+		policy.setCompressRequests(true);
+		policy.setThreshold("TweetService", 64);
+
+		RecordingOpener opener = new RecordingOpener();
+		OutputStream out = new ThresholdOutputStream(opener, policy, "tweetservice", false);
+		out.write(PAYLOAD, 0, 100);
+		out.close();
+
+		assertEquals(ContentCoding.GZIP, opener.coding);
+		assertEquals(CompressionPolicy.DEFAULT_THRESHOLD, policy.getThreshold("OtherService"));
+
+	}
+
+	private static byte[] payload() {
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 400; i++) {
+			sb.append("{\"id\":").append(i).append(",\"text\":\"a repetitive tweet body\"},");
+		}
+		try {
+			return sb.toString().getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		in.close();
+		return out.toByteArray();
+
+	}
+
+	private static class RecordingOpener implements BodyOpener {
+
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private ContentCoding coding;
+		private int contentLength;
+
+		public OutputStream open(ContentCoding coding, int contentLength) {
+			this.coding = coding;
+			this.contentLength = contentLength;
+			return this.body;
+		}
+
+	}
+
+}
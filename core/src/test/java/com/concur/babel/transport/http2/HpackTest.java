@@ -0,0 +1,115 @@
+package com.concur.babel.transport.http2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class HpackTest {
+
+	private static final byte[] WWW_EXAMPLE_COM = bytes(
+		0xf1, 0xe3, 0xc2, 0xe5, 0xf2, 0x3a, 0x6b, 0xa0, 0xab, 0x90, 0xf4, 0xff);
+
+	@Test
+	public void testHuffmanMatchesSpecExample() throws Exception {
+
+		byte[] plain = "www.example.com".getBytes("US-ASCII");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Huffman.encode(plain, out);
+
+		assertArrayEquals(WWW_EXAMPLE_COM, out.toByteArray());
+		assertEquals(WWW_EXAMPLE_COM.length, Huffman.encodedLength(plain));
+		assertArrayEquals(plain, Huffman.decode(WWW_EXAMPLE_COM, 0, WWW_EXAMPLE_COM.length));
+
+	}
+
+	@Test(expected = Http2Exception.class)
+	public void testHuffmanRejectsInvalidPadding() throws Exception {
+		Huffman.decode(bytes(0xf1, 0xe3, 0x00), 0, 3);
+	}
+
+	@Test
+	public void testRepeatedHeadersAreIndexed() throws Exception {
+
+		HpackEncoder encoder = new HpackEncoder();
+		HpackDecoder decoder = new HpackDecoder(HpackEncoder.DEFAULT_TABLE_SIZE, 64 * 1024);
+		List<HeaderField> headers = Arrays.asList(
+			new HeaderField(":method", "POST"),
+			new HeaderField(":scheme", "http"),
+			new HeaderField(":authority", "localhost:8080"),
+			new HeaderField(":path", "/babel/TweetService/getAllTweets"),
+			new HeaderField("content-type", "json"),
+			new HeaderField("x-request-id", "café"));
+
+		byte[] first = encoder.encode(headers);
+		byte[] second = encoder.encode(headers);
+
+		assertHeaders(headers, decoder.decode(first));
+		assertHeaders(headers, decoder.decode(second));
+		// every field of the second block is a one byte index into the tables
+		assertEquals(headers.size(), second.length);
+
+	}
+
+	@Test
+	public void testSensitiveHeadersAreNeverIndexed() throws Exception {
+
+		HpackEncoder encoder = new HpackEncoder();
+		HpackDecoder decoder = new HpackDecoder(HpackEncoder.DEFAULT_TABLE_SIZE, 64 * 1024);
+		List<HeaderField> headers = Arrays.asList(new HeaderField("authorization", "secret"));
+
+		byte[] first = encoder.encode(headers);
+		byte[] second = encoder.encode(headers);
+
+		assertEquals(0x10, first[0] & 0xf0);
+		assertArrayEquals(first, second);
+		assertHeaders(headers, decoder.decode(second));
+
+	}
+
+	@Test
+	public void testTableSizeUpdateEvictsEntries() throws Exception {
+
+		HpackEncoder encoder = new HpackEncoder();
+		HpackDecoder decoder = new HpackDecoder(HpackEncoder.DEFAULT_TABLE_SIZE, 64 * 1024);
+		List<HeaderField> headers = Arrays.asList(new HeaderField("x-trace", "abc"));
+
+		decoder.decode(encoder.encode(headers));
+		encoder.setMaxTableSize(0);
+		byte[] block = encoder.encode(headers);
+
+		assertEquals(0x20, block[0] & 0xe0);
+		assertHeaders(headers, decoder.decode(block));
+		assertTrue(block.length > 2);
+
+	}
+
+	private static void assertHeaders(List<HeaderField> expected, List<HeaderField> actual) {
+
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getName(), actual.get(i).getName());
+			assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+		}
+
+	}
+
+	private static byte[] bytes(int... values) {
+
+		byte[] b = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			b[i] = (byte)values[i];
+		}
+		return b;
+
+	}
+
+}
@@ -0,0 +1,323 @@
+package com.concur.babel.transport.retry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.service.TweetService;
+import com.concur.babel.transport.HttpTransport;
+import com.concur.babel.transport.handler.RetryHandler;
+import com.concur.babel.transport.handler.ServiceConnection;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(JUnit4.class)
+public class RetryPolicyTest {
+
+	private HttpServer server;
+	private String url;
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile int unavailableResponses;
+	private volatile String retryAfter;
+	private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void startServer() throws IOException {
+
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/babel", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getRequestBody().close();
+				if (requests.incrementAndGet() <= unavailableResponses) {
+					if (retryAfter != null) {
+						exchange.getResponseHeaders().add("Retry-After", retryAfter);
+					}
+					exchange.sendResponseHeaders(503, -1);
+					exchange.close();
+					return;
+				}
+				byte[] body = "[]".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		this.server.start();
+		this.url = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/babel";
+
+	}
+
+	@After
+	public void stopServer() {
+		this.server.stop(0);
+	}
+
+	@Test
+	public void testExponentialBackoffWithoutJitter() {
+
+		ExponentialBackoff backoff = new ExponentialBackoff(100, 1000, 2.0, Jitter.NONE);
+		assertEquals(100, backoff.getDelay(1, 0));
+		assertEquals(200, backoff.getDelay(2, 100));
+		assertEquals(800, backoff.getDelay(4, 400));
+		assertEquals(1000, backoff.getDelay(5, 800));
+		assertEquals(1000, backoff.getDelay(60, 1000));
+
+	}
+
+	@Test
+	public void testJitteredDelaysStayInRange() {
+
+		ExponentialBackoff full = new ExponentialBackoff(100, 1000, 2.0, Jitter.FULL);
+		ExponentialBackoff decorrelated = new ExponentialBackoff(100, 1000, 2.0, Jitter.DECORRELATED);
+		long previous = 0;
+		boolean varied = false;
+		for (int i = 1; i <= 200; i++) {
+			long delay = full.getDelay(3, 0);
+			assertTrue(delay >= 0 && delay <= 400);
+			varied |= delay != full.getDelay(3, 0);
+
+			long next = decorrelated.getDelay(i, previous);
+			assertTrue(next >= 100 && next <= Math.min(1000, Math.max(100, previous) * 3));
+			previous = next;
+		}
+		assertTrue(varied);
+
+	}
+
+	@Test
+	public void testBudgetCapsRetriesAtARatioOfSuccesses() {
+
+		RetryBudget budget = new RetryBudget(0.5, 2);
+		assertTrue(budget.tryWithdraw());
+		assertTrue(budget.tryWithdraw());
+		assertFalse(budget.tryWithdraw());
+
+		budget.deposit();
+		assertFalse(budget.tryWithdraw());
+		budget.deposit();
+		assertTrue(budget.tryWithdraw());
+
+		for (int i = 0; i < 100; i++) {
+			budget.deposit();
+		}
+		assertEquals(2.0, budget.getBalance(), 0.0001);
+
+	}
+
+	@Test
+	public void testRetryableFailures() {
+
+		RetryPolicy policy = new RetryPolicy();
+		assertTrue(policy.isRetryable(new ConnectException()));
+		assertTrue(policy.isRetryable(new SocketTimeoutException("Read timed out")));
+		assertFalse(policy.isRetryable(new IOException("Connection reset")));
+		assertTrue(policy.isRetryable(503));
+		assertFalse(policy.isRetryable(500));
+
+		policy.setRetryReadTimeouts(false);
+		assertFalse(policy.isRetryable(new SocketTimeoutException("Read timed out")));
+		assertTrue(policy.isRetryable(new SocketTimeoutException("connect timed out")));
+
+	}
+
+	@Test
+	public void testRetryAfterIsParsed() {
+
+		long now = System.currentTimeMillis();
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+		assertEquals(3000, RetryPolicy.parseRetryAfter(" 3 ", now));
+		assertEquals(-1, RetryPolicy.parseRetryAfter(null, now));
+		assertEquals(-1, RetryPolicy.parseRetryAfter("soon", now));
+		assertEquals(-1, RetryPolicy.parseRetryAfter("-5", now));
+		assertEquals(Long.MAX_VALUE, RetryPolicy.parseRetryAfter(String.valueOf(Long.MAX_VALUE / 1000 + 1), now));
+		assertEquals(Long.MAX_VALUE, RetryPolicy.parseRetryAfter(String.valueOf(Long.MAX_VALUE), now));
+		assertEquals(Long.MAX_VALUE / 1000 * 1000, RetryPolicy.parseRetryAfter(String.valueOf(Long.MAX_VALUE / 1000), now));
+		long delay = RetryPolicy.parseRetryAfter(format.format(new Date(now + 10000)), now);
+		assertTrue(delay > 8000 && delay <= 10000);
+		assertEquals(0, RetryPolicy.parseRetryAfter(format.format(new Date(now - 10000)), now));
+
+	}
+
+	@Test
+	public void testUnavailableResponsesAreRetried() {
+
+		this.unavailableResponses = 2;
+		this.retryAfter = "0";
+		RetryPolicy policy = new RetryPolicy();
+		policy.setMaxRetries(3);
+		policy.setBackoff(new ExponentialBackoff(1, 10));
+
+		List<Tweet> tweets = this.newClient(policy).getAllTweets();
+
+		assertEquals(0, tweets.size());
+		assertEquals(3, this.requests.get());
+		assertEquals(2, this.events.size());
+		assertTrue(this.events.get(0).startsWith("retry 1 503"));
+		assertTrue(this.events.get(1).startsWith("retry 2 503"));
+
+	}
+
+	@Test
+	public void testRetriesStopWhenTheBudgetIsSpent() {
+
+		this.unavailableResponses = 10;
+		RetryPolicy policy = new RetryPolicy();
+		policy.setMaxRetries(5);
+		policy.setBudget(new RetryBudget(0, 1));
+
+		try {
+			this.newClient(policy).getAllTweets();
+			fail("Expected the call to fail");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("503"));
+		}
+		assertEquals(2, this.requests.get());
+		assertEquals("denied 2 BUDGET_EXHAUSTED", this.events.get(1));
+
+	}
+
+	@Test
+	public void testRetriesStopAtTheDeadline() {
+
+		this.unavailableResponses = 10;
+		this.retryAfter = "5";
+		RetryPolicy policy = new RetryPolicy();
+		policy.setMaxRetries(5);
+		policy.setDeadline(1000);
+
+		long start = System.currentTimeMillis();
+		try {
+			this.newClient(policy).getAllTweets();
+			fail("Expected the call to fail");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("503"));
+		}
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals(1, this.requests.get());
+		assertEquals("denied 1 DEADLINE_EXCEEDED", this.events.get(0));
+
+	}
+
+	@Test
+	public void testRetryAfterLongerThanTheMaximumIsDenied() {
+
+		this.unavailableResponses = 10;
+		this.retryAfter = "60";
+		RetryPolicy policy = new RetryPolicy();
+		policy.setMaxRetries(5);
+		policy.setMaxRetryAfter(1000);
+
+		try {
+			this.newClient(policy).getAllTweets();
+			fail("Expected the call to fail");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("503"));
+		}
+		assertEquals(1, this.requests.get());
+		assertEquals(Collections.singletonList("denied 1 RETRY_AFTER_TOO_LONG"), this.events);
+
+	}
+
+	@Test
+	public void testRetryAfterTooLongToCountIsDenied() {
+
+		// the delay in milliseconds overflows a long, it must not wrap around to an immediate retry
+		this.unavailableResponses = 10;
+		this.retryAfter = String.valueOf(Long.MAX_VALUE / 1000 + 1);
+		RetryPolicy policy = new RetryPolicy();
+		policy.setMaxRetries(5);
+
+		try {
+			this.newClient(policy).getAllTweets();
+			fail("Expected the call to fail");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("503"));
+		}
+		assertEquals(1, this.requests.get());
+		assertEquals(Collections.singletonList("denied 1 RETRY_AFTER_TOO_LONG"), this.events);
+
+	}
+
+	@Test
+	public void testTransportsDoNotChangeASharedPolicy() {
+
+		RetryPolicy policy = new RetryPolicy();
+		policy.setMaxRetries(2);
+		HttpTransport first = new HttpTransport(this.url, new JSONProtocol());
+		HttpTransport second = new HttpTransport(this.url, new JSONProtocol());
+		first.setRetryPolicy(policy);
+		second.setRetryPolicy(policy);
+
+		first.setMaxRetries(5);
+		first.setRetryDelay(100);
+		assertEquals(5, first.getRetryPolicy().getMaxRetries());
+		assertEquals(100, first.getRetryPolicy().getBackoff().getDelay(1, 0));
+		assertEquals(2, policy.getMaxRetries());
+		assertEquals(0, policy.getBackoff().getDelay(1, 0));
+		assertTrue(second.getRetryPolicy() == policy);
+		// the copy takes its retries from the same budget
+		assertTrue(first.getRetryPolicy().getBudget() == policy.getBudget());
+
+		RetryPolicy copy = new RetryPolicy(policy);
+		copy.getRetryableStatusCodes().add(502);
+		assertFalse(policy.isRetryable(502));
+
+	}
+
+	private TweetService.Client newClient(RetryPolicy policy) {
+
+		HttpTransport transport = new HttpTransport(this.url, new JSONProtocol());
+		transport.setRetryPolicy(policy);
+		transport.addResponseHandler(new RetryHandler() {
+			public void onRetry(ServiceConnection serviceConnection, Map<String, String> headers,
+				int retry, long delay, Integer errorCode, Exception exception)
+			{
+				events.add("retry " + retry + " " + errorCode + " " + delay);
+			}
+			public void onRetryDenied(ServiceConnection serviceConnection, Map<String, String> headers,
+				int retry, RetryDenial denial, Integer errorCode, Exception exception)
+			{
+				events.add("denied " + retry + " " + denial);
+			}
+			public void onSuccess(ServiceConnection serviceConnection, Map<String, String> headers,
+				String request, String response, long duration)
+			{
+			}
+			public void onFailure(ServiceConnection serviceConnection, Map<String, String> headers,
+				String request, String response, long duration, Integer errorCode, Exception exception)
+			{
+			}
+		});
+		return new TweetService.Client(transport);
+
+	}
+
+}
@@ -1,12 +1,18 @@
 package com.concur.babel.transport.server;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.net.URLEncoder;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -15,6 +21,8 @@ import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 
 import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.transport.compression.CompressionPolicy;
+import com.concur.babel.transport.server.BabelServerTransport.Code;
 
 @RunWith(JUnit4.class)
 public class HttpServerTransportTest {
@@ -123,4 +131,102 @@ public class HttpServerTransportTest {
 		
 	}
 	
+	@Test
+	public void testCompressedRequestsAndResponses() throws Exception {
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("sample data ");
+		}
+		String data = sb.toString();
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(compressed);
+		out.write(data.getBytes("UTF-8"));
+		out.close();
+
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setContent(compressed.toByteArray());
+		request.setPathInfo("/TweetService/postTweet");
+		request.addHeader("Content-Encoding", "gzip");
+		request.addHeader("Accept-Encoding", "gzip, deflate");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		HttpServerTransport transport = new HttpServerTransport(request, response, new JSONProtocol(), new CompressionPolicy());
+		assertEquals(data, transport.getMessage());
+
+		transport.write(Code.SUCCESS, data);
+		assertEquals("gzip", response.getHeader("Content-Encoding"));
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()));
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != -1) {
+			body.write(b);
+		}
+		assertEquals(transport.getResponseMessage(), new String(body.toByteArray(), "UTF-8"));
+
+	}
+
+	@Test
+	public void testResponsesAreNotCompressedByDefault() {
+
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setContent(new String("sample data").getBytes());
+		request.setPathInfo("/TweetService/postTweet");
+		request.addHeader("Accept-Encoding", "gzip");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		HttpServerTransport transport = new HttpServerTransport(request, response, new JSONProtocol());
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("sample data ");
+		}
+		transport.write(Code.SUCCESS, sb.toString());
+		assertNull(response.getHeader("Content-Encoding"));
+
+	}
+
+	@Test
+	public void testBodiesDecompressingPastTheMaximumAreTooLarge() throws Exception {
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(compressed);
+		out.write(new byte[1024 * 1024]);
+		out.close();
+
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setContent(compressed.toByteArray());
+		request.setPathInfo("/TweetService/postTweet");
+		request.addHeader("Content-Encoding", "gzip");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		CompressionPolicy compression = new CompressionPolicy();
+		compression.setMaxDecompressedSize(64 * 1024);
+		try {
+			new HttpServerTransport(request, response, new JSONProtocol(), compression);
+			fail("expected the body to be rejected");
+		} catch (RequestBodyException e) {
+			assertEquals(RequestBodyException.STATUS_PAYLOAD_TOO_LARGE, e.getStatusCode());
+		}
+
+	}
+
+	@Test
+	public void testUnsupportedContentEncodingsAreUnsupportedMediaTypes() {
+
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setContent(new String("sample data").getBytes());
+		request.setPathInfo("/TweetService/postTweet");
+		request.addHeader("Content-Encoding", "br");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		try {
+			new HttpServerTransport(request, response, new JSONProtocol(), new CompressionPolicy());
+			fail("expected the body to be rejected");
+		} catch (RequestBodyException e) {
+			assertEquals(RequestBodyException.STATUS_UNSUPPORTED_MEDIA_TYPE, e.getStatusCode());
+		}
+
+	}
+
 }
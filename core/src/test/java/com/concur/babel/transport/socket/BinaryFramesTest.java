@@ -0,0 +1,105 @@
+package com.concur.babel.transport.socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BinaryFramesTest {
+
+	@Test
+	public void testRequestSurvivesDelimitersSplitAcrossReads() throws Exception {
+
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("trace||id", "a=b\r\nc");
+		byte[] body = "{\"text\":\"naïve\\r\\n\"}".getBytes("UTF-8");
+		byte[] frame = concat(
+			BinaryFrames.encodeRequestHead(42, headers, "TweetService", "getAllTweets", body.length), body);
+
+		// one byte at a time, as a slow client would send it
+		SocketFrameDecoder decoder = new SocketFrameDecoder();
+		List<SocketFrame> frames = new ArrayList<SocketFrame>();
+		for (byte b : frame) {
+			decoder.decode(ByteBuffer.wrap(new byte[] { b }), frames);
+		}
+
+		assertTrue(decoder.isBinary());
+		assertEquals(1, frames.size());
+		SocketFrame request = frames.get(0);
+		assertEquals(42, request.getRequestId());
+		assertEquals("TweetService", request.getServiceName());
+		assertEquals("getAllTweets", request.getMethodName());
+		assertEquals("a=b\r\nc", request.getHeaders().get("trace||id"));
+		assertEquals("{\"text\":\"naïve\\r\\n\"}", request.getBody());
+
+	}
+
+	@Test
+	public void testResponsesAndGoAwayAreRead() throws Exception {
+
+		byte[] body = "[]".getBytes("UTF-8");
+		byte[] stream = concat(
+			BinaryFrames.encodeResponseHead(7, 200, body.length), body,
+			BinaryFrames.encodeResponseHead(8, 500, -1), new byte[0],
+			BinaryFrames.encodeGoAway(8), new byte[0]);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(stream));
+
+		SocketFrame response = BinaryFrames.readFrame(in, 1024);
+		assertEquals(7, response.getRequestId());
+		assertEquals(200, response.getStatus());
+		assertEquals("[]", response.getBody());
+		response = BinaryFrames.readFrame(in, 1024);
+		assertEquals(500, response.getStatus());
+		assertNull(response.getBody());
+		assertEquals(-1, BinaryFrames.readFrame(in, 1024).getStatus());
+		assertNull(BinaryFrames.readFrame(in, 1024));
+
+	}
+
+	@Test
+	public void testOversizedFrameIsRejected() throws Exception {
+
+		byte[] body = new byte[100];
+		byte[] frame = concat(BinaryFrames.encodeRequestHead(1, null, "TweetService", "getAllTweets", body.length), body);
+		try {
+			new SocketFrameDecoder(64).decode(ByteBuffer.wrap(frame), new ArrayList<SocketFrame>());
+			fail("the frame is longer than the maximum");
+		} catch (IOException e) {
+			// expected
+		}
+
+	}
+
+	private static byte[] concat(Object... parts) throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (Object part : parts) {
+			if (part instanceof ByteBuffer) {
+				ByteBuffer buffer = (ByteBuffer)part;
+				byte[] bytes = new byte[buffer.remaining()];
+				buffer.get(bytes);
+				out.write(bytes);
+			} else {
+				out.write((byte[])part);
+			}
+		}
+		return out.toByteArray();
+
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.concur.babel.transport.socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BufferArenaTest {
+
+	@Test
+	public void testBuffersAreReusedBySizeClass() {
+
+		BufferArena arena = new BufferArena(1024, 3, 4, 2);
+		ByteBuffer small = arena.acquire(10);
+		ByteBuffer medium = arena.acquire(1025);
+		ByteBuffer large = arena.acquire(10000);
+		assertEquals(1024, small.capacity());
+		assertEquals(4096, medium.capacity());
+		assertEquals(16384, large.capacity());
+		assertTrue(small.isDirect());
+		assertEquals(3, arena.getOutstandingCount());
+
+		arena.release(small);
+		arena.release(medium);
+		arena.release(large);
+		assertEquals(0, arena.getOutstandingCount());
+		assertSame(small, arena.acquire(1));
+		assertSame(medium, arena.acquire(4096));
+		assertSame(large, arena.acquire(16384));
+		assertEquals(0.5, arena.getHitRate(), 0.001);
+
+	}
+
+	@Test
+	public void testBuffersReleasedByAnotherThreadAreShared() throws Exception {
+
+		final BufferArena arena = new BufferArena(1024, 1, 4, 1);
+		final ByteBuffer[] buffers = new ByteBuffer[] { arena.acquire(1), arena.acquire(1) };
+		Thread releaser = new Thread(new Runnable() {
+			public void run() {
+				// the first one stays in the cache of the releasing thread
+				arena.release(buffers[0]);
+				arena.release(buffers[1]);
+			}
+		});
+		releaser.start();
+		releaser.join();
+
+		assertEquals(1, arena.getPooledCount());
+		assertSame(buffers[1], arena.acquire(1));
+		assertFalse(buffers[0] == arena.acquire(1));
+
+	}
+
+	@Test
+	public void testOversizedAndForeignBuffersAreNotPooled() {
+
+		BufferArena arena = new BufferArena(1024, 1, 4, 0);
+		ByteBuffer oversized = arena.acquire(5000);
+		assertFalse(oversized.isDirect());
+		arena.release(oversized);
+		arena.release(ByteBuffer.allocateDirect(512));
+		assertEquals(0, arena.getOutstandingCount());
+		assertEquals(0, arena.getPooledCount());
+
+	}
+
+	@Test
+	public void testUtf8RoundTripsThroughDirectBuffers() throws Exception {
+
+		String text = "naïve € 😀 || line\r\nbreak";
+		BufferArena arena = new BufferArena(16, 3, 4, 2);
+		ByteBuffer encoded = Utf8Buffers.encode(text, arena);
+		assertEquals(text.getBytes("UTF-8").length, encoded.remaining());
+		assertEquals(text, Utf8Buffers.decode(encoded, encoded.remaining()));
+		arena.release(encoded);
+
+		// a writer grows into larger classes and splits no surrogate pair
+		ByteBufferWriter writer = new ByteBufferWriter(arena, 1);
+		for (char c : text.toCharArray()) {
+			writer.write(c);
+		}
+		writer.write("\ud83d");
+		ByteBuffer written = writer.toByteBuffer();
+		assertEquals(text + "?", Utf8Buffers.decode(written, written.remaining()));
+		arena.release(written);
+		assertEquals(0, arena.getOutstandingCount());
+
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.concur.babel.transport.socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class NioServerConnectionTest {
+
+	private static final SocketRequestHandler IGNORING_HANDLER = new SocketRequestHandler() {
+		public void onRequest(ServerConnection connection, SocketFrame request) { }
+	};
+
+	@Test
+	public void testConcurrentClosesCloseOnce() throws Exception {
+
+		BufferArena buffers = new BufferArena();
+		NioEventLoop eventLoop = new NioEventLoop(buffers, 1024, 1000);
+		ServerSocketChannel listener = ServerSocketChannel.open();
+		listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		try {
+			for (int i = 0; i < 50; i++) {
+				SocketChannel client = SocketChannel.open(listener.getLocalAddress());
+				try {
+					final NioServerConnection connection = this.accept(listener, eventLoop);
+					this.runAtOnce(8, new Runnable() {
+						public void run() {
+							connection.close();
+						}
+					});
+					assertTrue(connection.isClosed());
+					assertEquals(0, eventLoop.getConnectionCount());
+				} finally {
+					client.close();
+				}
+			}
+		} finally {
+			listener.close();
+		}
+
+	}
+
+	@Test
+	public void testBuffersAreReleasedOnceWhenClosedWhileFlushing() throws Exception {
+
+		BufferArena buffers = new BufferArena();
+		NioEventLoop eventLoop = new NioEventLoop(buffers, 1024, 1000);
+		ServerSocketChannel listener = ServerSocketChannel.open();
+		listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			text.append("a response body ");
+		}
+		final String body = text.toString();
+		try {
+			for (int i = 0; i < 20; i++) {
+				// the client does not read, so the responses fill the socket buffers and stay queued
+				SocketChannel client = SocketChannel.open(listener.getLocalAddress());
+				try {
+					final NioServerConnection connection = this.accept(listener, eventLoop);
+					this.runAtOnce(8, new Runnable() {
+						public void run() {
+							for (int requestId = 1; requestId <= 50; requestId++) {
+								try {
+									connection.writeResponse(requestId, 200, body);
+								} catch (IOException e) {
+									// the connection was closed by another thread
+									return;
+								}
+								if (requestId == 25) {
+									connection.close();
+								}
+							}
+						}
+					});
+					assertEquals(0, eventLoop.getConnectionCount());
+					assertEquals(0, buffers.getOutstandingCount());
+				} finally {
+					client.close();
+				}
+			}
+		} finally {
+			listener.close();
+		}
+
+	}
+
+	private NioServerConnection accept(ServerSocketChannel listener, NioEventLoop eventLoop) throws IOException {
+
+		SocketChannel channel = listener.accept();
+		channel.configureBlocking(false);
+		NioServerConnection connection = new NioServerConnection(channel, eventLoop, IGNORING_HANDLER, 0, 8192);
+		eventLoop.register(connection);
+		assertEquals(1, eventLoop.getConnectionCount());
+		return connection;
+
+	}
+
+	private void runAtOnce(int threadCount, final Runnable task) throws InterruptedException {
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < threadCount; i++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					task.run();
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+	}
+
+}
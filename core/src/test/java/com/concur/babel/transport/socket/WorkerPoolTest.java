@@ -0,0 +1,97 @@
+package com.concur.babel.transport.socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class WorkerPoolTest {
+
+	@Test
+	public void testFullPoolRejectsAndCountsRequests() throws Exception {
+
+		WorkerPool pool = new WorkerPool(1, 1, "test-worker");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable blocked = new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+
+		pool.execute(blocked);
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+		pool.execute(blocked);
+		try {
+			pool.execute(blocked);
+			fail("the pool should be full");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		assertEquals(1, pool.getActiveCount());
+		assertEquals(1, pool.getQueueDepth());
+		assertEquals(1, pool.getRejectedCount());
+
+		release.countDown();
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(1, TimeUnit.SECONDS));
+		assertEquals(0, pool.getActiveCount());
+		assertEquals(2, pool.getCompletedCount());
+
+	}
+
+	@Test
+	public void testVirtualThreadsNeedSupportingJdk() throws Exception {
+
+		if (!WorkerPool.isVirtualThreadsSupported()) {
+			try {
+				new WorkerPool(WorkerPool.Mode.VIRTUAL_THREADS, 1, 0, "test-worker");
+				fail("virtual threads are not supported");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			return;
+		}
+
+		WorkerPool pool = new WorkerPool(WorkerPool.Mode.VIRTUAL_THREADS, 1, 1, "test-worker");
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable blocked = new Runnable() {
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		pool.execute(blocked);
+		pool.execute(blocked);
+		try {
+			pool.execute(blocked);
+			fail("the pool should be full");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		release.countDown();
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(1, TimeUnit.SECONDS));
+		assertEquals(2, pool.getCompletedCount());
+		assertFalse(pool.getQueueDepth() > 0);
+
+	}
+
+}
@@ -0,0 +1,187 @@
+package com.concur.babel.netty;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.ByteProcessor;
+
+import com.concur.babel.transport.socket.BinaryFrames;
+import com.concur.babel.transport.socket.SocketFrames;
+
+/**
+ * BabelFrameDecoder decodes the requests of a babel socket connection into NettyRequests, in the
+ * binary format of BinaryFrames or the line based formats of SocketFrames, multiplexed or legacy.
+ * The message of a request is a slice of the buffer it was read into, it is not copied.
+ */
+class BabelFrameDecoder extends ByteToMessageDecoder {
+
+	enum Format { LEGACY, LINES, BINARY }
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Format format;
+	private final int maxFrameLength;
+	private boolean finished = false;
+
+	/**
+	 * Creates a new BabelFrameDecoder
+	 *
+	 * @param format - the format of the connection, a LINES connection is past its preface.
+	 * @param maxFrameLength - the maximum length, in bytes, of a request.
+	 */
+	BabelFrameDecoder(Format format, int maxFrameLength) {
+
+		this.format = format;
+		this.maxFrameLength = maxFrameLength;
+
+	}
+
+	@Override
+	protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+
+		if (this.finished) {
+			// a legacy connection carries one request, anything after it is ignored
+			in.skipBytes(in.readableBytes());
+			return;
+		}
+
+		NettyRequest request = this.format == Format.BINARY ? this.decodeBinary(in) : this.decodeLines(in);
+		if (request != null) {
+			out.add(request);
+			this.finished = this.format == Format.LEGACY;
+		}
+
+	}
+
+	private NettyRequest decodeBinary(ByteBuf in) {
+
+		if (in.readableBytes() < BinaryFrames.PRELUDE_LENGTH) {
+			return null;
+		}
+		int start = in.readerIndex();
+		byte magic = in.getByte(start);
+		byte version = in.getByte(start + 1);
+		byte type = in.getByte(start + 2);
+		int length = in.getInt(start + 3);
+		if (magic != BinaryFrames.MAGIC || version != BinaryFrames.VERSION || type != BinaryFrames.REQUEST) {
+			throw new CorruptedFrameException("Invalid babel binary request prelude");
+		}
+		if (length < 0 || length > this.maxFrameLength) {
+			throw new TooLongFrameException("Babel binary frame length " + length + " is invalid or longer than " +
+				this.maxFrameLength);
+		}
+		if (in.readableBytes() < BinaryFrames.PRELUDE_LENGTH + length) {
+			return null;
+		}
+
+		in.skipBytes(BinaryFrames.PRELUDE_LENGTH);
+		int end = in.readerIndex() + length;
+		try {
+			long requestId = in.readLong();
+			in.skipBytes(4);
+			String serviceName = readString(in, in.readUnsignedShort(), end);
+			String methodName = readString(in, in.readUnsignedShort(), end);
+
+			int headerLength = in.readInt();
+			if (headerLength < 0 || in.readerIndex() + headerLength > end) {
+				throw new CorruptedFrameException("Invalid babel binary header block length: " + headerLength);
+			}
+			Map<String, String> headers = new HashMap<String, String>();
+			int headerEnd = in.readerIndex() + headerLength;
+			while (in.readerIndex() < headerEnd) {
+				String name = readString(in, in.readUnsignedShort(), headerEnd);
+				headers.put(name, readString(in, in.readUnsignedShort(), headerEnd));
+			}
+
+			int bodyLength = in.readInt();
+			if (bodyLength < -1 || in.readerIndex() + Math.max(bodyLength, 0) > end) {
+				throw new CorruptedFrameException("Invalid babel binary message length: " + bodyLength);
+			}
+			if (serviceName.length() == 0 || methodName.length() == 0) {
+				throw new CorruptedFrameException("Babel binary request " + requestId + " has no service or method");
+			}
+			ByteBuf body = bodyLength == -1 ? null : in.readRetainedSlice(bodyLength);
+			return new NettyRequest(requestId, headers, serviceName, methodName, body);
+		} finally {
+			in.readerIndex(end);
+		}
+
+	}
+
+	private NettyRequest decodeLines(ByteBuf in) {
+
+		// a multiplexed request is an id, a header, a route and a message line, a legacy one has no id
+		int count = this.format == Format.LINES ? 4 : 3;
+		int[] ends = new int[count];
+		int index = in.readerIndex();
+		int limit = in.writerIndex();
+		for (int i = 0; i < count; i++) {
+			int lf = in.forEachByte(index, limit - index, ByteProcessor.FIND_LF);
+			if (lf == -1) {
+				if (in.readableBytes() > this.maxFrameLength) {
+					throw new TooLongFrameException("Babel socket request is longer than " + this.maxFrameLength);
+				}
+				return null;
+			}
+			ends[i] = lf;
+			index = lf + 1;
+		}
+
+		int line = 0;
+		long requestId = 0;
+		if (this.format == Format.LINES) {
+			String id = this.readLine(in, ends[line++]);
+			try {
+				requestId = Long.parseLong(id.trim());
+			} catch (NumberFormatException e) {
+				throw new CorruptedFrameException("Invalid babel socket request id: " + id);
+			}
+		}
+		Map<String, String> headers = SocketFrames.parseHeaders(this.readLine(in, ends[line++]));
+		String route = this.readLine(in, ends[line++]);
+		int separator = route.indexOf("||");
+		String serviceName = separator == -1 ? route : route.substring(0, separator);
+		String methodName = separator == -1 ? "" : route.substring(separator + 2);
+
+		int bodyEnd = ends[line];
+		int bodyLength = bodyEnd - in.readerIndex();
+		if (bodyLength > 0 && in.getByte(bodyEnd - 1) == '\r') {
+			bodyLength--;
+		}
+		ByteBuf body = in.readRetainedSlice(bodyLength);
+		in.readerIndex(bodyEnd + 1);
+		return new NettyRequest(requestId, headers, serviceName, methodName, body);
+
+	}
+
+	private String readLine(ByteBuf in, int lf) {
+
+		int length = lf - in.readerIndex();
+		if (length > 0 && in.getByte(lf - 1) == '\r') {
+			length--;
+		}
+		String line = in.toString(in.readerIndex(), length, UTF8);
+		in.readerIndex(lf + 1);
+		return line;
+
+	}
+
+	private static String readString(ByteBuf in, int length, int end) {
+
+		if (in.readerIndex() + length > end) {
+			throw new CorruptedFrameException("Invalid babel binary field length: " + length);
+		}
+		String value = in.toString(in.readerIndex(), length, UTF8);
+		in.skipBytes(length);
+		return value;
+
+	}
+
+}
@@ -0,0 +1,388 @@
+package com.concur.babel.netty;
+
+import static com.concur.babel.ArgValidator.*;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import com.concur.babel.processor.ServiceInvoker;
+import com.concur.babel.processor.ServiceRequestDispatcher;
+import com.concur.babel.protocol.Protocol;
+import com.concur.babel.transport.BabelSocketThread;
+import com.concur.babel.transport.server.BabelServerTransport.Code;
+import com.concur.babel.transport.server.ServerBusyException;
+import com.concur.babel.transport.socket.RejectionPolicy;
+import com.concur.babel.transport.socket.SocketFrameDecoder;
+import com.concur.babel.transport.socket.WorkerPool;
+
+/**
+ * BabelNettyServer hosts babel services on netty, it serves HTTP/1.1, with keep-alive and
+ * pipelining, and the legacy, multiplexed and binary babel socket connections on a single port,
+ * telling them apart by the first bytes of each connection.  Connections are read and written by
+ * event loops, on epoll where the native transport is available and on NIO everywhere else, and
+ * the services are called on a WorkerPool, requests it has no room for are answered with a
+ * ServerBusyException error.  Request and response messages stay in netty buffers, they are not
+ * copied into Strings.  On shutdown the server stops accepting connections, answers new requests
+ * with a ServerDrainingException error and waits for the requests in flight before it closes the
+ * connections.
+ */
+public class BabelNettyServer {
+
+	public static final int DEFAULT_WORKER_THREADS = 64;
+	public static final int DEFAULT_BACKLOG = 1024;
+
+	private volatile boolean stopped = false;
+	private final int port;
+	private final Protocol protocol;
+	private final WorkerPool workers;
+	private final ChannelGroup connections = new DefaultChannelGroup("babel-netty", GlobalEventExecutor.INSTANCE);
+	private EventLoopGroup bossGroup;
+	private EventLoopGroup ioGroup;
+	private final boolean ownsEventLoops;
+	private Channel listener;
+	private int bossThreads = 1;
+	private int ioThreads = 0;
+	private int idleTimeout = BabelSocketThread.DEFAULT_IDLE_TIMEOUT;
+	private int maxContentLength = SocketFrameDecoder.DEFAULT_MAX_LINE_LENGTH;
+	private int backlog = DEFAULT_BACKLOG;
+	private RejectionPolicy rejectionPolicy = RejectionPolicy.RESPOND_BUSY;
+	private int maxInFlight = BabelSocketThread.DEFAULT_MAX_IN_FLIGHT;
+
+	protected ServiceRequestDispatcher manager = new ServiceRequestDispatcher();
+
+	public BabelNettyServer(int port, Protocol protocol) {
+		this(port, protocol, new WorkerPool(DEFAULT_WORKER_THREADS, WorkerPool.DEFAULT_QUEUE_SIZE, "babel-netty-worker"));
+	}
+
+	/**
+	 * Creates a new BabelNettyServer, its event loop groups are created when it is bound and shut
+	 * down when it stops.
+	 *
+	 * @param port - the port to listen on, 0 picks a free port.
+	 * @param protocol - the protocol being used on the wire.
+	 * @param workers - the pool calling services.
+	 */
+	public BabelNettyServer(int port, Protocol protocol, WorkerPool workers) {
+		this(port, protocol, workers, null, null);
+	}
+
+	/**
+	 * Creates a new BabelNettyServer on event loop groups shared with other servers or clients of
+	 * the application, they are not shut down when the server stops.
+	 *
+	 * @param port - the port to listen on, 0 picks a free port.
+	 * @param protocol - the protocol being used on the wire.
+	 * @param workers - the pool calling services.
+	 * @param bossGroup - the group accepting connections, see EventLoops.
+	 * @param ioGroup - the group reading and writing connections, of the same transport.
+	 */
+	public BabelNettyServer(
+		int port,
+		Protocol protocol,
+		WorkerPool workers,
+		EventLoopGroup bossGroup,
+		EventLoopGroup ioGroup)
+	{
+
+		notNull("protocol", protocol);
+		notNull("workers", workers);
+		preCondition((bossGroup == null) == (ioGroup == null), "bossGroup and ioGroup must both be given or both be null");
+		this.port = port;
+		this.protocol = protocol;
+		this.workers = workers;
+		this.bossGroup = bossGroup;
+		this.ioGroup = ioGroup;
+		this.ownsEventLoops = bossGroup == null;
+
+	}
+
+	/**
+	 * Method setBossThreads sets the number of threads accepting connections, it must be set before
+	 * the server is bound.  The default is 1.
+	 */
+	public void setBossThreads(int bossThreads) {
+		preCondition(bossThreads >= 1, "bossThreads must be greater than or equal to ONE");
+		this.bossThreads = bossThreads;
+	}
+
+	/**
+	 * Method setIoThreads sets the number of threads reading and writing connections, it must be set
+	 * before the server is bound.  The default, 0, is twice the number of processors.
+	 */
+	public void setIoThreads(int ioThreads) {
+		preCondition(ioThreads >= 0, "ioThreads must be greater than or equal to ZERO");
+		this.ioThreads = ioThreads;
+	}
+
+	/**
+	 * Method setIdleTimeout sets how long, in milliseconds, a connection may be idle before it is
+	 * closed, a multiplexed connection is sent a GOAWAY first, 0 keeps it open until the client
+	 * closes it.  The default is 60000.
+	 */
+	public void setIdleTimeout(int idleTimeout) {
+		preCondition(idleTimeout >= 0, "idleTimeout must be greater than or equal to ZERO");
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Method setMaxContentLength sets the maximum length, in bytes, of a request, a connection
+	 * sending a longer one is closed, an HTTP one is answered 413 first.  The default is 16MB.
+	 */
+	public void setMaxContentLength(int maxContentLength) {
+		preCondition(maxContentLength > 0, "maxContentLength must be greater than ZERO");
+		this.maxContentLength = maxContentLength;
+	}
+
+	/**
+	 * Method setBacklog sets the length of the queue of connections waiting to be accepted, it must
+	 * be set before the server is bound.  The default is 1024.
+	 */
+	public void setBacklog(int backlog) {
+		preCondition(backlog >= 1, "backlog must be greater than or equal to ONE");
+		this.backlog = backlog;
+	}
+
+	/**
+	 * Method setRejectionPolicy sets what is done with a request the worker pool has no room for,
+	 * CALLER_RUNS holds up every connection of the event loop while the request runs.  The default
+	 * is RESPOND_BUSY.
+	 */
+	public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+		notNull("rejectionPolicy", rejectionPolicy);
+		this.rejectionPolicy = rejectionPolicy;
+	}
+
+	/**
+	 * Method setMaxInFlight sets the number of pipelined requests of a connection that may be in
+	 * flight at once, the connection is not read while they are.  The default is 128.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		preCondition(maxInFlight >= 1, "maxInFlight must be greater than or equal to ONE");
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Method start binds the server and accepts connections until it is stopped.
+	 */
+	public void start() {
+
+		this.bind();
+		this.stopped = false;
+		this.listener.closeFuture().syncUninterruptibly();
+
+	}
+
+	/**
+	 * Method bind opens the listening channel and returns, the event loops accept connections from
+	 * then on.  It is called by start and may be called instead of it, to learn the port or to not
+	 * hold up the calling thread.
+	 */
+	public synchronized void bind() {
+
+		if (this.listener != null && this.listener.isOpen()) {
+			return;
+		}
+		if (this.bossGroup == null) {
+			this.bossGroup = EventLoops.newGroup(this.bossThreads, "babel-netty-boss");
+			this.ioGroup = EventLoops.newGroup(this.ioThreads, "babel-netty-io");
+		}
+
+		ServerBootstrap bootstrap = new ServerBootstrap()
+			.group(this.bossGroup, this.ioGroup)
+			.channel(EventLoops.serverChannelClass(this.ioGroup))
+			.option(ChannelOption.SO_BACKLOG, this.backlog)
+			.option(ChannelOption.SO_REUSEADDR, true)
+			.childOption(ChannelOption.TCP_NODELAY, true)
+			.childHandler(new ChannelInitializer<SocketChannel>() {
+				@Override
+				protected void initChannel(SocketChannel channel) {
+					initConnection(channel);
+				}
+			});
+		try {
+			this.listener = bootstrap.bind(new InetSocketAddress(this.port)).sync().channel();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	/**
+	 * Method stop closes the listening channel and all connections, requests in flight are not
+	 * answered, see shutdown.
+	 */
+	public void stop() {
+
+		this.closeListener();
+		this.connections.close().awaitUninterruptibly();
+		synchronized (this) {
+			if (this.ownsEventLoops && this.bossGroup != null) {
+				this.bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+				this.ioGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+				this.bossGroup = null;
+				this.ioGroup = null;
+			}
+		}
+		this.workers.shutdown();
+
+	}
+
+	/**
+	 * Method shutdown stops the server gracefully.  It stops accepting connections, answers new
+	 * requests with a ServerDrainingException error and waits for the requests in flight to
+	 * complete, until the timeout elapses, before it closes the connections.
+	 *
+	 * @param timeout - how long to wait for the requests in flight at most.
+	 * @param unit - the unit of the timeout.
+	 *
+	 * @return true if the requests in flight completed in time.
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) {
+
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		this.closeListener();
+		this.manager.drain();
+		boolean drained;
+		try {
+			drained = this.manager.awaitDrained(timeout, unit);
+			// requests still queued get the draining error, which takes no time
+			this.workers.shutdown();
+			drained &= this.workers.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			drained = false;
+		}
+		this.stop();
+		return drained;
+
+	}
+
+	public void register(ServiceInvoker<?> processor) {
+
+		notNull("processor", processor);
+		this.manager.register(processor);
+
+	}
+
+	public ServiceRequestDispatcher getManager() { return this.manager; }
+
+	public Protocol getProtocol() { return this.protocol; }
+
+	/**
+	 * @return the number of requests calling a service.
+	 */
+	public int getInFlightCount() { return this.manager.getInFlightCount(); }
+
+	/**
+	 * @return the pool calling services, for its queue depth and active worker metrics.
+	 */
+	public WorkerPool getWorkerPool() { return this.workers; }
+
+	/**
+	 * @return the port the server is listening on.
+	 */
+	public synchronized int getPort() {
+		return this.listener != null ? ((InetSocketAddress)this.listener.localAddress()).getPort() : this.port;
+	}
+
+	/**
+	 * @return the number of open connections.
+	 */
+	public int getConnectionCount() { return this.connections.size(); }
+
+	int getMaxContentLength() { return this.maxContentLength; }
+
+	int getMaxInFlight() { return this.maxInFlight; }
+
+	/**
+	 * Method callService invokes a hosted babel service, on a worker thread.  You can extend this
+	 * class and override this method to provide before/after processing if need be.
+	 *
+	 * @param serverTransport - the server transport of the request.
+	 * @param requestContext - any request context information you might want to add that can be
+	 * used by exception builders in the event of an exception being thrown from a service or in
+	 * the context of a service request/response.
+	 */
+	protected void callService(NettyServerTransport serverTransport, Map<String, String> requestContext) {
+		this.manager.dispatch(serverTransport, requestContext);
+	}
+
+	/**
+	 * Method dispatch calls the service of a request on the worker pool, or answers it busy, then
+	 * runs the completion, which writes the response.
+	 */
+	void dispatch(final NettyServerTransport transport, final Runnable completion) {
+
+		Runnable call = new Runnable() {
+			public void run() {
+				try {
+					callService(transport, new HashMap<String, String>());
+				} finally {
+					completion.run();
+				}
+			}
+		};
+
+		try {
+			this.workers.execute(call);
+		} catch (RejectedExecutionException e) {
+			if (this.rejectionPolicy == RejectionPolicy.CALLER_RUNS && !this.stopped) {
+				call.run();
+				return;
+			}
+			try {
+				transport.write(
+					Code.UNEXPECTED_ERROR,
+					ServerBusyException.createServiceError("Server is busy, the request was not processed"));
+			} finally {
+				completion.run();
+			}
+		}
+
+	}
+
+	private void initConnection(SocketChannel channel) {
+
+		this.connections.add(channel);
+		ChannelPipeline pipeline = channel.pipeline();
+		if (this.idleTimeout > 0) {
+			pipeline.addLast("idle", new IdleStateHandler(0, 0, this.idleTimeout, TimeUnit.MILLISECONDS));
+		}
+		// responses written while the connection is read are flushed together, pipelined ones in
+		// one write
+		pipeline.addLast("flush", new FlushConsolidationHandler(FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
+		pipeline.addLast("detector", new ProtocolDetector(this));
+
+	}
+
+	private void closeListener() {
+
+		this.stopped = true;
+		Channel listener;
+		synchronized (this) {
+			listener = this.listener;
+		}
+		if (listener != null) {
+			listener.close().awaitUninterruptibly();
+		}
+
+	}
+
+}
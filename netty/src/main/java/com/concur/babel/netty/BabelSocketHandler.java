@@ -0,0 +1,178 @@
+package com.concur.babel.netty;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.timeout.IdleStateEvent;
+
+import com.concur.babel.transport.server.BabelServerTransport.Code;
+import com.concur.babel.transport.socket.BinaryFrames;
+import com.concur.babel.transport.socket.SocketFrames;
+
+/**
+ * BabelSocketHandler calls the services for the requests of a babel socket connection on the worker
+ * pool of the server and writes their responses, in the order they complete.  The response head is
+ * written from a buffer of its own in front of the message, which is not copied.  Reading stops
+ * while the maximum number of requests is in flight, a legacy connection is closed once its one
+ * request was answered and an idle multiplexed connection is sent a GOAWAY.
+ */
+class BabelSocketHandler extends ChannelInboundHandlerAdapter {
+
+	private static final Logger LOGGER = Logger.getLogger(BabelSocketHandler.class.getName());
+	private static final byte[] CRLF = new byte[] { '\r', '\n' };
+
+	private final BabelNettyServer server;
+	private final ChannelInfo info;
+	private final BabelFrameDecoder.Format format;
+	private final int maxInFlight;
+	private int inFlight = 0;
+	private long lastRequestId = 0;
+
+	BabelSocketHandler(BabelNettyServer server, ChannelInfo info, BabelFrameDecoder.Format format, int maxInFlight) {
+
+		this.server = server;
+		this.info = info;
+		this.format = format;
+		this.maxInFlight = maxInFlight;
+
+	}
+
+	@Override
+	public void channelRead(final ChannelHandlerContext ctx, Object msg) {
+
+		final NettyRequest request = (NettyRequest)msg;
+		this.lastRequestId = request.getRequestId();
+		if (++this.inFlight >= this.maxInFlight) {
+			// pipelined requests wait in the socket buffers, then the client, until one completes
+			ctx.channel().config().setAutoRead(false);
+		}
+
+		final NettyServerTransport transport = new NettyServerTransport(
+			this.info,
+			request.getServiceName(),
+			request.getMethodName(),
+			request.getHeaders(),
+			request.getBody(),
+			ctx.alloc(),
+			this.server.getProtocol(),
+			true);
+		this.server.dispatch(transport, new Runnable() {
+			public void run() {
+				request.release();
+				respond(ctx, request.getRequestId(), transport);
+			}
+		});
+
+	}
+
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object event) throws Exception {
+
+		if (!(event instanceof IdleStateEvent)) {
+			super.userEventTriggered(ctx, event);
+			return;
+		}
+		if (this.inFlight > 0) {
+			// a request still in flight keeps the connection open, its client is waiting
+			return;
+		}
+		if (this.format == BabelFrameDecoder.Format.LEGACY) {
+			ctx.close();
+			return;
+		}
+		// requests that cross the GOAWAY are dropped, the client resends them
+		ctx.channel().config().setAutoRead(false);
+		ctx.writeAndFlush(this.encodeGoAway(ctx.alloc())).addListener(ChannelFutureListener.CLOSE);
+
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+
+		LOGGER.log(Level.FINE, "Babel socket connection from " + this.info.getRemoteIpAddress() + " failed", cause);
+		ctx.close();
+
+	}
+
+	private void respond(final ChannelHandlerContext ctx, long requestId, NettyServerTransport transport) {
+
+		Code code = transport.getResponseCode() != null ? transport.getResponseCode() : Code.UNEXPECTED_ERROR;
+		ByteBuf body = transport.takeResponse();
+		if (body == null) {
+			// socket responses always carry a message, like those of the core socket servers
+			body = ctx.alloc().buffer();
+			ByteBufUtil.writeUtf8(body, this.server.getProtocol().write(null));
+		}
+		ByteBuf frame = this.encodeResponse(ctx.alloc(), requestId, code.getValue(), body);
+		if (this.format == BabelFrameDecoder.Format.LEGACY) {
+			ctx.writeAndFlush(frame).addListener(ChannelFutureListener.CLOSE);
+			return;
+		}
+		ctx.writeAndFlush(frame);
+
+		// the count is kept by the event loop, the response may have been written by a worker
+		if (ctx.executor().inEventLoop()) {
+			this.requestCompleted(ctx);
+		} else {
+			ctx.executor().execute(new Runnable() {
+				public void run() {
+					requestCompleted(ctx);
+				}
+			});
+		}
+
+	}
+
+	private void requestCompleted(ChannelHandlerContext ctx) {
+
+		if (this.inFlight-- >= this.maxInFlight) {
+			ctx.channel().config().setAutoRead(true);
+		}
+
+	}
+
+	private ByteBuf encodeResponse(ByteBufAllocator allocator, long requestId, int status, ByteBuf body) {
+
+		CompositeByteBuf frame = allocator.compositeBuffer(3);
+		if (this.format == BabelFrameDecoder.Format.BINARY) {
+			ByteBuf head = allocator.buffer(BinaryFrames.RESPONSE_HEAD_LENGTH);
+			BinaryFrames.putResponseHead(
+				head.nioBuffer(0, BinaryFrames.RESPONSE_HEAD_LENGTH),
+				requestId,
+				status,
+				body.readableBytes());
+			head.writerIndex(BinaryFrames.RESPONSE_HEAD_LENGTH);
+			return frame.addComponents(true, head, body);
+		}
+
+		ByteBuf head = allocator.buffer(32);
+		if (this.format == BabelFrameDecoder.Format.LINES) {
+			ByteBufUtil.writeAscii(head, Long.toString(requestId));
+			head.writeBytes(CRLF);
+		}
+		ByteBufUtil.writeAscii(head, Integer.toString(status));
+		head.writeBytes(CRLF);
+		return frame.addComponents(true, head, body, allocator.buffer(2).writeBytes(CRLF));
+
+	}
+
+	private ByteBuf encodeGoAway(ByteBufAllocator allocator) {
+
+		ByteBuf frame = allocator.buffer();
+		if (this.format == BabelFrameDecoder.Format.BINARY) {
+			frame.writeBytes(BinaryFrames.encodeGoAway(this.lastRequestId));
+		} else {
+			ByteBufUtil.writeAscii(frame, SocketFrames.GOAWAY + " " + this.lastRequestId + "\r\n");
+		}
+		return frame;
+
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.concur.babel.netty;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import io.netty.channel.Channel;
+
+/**
+ * ChannelInfo holds the metadata of a connection for the requests it carries, each value is looked
+ * up once, when first asked for, the host name takes a reverse DNS lookup.
+ */
+class ChannelInfo {
+
+	private final Channel channel;
+	private volatile String localHostName;
+	private volatile String localIpAddress;
+	private volatile String remoteIpAddress;
+
+	ChannelInfo(Channel channel) {
+		this.channel = channel;
+	}
+
+	String getLocalHostName() {
+
+		InetSocketAddress address = inetAddress(this.channel.localAddress());
+		if (this.localHostName == null && address != null) {
+			this.localHostName = address.getAddress().getCanonicalHostName();
+		}
+		return this.localHostName;
+
+	}
+
+	String getLocalIpAddress() {
+
+		InetSocketAddress address = inetAddress(this.channel.localAddress());
+		if (this.localIpAddress == null && address != null) {
+			this.localIpAddress = address.getAddress().getHostAddress();
+		}
+		return this.localIpAddress;
+
+	}
+
+	String getRemoteIpAddress() {
+
+		InetSocketAddress address = inetAddress(this.channel.remoteAddress());
+		if (this.remoteIpAddress == null && address != null) {
+			this.remoteIpAddress = address.getAddress().getHostAddress();
+		}
+		return this.remoteIpAddress;
+
+	}
+
+	int getLocalPort() {
+
+		InetSocketAddress address = inetAddress(this.channel.localAddress());
+		return address != null ? address.getPort() : 0;
+
+	}
+
+	private static InetSocketAddress inetAddress(SocketAddress address) {
+		return address instanceof InetSocketAddress ? (InetSocketAddress)address : null;
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.concur.babel.netty;
+
+import java.util.concurrent.ThreadFactory;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * EventLoops creates the event loop groups of a BabelNettyServer, on epoll where the native
+ * transport is available, Linux with the netty-transport-native-epoll library, and on NIO
+ * everywhere else.
+ */
+public final class EventLoops {
+
+	private EventLoops() {
+	}
+
+	/**
+	 * @return true if the native epoll transport can be used.
+	 */
+	public static boolean isEpollAvailable() {
+		return Epoll.isAvailable();
+	}
+
+	/**
+	 * Method newGroup creates an event loop group of daemon threads.
+	 *
+	 * @param threads - the number of threads, 0 for the netty default of twice the processors.
+	 * @param name - the prefix of the thread names.
+	 */
+	public static EventLoopGroup newGroup(int threads, String name) {
+
+		ThreadFactory threadFactory = new DefaultThreadFactory(name, true);
+		return isEpollAvailable() ?
+			new EpollEventLoopGroup(threads, threadFactory) :
+			new NioEventLoopGroup(threads, threadFactory);
+
+	}
+
+	/**
+	 * @return the server channel class matching the transport of the group.
+	 */
+	public static Class<? extends ServerChannel> serverChannelClass(EventLoopGroup group) {
+		return group instanceof EpollEventLoopGroup ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+	}
+
+}
@@ -0,0 +1,236 @@
+package com.concur.babel.netty;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.timeout.IdleStateEvent;
+
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.transport.server.BabelServerTransport.Code;
+
+/**
+ * HttpRequestHandler calls the services for the HTTP/1.1 requests of a connection, the service and
+ * method are the last two segments of the path, as for a BabelServlet.  Pipelined requests are
+ * called at once, on the worker pool of the server, and their responses are held until those of
+ * the requests before them were written, HTTP answers in order.  The connection is kept alive
+ * unless the client or a draining server asks for it to be closed.
+ */
+class HttpRequestHandler extends ChannelInboundHandlerAdapter {
+
+	private static final Logger LOGGER = Logger.getLogger(HttpRequestHandler.class.getName());
+
+	private final BabelNettyServer server;
+	private final ChannelInfo info;
+	private final Map<Long, Response> ready = new HashMap<Long, Response>();
+	private long nextSequence = 0;
+	private long nextToWrite = 0;
+	private boolean closing = false;
+
+	HttpRequestHandler(BabelNettyServer server, ChannelInfo info) {
+
+		this.server = server;
+		this.info = info;
+
+	}
+
+	@Override
+	public void channelRead(final ChannelHandlerContext ctx, Object msg) {
+
+		final FullHttpRequest request = (FullHttpRequest)msg;
+		final long sequence = this.nextSequence++;
+		if (this.closing) {
+			// the requests after one whose response closes the connection are not answered
+			request.release();
+			return;
+		}
+		if (this.nextSequence - this.nextToWrite >= this.server.getMaxInFlight()) {
+			ctx.channel().config().setAutoRead(false);
+		}
+
+		final boolean keepAlive = HttpUtil.isKeepAlive(request);
+		if (request.decoderResult().isFailure()) {
+			request.release();
+			this.completed(ctx, sequence, new Response(this.newResponse(HttpResponseStatus.BAD_REQUEST, null), false));
+			return;
+		}
+
+		List<String> segments = this.pathSegments(request.uri());
+		if (segments.size() < 2) {
+			request.release();
+			this.completed(ctx, sequence, new Response(this.newResponse(HttpResponseStatus.NOT_FOUND, null), keepAlive));
+			return;
+		}
+
+		final NettyServerTransport transport = new NettyServerTransport(
+			this.info,
+			segments.get(segments.size() - 2),
+			segments.get(segments.size() - 1),
+			this.headers(request.headers()),
+			request.content(),
+			ctx.alloc(),
+			this.server.getProtocol(),
+			false);
+		this.server.dispatch(transport, new Runnable() {
+			public void run() {
+				request.release();
+				Code code = transport.getResponseCode() != null ? transport.getResponseCode() : Code.UNEXPECTED_ERROR;
+				FullHttpResponse response = newResponse(HttpResponseStatus.valueOf(code.getValue()), transport.takeResponse());
+				// the client should open its next connection to a server that is not going away
+				completed(ctx, sequence, new Response(response, keepAlive && !server.getManager().isDraining()));
+			}
+		});
+
+	}
+
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object event) throws Exception {
+
+		if (!(event instanceof IdleStateEvent)) {
+			super.userEventTriggered(ctx, event);
+			return;
+		}
+		if (this.nextToWrite == this.nextSequence) {
+			ctx.close();
+		}
+
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+
+		for (Response response : this.ready.values()) {
+			response.message.release();
+		}
+		this.ready.clear();
+		super.channelInactive(ctx);
+
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+
+		LOGGER.log(Level.FINE, "Babel HTTP connection from " + this.info.getRemoteIpAddress() + " failed", cause);
+		ctx.close();
+
+	}
+
+	private void completed(final ChannelHandlerContext ctx, final long sequence, final Response response) {
+
+		if (!ctx.executor().inEventLoop()) {
+			ctx.executor().execute(new Runnable() {
+				public void run() {
+					completed(ctx, sequence, response);
+				}
+			});
+			return;
+		}
+		if (!ctx.channel().isActive()) {
+			response.message.release();
+			return;
+		}
+
+		this.ready.put(sequence, response);
+		boolean written = false;
+		Response next;
+		while (!this.closing && (next = this.ready.remove(this.nextToWrite)) != null) {
+			this.nextToWrite++;
+			written = true;
+			ChannelFuture future = ctx.write(next.message);
+			if (!next.keepAlive) {
+				this.closing = true;
+				future.addListener(ChannelFutureListener.CLOSE);
+			}
+		}
+		if (written) {
+			ctx.flush();
+			if (!this.closing && !ctx.channel().config().isAutoRead()) {
+				ctx.channel().config().setAutoRead(true);
+			}
+		}
+
+	}
+
+	private FullHttpResponse newResponse(HttpResponseStatus status, ByteBuf body) {
+
+		FullHttpResponse response = new DefaultFullHttpResponse(
+			HttpVersion.HTTP_1_1,
+			status,
+			body != null ? body : Unpooled.EMPTY_BUFFER);
+		if (this.server.getProtocol() instanceof JSONProtocol) {
+			response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json;charset=UTF-8");
+		}
+		response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+		return response;
+
+	}
+
+	private List<String> pathSegments(String uri) {
+
+		String path = new QueryStringDecoder(uri).path();
+		List<String> segments = new ArrayList<String>();
+		for (String segment : path.split("/")) {
+			if (segment.length() > 0) {
+				segments.add(segment);
+			}
+		}
+		return segments;
+
+	}
+
+	private Map<String, String> headers(HttpHeaders httpHeaders) {
+
+		// header names are case insensitive, as they are for a servlet
+		Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		for (Map.Entry<String, String> header : httpHeaders) {
+			try {
+				headers.put(header.getKey(), URLDecoder.decode(header.getValue(), "UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			} catch (IllegalArgumentException e) {
+				// a header the client did not encode, such as a user agent with a % in it
+				headers.put(header.getKey(), header.getValue());
+			}
+		}
+		return headers;
+
+	}
+
+	private static class Response {
+
+		private final FullHttpResponse message;
+		private final boolean keepAlive;
+
+		Response(FullHttpResponse message, boolean keepAlive) {
+
+			this.message = message;
+			this.keepAlive = keepAlive;
+			message.headers().set(HttpHeaderNames.CONNECTION, keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+
+		}
+
+	}
+
+}
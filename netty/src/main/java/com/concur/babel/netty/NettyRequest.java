@@ -0,0 +1,51 @@
+package com.concur.babel.netty;
+
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * NettyRequest is a request read from a babel socket connection, its message stays in the buffer it
+ * was read into until the service method is read from it.  The message must be released once the
+ * request was dispatched.
+ */
+class NettyRequest {
+
+	private final long requestId;
+	private final Map<String, String> headers;
+	private final String serviceName;
+	private final String methodName;
+	private final ByteBuf body;
+
+	NettyRequest(long requestId, Map<String, String> headers, String serviceName, String methodName, ByteBuf body) {
+
+		this.requestId = requestId;
+		this.headers = headers;
+		this.serviceName = serviceName;
+		this.methodName = methodName;
+		this.body = body;
+
+	}
+
+	long getRequestId() { return this.requestId; }
+
+	Map<String, String> getHeaders() { return this.headers; }
+
+	String getServiceName() { return this.serviceName; }
+
+	String getMethodName() { return this.methodName; }
+
+	/**
+	 * @return the message, null if the request has none.
+	 */
+	ByteBuf getBody() { return this.body; }
+
+	void release() {
+
+		if (this.body != null) {
+			this.body.release();
+		}
+
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.concur.babel.netty;
+
+import static com.concur.babel.ArgValidator.notNull;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Set;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import com.concur.babel.ServiceMethod;
+import com.concur.babel.protocol.Protocol;
+import com.concur.babel.protocol.ProtocolStreams;
+import com.concur.babel.transport.BaseTransport;
+import com.concur.babel.transport.server.BabelServerTransport;
+
+/**
+ * NettyServerTransport is the server transport for a request received by a BabelNettyServer, over
+ * HTTP or a babel socket connection.  The service method is read straight from the buffer the
+ * request was received in and the response is written straight into a buffer of the channel, so
+ * neither message is copied into a String.  They are only decoded into one if getMessage or
+ * getResponseMessage asks for them, for logging.  HTTP bodies are the bytes of the stream methods of
+ * the protocol, see ProtocolStreams, babel socket connections carry messages as UTF-8 text.
+ */
+public class NettyServerTransport extends BabelServerTransport {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ChannelInfo connection;
+	private final String serviceName;
+	private final String methodName;
+	private final Map<String, String> headers;
+	private final ByteBuf body;
+	private final ByteBufAllocator allocator;
+	private final boolean text;
+	private final boolean isDebugging;
+	private String message;
+	private ByteBuf response;
+	private String responseMessage;
+	private Code responseCode;
+
+	NettyServerTransport(
+		ChannelInfo connection,
+		String serviceName,
+		String methodName,
+		Map<String, String> headers,
+		ByteBuf body,
+		ByteBufAllocator allocator,
+		Protocol protocol,
+		boolean text)
+	{
+
+		super(protocol);
+		notNull("connection", connection);
+		notNull("headers", headers);
+		notNull("allocator", allocator);
+		this.connection = connection;
+		this.serviceName = serviceName;
+		this.methodName = methodName;
+		this.headers = headers;
+		this.body = body;
+		this.allocator = allocator;
+		this.text = text;
+		this.isDebugging = Boolean.parseBoolean(headers.get(BaseTransport.DEBUG_HEADER));
+
+	}
+
+	@Override
+	public void write(Code code, Object src) {
+
+		this.responseCode = code;
+		this.responseMessage = null;
+		if (this.response != null) {
+			// an error answered after the response was written replaces it
+			this.response.release();
+			this.response = null;
+		}
+		if (src == null) {
+			return;
+		}
+
+		ByteBuf buffer = this.allocator.buffer();
+		try {
+			if (this.text) {
+				Writer writer = new OutputStreamWriter(new ByteBufOutputStream(buffer), UTF8);
+				ProtocolStreams.write(this.protocol, src, writer);
+				writer.flush();
+			} else {
+				ProtocolStreams.write(this.protocol, src, new ByteBufOutputStream(buffer));
+			}
+		} catch (IOException e) {
+			buffer.release();
+			throw new RuntimeException("Unable to write the response", e);
+		} catch (RuntimeException e) {
+			buffer.release();
+			throw e;
+		}
+		this.response = buffer;
+		if (this.isDebugging()) {
+			this.log("Babel Write Message: " + this.getResponseMessage());
+		}
+
+	}
+
+	public ServiceMethod read(Class<? extends ServiceMethod> clazz) {
+
+		if (this.isDebugging()) {
+			this.log("Babel Read Message: " + this.getMessage());
+		}
+
+		ServiceMethod serviceMethod = null;
+		if (this.body != null && this.text) {
+			serviceMethod = this.protocol.read(
+				new InputStreamReader(new ByteBufInputStream(this.body.duplicate()), UTF8),
+				clazz);
+		} else if (this.body != null) {
+			serviceMethod = ProtocolStreams.read(this.protocol, new ByteBufInputStream(this.body.duplicate()), clazz);
+		}
+		if (serviceMethod == null) {
+			throw new RuntimeException("Unable to parse babel service call json for " +
+				this.serviceName + "-" + this.methodName);
+		}
+		return serviceMethod;
+
+	}
+
+	public String getServiceName() { return this.serviceName; }
+
+	public String getMethodName() { return this.methodName; }
+
+	public String getMessage() {
+
+		if (this.message == null && this.body != null) {
+			this.message = this.body.toString(this.getCharset());
+		}
+		return this.message;
+
+	}
+
+	public String getResponseMessage() {
+
+		if (this.responseMessage == null && this.response != null) {
+			this.responseMessage = this.response.toString(this.getCharset());
+		}
+		return this.responseMessage;
+
+	}
+
+	public Code getResponseCode() { return this.responseCode; }
+
+	public String getHeader(String name) { return this.headers.get(name); }
+
+	public Set<String> getHeaderNames() { return this.headers.keySet(); }
+
+	public Map<String, String> getHeaders() { return this.headers; }
+
+	public String getLocalHostName() { return this.connection.getLocalHostName(); }
+
+	public String getLocalIpAddress() { return this.connection.getLocalIpAddress(); }
+
+	public String getRemoteIpAddress() { return this.connection.getRemoteIpAddress(); }
+
+	public int getPort() { return this.connection.getLocalPort(); }
+
+	protected boolean isDebugging() { return this.isDebugging; }
+
+	private Charset getCharset() { return this.text ? UTF8 : ProtocolStreams.getCharset(this.protocol); }
+
+	/**
+	 * Method takeResponse hands over the buffer of the response, null if none was written or it had
+	 * no message.  The caller must write or release it.
+	 */
+	ByteBuf takeResponse() {
+
+		ByteBuf response = this.response;
+		this.response = null;
+		return response;
+
+	}
+
+}
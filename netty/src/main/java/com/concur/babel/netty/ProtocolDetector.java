@@ -0,0 +1,95 @@
+package com.concur.babel.netty;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerExpectContinueHandler;
+import io.netty.util.ByteProcessor;
+
+import com.concur.babel.transport.socket.BinaryFrames;
+import com.concur.babel.transport.socket.SocketFrames;
+
+/**
+ * ProtocolDetector tells from the first bytes of a connection what it speaks and replaces itself
+ * with the handlers for it.  A binary connection starts with the MAGIC byte of BinaryFrames, a
+ * multiplexed one with the PREFACE line of SocketFrames and an HTTP one with a request line, any
+ * other first line is the header line of a legacy request.
+ */
+class ProtocolDetector extends ByteToMessageDecoder {
+
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	private final BabelNettyServer server;
+
+	ProtocolDetector(BabelNettyServer server) {
+		this.server = server;
+	}
+
+	@Override
+	protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+
+		if (!in.isReadable()) {
+			return;
+		}
+
+		ChannelPipeline pipeline = ctx.pipeline();
+		ChannelInfo info = new ChannelInfo(ctx.channel());
+		int maxContentLength = this.server.getMaxContentLength();
+
+		if (in.getByte(in.readerIndex()) == BinaryFrames.MAGIC) {
+			this.addSocketHandlers(pipeline, info, BabelFrameDecoder.Format.BINARY, maxContentLength);
+			pipeline.remove(this);
+			return;
+		}
+
+		int lf = in.forEachByte(ByteProcessor.FIND_LF);
+		if (lf == -1) {
+			if (in.readableBytes() > maxContentLength) {
+				throw new TooLongFrameException("The first line of the connection is longer than " + maxContentLength);
+			}
+			return;
+		}
+		int length = lf - in.readerIndex();
+		if (length > 0 && in.getByte(lf - 1) == '\r') {
+			length--;
+		}
+		String firstLine = in.toString(in.readerIndex(), length, US_ASCII);
+
+		if (SocketFrames.PREFACE.equals(firstLine)) {
+			in.readerIndex(lf + 1);
+			this.addSocketHandlers(pipeline, info, BabelFrameDecoder.Format.LINES, maxContentLength);
+		} else if (firstLine.endsWith(" HTTP/1.1") || firstLine.endsWith(" HTTP/1.0")) {
+			pipeline.addLast("http-codec", new HttpServerCodec());
+			pipeline.addLast("http-continue", new HttpServerExpectContinueHandler());
+			pipeline.addLast("http-decompressor", new HttpContentDecompressor());
+			pipeline.addLast("http-aggregator", new HttpObjectAggregator(maxContentLength));
+			pipeline.addLast("babel-http", new HttpRequestHandler(this.server, info));
+		} else {
+			this.addSocketHandlers(pipeline, info, BabelFrameDecoder.Format.LEGACY, maxContentLength);
+		}
+		// the bytes not read yet are handed to the handlers just added
+		pipeline.remove(this);
+
+	}
+
+	private void addSocketHandlers(
+		ChannelPipeline pipeline,
+		ChannelInfo info,
+		BabelFrameDecoder.Format format,
+		int maxContentLength)
+	{
+
+		pipeline.addLast("babel-decoder", new BabelFrameDecoder(format, maxContentLength));
+		pipeline.addLast("babel-socket", new BabelSocketHandler(this.server, info, format, this.server.getMaxInFlight()));
+
+	}
+
+}
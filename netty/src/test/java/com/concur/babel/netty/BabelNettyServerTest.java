@@ -0,0 +1,290 @@
+package com.concur.babel.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.concur.babel.exception.BabelException;
+import com.concur.babel.protocol.BinaryProtocol;
+import com.concur.babel.protocol.JSONProtocol;
+import com.concur.babel.test.model.Result;
+import com.concur.babel.test.model.Tweet;
+import com.concur.babel.test.service.BlockingTweetService;
+import com.concur.babel.test.service.TweetService;
+import com.concur.babel.test.service.TweetServiceImpl;
+import com.concur.babel.transport.HttpTransport;
+import com.concur.babel.transport.SocketTransport;
+import com.concur.babel.transport.server.ServerBusyException;
+import com.concur.babel.transport.socket.FrameFormat;
+import com.concur.babel.transport.socket.WorkerPool;
+
+@RunWith(JUnit4.class)
+public class BabelNettyServerTest {
+
+	private BabelNettyServer server;
+
+	@Before
+	public void startServer() {
+
+		this.server = new BabelNettyServer(0, new JSONProtocol());
+		this.server.register(new TweetService.Invoker(new TweetServiceImpl()));
+		this.server.setIdleTimeout(200);
+		this.server.setIoThreads(2);
+		this.server.bind();
+
+	}
+
+	@After
+	public void stopServer() {
+		SocketTransport.closeConnections();
+		this.server.stop();
+	}
+
+	@Test
+	public void testHttpCallsRoundTrip() {
+		this.assertRoundTrip(new TweetService.Client("http://127.0.0.1:" + this.server.getPort() + "/babel"));
+	}
+
+	@Test
+	public void testLegacyCallsRoundTrip() {
+		this.assertRoundTrip(new TweetService.Client(
+			new SocketTransport("127.0.0.1", this.server.getPort(), new JSONProtocol())));
+	}
+
+	@Test
+	public void testMultiplexedCallsRoundTrip() throws Exception {
+
+		SocketTransport transport = new SocketTransport("127.0.0.1", this.server.getPort(), new JSONProtocol());
+		transport.setMultiplexed(true);
+		this.assertRoundTrip(new TweetService.Client(transport));
+
+		// the server sent GOAWAY on the idle connection, the next call opens a new one
+		Thread.sleep(500);
+		assertEquals(1, new TweetService.Client(transport).getAllTweets().size());
+
+	}
+
+	@Test
+	public void testBinaryCallsRoundTrip() throws Exception {
+
+		SocketTransport transport = new SocketTransport("127.0.0.1", this.server.getPort(), new JSONProtocol());
+		transport.setFrameFormat(FrameFormat.BINARY);
+		this.assertRoundTrip(new TweetService.Client(transport));
+
+		Thread.sleep(500);
+		assertEquals(1, new TweetService.Client(transport).getAllTweets().size());
+
+	}
+
+	@Test
+	public void testBinaryProtocolOverHttpAndBinaryFrames() {
+
+		BabelNettyServer server = new BabelNettyServer(0, new BinaryProtocol());
+		server.register(new TweetService.Invoker(new TweetServiceImpl()));
+		server.bind();
+		try {
+			// HTTP bodies are the bytes of the protocol, socket frames carry its messages as text
+			TweetService.Client http = new TweetService.Client(
+				new HttpTransport("http://127.0.0.1:" + server.getPort() + "/babel", new BinaryProtocol()));
+			SocketTransport transport = new SocketTransport("127.0.0.1", server.getPort(), new BinaryProtocol());
+			transport.setFrameFormat(FrameFormat.BINARY);
+			TweetService.Client socket = new TweetService.Client(transport);
+
+			Tweet tweet = new Tweet();
+			tweet.setText("naïve");
+			assertEquals(Result.SUCCESS, http.postTweet(1, tweet, false).getResult());
+			assertEquals("naïve", http.getAllTweets().get(0).getText());
+			assertEquals("naïve", socket.getAllTweets().get(0).getText());
+			try {
+				http.recentTweets(1);
+				fail("Expected a BabelException");
+			} catch (BabelException e) {
+				assertEquals("9999", e.getServiceError().getErrors().get(0).getCode());
+			}
+		} finally {
+			server.stop();
+		}
+
+	}
+
+	@Test
+	public void testPipelinedHttpRequestsAnsweredInOrder() throws Exception {
+
+		Socket socket = new Socket("127.0.0.1", this.server.getPort());
+		StringBuilder requests = new StringBuilder();
+		for (int i = 0; i < 3; i++) {
+			requests.append("POST /babel/TweetService/getAllTweets HTTP/1.1\r\n")
+				.append("Host: localhost\r\n")
+				.append("Content-Length: 2\r\n")
+				.append(i == 2 ? "Connection: close\r\n" : "")
+				.append("\r\n{}");
+		}
+		socket.getOutputStream().write(requests.toString().getBytes("UTF-8"));
+		socket.getOutputStream().flush();
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+		for (int i = 0; i < 3; i++) {
+			assertEquals("HTTP/1.1 200 OK", reader.readLine());
+			String connection = null;
+			for (String line = reader.readLine(); line.length() > 0; line = reader.readLine()) {
+				if (line.toLowerCase().startsWith("connection:")) {
+					connection = line.substring("connection:".length()).trim();
+				}
+			}
+			assertEquals(i == 2 ? "close" : "keep-alive", connection);
+			char[] body = new char[2];
+			assertEquals(2, reader.read(body));
+			assertEquals("[]", new String(body));
+		}
+		assertEquals(-1, reader.read());
+		socket.close();
+
+	}
+
+	@Test
+	public void testUnknownHttpPathAnswersNotFound() throws Exception {
+
+		Socket socket = new Socket("127.0.0.1", this.server.getPort());
+		socket.getOutputStream().write("GET /babel HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes("UTF-8"));
+		socket.getOutputStream().flush();
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+		assertEquals("HTTP/1.1 404 Not Found", reader.readLine());
+		socket.close();
+
+	}
+
+	@Test
+	public void testIdleMultiplexedConnectionGoesAway() throws Exception {
+
+		Socket socket = new Socket("127.0.0.1", this.server.getPort());
+		socket.getOutputStream().write(
+			"BABEL-MUX/1\r\n7\r\nx=1\r\nTweetService||getAllTweets\r\n{}\r\n".getBytes("UTF-8"));
+		socket.getOutputStream().flush();
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+		assertEquals("7", reader.readLine());
+		assertEquals("200", reader.readLine());
+		assertEquals("[]", reader.readLine());
+		assertEquals("GOAWAY 7", reader.readLine());
+		assertEquals(null, reader.readLine());
+		socket.close();
+
+		for (int i = 0; i < 100 && this.server.getConnectionCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, this.server.getConnectionCount());
+
+	}
+
+	@Test
+	public void testShutdownDrainsRequestsInFlight() throws Exception {
+
+		final BlockingTweetService blocking = new BlockingTweetService();
+		final BabelNettyServer draining = new BabelNettyServer(0, new JSONProtocol());
+		draining.register(new TweetService.Invoker(blocking));
+		draining.bind();
+
+		final SocketTransport transport = new SocketTransport("127.0.0.1", draining.getPort(), new JSONProtocol());
+		transport.setMultiplexed(true);
+		transport.setMaxConnections(1);
+		final List<?>[] result = new List<?>[1];
+		Thread caller = new Thread(new Runnable() {
+			public void run() {
+				result[0] = new TweetService.Client(transport).getAllTweets();
+			}
+		});
+		caller.start();
+		assertTrue(blocking.awaitStarted(1, 2000));
+		assertEquals(1, draining.getInFlightCount());
+
+		Thread releaser = new Thread(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				blocking.release();
+			}
+		});
+		releaser.start();
+		assertTrue(draining.shutdown(2, TimeUnit.SECONDS));
+		caller.join(2000);
+		assertEquals(0, result[0].size());
+		assertEquals(0, draining.getInFlightCount());
+
+	}
+
+	@Test
+	public void testFullWorkerPoolAnswersBusy() throws Exception {
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final BabelNettyServer busy = new BabelNettyServer(0, new JSONProtocol(), new WorkerPool(1, 0, "test-worker")) {
+			protected void callService(NettyServerTransport serverTransport, Map<String, String> requestContext) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.callService(serverTransport, requestContext);
+			}
+		};
+		busy.register(new TweetService.Invoker(new TweetServiceImpl()));
+		busy.bind();
+
+		try {
+			final String url = "http://127.0.0.1:" + busy.getPort() + "/babel";
+			Thread first = new Thread(new Runnable() {
+				public void run() {
+					new TweetService.Client(url).getAllTweets();
+				}
+			});
+			first.start();
+			assertTrue(started.await(2, TimeUnit.SECONDS));
+
+			try {
+				new TweetService.Client(url).getAllTweets();
+				fail("the worker pool should be full");
+			} catch (BabelException e) {
+				assertEquals(ServerBusyException.ERROR_CODE, e.getServiceError().getErrors().get(0).getCode());
+			}
+			assertEquals(1, busy.getWorkerPool().getRejectedCount());
+
+			release.countDown();
+			first.join(2000);
+		} finally {
+			release.countDown();
+			busy.stop();
+		}
+
+	}
+
+	private void assertRoundTrip(TweetService.Client client) {
+
+		Tweet tweet = new Tweet();
+		tweet.setText("naïve || line=break");
+
+		assertEquals(Result.SUCCESS, client.postTweet(1, tweet, false).getResult());
+		assertEquals("naïve || line=break", client.getAllTweets().get(0).getText());
+		client.deleteTweet(1, 2);
+
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.concur.babel.test.service;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.concur.babel.test.model.Tweet;
+
+/**
+ * BlockingTweetService holds every getAllTweets call until it is released, so a test can see the
+ * calls in flight.  The invokers call a service reflectively, which is why a test uses this public
+ * class rather than an anonymous one.
+ */
+public class BlockingTweetService extends TweetServiceImpl {
+
+	private final CountDownLatch released = new CountDownLatch(1);
+	private int startedCount;
+
+	@Override
+	public List<Tweet> getAllTweets() {
+
+		synchronized (this) {
+			this.startedCount++;
+			this.notifyAll();
+		}
+		try {
+			this.released.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return super.getAllTweets();
+
+	}
+
+	/**
+	 * Method release lets the calls held and every later call through.
+	 */
+	public void release() {
+		this.released.countDown();
+	}
+
+	/**
+	 * @return the number of getAllTweets calls that started, held or not.
+	 */
+	public synchronized int getStartedCount() {
+		return this.startedCount;
+	}
+
+	/**
+	 * Method awaitStarted waits until a number of getAllTweets calls started.
+	 *
+	 * @param count - the number of calls to wait for.
+	 * @param timeoutMillis - how long to wait.
+	 * @return true if they started, false if the time ran out.
+	 */
+	public synchronized boolean awaitStarted(int count, long timeoutMillis) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (this.startedCount < count) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			this.wait(remaining);
+		}
+		return true;
+
+	}
+
+}